@@ -420,6 +420,7 @@ public class Defaults {
         actions.addClass("isea", ISEAAction.class);
         actions.addClass("odpp", ODPPAction.class);
         actions.addClass("elf-dump", ELFDumpAction.class);
+        actions.addClass("decode-trace", DecodeTraceAction.class);
 
         // plug in a new help category for actions accesible with "-help
         // actions"
@@ -84,6 +84,11 @@ public class AnalyzeStackAction extends Action
                     + "with very large analyses. By reserving some space up front, there is space "
                     + "left so that post mortem graph analysis can be run. The units given are "
                     + "megabytes.");
+    public final Option.Long THREADS = newOption("threads", 0,
+            "This option specifies the number of worker threads that explore the abstract "
+                    + "state space in parallel. The maximum stack depth does not depend on the number "
+                    + "of threads. When this option is set to zero, one worker thread is created for "
+                    + "each available processor.");
 
 
     /**
@@ -119,6 +124,9 @@ public class AnalyzeStackAction extends Action
         Analyzer.TRACE = TRACE.get();
         Analyzer.USE_ISEA = USE_ISEA.get();
         Analyzer.SHOW_PATH = SHOW_PATH.get();
+        int threads = (int) THREADS.get();
+        Analyzer.THREADS = threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
         Analyzer.reserve = new byte[(int) (RESERVE.get() * MEGABYTES)];
         Analyzer a = new Analyzer(p);
 
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.actions;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+
+import edu.ucla.cs.compilers.avrora.avrora.Main;
+import edu.ucla.cs.compilers.avrora.avrora.arch.AbstractInstr;
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import edu.ucla.cs.compilers.avrora.avrora.core.SourceMapping;
+import edu.ucla.cs.compilers.avrora.avrora.sim.output.TraceFile;
+import edu.ucla.cs.compilers.avrora.avrora.sim.util.SimUtil;
+import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
+import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
+import edu.ucla.cs.compilers.avrora.cck.util.Option;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>DecodeTraceAction</code> class implements an action that prints a
+ * binary instruction trace written by the "trace" monitor. The programs of the
+ * nodes are loaded from the files recorded in the trace so that the
+ * instructions can be disassembled.
+ */
+public class DecodeTraceAction extends Action
+{
+
+    public static final String HELP = "The \"decode-trace\" action reads a binary instruction trace "
+            + "written by the \"trace\" monitor with the \"trace-file\" option and prints it in the "
+            + "same format as the trace monitor. The name of the trace file is given as the argument.";
+
+    public final Option.List FROMTO = newOptionList("trace-from", "",
+            "The \"trace-from\" option specifies the list of program point pairs for which "
+                    + "to print the trace. Printing is enabled when the first point is entered "
+                    + "and disabled when the second point is reached. Nesting of multiple point pairs "
+                    + "is handled correctly.");
+
+    protected final HashMap<Integer, Node> nodes = new HashMap<Integer, Node>();
+    protected final HashMap<String, Program> programs = new HashMap<String, Program>();
+
+    /**
+     * The <code>Node</code> class holds the decoding state of a single node.
+     */
+    protected class Node
+    {
+        final int id;
+        final long hz;
+        final Program program;
+        final int[] starts;
+        final int[] ends;
+        int nesting;
+        boolean printing;
+        int nextpc;
+
+
+        Node(int id, long hz, Program p)
+        {
+            this.id = id;
+            this.hz = hz;
+            this.program = p;
+            List<String> pairs = FROMTO.get();
+            starts = new int[pairs.size()];
+            ends = new int[pairs.size()];
+            int cntr = 0;
+            for (String str : pairs)
+            {
+                int ind = str.indexOf(':');
+                if (ind <= 0)
+                    throw Util.failure(
+                            "invalid address format: " + StringUtil.quote(str));
+                starts[cntr] = getAddress(str.substring(0, ind));
+                ends[cntr] = getAddress(str.substring(ind + 1));
+                cntr++;
+            }
+        }
+
+
+        private int getAddress(String src)
+        {
+            SourceMapping.Location loc = null;
+            if (program != null)
+                loc = program.getSourceMapping().getLocation(src);
+            else if (StringUtil.isHex(src))
+                return StringUtil.evaluateIntegerLiteral(src);
+            if (loc == null)
+                Util.userError("Invalid program address: ", src);
+            return loc.lma_addr;
+        }
+
+
+        boolean enter(int pc)
+        {
+            if (starts.length == 0)
+                return true;
+            for (int cntr = 0; cntr < starts.length; cntr++)
+            {
+                if (starts[cntr] == pc)
+                    nesting++;
+            }
+            return nesting > 0;
+        }
+
+
+        void leave(int pc)
+        {
+            for (int cntr = 0; cntr < ends.length; cntr++)
+            {
+                if (ends[cntr] == pc && nesting > 0)
+                    nesting--;
+            }
+        }
+    }
+
+    protected class Printer implements TraceFile.Visitor
+    {
+        @Override
+        public void node(int node, long hz, String program)
+        {
+            nodes.put(node, new Node(node, hz, getProgram(program)));
+        }
+
+
+        @Override
+        public void instr(int node, long time, int pc)
+        {
+            Node n = nodes.get(node);
+            n.printing = n.enter(pc);
+            if (n.printing)
+            {
+                StringBuffer buf = new StringBuffer(100);
+                SimUtil.toIDTimeString(buf, node, time, n.hz);
+                int color = pc == n.nextpc ? Terminal.COLOR_BLUE
+                        : Terminal.COLOR_CYAN;
+                Terminal.append(color, buf, StringUtil.to0xHex(pc, 4));
+                AbstractInstr i = n.program == null ? null
+                        : n.program.readInstr(pc);
+                if (i != null)
+                {
+                    buf.append(": ");
+                    buf.append(i.toString());
+                    n.nextpc = pc + i.getSize();
+                }
+                Terminal.println(buf.toString());
+            }
+            n.leave(pc);
+        }
+
+
+        @Override
+        public void register(int node, int reg, byte value)
+        {
+            if (nodes.get(node).printing)
+            {
+                String name = reg < 32 ? "r" + reg : "SREG";
+                Terminal.println("                      " + name + " = "
+                        + StringUtil.to0xHex(value & 0xff, 2));
+            }
+        }
+
+
+        @Override
+        public void memory(int node, int address, byte value)
+        {
+            if (nodes.get(node).printing)
+            {
+                Terminal.println("                      ["
+                        + StringUtil.to0xHex(address, 4) + "] <- "
+                        + StringUtil.to0xHex(value & 0xff, 2));
+            }
+        }
+
+
+        @Override
+        public void mark(int node, long time, String text)
+        {
+            Node n = nodes.get(node);
+            if (n.starts.length == 0 || n.nesting > 0)
+            {
+                StringBuffer buf = new StringBuffer(100);
+                SimUtil.toIDTimeString(buf, node, time, n.hz);
+                buf.append(text);
+                Terminal.println(buf.toString());
+            }
+        }
+    }
+
+
+    /**
+     * The default constructor of the <code>DecodeTraceAction</code> class
+     * simply creates an empty instance with the appropriate name and help
+     * string.
+     */
+    public DecodeTraceAction()
+    {
+        super(HELP);
+    }
+
+
+    /**
+     * The <code>run()</code> method reads the trace file given as the first
+     * argument and prints its records.
+     *
+     * @param args
+     *            the command line arguments after the options have been
+     *            stripped out
+     * @throws Exception
+     *             if the trace file or one of the programs cannot be read
+     */
+    @Override
+    public void run(String[] args) throws Exception
+    {
+        if (args.length < 1)
+            Util.userError("no trace file specified");
+        Main.checkFileExists(args[0]);
+        TraceFile.read(args[0], new Printer());
+        Terminal.flush();
+    }
+
+
+    protected Program getProgram(String path)
+    {
+        if (!programs.containsKey(path))
+        {
+            Program p = null;
+            if (path.length() > 0 && new File(path).exists())
+            {
+                try
+                {
+                    p = Main.loadProgram(new String[] { path });
+                }
+                catch (Exception e)
+                {
+                    Util.userError("Cannot load program", path);
+                }
+            }
+            programs.put(path, p);
+        }
+        return programs.get(path);
+    }
+}
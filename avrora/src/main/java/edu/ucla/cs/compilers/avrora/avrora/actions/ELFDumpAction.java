@@ -41,6 +41,7 @@ import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -163,7 +164,13 @@ public class ELFDumpAction extends Action
         String fname = args[0];
         Main.checkFileExists(fname);
 
-        RandomAccessFile fis = new RandomAccessFile(fname, "r");
+        RandomAccessFile file = new RandomAccessFile(fname, "r");
+        ByteBuffer fis;
+        try {
+            fis = ELFLoader.map(file);
+        } finally {
+            file.close();
+        }
 
         try {
             // read the ELF header
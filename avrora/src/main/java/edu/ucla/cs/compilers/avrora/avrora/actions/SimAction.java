@@ -33,6 +33,7 @@ import edu.ucla.cs.compilers.avrora.avrora.monitors.Monitor;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.State;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.RippleSynchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.util.SimUtil;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.text.TermUtil;
@@ -144,6 +145,11 @@ public class SimAction extends Action {
             double thru = ((double) aggCycles) / (diff * 1000);
             TermUtil.reportQuantity("Total throughput", (float) thru, "mhz");
             if (nn > 1) TermUtil.reportQuantity("Throughput per node", (float) (thru / nn), "mhz");
+            if (sim.getSynchronizer() instanceof RippleSynchronizer) {
+                RippleSynchronizer synch = (RippleSynchronizer) sim.getSynchronizer();
+                TermUtil.reportQuantity("Time blocked", (float) (synch.getBlockedTime() / 1.0e9), "seconds");
+                TermUtil.reportQuantity("Blocking waits", synch.getBlockedCount(), "");
+            }
         }
     }
 
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.arch.legacy;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The <code>LegacyBasicBlocks</code> class pre-decodes the code of a
+ * <code>LegacyInterpreter</code> into straight-line basic blocks. A block is a
+ * run of instructions that only read and write the general purpose registers
+ * and the arithmetic flags, optionally ended by a single branch or jump. Such
+ * instructions cannot interact with devices, memory, or the interrupt state,
+ * so the interpreter can execute a whole block and advance the clock once at
+ * its end, provided that no event is due before the block ends.
+ *
+ * <p>
+ * Blocks are decoded lazily, the first time execution reaches an address, and
+ * are indexed by their first address, so a jump into the middle of another
+ * block simply starts a shorter one. Instructions that are wrapped, e.g. by a
+ * probe, never belong to a block; the code segment reports every replaced
+ * instruction through <code>invalidate()</code>.
+ */
+final class LegacyBasicBlocks
+{
+
+    /**
+     * The <code>MAX_LENGTH</code> field bounds the number of instructions in a
+     * block, which in turn bounds the work of invalidating a changed address.
+     */
+    static final int MAX_LENGTH = 32;
+
+    private static final int MAX_SIZE = 4;
+    private static final int LENGTH_BITS = 8;
+    private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+
+    // an entry for an address that starts no block of two or more instructions
+    private static final int NONE = 1;
+
+    private static final Set<Class<?>> straight = new HashSet<Class<?>>(
+            Arrays.<Class<?>> asList(LegacyInstr.ADC.class,
+                    LegacyInstr.ADD.class, LegacyInstr.ADIW.class,
+                    LegacyInstr.AND.class, LegacyInstr.ANDI.class,
+                    LegacyInstr.ASR.class, LegacyInstr.BLD.class,
+                    LegacyInstr.BST.class, LegacyInstr.CBR.class,
+                    LegacyInstr.CLC.class, LegacyInstr.CLH.class,
+                    LegacyInstr.CLN.class, LegacyInstr.CLR.class,
+                    LegacyInstr.CLS.class, LegacyInstr.CLT.class,
+                    LegacyInstr.CLV.class, LegacyInstr.CLZ.class,
+                    LegacyInstr.COM.class, LegacyInstr.CP.class,
+                    LegacyInstr.CPC.class, LegacyInstr.CPI.class,
+                    LegacyInstr.DEC.class, LegacyInstr.EOR.class,
+                    LegacyInstr.FMUL.class, LegacyInstr.FMULS.class,
+                    LegacyInstr.FMULSU.class, LegacyInstr.INC.class,
+                    LegacyInstr.LDI.class, LegacyInstr.LSL.class,
+                    LegacyInstr.LSR.class, LegacyInstr.MOV.class,
+                    LegacyInstr.MOVW.class, LegacyInstr.MUL.class,
+                    LegacyInstr.MULS.class, LegacyInstr.MULSU.class,
+                    LegacyInstr.NEG.class, LegacyInstr.NOP.class,
+                    LegacyInstr.OR.class, LegacyInstr.ORI.class,
+                    LegacyInstr.ROL.class, LegacyInstr.ROR.class,
+                    LegacyInstr.SBC.class, LegacyInstr.SBCI.class,
+                    LegacyInstr.SBIW.class, LegacyInstr.SBR.class,
+                    LegacyInstr.SEC.class, LegacyInstr.SEH.class,
+                    LegacyInstr.SEN.class, LegacyInstr.SER.class,
+                    LegacyInstr.SES.class, LegacyInstr.SET.class,
+                    LegacyInstr.SEV.class, LegacyInstr.SEZ.class,
+                    LegacyInstr.SUB.class, LegacyInstr.SUBI.class,
+                    LegacyInstr.SWAP.class, LegacyInstr.TST.class));
+
+    // conditional branches take one extra cycle when taken
+    private static final Set<Class<?>> branches = new HashSet<Class<?>>(
+            Arrays.<Class<?>> asList(LegacyInstr.BRBC.class,
+                    LegacyInstr.BRBS.class, LegacyInstr.BRCC.class,
+                    LegacyInstr.BRCS.class, LegacyInstr.BREQ.class,
+                    LegacyInstr.BRGE.class, LegacyInstr.BRHC.class,
+                    LegacyInstr.BRHS.class, LegacyInstr.BRID.class,
+                    LegacyInstr.BRIE.class, LegacyInstr.BRLO.class,
+                    LegacyInstr.BRLT.class, LegacyInstr.BRMI.class,
+                    LegacyInstr.BRNE.class, LegacyInstr.BRPL.class,
+                    LegacyInstr.BRSH.class, LegacyInstr.BRTC.class,
+                    LegacyInstr.BRTS.class, LegacyInstr.BRVC.class,
+                    LegacyInstr.BRVS.class));
+
+    private static final Set<Class<?>> jumps = new HashSet<Class<?>>(
+            Arrays.<Class<?>> asList(LegacyInstr.JMP.class,
+                    LegacyInstr.RJMP.class));
+
+    // one entry per instruction word: (cycles << LENGTH_BITS) | length,
+    // or 0 if the address has not been decoded yet
+    private final int[] entries;
+
+
+    LegacyBasicBlocks(int size)
+    {
+        entries = new int[(size + 1) / 2];
+    }
+
+
+    /**
+     * The <code>lookup()</code> method returns the block that starts at the
+     * specified address, decoding it if necessary. The result encodes the
+     * number of instructions in the block and the maximum number of cycles
+     * they take; use <code>length()</code> and <code>cycles()</code> to
+     * extract them.
+     *
+     * @param code
+     *            the instructions of the code segment
+     * @param pc
+     *            the address of the first instruction of the block
+     * @return the encoded block starting at the specified address
+     */
+    int lookup(LegacyInstr[] code, int pc)
+    {
+        int entry = entries[pc >> 1];
+        if (entry == 0)
+        {
+            entry = decode(code, pc);
+            entries[pc >> 1] = entry;
+        }
+        return entry;
+    }
+
+
+    static int length(int entry)
+    {
+        return entry & LENGTH_MASK;
+    }
+
+
+    static int cycles(int entry)
+    {
+        return entry >>> LENGTH_BITS;
+    }
+
+
+    /**
+     * The <code>invalidate()</code> method discards every block that contains
+     * the instruction at the specified address. It is called whenever that
+     * instruction is replaced.
+     *
+     * @param address
+     *            the address of the instruction that changed
+     */
+    void invalidate(int address)
+    {
+        Arrays.fill(entries, firstAffected(address), (address >> 1) + 1, 0);
+    }
+
+
+    /**
+     * The <code>firstAffected()</code> method returns the index of the first
+     * block that may contain the instruction at the specified address.
+     *
+     * @param address
+     *            the address of an instruction
+     * @return the index, i.e. half the address, of the first block that may
+     *         contain the instruction
+     */
+    static int firstAffected(int address)
+    {
+        return Math.max(0, (address >> 1) - MAX_LENGTH * MAX_SIZE / 2);
+    }
+
+
+    private static int decode(LegacyInstr[] code, int pc)
+    {
+        int length = 0;
+        int cycles = 0;
+        int addr = pc;
+        while (length < MAX_LENGTH && addr < code.length)
+        {
+            LegacyInstr i = code[addr];
+            if (i == null)
+                break;
+            Class<?> c = i.getClass();
+            if (straight.contains(c))
+            {
+                length++;
+                cycles += i.properties.cycles;
+                addr += i.properties.size;
+            } else
+            {
+                if (branches.contains(c))
+                {
+                    length++;
+                    cycles += i.properties.cycles + 1;
+                } else if (jumps.contains(c))
+                {
+                    length++;
+                    cycles += i.properties.cycles;
+                }
+                break;
+            }
+        }
+        if (length < 2)
+            return NONE;
+        return cycles << LENGTH_BITS | length;
+    }
+}
@@ -0,0 +1,1876 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.arch.legacy;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>LegacyBlockCompiler</code> class translates a basic block of the
+ * program into the bytes of a JVM class that extends
+ * <code>LegacyCompiledBlock</code>. The generated <code>run()</code> method
+ * loads the registers and flags used by the block into local variables,
+ * computes the effect of each instruction exactly like the corresponding
+ * <code>visit()</code> method of <code>LegacyInterpreter</code>, and stores
+ * the changed registers and flags back at the end.
+ *
+ * <p>
+ * The flags are computed with integer arithmetic, and a conditional branch at
+ * the end of a block selects its target the same way, so the generated code
+ * contains no jumps. The classes are emitted in version 49 of the class file
+ * format, which the JVM verifies without stack map frames.
+ *
+ * @see LegacyBasicBlocks
+ */
+final class LegacyBlockCompiler implements LegacyInstrVisitor
+{
+
+    private static final String SUPER_CLASS = "edu/ucla/cs/compilers/avrora/avrora/arch/legacy/LegacyCompiledBlock";
+
+    // the opcodes of the JVM instructions used by the generated code
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD = 0x19;
+    private static final int BALOAD = 0x33;
+    private static final int ISTORE = 0x36;
+    private static final int BASTORE = 0x54;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int ISHL = 0x78;
+    private static final int LSHL = 0x79;
+    private static final int ISHR = 0x7a;
+    private static final int IUSHR = 0x7c;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int LOR = 0x81;
+    private static final int IXOR = 0x82;
+    private static final int I2L = 0x85;
+    private static final int I2B = 0x91;
+    private static final int LRETURN = 0xad;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+
+    // the flags, numbered like their bits in SREG
+    private static final int C = LegacyState.SREG_C;
+    private static final int Z = LegacyState.SREG_Z;
+    private static final int N = LegacyState.SREG_N;
+    private static final int V = LegacyState.SREG_V;
+    private static final int S = LegacyState.SREG_S;
+    private static final int H = LegacyState.SREG_H;
+    private static final int T = LegacyState.SREG_T;
+    private static final int I = LegacyState.SREG_I;
+
+    // the local variables of the run() method
+    private static final int REGS = 1;
+    private static final int FLAGS = 2;
+    private static final int REG_BASE = 3;
+    private static final int FLAG_BASE = REG_BASE + 32;
+    private static final int A = FLAG_BASE + 8;
+    private static final int B = A + 1;
+    private static final int CARRY = B + 1;
+    private static final int RESULT = CARRY + 1;
+    private static final int TAKEN = RESULT + 1;
+    private static final int MAX_LOCALS = TAKEN + 1;
+    private static final int MAX_STACK = 8;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final boolean[] regUsed = new boolean[32];
+    private final boolean[] regWritten = new boolean[32];
+    private final boolean[] flagUsed = new boolean[8];
+    private final boolean[] flagWritten = new boolean[8];
+
+    private ByteArrayOutputStream code;
+    private int pc;
+    private int nextPC;
+    private int cycles;
+    private boolean branch;
+    private int target;
+
+
+    private LegacyBlockCompiler()
+    {
+    }
+
+
+    /**
+     * The <code>compile()</code> method generates a class that executes the
+     * specified block.
+     *
+     * @param name
+     *            the binary name of the class, with slashes
+     * @param instrs
+     *            the instructions of the code segment
+     * @param start
+     *            the address of the first instruction of the block
+     * @param length
+     *            the number of instructions in the block
+     * @return the bytes of the class file
+     */
+    static byte[] compile(String name, LegacyInstr[] instrs, int start,
+            int length)
+    {
+        return new LegacyBlockCompiler().translate(name, instrs, start, length);
+    }
+
+
+    private byte[] translate(String name, LegacyInstr[] instrs, int start,
+            int length)
+    {
+        code = body;
+        pc = start;
+        for (int k = 0; k < length; k++)
+        {
+            LegacyInstr i = instrs[pc];
+            nextPC = pc + i.properties.size;
+            cycles += i.properties.cycles;
+            i.accept(this);
+            pc = nextPC;
+        }
+
+        ByteArrayOutputStream run = new ByteArrayOutputStream();
+        code = run;
+        for (int r = 0; r < regUsed.length; r++)
+        {
+            if (!regUsed[r])
+                continue;
+            op(ALOAD, REGS);
+            konst(r);
+            op(BALOAD);
+            konst(255);
+            op(IAND);
+            store(REG_BASE + r);
+        }
+        for (int f = 0; f < flagUsed.length; f++)
+        {
+            if (!flagUsed[f])
+                continue;
+            op(ALOAD, FLAGS);
+            konst(f);
+            op(BALOAD);
+            store(FLAG_BASE + f);
+        }
+        byte[] b = body.toByteArray();
+        run.write(b, 0, b.length);
+        for (int r = 0; r < regWritten.length; r++)
+        {
+            if (!regWritten[r])
+                continue;
+            op(ALOAD, REGS);
+            konst(r);
+            load(REG_BASE + r);
+            op(I2B);
+            op(BASTORE);
+        }
+        for (int f = 0; f < flagWritten.length; f++)
+        {
+            if (!flagWritten[f])
+                continue;
+            op(ALOAD, FLAGS);
+            konst(f);
+            load(FLAG_BASE + f);
+            op(BASTORE);
+        }
+
+        // return (cycles << 32) | nextPC, where a taken branch adds a cycle
+        konst(cycles);
+        if (branch)
+        {
+            load(TAKEN);
+            op(IADD);
+        }
+        op(I2L);
+        konst(32);
+        op(LSHL);
+        if (branch)
+        {
+            load(TAKEN);
+            konst(target);
+            op(IMUL);
+            konst(nextPC);
+            op(IADD);
+        } else
+            konst(nextPC);
+        op(I2L);
+        op(LOR);
+        op(LRETURN);
+
+        return classFile(name, run.toByteArray());
+    }
+
+
+    private byte[] classFile(String name, byte[] runCode)
+    {
+        int thisClass = pool.classRef(name);
+        int superClass = pool.classRef(SUPER_CLASS);
+        int init = pool.utf8("<init>");
+        int voidType = pool.utf8("()V");
+        int superInit = pool.methodRef(superClass, init, voidType);
+        int run = pool.utf8("run");
+        int runType = pool.utf8("([B[Z)J");
+        int codeAttr = pool.utf8("Code");
+
+        ByteArrayOutputStream initCode = new ByteArrayOutputStream();
+        initCode.write(0x2a); // aload_0
+        initCode.write(INVOKESPECIAL);
+        u2(initCode, superInit);
+        initCode.write(RETURN);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        u4(out, 0xCAFEBABE);
+        u2(out, 0);
+        u2(out, 49);
+        pool.write(out);
+        u2(out, 0x0031); // public final super
+        u2(out, thisClass);
+        u2(out, superClass);
+        u2(out, 0); // interfaces
+        u2(out, 0); // fields
+        u2(out, 2); // methods
+        method(out, 0x0001, init, voidType, codeAttr, 1, 1,
+                initCode.toByteArray());
+        method(out, 0x0001, run, runType, codeAttr, MAX_STACK, MAX_LOCALS,
+                runCode);
+        u2(out, 0); // attributes
+        return out.toByteArray();
+    }
+
+
+    private static void method(ByteArrayOutputStream out, int access,
+            int name, int type, int codeAttr, int maxStack, int maxLocals,
+            byte[] bytecode)
+    {
+        u2(out, access);
+        u2(out, name);
+        u2(out, type);
+        u2(out, 1);
+        u2(out, codeAttr);
+        u4(out, 12 + bytecode.length);
+        u2(out, maxStack);
+        u2(out, maxLocals);
+        u4(out, bytecode.length);
+        out.write(bytecode, 0, bytecode.length);
+        u2(out, 0); // exception table
+        u2(out, 0); // attributes
+    }
+
+
+    private static void u2(ByteArrayOutputStream out, int v)
+    {
+        out.write(v >> 8);
+        out.write(v);
+    }
+
+
+    private static void u4(ByteArrayOutputStream out, int v)
+    {
+        u2(out, v >>> 16);
+        u2(out, v);
+    }
+
+
+    private void op(int opcode)
+    {
+        code.write(opcode);
+    }
+
+
+    private void op(int opcode, int operand)
+    {
+        code.write(opcode);
+        code.write(operand);
+    }
+
+
+    private void konst(int v)
+    {
+        if (v >= -1 && v <= 5)
+            op(ICONST_0 + v);
+        else if (v == (byte) v)
+            op(BIPUSH, v);
+        else if (v == (short) v)
+        {
+            op(SIPUSH);
+            u2(code, v);
+        } else
+        {
+            op(LDC_W);
+            u2(code, pool.integer(v));
+        }
+    }
+
+
+    private void load(int local)
+    {
+        op(ILOAD, local);
+    }
+
+
+    private void store(int local)
+    {
+        op(ISTORE, local);
+    }
+
+
+    private void reg(LegacyRegister r)
+    {
+        reg(r.getNumber());
+    }
+
+
+    private void reg(int r)
+    {
+        regUsed[r] = true;
+        load(REG_BASE + r);
+    }
+
+
+    private void signedReg(LegacyRegister r)
+    {
+        reg(r);
+        konst(24);
+        op(ISHL);
+        konst(24);
+        op(ISHR);
+    }
+
+
+    private void setReg(LegacyRegister r)
+    {
+        setReg(r.getNumber());
+    }
+
+
+    private void setReg(int r)
+    {
+        // registers are kept as unsigned values in the locals
+        konst(255);
+        op(IAND);
+        regUsed[r] = true;
+        regWritten[r] = true;
+        store(REG_BASE + r);
+    }
+
+
+    private void word(int r)
+    {
+        reg(r);
+        reg(r + 1);
+        konst(8);
+        op(ISHL);
+        op(IOR);
+        store(A);
+    }
+
+
+    private void setWord(int r)
+    {
+        load(RESULT);
+        setReg(r);
+        load(RESULT);
+        konst(8);
+        op(ISHR);
+        setReg(r + 1);
+    }
+
+
+    private void flag(int f)
+    {
+        flagUsed[f] = true;
+        load(FLAG_BASE + f);
+    }
+
+
+    private void setFlag(int f)
+    {
+        flagUsed[f] = true;
+        flagWritten[f] = true;
+        store(FLAG_BASE + f);
+    }
+
+
+    private void setFlag(int f, boolean on)
+    {
+        konst(on ? 1 : 0);
+        setFlag(f);
+    }
+
+
+    private void bit(int b)
+    {
+        if (b != 0)
+        {
+            konst(b);
+            op(IUSHR);
+        }
+        konst(1);
+        op(IAND);
+    }
+
+
+    private void not(int mask)
+    {
+        konst(mask);
+        op(IXOR);
+    }
+
+
+    private void isZero(int mask)
+    {
+        // ((v & mask) - 1) >>> 31 is 1 exactly if v & mask is zero
+        konst(mask);
+        op(IAND);
+        konst(1);
+        op(ISUB);
+        konst(31);
+        op(IUSHR);
+    }
+
+
+    private void signFlag()
+    {
+        flag(N);
+        flag(V);
+        op(IXOR);
+        setFlag(S);
+    }
+
+
+    private void operands(LegacyRegister a, LegacyRegister b, boolean carry)
+    {
+        reg(a);
+        store(A);
+        reg(b);
+        store(B);
+        carry(carry);
+    }
+
+
+    private void operands(LegacyRegister a, int imm, boolean carry)
+    {
+        reg(a);
+        store(A);
+        konst(imm);
+        store(B);
+        carry(carry);
+    }
+
+
+    private void carry(boolean carry)
+    {
+        if (carry)
+            flag(C);
+        else
+            konst(0);
+        store(CARRY);
+    }
+
+
+    private void add()
+    {
+        load(A);
+        load(B);
+        op(IADD);
+        load(CARRY);
+        op(IADD);
+        store(RESULT);
+        load(A);
+        konst(15);
+        op(IAND);
+        load(B);
+        konst(15);
+        op(IAND);
+        op(IADD);
+        load(CARRY);
+        op(IADD);
+        bit(4);
+        setFlag(H);
+        load(RESULT);
+        bit(8);
+        setFlag(C);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        load(RESULT);
+        isZero(255);
+        setFlag(Z);
+        // overflow if both operands differ in sign from the result
+        load(A);
+        load(RESULT);
+        op(IXOR);
+        load(B);
+        load(RESULT);
+        op(IXOR);
+        op(IAND);
+        bit(7);
+        setFlag(V);
+        signFlag();
+    }
+
+
+    private void subtract(boolean keepZ)
+    {
+        load(A);
+        load(B);
+        op(ISUB);
+        load(CARRY);
+        op(ISUB);
+        store(RESULT);
+        borrow(3);
+        setFlag(H);
+        borrow(7);
+        setFlag(C);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        load(RESULT);
+        isZero(255);
+        if (keepZ)
+        {
+            flag(Z);
+            op(IAND);
+        }
+        setFlag(Z);
+        // overflow if the operands differ in sign and the result does not
+        // have the sign of the first operand
+        load(A);
+        load(B);
+        op(IXOR);
+        load(A);
+        load(RESULT);
+        op(IXOR);
+        op(IAND);
+        bit(7);
+        setFlag(V);
+        signFlag();
+    }
+
+
+    private void borrow(int b)
+    {
+        // !a & b | b & r | r & !a
+        load(A);
+        not(-1);
+        load(B);
+        op(IAND);
+        load(B);
+        load(RESULT);
+        op(IAND);
+        op(IOR);
+        load(RESULT);
+        load(A);
+        not(-1);
+        op(IAND);
+        op(IOR);
+        bit(b);
+    }
+
+
+    private void logic(LegacyRegister r)
+    {
+        store(RESULT);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        load(RESULT);
+        isZero(255);
+        setFlag(Z);
+        setFlag(V, false);
+        signFlag();
+        load(RESULT);
+        setReg(r);
+    }
+
+
+    private void increment(int overflow, LegacyRegister r)
+    {
+        store(RESULT);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        load(RESULT);
+        isZero(255);
+        setFlag(Z);
+        load(A);
+        not(overflow);
+        isZero(255);
+        setFlag(V);
+        signFlag();
+        load(RESULT);
+        setReg(r);
+    }
+
+
+    private void leftFlags(LegacyRegister r)
+    {
+        store(RESULT);
+        load(RESULT);
+        bit(4);
+        setFlag(H);
+        load(RESULT);
+        bit(8);
+        setFlag(C);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        shiftFlags(r);
+    }
+
+
+    private void shiftFlags(LegacyRegister r)
+    {
+        load(RESULT);
+        isZero(255);
+        setFlag(Z);
+        flag(N);
+        flag(C);
+        op(IXOR);
+        setFlag(V);
+        signFlag();
+        load(RESULT);
+        setReg(r);
+    }
+
+
+    private void multiply()
+    {
+        op(IMUL);
+        store(RESULT);
+        load(RESULT);
+        bit(15);
+        setFlag(C);
+        product();
+    }
+
+
+    private void fractional()
+    {
+        op(IMUL);
+        konst(1);
+        op(ISHL);
+        store(RESULT);
+        load(RESULT);
+        bit(16);
+        setFlag(C);
+        product();
+    }
+
+
+    private void product()
+    {
+        load(RESULT);
+        isZero(0xFFFF);
+        setFlag(Z);
+        setWord(0);
+    }
+
+
+    private void branch(int f, boolean set, int offset)
+    {
+        flag(f);
+        if (!set)
+            not(1);
+        store(TAKEN);
+        branch = true;
+        target = offset * 2;
+    }
+
+
+    private Util.InternalError unsupported(LegacyInstr i)
+    {
+        return Util.failure("cannot compile instruction " + i.getName()
+                + " at " + pc);
+    }
+
+    /**
+     * The <code>ConstantPool</code> class collects the constants of the
+     * generated class file.
+     */
+    private static final class ConstantPool
+    {
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final Map<String, Integer> indices = new HashMap<String, Integer>();
+        private int count = 1;
+
+
+        int utf8(String s)
+        {
+            Integer index = indices.get("U" + s);
+            if (index != null)
+                return index;
+            entries.write(1);
+            byte[] b;
+            try
+            {
+                b = s.getBytes("UTF-8");
+            }
+            catch (java.io.UnsupportedEncodingException e)
+            {
+                throw Util.unexpected(e);
+            }
+            u2(entries, b.length);
+            entries.write(b, 0, b.length);
+            return add("U" + s);
+        }
+
+
+        int integer(int v)
+        {
+            Integer index = indices.get("I" + v);
+            if (index != null)
+                return index;
+            entries.write(3);
+            u4(entries, v);
+            return add("I" + v);
+        }
+
+
+        int classRef(String name)
+        {
+            int n = utf8(name);
+            Integer index = indices.get("C" + name);
+            if (index != null)
+                return index;
+            entries.write(7);
+            u2(entries, n);
+            return add("C" + name);
+        }
+
+
+        int methodRef(int owner, int name, int type)
+        {
+            entries.write(12);
+            u2(entries, name);
+            u2(entries, type);
+            int nameAndType = add("N" + count);
+            entries.write(10);
+            u2(entries, owner);
+            u2(entries, nameAndType);
+            return add("M" + count);
+        }
+
+
+        private int add(String key)
+        {
+            indices.put(key, count);
+            return count++;
+        }
+
+
+        void write(ByteArrayOutputStream out)
+        {
+            u2(out, count);
+            byte[] b = entries.toByteArray();
+            out.write(b, 0, b.length);
+        }
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ADC i)
+    {
+        operands(i.r1, i.r2, true);
+        add();
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ADD i)
+    {
+        operands(i.r1, i.r2, false);
+        add();
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ADIW i)
+    {
+        int r = i.r1.getNumber();
+        word(r);
+        load(A);
+        konst(i.imm1);
+        op(IADD);
+        store(RESULT);
+        load(RESULT);
+        not(-1);
+        load(A);
+        op(IAND);
+        bit(15);
+        setFlag(C);
+        load(RESULT);
+        bit(15);
+        setFlag(N);
+        load(A);
+        not(-1);
+        load(RESULT);
+        op(IAND);
+        bit(15);
+        setFlag(V);
+        load(RESULT);
+        isZero(0xFFFF);
+        setFlag(Z);
+        signFlag();
+        setWord(r);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.AND i)
+    {
+        reg(i.r1);
+        reg(i.r2);
+        op(IAND);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ANDI i)
+    {
+        reg(i.r1);
+        konst(i.imm1);
+        op(IAND);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ASR i)
+    {
+        reg(i.r1);
+        store(A);
+        load(A);
+        konst(1);
+        op(ISHR);
+        load(A);
+        konst(128);
+        op(IAND);
+        op(IOR);
+        store(RESULT);
+        load(A);
+        bit(0);
+        setFlag(C);
+        load(A);
+        bit(7);
+        setFlag(N);
+        shiftFlags(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BCLR i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BLD i)
+    {
+        reg(i.r1);
+        konst(~(1 << i.imm1));
+        op(IAND);
+        flag(T);
+        konst(i.imm1);
+        op(ISHL);
+        op(IOR);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRBC i)
+    {
+        branch(i.imm1, false, i.imm2);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRBS i)
+    {
+        branch(i.imm1, true, i.imm2);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRCC i)
+    {
+        branch(C, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRCS i)
+    {
+        branch(C, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BREAK i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BREQ i)
+    {
+        branch(Z, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRGE i)
+    {
+        branch(S, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRHC i)
+    {
+        branch(H, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRHS i)
+    {
+        branch(H, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRID i)
+    {
+        branch(I, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRIE i)
+    {
+        branch(I, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRLO i)
+    {
+        branch(C, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRLT i)
+    {
+        branch(S, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRMI i)
+    {
+        branch(N, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRNE i)
+    {
+        branch(Z, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRPL i)
+    {
+        branch(N, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRSH i)
+    {
+        branch(C, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRTC i)
+    {
+        branch(T, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRTS i)
+    {
+        branch(T, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRVC i)
+    {
+        branch(V, false, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BRVS i)
+    {
+        branch(V, true, i.imm1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BSET i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.BST i)
+    {
+        reg(i.r1);
+        bit(i.imm1);
+        setFlag(T);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CALL i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CBI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CBR i)
+    {
+        reg(i.r1);
+        konst(~i.imm1);
+        op(IAND);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLC i)
+    {
+        setFlag(C, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLH i)
+    {
+        setFlag(H, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLN i)
+    {
+        setFlag(N, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLR i)
+    {
+        konst(0);
+        setReg(i.r1);
+        setFlag(S, false);
+        setFlag(V, false);
+        setFlag(N, false);
+        setFlag(Z, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLS i)
+    {
+        setFlag(S, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLT i)
+    {
+        setFlag(T, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLV i)
+    {
+        setFlag(V, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CLZ i)
+    {
+        setFlag(Z, false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.COM i)
+    {
+        konst(255);
+        reg(i.r1);
+        op(ISUB);
+        store(RESULT);
+        setFlag(C, true);
+        load(RESULT);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CP i)
+    {
+        operands(i.r1, i.r2, false);
+        subtract(false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CPC i)
+    {
+        operands(i.r1, i.r2, true);
+        subtract(true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CPI i)
+    {
+        operands(i.r1, i.imm1, false);
+        subtract(false);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.CPSE i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.DEC i)
+    {
+        reg(i.r1);
+        store(A);
+        load(A);
+        konst(1);
+        op(ISUB);
+        increment(128, i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.EICALL i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.EIJMP i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ELPM i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ELPMD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ELPMPI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.EOR i)
+    {
+        reg(i.r1);
+        reg(i.r2);
+        op(IXOR);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.FMUL i)
+    {
+        reg(i.r1);
+        reg(i.r2);
+        fractional();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.FMULS i)
+    {
+        signedReg(i.r1);
+        signedReg(i.r2);
+        fractional();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.FMULSU i)
+    {
+        signedReg(i.r1);
+        reg(i.r2);
+        fractional();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ICALL i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.IJMP i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.IN i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.INC i)
+    {
+        reg(i.r1);
+        store(A);
+        load(A);
+        konst(1);
+        op(IADD);
+        increment(127, i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.JMP i)
+    {
+        nextPC = i.imm1 * 2;
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LDD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LDI i)
+    {
+        konst(i.imm1);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LDPD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LDPI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LDS i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LPM i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LPMD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LPMPI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LSL i)
+    {
+        reg(i.r1);
+        konst(1);
+        op(ISHL);
+        leftFlags(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.LSR i)
+    {
+        reg(i.r1);
+        store(A);
+        load(A);
+        konst(1);
+        op(ISHR);
+        store(RESULT);
+        load(A);
+        bit(0);
+        setFlag(C);
+        setFlag(N, false);
+        shiftFlags(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.MOV i)
+    {
+        reg(i.r2);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.MOVW i)
+    {
+        int a = i.r1.getNumber();
+        int b = i.r2.getNumber();
+        reg(b);
+        setReg(a);
+        reg(b + 1);
+        setReg(a + 1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.MUL i)
+    {
+        reg(i.r1);
+        reg(i.r2);
+        multiply();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.MULS i)
+    {
+        signedReg(i.r1);
+        signedReg(i.r2);
+        multiply();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.MULSU i)
+    {
+        signedReg(i.r1);
+        reg(i.r2);
+        multiply();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.NEG i)
+    {
+        konst(0);
+        store(A);
+        reg(i.r1);
+        store(B);
+        konst(0);
+        store(CARRY);
+        subtract(false);
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.NOP i)
+    {
+        // nothing to do
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.OR i)
+    {
+        reg(i.r1);
+        reg(i.r2);
+        op(IOR);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ORI i)
+    {
+        reg(i.r1);
+        konst(i.imm1);
+        op(IOR);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.OUT i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.POP i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.PUSH i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.RCALL i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.RET i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.RETI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.RJMP i)
+    {
+        nextPC = i.imm1 * 2 + pc + 2;
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ROL i)
+    {
+        reg(i.r1);
+        konst(1);
+        op(ISHL);
+        flag(C);
+        op(IOR);
+        leftFlags(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ROR i)
+    {
+        reg(i.r1);
+        store(A);
+        load(A);
+        konst(1);
+        op(ISHR);
+        flag(C);
+        konst(7);
+        op(ISHL);
+        op(IOR);
+        store(RESULT);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        load(A);
+        bit(0);
+        setFlag(C);
+        shiftFlags(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBC i)
+    {
+        operands(i.r1, i.r2, true);
+        subtract(true);
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBCI i)
+    {
+        operands(i.r1, i.imm1, true);
+        subtract(true);
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBIC i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBIS i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBIW i)
+    {
+        int r = i.r1.getNumber();
+        word(r);
+        load(A);
+        konst(i.imm1);
+        op(ISUB);
+        store(RESULT);
+        load(A);
+        load(RESULT);
+        not(-1);
+        op(IAND);
+        bit(15);
+        setFlag(V);
+        load(RESULT);
+        bit(15);
+        setFlag(N);
+        load(RESULT);
+        isZero(0xFFFF);
+        setFlag(Z);
+        load(RESULT);
+        load(A);
+        not(-1);
+        op(IAND);
+        bit(15);
+        setFlag(C);
+        signFlag();
+        setWord(r);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBR i)
+    {
+        reg(i.r1);
+        konst(i.imm1);
+        op(IOR);
+        logic(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBRC i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SBRS i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SEC i)
+    {
+        setFlag(C, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SEH i)
+    {
+        setFlag(H, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SEI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SEN i)
+    {
+        setFlag(N, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SER i)
+    {
+        konst(255);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SES i)
+    {
+        setFlag(S, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SET i)
+    {
+        setFlag(T, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SEV i)
+    {
+        setFlag(V, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SEZ i)
+    {
+        setFlag(Z, true);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SLEEP i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SPM i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.ST i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.STD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.STPD i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.STPI i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.STS i)
+    {
+        throw unsupported(i);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SUB i)
+    {
+        operands(i.r1, i.r2, false);
+        subtract(false);
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SUBI i)
+    {
+        operands(i.r1, i.imm1, false);
+        subtract(false);
+        load(RESULT);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.SWAP i)
+    {
+        reg(i.r1);
+        store(A);
+        load(A);
+        konst(4);
+        op(ISHR);
+        load(A);
+        konst(4);
+        op(ISHL);
+        op(IOR);
+        setReg(i.r1);
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.TST i)
+    {
+        reg(i.r1);
+        store(RESULT);
+        setFlag(V, false);
+        load(RESULT);
+        isZero(255);
+        setFlag(Z);
+        load(RESULT);
+        bit(7);
+        setFlag(N);
+        signFlag();
+    }
+
+
+    @Override
+    public void visit(LegacyInstr.WDR i)
+    {
+        throw unsupported(i);
+    }
+}
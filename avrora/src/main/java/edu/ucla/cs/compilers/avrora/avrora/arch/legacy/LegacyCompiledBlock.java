@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.arch.legacy;
+
+/**
+ * The <code>LegacyCompiledBlock</code> class is the base class of the JVM
+ * classes that the <code>LegacyTranslator</code> generates at runtime for hot
+ * basic blocks of the program. An instance executes all instructions of one
+ * block with the registers and flags held in local variables. The class is
+ * public only because the generated classes are defined by their own class
+ * loader.
+ *
+ * @see LegacyBasicBlocks
+ */
+public abstract class LegacyCompiledBlock
+{
+
+    protected LegacyCompiledBlock()
+    {
+    }
+
+
+    /**
+     * The <code>run()</code> method executes the whole block, reading and
+     * updating the register file and the status flags.
+     *
+     * @param regs
+     *            the data memory of the interpreter, which starts with the
+     *            general purpose registers
+     * @param flags
+     *            the status flags, indexed by their bit in SREG
+     * @return the address of the next instruction in the low 32 bits and the
+     *         number of cycles consumed by the block in the high 32 bits
+     */
+    public abstract long run(byte[] regs, boolean[] flags);
+}
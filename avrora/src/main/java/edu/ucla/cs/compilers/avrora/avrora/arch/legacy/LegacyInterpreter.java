@@ -37,6 +37,7 @@ import edu.ucla.cs.compilers.avrora.avrora.core.Program;
 import edu.ucla.cs.compilers.avrora.avrora.sim.AtmelInterpreter;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Interpreter;
 import edu.ucla.cs.compilers.avrora.avrora.sim.InterpreterFactory;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.MCUProperties;
 import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
@@ -71,6 +72,22 @@ public class LegacyInterpreter extends AtmelInterpreter
 
     public static final LegacyRegister RZ = LegacyRegister.Z;
 
+    /**
+     * The <code>blocks</code> field stores the basic blocks of the program if
+     * the "basic-blocks" option is enabled, and <code>null</code> otherwise.
+     */
+    protected final LegacyBasicBlocks blocks;
+
+    /**
+     * The <code>translator</code> field stores the translator that compiles
+     * hot basic blocks to JVM classes if the "binary-translation" option is
+     * enabled, and <code>null</code> otherwise.
+     */
+    protected final LegacyTranslator translator;
+
+    // the flags passed to compiled blocks, indexed by their bit in SREG
+    private final boolean[] flags = new boolean[8];
+
 
     /**
      * The constructor for the <code>Interpreter</code> class builds the
@@ -93,6 +110,28 @@ public class LegacyInterpreter extends AtmelInterpreter
         // this class and its methods are performance critical
         // observed speedup with this call on Hotspot
         Compiler.compileClass(getClass());
+
+        Simulation sim = s.getSimulation();
+        if (sim != null && sim.BINARY_TRANSLATION.get())
+            translator = new LegacyTranslator(shared_instr.length);
+        else
+            translator = null;
+        // compiled code is built on top of the basic blocks
+        if (translator != null || sim != null && sim.BASIC_BLOCKS.get())
+            blocks = new LegacyBasicBlocks(shared_instr.length);
+        else
+            blocks = null;
+    }
+
+
+    @Override
+    protected void codeChanged(int address)
+    {
+        // the code segment may change while the superclass is constructed
+        if (blocks != null)
+            blocks.invalidate(address);
+        if (translator != null)
+            translator.invalidate(address);
     }
 
 
@@ -100,9 +139,13 @@ public class LegacyInterpreter extends AtmelInterpreter
     protected void runLoop()
     {
 
-        pc = bootPC;
-        nextPC = pc;
-        cyclesConsumed = 0;
+        if (!suspended)
+        {
+            pc = bootPC;
+            nextPC = pc;
+            cyclesConsumed = 0;
+        }
+        suspended = false;
 
         while (shouldRun)
         {
@@ -136,8 +179,12 @@ public class LegacyInterpreter extends AtmelInterpreter
             else
             {
                 if (globalProbe.isEmpty())
-                    fastLoop();
-                else
+                {
+                    if (blocks != null)
+                        blockLoop();
+                    else
+                        fastLoop();
+                } else
                     instrumentedLoop();
             }
         }
@@ -284,7 +331,7 @@ public class LegacyInterpreter extends AtmelInterpreter
 
     private void sleepLoop()
     {
-        innerLoop = true;
+        innerLoop = shouldRun;
         while (innerLoop)
         {
             clock.skipAhead();
@@ -294,7 +341,7 @@ public class LegacyInterpreter extends AtmelInterpreter
 
     private void fastLoop()
     {
-        innerLoop = true;
+        innerLoop = shouldRun;
         while (innerLoop)
         {
             LegacyInstr i = shared_instr[nextPC];
@@ -307,9 +354,79 @@ public class LegacyInterpreter extends AtmelInterpreter
     }
 
 
+    private void blockLoop()
+    {
+        innerLoop = shouldRun;
+        while (innerLoop)
+        {
+            int block = blocks.lookup(shared_instr, nextPC);
+            int length = LegacyBasicBlocks.length(block);
+            if (length > 1)
+            {
+                // the instructions of a block cannot observe the clock, so it
+                // only needs to advance at the end, unless an event is due
+                // before that; then the block is executed one by one
+                long delta = clock.getFirstEventDelta();
+                if (delta < 0 || delta >= cyclesConsumed
+                        + LegacyBasicBlocks.cycles(block))
+                {
+                    if (translator != null)
+                    {
+                        LegacyCompiledBlock b = translator
+                                .lookup(shared_instr, nextPC, length);
+                        if (b != null)
+                        {
+                            runCompiled(b);
+                            continue;
+                        }
+                    }
+                    for (; length > 1; length--)
+                    {
+                        shared_instr[nextPC].accept(this);
+                        pc = nextPC;
+                    }
+                }
+            }
+
+            LegacyInstr i = shared_instr[nextPC];
+
+            // visit the actual instruction (or probe)
+            i.accept(this);
+            // NOTE: commit() might be called twice, but this is ok
+            commit();
+        }
+    }
+
+
+    private void runCompiled(LegacyCompiledBlock b)
+    {
+        boolean[] f = flags;
+        f[LegacyState.SREG_C] = C;
+        f[LegacyState.SREG_Z] = Z;
+        f[LegacyState.SREG_N] = N;
+        f[LegacyState.SREG_V] = V;
+        f[LegacyState.SREG_S] = S;
+        f[LegacyState.SREG_H] = H;
+        f[LegacyState.SREG_T] = T;
+        f[LegacyState.SREG_I] = I;
+        long result = b.run(sram, f);
+        // compiled blocks never change the I flag
+        C = f[LegacyState.SREG_C];
+        Z = f[LegacyState.SREG_Z];
+        N = f[LegacyState.SREG_N];
+        V = f[LegacyState.SREG_V];
+        S = f[LegacyState.SREG_S];
+        H = f[LegacyState.SREG_H];
+        T = f[LegacyState.SREG_T];
+        nextPC = (int) result;
+        cyclesConsumed += (int) (result >>> 32);
+        commit();
+    }
+
+
     private void instrumentedLoop()
     {
-        innerLoop = true;
+        innerLoop = shouldRun;
         while (innerLoop)
         {
             // get the current instruction
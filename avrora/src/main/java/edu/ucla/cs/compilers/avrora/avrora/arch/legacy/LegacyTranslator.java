@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.arch.legacy;
+
+import java.util.Arrays;
+
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>LegacyTranslator</code> class profiles the basic blocks executed
+ * by a <code>LegacyInterpreter</code> and translates the hot ones into JVM
+ * classes. Each block start has an execution counter; when it reaches
+ * <code>HOT_THRESHOLD</code>, the block is compiled by the
+ * <code>LegacyBlockCompiler</code> and defined by a class loader private to
+ * this translator, so the classes can be collected together with the
+ * interpreter.
+ *
+ * <p>
+ * Compiled blocks contain the same instructions as the blocks of
+ * <code>LegacyBasicBlocks</code>, so the interpreter hands control to them
+ * under the same conditions and takes it back at the end of each block, where
+ * probes, watches, interrupts and events are handled as usual. When the code
+ * changes, e.g. because a probe is inserted or the flash is reprogrammed, the
+ * compiled blocks containing the changed address are discarded.
+ */
+final class LegacyTranslator
+{
+
+    /**
+     * The <code>HOT_THRESHOLD</code> field stores the number of executions
+     * after which a block is compiled.
+     */
+    static final int HOT_THRESHOLD = 1000;
+
+    private static final String PREFIX = "edu/ucla/cs/compilers/avrora/avrora/arch/legacy/LegacyBlock_";
+
+    private final LegacyCompiledBlock[] compiled;
+    private final int[] counts;
+    private final Loader loader = new Loader();
+    private int serial;
+
+
+    LegacyTranslator(int size)
+    {
+        compiled = new LegacyCompiledBlock[(size + 1) / 2];
+        counts = new int[compiled.length];
+    }
+
+
+    /**
+     * The <code>lookup()</code> method returns the compiled version of the
+     * block that starts at the specified address. It counts the executions of
+     * the block and compiles it once it becomes hot.
+     *
+     * @param code
+     *            the instructions of the code segment
+     * @param pc
+     *            the address of the first instruction of the block
+     * @param length
+     *            the number of instructions in the block
+     * @return the compiled block, or <code>null</code> if the block is not
+     *         hot yet
+     */
+    LegacyCompiledBlock lookup(LegacyInstr[] code, int pc, int length)
+    {
+        int index = pc >> 1;
+        LegacyCompiledBlock b = compiled[index];
+        if (b == null && ++counts[index] >= HOT_THRESHOLD)
+        {
+            b = compile(code, pc, length);
+            compiled[index] = b;
+        }
+        return b;
+    }
+
+
+    /**
+     * The <code>invalidate()</code> method discards the compiled blocks and
+     * the execution counts of all blocks that contain the instruction at the
+     * specified address.
+     *
+     * @param address
+     *            the address of the instruction that changed
+     */
+    void invalidate(int address)
+    {
+        int last = address >> 1;
+        int first = LegacyBasicBlocks.firstAffected(address);
+        Arrays.fill(compiled, first, last + 1, null);
+        Arrays.fill(counts, first, last + 1, 0);
+    }
+
+
+    LegacyCompiledBlock compile(LegacyInstr[] code, int pc, int length)
+    {
+        String name = PREFIX + Integer.toHexString(pc) + '_' + serial++;
+        byte[] bytes = LegacyBlockCompiler.compile(name, code, pc, length);
+        try
+        {
+            Class<?> c = loader.define(name.replace('/', '.'), bytes);
+            return (LegacyCompiledBlock) c.newInstance();
+        }
+        catch (Exception e)
+        {
+            throw Util.unexpected(e);
+        }
+        catch (LinkageError e)
+        {
+            throw Util.failure("generated invalid code for block at " + pc
+                    + ": " + e);
+        }
+    }
+
+
+    private static final class Loader extends ClassLoader
+    {
+
+        Loader()
+        {
+            super(LegacyCompiledBlock.class.getClassLoader());
+        }
+
+
+        Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -50,8 +50,21 @@ public class MSP430Interpreter extends MSP430InstrInterpreter
 {
 
     public static Factory FACTORY = new Factory();
+
+    // bits of the status register
+    protected static final int GIE = 0x08;
+    protected static final int CPUOFF = 0x10;
+    protected static final int SCG0 = 0x40;
+    protected static final int FLAGS = 0x107;
+
+    // the interrupt vectors are the last 16 words of the address space
+    protected static final int VECTOR_TABLE = 0xFFE0;
+    protected static final int NUM_VECTORS = 16;
+
     protected final RegisterSet registers;
     protected final MSP430Instr[] shared_instr;
+    protected final MSP430Instr[] timed_instr;
+    protected final int[] cycles;
     protected final STOP_instr STOP;
     protected boolean shouldRun;
     protected boolean sleeping;
@@ -95,6 +108,8 @@ public class MSP430Interpreter extends MSP430InstrInterpreter
 
         // share the instruction array
         shared_instr = data.shareInstr();
+        timed_instr = new MSP430Instr[shared_instr.length];
+        cycles = new int[shared_instr.length];
 
         // load the program into the data segment
         data.loadProgram(p);
@@ -111,31 +126,58 @@ public class MSP430Interpreter extends MSP430InstrInterpreter
     {
         while (shouldRun)
         {
-            if (globalProbe.isEmpty())
+            if ((regs[SREG_REG] & GIE) != 0)
+            {
+                // check if there are any posted interrupts; the individual
+                // interrupt enable bits belong to the peripheral modules, so
+                // only the GIE bit masks interrupts here
+                long pendingInterrupts = interrupts.getPostedInterrupts();
+                if (pendingInterrupts != 0)
+                    invokeInterrupt(pendingInterrupts);
+            }
+
+            if (sleeping)
+                sleepLoop();
+            else if (globalProbe.isEmpty())
                 fastLoop();
             else
                 instrumentedLoop();
         }
     }
 
+    /**
+     * The <code>sleepLoop()</code> method runs while the CPU is turned off in
+     * one of the low power modes. Since no instructions are executed, the
+     * clock skips directly from one event to the next until an interrupt
+     * wakes up the CPU.
+     */
+    private void sleepLoop()
+    {
+        innerLoop = shouldRun;
+        while (innerLoop)
+        {
+            clock.skipAhead();
+        }
+    }
+
     private void fastLoop()
     {
-        innerLoop = true;
+        innerLoop = shouldRun;
         while (innerLoop)
         {
             int curpc = pc;
-            execute(fetch(curpc));
+            execute(curpc, fetch(curpc));
         }
     }
 
     private void instrumentedLoop()
     {
-        innerLoop = true;
+        innerLoop = shouldRun;
         while (innerLoop)
         {
             int curpc = pc;
             globalProbe.fireBefore(this, curpc);
-            execute(fetch(curpc));
+            execute(curpc, fetch(curpc));
             globalProbe.fireAfter(this, curpc);
         }
     }
@@ -154,11 +196,118 @@ public class MSP430Interpreter extends MSP430InstrInterpreter
         return i;
     }
 
-    private void execute(MSP430Instr i)
+    private void execute(int curpc, MSP430Instr i)
     {
         i.accept(this);
         pc = regs[PC_REG] = (char) nextpc;
-        clock.advance(1);
+        clock.advance(getCycles(curpc, i));
+        // setting CPUOFF in the status register enters a low power mode
+        if ((regs[SREG_REG] & CPUOFF) != 0)
+            enterSleepMode();
+    }
+
+    private int getCycles(int curpc, MSP430Instr i)
+    {
+        if (timed_instr[curpc] != i)
+        {
+            // the instruction at this address is new or has changed
+            timed_instr[curpc] = i;
+            cycles[curpc] = MSP430Timing.getCycles(i);
+        }
+        return cycles[curpc];
+    }
+
+    private void enterSleepMode()
+    {
+        sleeping = true;
+        innerLoop = false;
+        simulator.getMicrocontroller().sleep();
+    }
+
+    private void invokeInterrupt(long pendingInterrupts)
+    {
+        // the highest set bit is the highest priority posted interrupt
+        int inum = 63 - Long.numberOfLeadingZeros(pendingInterrupts);
+        if (inum >= NUM_VECTORS)
+            throw Util.failure("no interrupt vector for interrupt " + inum);
+
+        // fire the interrupt (update flag register(s) state); the flag of a
+        // single source interrupt is cleared when the interrupt is accepted
+        interrupts.beforeInvoke(inum);
+        interrupts.unpost(inum);
+
+        // store the return address and the status register
+        pushWord(pc);
+        pushWord(getSR());
+
+        // disable interrupts and leave any low power mode
+        regs[SREG_REG] &= SCG0;
+        C = N = Z = V = false;
+        int wakeup = 0;
+        if (sleeping)
+        {
+            sleeping = false;
+            wakeup = simulator.getMicrocontroller().wakeup();
+        }
+
+        // set PC to interrupt handler
+        int vector = VECTOR_TABLE + 2 * inum;
+        pc = regs[PC_REG] = (char) uword(data.read(vector),
+                data.read(vector + 1));
+
+        clock.advance(MSP430Timing.INTERRUPT + wakeup);
+        interrupts.afterInvoke(inum);
+    }
+
+    /**
+     * The <code>getSR()</code> method reads the status register, including
+     * the flags that are kept in separate fields while executing.
+     *
+     * @return the value of the status register
+     */
+    protected int getSR()
+    {
+        int sr = regs[SREG_REG] & ~FLAGS;
+        if (C)
+            sr |= 0x001;
+        if (Z)
+            sr |= 0x002;
+        if (N)
+            sr |= 0x004;
+        if (V)
+            sr |= 0x100;
+        return sr;
+    }
+
+    /**
+     * The <code>setSR()</code> method writes the status register, including
+     * the flags that are kept in separate fields while executing.
+     *
+     * @param sr
+     *            the new value of the status register
+     */
+    protected void setSR(int sr)
+    {
+        regs[SREG_REG] = (char) sr;
+        C = (sr & 0x001) != 0;
+        Z = (sr & 0x002) != 0;
+        N = (sr & 0x004) != 0;
+        V = (sr & 0x100) != 0;
+    }
+
+    /**
+     * The <code>visit()</code> method for the <code>RETI</code> instruction
+     * restores the status register (and with it, any low power mode that was
+     * active when the interrupt occurred) and the program counter.
+     *
+     * @param i
+     *            the instruction
+     */
+    @Override
+    public void visit(MSP430Instr.RETI i)
+    {
+        setSR(popWord());
+        nextpc = popWord();
     }
 
     @Override
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.arch.msp430;
+
+/**
+ * The <code>MSP430Timing</code> class computes the number of clock cycles that
+ * an instruction takes to execute on the MSP430 CPU. The cycle count depends on
+ * the addressing modes of the operands and is taken from the instruction
+ * timing tables of the MSP430x1xx family user's guide. Values from the
+ * constant generator take as long as register operands.
+ */
+public final class MSP430Timing
+{
+
+    // columns of the tables below: the mode of the source operand
+    private static final int REG = 0;
+    private static final int IND = 1;
+    private static final int AUTO = 2;
+    private static final int IMM = 3;
+    private static final int MEM = 4;
+
+    // double operand instructions, by destination
+    private static final int[] TO_REG = { 1, 2, 2, 2, 3 };
+    private static final int[] TO_PC = { 2, 2, 3, 3, 3 };
+    private static final int[] TO_MEM = { 4, 5, 5, 5, 6 };
+
+    // single operand instructions
+    private static final int[] SHIFT = { 1, 3, 3, 3, 4 };
+    private static final int[] PUSH = { 3, 4, 5, 4, 5 };
+    private static final int[] CALL = { 4, 4, 5, 5, 5 };
+    private static final int[] TST = { 1, 4, 4, 4, 4 };
+
+    /**
+     * The <code>JUMP</code> field stores the number of cycles taken by a jump,
+     * whether the jump is taken or not.
+     */
+    public static final int JUMP = 2;
+
+    /**
+     * The <code>RETI</code> field stores the number of cycles taken by a
+     * return from an interrupt.
+     */
+    public static final int RETI = 5;
+
+    /**
+     * The <code>INTERRUPT</code> field stores the number of cycles from the
+     * acceptance of an interrupt to the first instruction of its handler.
+     */
+    public static final int INTERRUPT = 6;
+
+
+    private MSP430Timing()
+    {
+    }
+
+
+    /**
+     * The <code>getCycles()</code> method computes the number of clock cycles
+     * taken by the specified instruction.
+     *
+     * @param i
+     *            the instruction
+     * @return the number of clock cycles the instruction takes to execute
+     */
+    public static int getCycles(MSP430Instr i)
+    {
+        if (i instanceof MSP430Instr.JMP_Instr)
+            return JUMP;
+        if (i instanceof MSP430Instr.RETI)
+            return RETI;
+        if (i instanceof MSP430Instr.DOUBLE_W_Instr)
+        {
+            MSP430Instr.DOUBLE_W_Instr d = (MSP430Instr.DOUBLE_W_Instr) i;
+            return getDouble(d.source, d.dest);
+        }
+        if (i instanceof MSP430Instr.DOUBLE_B_Instr)
+        {
+            MSP430Instr.DOUBLE_B_Instr d = (MSP430Instr.DOUBLE_B_Instr) i;
+            return getDouble(d.source, d.dest);
+        }
+        if (i instanceof MSP430Instr.SINGLE_W_Instr)
+            return getSingle(i, ((MSP430Instr.SINGLE_W_Instr) i).source);
+        if (i instanceof MSP430Instr.SINGLE_B_Instr)
+            return getSingle(i, ((MSP430Instr.SINGLE_B_Instr) i).source);
+        return 1;
+    }
+
+
+    private static int getDouble(MSP430Operand src, MSP430Operand dst)
+    {
+        int mode = getMode(src);
+        if (dst.op_type != MSP430Operand.SREG_val)
+            return TO_MEM[mode];
+        if (((MSP430Operand.SREG) dst).value.value == MSP430Symbol.GPR.PC.value)
+            return TO_PC[mode];
+        return TO_REG[mode];
+    }
+
+
+    private static int getSingle(MSP430Instr i, MSP430Operand src)
+    {
+        int mode = getMode(src);
+        if (i instanceof MSP430Instr.PUSH || i instanceof MSP430Instr.PUSH_B)
+            return PUSH[mode];
+        if (i instanceof MSP430Instr.CALL)
+            return CALL[mode];
+        // TST is emulated by comparing the operand with the constant 0
+        if (i instanceof MSP430Instr.TST || i instanceof MSP430Instr.TST_B)
+            return TST[mode];
+        return SHIFT[mode];
+    }
+
+
+    private static int getMode(MSP430Operand o)
+    {
+        switch (o.op_type)
+        {
+        case MSP430Operand.SREG_val:
+        case MSP430Operand.IMM_val:
+            return REG;
+        case MSP430Operand.IREG_val:
+            return IND;
+        case MSP430Operand.AIREG_B_val:
+        case MSP430Operand.AIREG_W_val:
+            return AUTO;
+        case MSP430Operand.IMML_val:
+            return IMM;
+        default:
+            return MEM;
+        }
+    }
+}
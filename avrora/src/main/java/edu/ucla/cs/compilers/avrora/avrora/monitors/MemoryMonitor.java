@@ -32,7 +32,7 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.monitors;
 
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
 
 import edu.ucla.cs.compilers.avrora.avrora.arch.avr.AVRProperties;
@@ -114,7 +114,7 @@ public class MemoryMonitor extends MonitorFactory
             {
                 // instrument only the locations specified
                 List<String> l = LOCATIONS.get();
-                HashSet<Integer> locset = new HashSet<Integer>(l.size() * 2);
+                BitSet locset = new BitSet(ramsize);
                 SourceMapping sm = program.getSourceMapping();
                 for (String val : l)
                 {
@@ -138,7 +138,7 @@ public class MemoryMonitor extends MonitorFactory
                         }
                         if (memaddr != -1)
                         {
-                            locset.add(new Integer(memaddr));
+                            locset.set(memaddr);
                         }
                     } else
                     {
@@ -150,22 +150,21 @@ public class MemoryMonitor extends MonitorFactory
                             throw new IllegalStateException("label unknown");
                         }
                         int addr = loc.vma_addr & 0xffff;
-                        for (int i = 0; i < loc.size; i++)
-                            locset.add(new Integer(addr + i));
+                        locset.set(addr, addr + loc.size);
                     }
                 }
-                // insert watches
-                for (Integer val : locset)
+                // insert one watch for each run of consecutive locations
+                for (int low = locset.nextSetBit(0); low >= 0; low = locset
+                        .nextSetBit(low))
                 {
-                    simulator.insertWatch(memprofile, val.intValue());
+                    int high = locset.nextClearBit(low);
+                    simulator.insertWatch(memprofile, low, high);
+                    low = high;
                 }
             } else
             {
-                // instrument the entire memory
-                for (int cntr = memstart; cntr < ramsize; cntr++)
-                {
-                    simulator.insertWatch(memprofile, cntr);
-                }
+                // instrument the entire memory with a single range watch
+                simulator.insertWatch(memprofile, memstart, ramsize);
             }
         }
 
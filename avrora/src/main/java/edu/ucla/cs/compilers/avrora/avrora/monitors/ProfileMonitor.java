@@ -32,13 +32,17 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.monitors;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 
 import edu.ucla.cs.compilers.avrora.avrora.arch.AbstractInstr;
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import edu.ucla.cs.compilers.avrora.avrora.core.SourceMapping;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.State;
 import edu.ucla.cs.compilers.avrora.cck.stat.StatUtil;
@@ -63,7 +67,19 @@ public class ProfileMonitor extends MonitorFactory
     public final Option.Long PERIOD = newOption("period", 0,
             "This option specifies whether the profiling will be exact or periodic. When "
                     + "this option is set to non-zero, then a sample of the program counter is taken at "
-                    + "the specified period in clock cycles, rather than through probes at each instruction.");
+                    + "the specified period in clock cycles, rather than through probes at each instruction. "
+                    + "Sampling leaves the interpreter in its fast, uninstrumented loop, and the report gives "
+                    + "the estimated error of each percentage.");
+    public final Option.Double JITTER = newOption("period-jitter", 0.5,
+            "This option specifies the jitter of the sampling period as a fraction of the period. "
+                    + "Each interval between two samples is chosen uniformly from the period plus or "
+                    + "minus this fraction, so that the samples do not lock onto periodic behavior of the "
+                    + "program such as timer interrupts.");
+    public final Option.Bool STACK = newOption("sample-stack", false,
+            "This option, when used with the \"period\" option, also samples the call stack and "
+                    + "reports for each procedure the fraction of the samples in which it was active, "
+                    + "including the time spent in the procedures it calls. The call stack is maintained "
+                    + "with probes on call and return instructions only.");
     public final Option.Bool CLASSES = newOption("instr-classes", false,
             "This option selects whether the profiling monitor will generate a report of the "
                     + "types of instructions that were executed most frequently by the program.");
@@ -81,6 +97,13 @@ public class ProfileMonitor extends MonitorFactory
         public final long[] icount;
         public final long[] itime;
 
+        // the state of the sampling profiler
+        protected long period;
+        protected long samples;
+        protected long[] scount;
+        protected long[] sampled;
+        protected CallStack stack;
+
 
         Mon(Simulator s)
         {
@@ -92,11 +115,21 @@ public class ProfileMonitor extends MonitorFactory
             // allocate a global array for the cycles of each instruction
             itime = new long[program.program_end];
 
-            long period = PERIOD.get();
+            period = PERIOD.get();
             if (period > 0)
             {
+                if (STACK.get())
+                {
+                    scount = new long[program.program_end];
+                    sampled = new long[program.program_end];
+                    stack = new CallStack();
+                    new CallTrace(s).attachMonitor(stack);
+                }
                 // insert the periodic probe
-                s.insertEvent(new PeriodicProfile(period), period);
+                PeriodicProfile profile = new PeriodicProfile(period,
+                        JITTER.get(), s.getSimulation()
+                                .getRandomStream(s.getID(), "profile"));
+                s.insertEvent(profile, profile.nextInterval());
             } else if (CYCLES.get())
             {
                 // insert the count and cycles probe
@@ -111,24 +144,60 @@ public class ProfileMonitor extends MonitorFactory
         /**
          * The <code>PeriodicProfile</code> class can be used as a simulator
          * event to periodically sample the program counter value. This can be
-         * used to get an approximation of the execution profile.
+         * used to get an approximation of the execution profile. The cycles
+         * since the previous sample are attributed to the sampled instruction,
+         * which gives an estimate of the cycles spent at each instruction.
          */
         public class PeriodicProfile implements Simulator.Event
         {
             private final long period;
+            private final long jitter;
+            private final Random random;
+            private long interval;
 
 
-            PeriodicProfile(long p)
+            PeriodicProfile(long p, double j, Random r)
             {
                 period = p;
+                jitter = Math.min(p - 1, (long) (p * j));
+                random = r;
+            }
+
+
+            long nextInterval()
+            {
+                interval = period;
+                if (jitter > 0)
+                    interval += (long) ((2 * random.nextDouble() - 1) * jitter);
+                return interval;
             }
 
 
             @Override
             public void fire()
             {
-                icount[simulator.getState().getPC()]++;
-                simulator.insertEvent(this, period);
+                int pc = simulator.getState().getPC();
+                icount[pc]++;
+                itime[pc] += interval;
+                samples++;
+                if (stack != null)
+                    sampleStack();
+                simulator.insertEvent(this, nextInterval());
+            }
+        }
+
+
+        private void sampleStack()
+        {
+            // count each procedure on the stack once, even if it is recursive
+            for (int cntr = stack.getDepth() - 1; cntr >= 0; cntr--)
+            {
+                int target = stack.getTarget(cntr);
+                if (target < scount.length && sampled[target] != samples)
+                {
+                    sampled[target] = samples;
+                    scount[target]++;
+                }
             }
         }
 
@@ -180,6 +249,11 @@ public class ProfileMonitor extends MonitorFactory
             computeTotals();
             reportProfile();
 
+            if (stack != null)
+            {
+                reportStackProfile();
+            }
+
             if (CLASSES.get())
             {
                 reportInstrProfile();
@@ -246,6 +320,9 @@ public class ProfileMonitor extends MonitorFactory
                     percent += StringUtil.rightJustify(cumulcycles, 8);
                     percent += " = " + StringUtil.rightJustify(
                             StringUtil.toFixedFloat(pcnt, 4), 8) + " %";
+                    if (period > 0)
+                        percent += " +/- " + StringUtil.toFixedFloat(
+                                computeError(runlength * curcount), 4) + " %";
                 }
 
                 TermUtil.reportQuantity(' ' + addr, cnt, percent);
@@ -253,6 +330,66 @@ public class ProfileMonitor extends MonitorFactory
         }
 
 
+        private void reportStackProfile()
+        {
+            TermUtil.printSeparator(Terminal.MAXLINE,
+                    "Sampled call stack profile for node " + simulator.getID());
+            Terminal.printGreen(
+                    " Procedure                         Samples   Percent");
+            Terminal.nextln();
+            TermUtil.printThinSeparator(Terminal.MAXLINE);
+
+            List<Integer> targets = new ArrayList<Integer>();
+            for (int cntr = 0; cntr < scount.length; cntr++)
+            {
+                if (scount[cntr] > 0)
+                    targets.add(cntr);
+            }
+            Collections.sort(targets, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b)
+                {
+                    long ca = scount[a], cb = scount[b];
+                    return ca > cb ? -1 : ca < cb ? 1 : a.compareTo(b);
+                }
+            });
+
+            SourceMapping sm = program.getSourceMapping();
+            for (int target : targets)
+            {
+                long count = scount[target];
+                float pcnt = 100.0f * count / samples;
+                String percent = StringUtil
+                        .rightJustify(StringUtil.toFixedFloat(pcnt, 4), 8)
+                        + " % +/- "
+                        + StringUtil.toFixedFloat(computeError(count), 4)
+                        + " %";
+                TermUtil.reportQuantity(' ' + StringUtil
+                        .leftJustify(sm.getName(target), 30),
+                        StringUtil.rightJustify(count, 8), percent);
+            }
+        }
+
+
+        /**
+         * The <code>computeError()</code> method computes the half width of
+         * the 95% confidence interval of a percentage that was estimated from
+         * the given number of samples, treating each sample as an independent
+         * trial.
+         *
+         * @param count
+         *            the number of samples that fell into a bin
+         * @return the estimated error of the percentage of that bin
+         */
+        private float computeError(long count)
+        {
+            if (samples == 0)
+                return 0;
+            double p = (double) count / samples;
+            return (float) (196.0 * Math.sqrt(p * (1 - p) / samples));
+        }
+
+
         private void computeTotals()
         {
             // compute the total cycle count
@@ -32,12 +32,19 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.monitors;
 
+import java.io.IOException;
+
 import edu.ucla.cs.compilers.avrora.avrora.arch.AbstractInstr;
+import edu.ucla.cs.compilers.avrora.avrora.arch.avr.AVRProperties;
+import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyRegister;
+import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyState;
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
 import edu.ucla.cs.compilers.avrora.avrora.core.SourceMapping;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.State;
 import edu.ucla.cs.compilers.avrora.avrora.sim.output.SimPrinter;
+import edu.ucla.cs.compilers.avrora.avrora.sim.output.TraceFile;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.text.TermUtil;
 import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
@@ -63,6 +70,17 @@ public class TraceMonitor extends MonitorFactory
             "The \"trace-start\" option specifies the time to start the instruction trace, in "
                     + "clock cycles. This option can be useful for diagnosing problems in long simulations "
                     + "that happens after a given time is reached.");
+    final Option.Str TRACE_FILE = newOption("trace-file", "",
+            "The \"trace-file\" option specifies the name of a file to which the trace is written "
+                    + "in a compact binary format instead of printing each instruction. This is much "
+                    + "faster than printing the trace. The file can be printed after the simulation with "
+                    + "the \"decode-trace\" action.");
+    final Option.Bool TRACE_STATE = newOption("trace-state", false,
+            "The \"trace-state\" option, when used together with the \"trace-file\" option, also "
+                    + "records the changes to registers and the writes to memory made by each traced "
+                    + "instruction.");
+
+    private TraceFile.Writer writer;
 
     /**
      * The <code>Monitor</code> class implements the monitor for the profiler.
@@ -78,6 +96,9 @@ public class TraceMonitor extends MonitorFactory
         public final GlobalProbe PROBE;
         public int count;
         int nesting;
+        TraceFile.NodeBuffer trace;
+        byte[] registers;
+        boolean active;
 
         public class GlobalProbe implements Simulator.Probe
         {
@@ -92,6 +113,22 @@ public class TraceMonitor extends MonitorFactory
             public void fireAfter(State s, int addr)
             {
                 count++;
+                if (registers != null)
+                    traceRegisters((LegacyState) s);
+            }
+        }
+
+        /**
+         * The <code>MemoryWatch</code> class records the writes to memory
+         * while the trace is active.
+         */
+        public class MemoryWatch extends Simulator.Watch.Empty
+        {
+            @Override
+            public void fireAfterWrite(State s, int data_addr, byte value)
+            {
+                if (active)
+                    trace.memory(data_addr, value);
             }
         }
 
@@ -120,7 +157,7 @@ public class TraceMonitor extends MonitorFactory
                     print("trace (" + pair + ") begin: " + traceNum
                             + " --------------------------");
                     print(s, s.getInstr(addr));
-                    simulator.insertProbe(PROBE);
+                    insertProbe();
                 } else
                 {
                     print("nested (" + pair + ") begin: " + traceNum
@@ -135,7 +172,7 @@ public class TraceMonitor extends MonitorFactory
             @Override
             public void fire()
             {
-                simulator.insertProbe(PROBE);
+                insertProbe();
             }
         }
 
@@ -162,7 +199,7 @@ public class TraceMonitor extends MonitorFactory
                 {
                     print("trace (" + pair
                             + ") end --------------------------");
-                    simulator.removeProbe(PROBE);
+                    removeProbe();
                 } else
                 {
                     print("nested (" + pair
@@ -175,8 +212,49 @@ public class TraceMonitor extends MonitorFactory
         int nextpc;
 
 
+        private void insertProbe()
+        {
+            simulator.insertProbe(PROBE);
+            active = true;
+        }
+
+
+        private void removeProbe()
+        {
+            simulator.removeProbe(PROBE);
+            active = false;
+        }
+
+
+        private void traceRegisters(LegacyState s)
+        {
+            for (int cntr = 0; cntr < LegacyState.NUM_REGS; cntr++)
+            {
+                byte val = s.getRegisterByte(
+                        LegacyRegister.getRegisterByNumber(cntr));
+                if (val != registers[cntr])
+                {
+                    registers[cntr] = val;
+                    trace.register(cntr, val);
+                }
+            }
+            byte sreg = s.getSREG();
+            if (sreg != registers[LegacyState.NUM_REGS])
+            {
+                registers[LegacyState.NUM_REGS] = sreg;
+                trace.register(LegacyState.NUM_REGS, sreg);
+            }
+        }
+
+
         private void print(State s, AbstractInstr i)
         {
+            if (trace != null)
+            {
+                trace.instr(s.getCycles(), s.getPC());
+                return;
+            }
+
             // "#k{%x}: #k{%s} %s", color, pc, color, i.getVariant(),
             // i.getOperands()
 
@@ -194,7 +272,10 @@ public class TraceMonitor extends MonitorFactory
 
         private void print(String s)
         {
-            printer.println(s);
+            if (trace != null)
+                trace.mark(simulator.getClock().getCount(), s);
+            else
+                printer.println(s);
         }
 
 
@@ -204,6 +285,8 @@ public class TraceMonitor extends MonitorFactory
             printer = s.getPrinter();
             program = s.getProgram();
             PROBE = new GlobalProbe();
+            if (!TRACE_FILE.isBlank())
+                openTrace();
             long time = TIME.get();
             if (time > 0)
             {
@@ -213,7 +296,7 @@ public class TraceMonitor extends MonitorFactory
             } else if (FROMTO.get().isEmpty())
             {
                 // if there are no fromt/to pairs, insert the global probe
-                s.insertProbe(PROBE);
+                insertProbe();
             } else
             {
                 // if there are from/to pairs, insert the start and end probes
@@ -222,6 +305,27 @@ public class TraceMonitor extends MonitorFactory
         }
 
 
+        private void openTrace()
+        {
+            Simulation.Node n = simulator.getSimulation()
+                    .getNode(simulator.getID());
+            String path = n == null ? "" : n.getProgram().fname;
+            trace = getWriter().newBuffer(simulator.getID(),
+                    simulator.getClock().getHZ(), path);
+            if (TRACE_STATE.get()
+                    && simulator.getState() instanceof LegacyState)
+            {
+                AVRProperties p = (AVRProperties) simulator.getMicrocontroller()
+                        .getProperties();
+                int ramsize = p.sram_size + p.ioreg_size
+                        + LegacyState.NUM_REGS;
+                registers = new byte[LegacyState.NUM_REGS + 1];
+                simulator.insertWatch(new MemoryWatch(),
+                        LegacyState.IOREG_BASE, ramsize);
+            }
+        }
+
+
         private void addPairs()
         {
             for (String str : FROMTO.get())
@@ -286,6 +390,11 @@ public class TraceMonitor extends MonitorFactory
             TermUtil.reportQuantity("Program throughput",
                     ipc * simulator.getClock().getHZ() / 1000000, "mips");
             Terminal.nextln();
+            if (trace != null)
+            {
+                trace.close();
+                trace = null;
+            }
         }
     }
 
@@ -302,6 +411,23 @@ public class TraceMonitor extends MonitorFactory
     }
 
 
+    synchronized TraceFile.Writer getWriter()
+    {
+        if (writer == null)
+        {
+            try
+            {
+                writer = new TraceFile.Writer(TRACE_FILE.get());
+            }
+            catch (IOException e)
+            {
+                Util.userError("Cannot create trace file", TRACE_FILE.get());
+            }
+        }
+        return writer;
+    }
+
+
     /**
      * The <code>newMonitor()</code> method creates a new monitor for the given
      * simulator that is capable of collecting performance information as the
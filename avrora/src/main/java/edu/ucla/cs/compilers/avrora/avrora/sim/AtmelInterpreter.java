@@ -38,6 +38,11 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.util.MulticastWatch;
 import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * The <code>BaseInterpreter</code> class represents a base class of the legacy
  * interpreter and the generated interpreter(s) that stores the state of the
@@ -45,7 +50,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Util;
  *
  * @author Ben L. Titzer
  */
-public abstract class AtmelInterpreter extends Interpreter implements LegacyInstrVisitor {
+public abstract class AtmelInterpreter extends Interpreter implements LegacyInstrVisitor, Checkpointable {
 
     public static final boolean INSTRUMENTED = true;
     public static final boolean UNINSTRUMENTED = false;
@@ -77,6 +82,8 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
     protected boolean C;
     protected byte[] sram;
     protected MulticastWatch[] sram_watches;
+    protected RangeWatch[] range_watches = NO_RANGES;
+    protected long[] watch_bits; // one bit per SRAM address with any watch
     protected int bootPC; // start up address
     protected int interruptBase; // base of interrupt vector table
     protected MulticastWatch error_watch;
@@ -84,6 +91,8 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
 
     protected boolean shouldRun;
 
+    protected boolean suspended;
+
     protected boolean sleeping;
 
     protected boolean justActivatedInterrupts;
@@ -150,9 +159,12 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         // allocate FLASH
         flash = pr.codeSegmentFactory.newCodeSegment("flash", this, p);
         // for performance, we share a reference to the LegacyInstr[] array
-        // representing flash
-        // TODO: implement share() method
-        shared_instr = flash.shareCode(null);
+        // representing flash; the segment replaces it on the first write
+        shared_instr = flash.shareCode(new CodeSegment.CodeSharer() {
+            public void update(LegacyInstr[] segment) {
+                shared_instr = segment;
+            }
+        });
 
         // initialize the interrupt table
         interrupts = new InterruptTable(this, pr.num_interrupts);
@@ -177,6 +189,12 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         innerLoop = false;
     }
 
+    @Override
+    public void suspend() {
+        suspended = true;
+        stop();
+    }
+
     @Override
     public State getState() {
         return state;
@@ -184,6 +202,88 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
 
     protected abstract void runLoop();
 
+    /**
+     * The <code>saveState()</code> method writes the architectural state of the
+     * program: the program counter, the status register, the general purpose
+     * registers and SRAM, the values of the simple IO registers and fields,
+     * the interrupt table, and the contents of the flash, which the program
+     * may have modified.
+     *
+     * @param out the output to write the state to
+     * @throws IOException if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(pc);
+        out.writeByte(sram_volatile[toSRAM(SREG)].read(0));
+        out.writeBoolean(sleeping);
+        out.writeBoolean(justActivatedInterrupts);
+        out.writeLong(delayCycles);
+        out.writeInt(bootPC);
+        out.writeInt(interruptBase);
+        out.writeLong(interrupts.posted);
+        out.writeLong(interrupts.enabled);
+        out.writeInt(sram.length);
+        out.write(sram);
+        out.writeInt(ioregs.length);
+        for (ActiveRegister reg : ioregs) {
+            // the state of other registers is saved by their devices
+            out.writeByte(reg instanceof RWRegister ? ((RWRegister) reg).value : 0);
+        }
+        registers.saveState(out);
+        out.writeInt(flash.length);
+        for (int cntr = 0; cntr < flash.length; cntr++) out.writeByte(flash.get(cntr));
+    }
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. Registers are restored without triggering the
+     * side effects of a write; the devices that own them restore their own
+     * state. When the interpreter is started, it resumes at the restored
+     * program counter instead of the boot address.
+     *
+     * @param in the input to read the state from
+     * @throws IOException if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        pc = in.readInt();
+        nextPC = pc;
+        cyclesConsumed = 0;
+        int sreg = in.readByte();
+        I = (sreg & LegacyState.SREG_I_MASK) != 0;
+        T = (sreg & LegacyState.SREG_T_MASK) != 0;
+        H = (sreg & LegacyState.SREG_H_MASK) != 0;
+        S = (sreg & LegacyState.SREG_S_MASK) != 0;
+        V = (sreg & LegacyState.SREG_V_MASK) != 0;
+        N = (sreg & LegacyState.SREG_N_MASK) != 0;
+        Z = (sreg & LegacyState.SREG_Z_MASK) != 0;
+        C = (sreg & LegacyState.SREG_C_MASK) != 0;
+        sleeping = in.readBoolean();
+        justActivatedInterrupts = in.readBoolean();
+        delayCycles = in.readLong();
+        bootPC = in.readInt();
+        interruptBase = in.readInt();
+        interrupts.posted = in.readLong();
+        interrupts.enabled = in.readLong();
+        interrupts.pending = interrupts.posted & interrupts.enabled;
+        if (in.readInt() != sram.length) throw Util.failure("checkpoint does not match SRAM size");
+        in.readFully(sram);
+        if (in.readInt() != ioregs.length) throw Util.failure("checkpoint does not match IO register layout");
+        for (ActiveRegister reg : ioregs) {
+            byte val = in.readByte();
+            if (reg instanceof RWRegister) ((RWRegister) reg).value = val;
+        }
+        registers.restoreState(in);
+        if (in.readInt() != flash.length) throw Util.failure("checkpoint does not match flash size");
+        for (int cntr = 0; cntr < flash.length; cntr++) {
+            byte val = in.readByte();
+            if (flash.get(cntr) != val) flash.set(cntr, val);
+        }
+        suspended = true;
+        innerLoop = false;
+    }
+
     /**
      * The <code>getInterruptVectorAddress()</code> method computes the location
      * in memory to jump to for the given interrupt number. On the Atmega128,
@@ -233,6 +333,19 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         } else interrupts.disable(inum);
     }
 
+    /**
+     * The <code>codeChanged()</code> method is called by the code segment
+     * whenever the instruction at the specified address is replaced, e.g. when
+     * a probe is inserted or the flash is reprogrammed. Interpreters that keep
+     * state derived from the code override it to discard that state.
+     *
+     * @param address
+     *            the address of the instruction that was replaced
+     */
+    protected void codeChanged(int address) {
+        // the default interpreter keeps no state derived from the code
+    }
+
     /**
      * The <code>insertProbe()</code> method is used internally to insert a
      * probe on a particular instruction.
@@ -322,8 +435,105 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         MulticastWatch w = sram_watches[data_addr];
         if (w == null) w = sram_watches[data_addr] = new MulticastWatch();
         w.add(p);
+        markWatched(data_addr, data_addr + 1);
+    }
+
+    /**
+     * The <code>insertWatch()</code> method is used internally to insert a
+     * watch on a range of memory locations. The range is stored as a single
+     * entry and only marked in the bitmap that filters memory accesses.
+     *
+     * @param p
+     *            the watch to insert on the memory locations
+     * @param low
+     *            the first address of the range
+     * @param high
+     *            the address immediately following the range
+     */
+    @Override
+    protected void insertWatch(Simulator.Watch p, int low, int high) {
+        if (low < 0) throw new ArrayIndexOutOfBoundsException(low);
+        if (high > sram.length) throw new ArrayIndexOutOfBoundsException(high - 1);
+        if (low >= high) return;
+        // the ranges are copied on write so that watches firing during an
+        // access may insert or remove other watches
+        RangeWatch[] nr = Arrays.copyOf(range_watches, range_watches.length + 1);
+        nr[range_watches.length] = new RangeWatch(p, low, high);
+        range_watches = nr;
+        markWatched(low, high);
     }
 
+    /**
+     * The <code>removeWatch()</code> method is used internally to remove a
+     * watch from a range of memory locations.
+     *
+     * @param p
+     *            the watch to remove from the memory locations
+     * @param low
+     *            the first address of the range
+     * @param high
+     *            the address immediately following the range
+     */
+    @Override
+    protected void removeWatch(Simulator.Watch p, int low, int high) {
+        RangeWatch[] ranges = range_watches;
+        for (int i = 0; i < ranges.length; i++) {
+            RangeWatch r = ranges[i];
+            if (r.watch == p && r.low == low && r.high == high) {
+                RangeWatch[] nr = new RangeWatch[ranges.length - 1];
+                System.arraycopy(ranges, 0, nr, 0, i);
+                System.arraycopy(ranges, i + 1, nr, i, nr.length - i);
+                range_watches = nr;
+                rebuildWatchBits();
+                return;
+            }
+        }
+    }
+
+    private void markWatched(int low, int high) {
+        if (watch_bits == null) watch_bits = new long[(sram.length + 63) >> 6];
+        for (int addr = low; addr < high; addr++)
+            watch_bits[addr >> 6] |= 1L << addr;
+    }
+
+    private void rebuildWatchBits() {
+        long[] bits = new long[(sram.length + 63) >> 6];
+        boolean any = false;
+        if (sram_watches != null) {
+            for (int addr = 0; addr < sram_watches.length; addr++) {
+                MulticastWatch w = sram_watches[addr];
+                if (w != null && !w.isEmpty()) {
+                    bits[addr >> 6] |= 1L << addr;
+                    any = true;
+                }
+            }
+        }
+        for (RangeWatch r : range_watches) {
+            for (int addr = r.low; addr < r.high; addr++)
+                bits[addr >> 6] |= 1L << addr;
+            any = true;
+        }
+        watch_bits = any ? bits : null;
+    }
+
+    /**
+     * The <code>RangeWatch</code> class records a single watch inserted on an
+     * interval of SRAM addresses.
+     */
+    protected static class RangeWatch {
+        final Simulator.Watch watch;
+        final int low;
+        final int high;
+
+        RangeWatch(Simulator.Watch w, int l, int h) {
+            watch = w;
+            low = l;
+            high = h;
+        }
+    }
+
+    private static final RangeWatch[] NO_RANGES = new RangeWatch[0];
+
     /**
      * The <code>removeWatch()</code> method is used internally to remove a
      * watch from a particular memory location.
@@ -343,6 +553,7 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         MulticastWatch w = sram_watches[data_addr];
         if (w == null) return;
         w.remove(p);
+        if (w.isEmpty()) rebuildWatchBits();
     }
 
     /**
@@ -537,7 +748,6 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
             return fireReadError(w, addr);
         } else if (addr < sram.length) {
             // a valid RAM access.
-            // PERFORMANCE: consider wrapping in if(sram_watches)
             byte val;
             fireBeforeRead(w, addr);
             if (addr < sram_start) val = sram[addr] = readVolatile(addr);
@@ -556,7 +766,6 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
             fireWriteError(w, addr, val);
         } else if (addr < sram.length) {
             // a valid RAM access.
-            // PERFORMANCE: consider wrapping in if(sram_watches)
             fireBeforeWrite(w, addr, val);
             if (addr < sram_start) sram[addr] = writeVolatile(addr, val);
             else sram[addr] = val;
@@ -586,31 +795,54 @@ public abstract class AtmelInterpreter extends Interpreter implements LegacyInst
         return (byte) behavior.write(sram[addr] & 0xff, val & 0xff);
     }
 
+    // the bitmap filters out accesses to addresses without any watch, so
+    // that unwatched regions pay only for one bit test
+    private boolean isWatched(int addr) {
+        long[] bits = watch_bits;
+        return bits != null && (bits[addr >> 6] & (1L << addr)) != 0;
+    }
+
     private void fireBeforeRead(boolean w, int addr) {
-        if (w && sram_watches != null) {
-            Simulator.Watch p = sram_watches[addr];
-            if (p != null) p.fireBeforeRead(state, addr);
+        if (w && isWatched(addr)) {
+            if (sram_watches != null) {
+                Simulator.Watch p = sram_watches[addr];
+                if (p != null) p.fireBeforeRead(state, addr);
+            }
+            for (RangeWatch r : range_watches)
+                if (addr >= r.low && addr < r.high) r.watch.fireBeforeRead(state, addr);
         }
     }
 
     private void fireAfterRead(boolean w, int addr, byte val) {
-        if (w && sram_watches != null) {
-            Simulator.Watch p = sram_watches[addr];
-            if (p != null) p.fireAfterRead(state, addr, val);
+        if (w && isWatched(addr)) {
+            if (sram_watches != null) {
+                Simulator.Watch p = sram_watches[addr];
+                if (p != null) p.fireAfterRead(state, addr, val);
+            }
+            for (RangeWatch r : range_watches)
+                if (addr >= r.low && addr < r.high) r.watch.fireAfterRead(state, addr, val);
         }
     }
 
     private void fireBeforeWrite(boolean w, int addr, byte val) {
-        if (w && sram_watches != null) {
-            Simulator.Watch p = sram_watches[addr];
-            if (p != null) p.fireBeforeWrite(state, addr, val);
+        if (w && isWatched(addr)) {
+            if (sram_watches != null) {
+                Simulator.Watch p = sram_watches[addr];
+                if (p != null) p.fireBeforeWrite(state, addr, val);
+            }
+            for (RangeWatch r : range_watches)
+                if (addr >= r.low && addr < r.high) r.watch.fireBeforeWrite(state, addr, val);
         }
     }
 
     private void fireAfterWrite(boolean w, int addr, byte val) {
-        if (w && sram_watches != null) {
-            Simulator.Watch p = sram_watches[addr];
-            if (p != null) p.fireAfterWrite(state, addr, val);
+        if (w && isWatched(addr)) {
+            if (sram_watches != null) {
+                Simulator.Watch p = sram_watches[addr];
+                if (p != null) p.fireAfterWrite(state, addr, val);
+            }
+            for (RangeWatch r : range_watches)
+                if (addr >= r.low && addr < r.high) r.watch.fireAfterWrite(state, addr, val);
         }
     }
 
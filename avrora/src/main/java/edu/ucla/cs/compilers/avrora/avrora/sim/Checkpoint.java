@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventHandle;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.StepSynchronizer;
+import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>Checkpoint</code> class writes the state of a running simulation
+ * to a compact binary file and restores it into a freshly instantiated
+ * simulation of the same nodes and programs, possibly in another JVM. The file
+ * is a compressed stream that begins with a magic number and a version,
+ * followed by one record per node containing its id, the name of its program,
+ * the time at which the checkpoint was taken, its clock count and the state of
+ * its platform, and then by the parts that the nodes share, such as the radio
+ * medium.
+ *
+ * <p>
+ * A checkpoint is taken when the nodes reach the end of the time given by the
+ * "seconds" option. Each node is stopped by an event at that time, which lets
+ * the instruction that is executing complete, so that the checkpoint is taken
+ * at an instruction boundary with no events half processed. The clock count of
+ * a node may therefore be slightly past the time of the checkpoint; a restored
+ * simulation counts the time to simulate from the time of the checkpoint, so
+ * that it stops at the same time as a simulation that was not interrupted.
+ *
+ * <p>
+ * The state of each node is organized as a tree of named parts (the
+ * microcontroller, its internal devices, the external devices of the
+ * platform), each of which implements <code>Checkpointable</code>. Every part
+ * is written as a length-prefixed block, so that a part which is not present
+ * when the checkpoint is restored is simply skipped. A checkpoint is refused
+ * if any part is neither <code>Checkpointable</code> nor marked as
+ * <code>Checkpointable.Stateless</code>, since its state would be lost.
+ * The shared parts are saved after all of the nodes have stopped and restored
+ * after the nodes, before they start, so that a transmission which is in the
+ * air when the checkpoint is taken is received after the restore.
+ *
+ * @see Checkpointable
+ */
+public class Checkpoint
+{
+
+    public static final int MAGIC = 0x41564350; // "AVCP"
+    public static final int VERSION = 3;
+
+
+    /**
+     * The <code>check()</code> method checks that a checkpoint can be taken of
+     * the specified simulation before it starts, so that the user does not
+     * find out only at the end of a long simulation that some part of a node
+     * does not support checkpoints. It saves each node and the shared parts to
+     * a stream that discards its output.
+     *
+     * @param sim
+     *            the simulation to check
+     */
+    public static void check(Simulation sim)
+    {
+        if (sim.SECONDS.get() <= 0)
+            Util.userError("A checkpoint requires the \"seconds\" option to specify when it is taken");
+        if (sim.synchronizer instanceof StepSynchronizer)
+            Util.userError("Checkpoints are not supported by the synchronizer of this simulation");
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                }
+
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                {
+                }
+            });
+            Iterator<Simulation.Node> i = sim.getNodeIterator();
+            while (i.hasNext())
+                writePart(out, i.next().platform);
+            saveParts(out, sim.getSharedParts());
+        } catch (IOException e)
+        {
+            throw Util.unexpected(e);
+        }
+    }
+
+
+    /**
+     * The <code>save()</code> method writes the state of all of the nodes of
+     * the specified simulation and of the parts they share to the specified
+     * file. The simulation must have terminated, with each node stopped at the
+     * time of the checkpoint.
+     *
+     * @param sim
+     *            the simulation to save
+     * @param fname
+     *            the name of the file to write
+     */
+    public static void save(Simulation sim, String fname)
+    {
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(fname))));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(sim.getNumberOfNodes());
+                Iterator<Simulation.Node> i = sim.getNodeIterator();
+                while (i.hasNext())
+                {
+                    Simulation.Node n = i.next();
+                    if (!n.isCheckpointed())
+                        Util.userError("Node terminated before the checkpoint was taken", String.valueOf(n.id));
+                    out.writeInt(n.id);
+                    out.writeUTF(n.path.getName());
+                    out.writeLong(n.stopTime);
+                    out.writeLong(n.simulator.getClock().getCount());
+                    writePart(out, n.platform);
+                }
+                saveParts(out, sim.getSharedParts());
+            } finally
+            {
+                out.close();
+            }
+        } catch (IOException e)
+        {
+            throw Util.unexpected(e);
+        }
+    }
+
+
+    /**
+     * The <code>restore()</code> method reads the state of all of the nodes of
+     * the specified simulation and of the parts they share from the specified
+     * file. The nodes must already be instantiated, but the simulation must
+     * not have started executing yet. Each node in the checkpoint must exist
+     * in the simulation and be running the same program.
+     *
+     * @param sim
+     *            the simulation to restore
+     * @param fname
+     *            the name of the file to read
+     */
+    public static void restore(Simulation sim, String fname)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(fname))));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    Util.userError("Not a checkpoint file (or unsupported version)", fname);
+                int count = in.readInt();
+                for (int cntr = 0; cntr < count; cntr++)
+                {
+                    int id = in.readInt();
+                    String program = in.readUTF();
+                    long time = in.readLong();
+                    long cycles = in.readLong();
+                    Simulation.Node n = sim.getNode(id);
+                    if (n == null || n.simulator == null)
+                        Util.userError("Checkpoint contains unknown node", String.valueOf(id));
+                    if (!program.equals(n.path.getName()))
+                        Util.userError("Checkpoint of node " + id + " was taken with a different program",
+                                StringUtil.quote(program));
+                    n.restoreTime(time, cycles);
+                    readPart(in, n.platform);
+                }
+                restoreParts(in, sim.getSharedParts());
+            } finally
+            {
+                in.close();
+            }
+        } catch (IOException e)
+        {
+            throw Util.unexpected(e);
+        }
+    }
+
+
+    /**
+     * The <code>saveParts()</code> method writes the parts in the specified
+     * map that are checkpointable, each as a named block. Parts that are
+     * marked as stateless are not written. Any other part cannot be saved, so
+     * that the checkpoint is refused.
+     *
+     * @param out
+     *            the output to write to
+     * @param parts
+     *            a map from the names of the parts to the parts
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    public static void saveParts(DataOutput out, Map<String, ?> parts) throws IOException
+    {
+        TreeMap<String, Checkpointable> saved = new TreeMap<String, Checkpointable>();
+        for (Map.Entry<String, ?> e : parts.entrySet())
+        {
+            Object o = e.getValue();
+            if (o instanceof Checkpointable)
+                saved.put(e.getKey(), (Checkpointable) o);
+            else if (!(o instanceof Checkpointable.Stateless))
+                Util.userError("Checkpoints are not supported by " + o.getClass().getSimpleName(),
+                        StringUtil.quote(e.getKey()));
+        }
+        out.writeInt(saved.size());
+        for (Map.Entry<String, Checkpointable> e : saved.entrySet())
+        {
+            out.writeUTF(e.getKey());
+            writePart(out, e.getValue());
+        }
+    }
+
+
+    /**
+     * The <code>restoreParts()</code> method reads the blocks written by
+     * <code>saveParts()</code> and restores the state of each part in the
+     * specified map. Blocks for parts that do not exist are skipped.
+     *
+     * @param in
+     *            the input to read from
+     * @param parts
+     *            a map from the names of the parts to the parts
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    public static void restoreParts(DataInput in, Map<String, ?> parts) throws IOException
+    {
+        int count = in.readInt();
+        for (int cntr = 0; cntr < count; cntr++)
+        {
+            Object o = parts.get(in.readUTF());
+            readPart(in, o instanceof Checkpointable ? (Checkpointable) o : null);
+        }
+    }
+
+
+    /**
+     * The <code>saveEvent()</code> method writes the delays of all occurrences
+     * of the specified event in the queue of the specified clock. It is used
+     * by parts to save the events they have scheduled.
+     *
+     * @param out
+     *            the output to write to
+     * @param clock
+     *            the clock in whose queue the event is scheduled
+     * @param e
+     *            the event to save
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    public static void saveEvent(DataOutput out, MainClock clock, Simulator.Event e) throws IOException
+    {
+        long[] delays = clock.getDelays(e);
+        out.writeInt(delays.length);
+        for (long d : delays)
+            out.writeLong(d);
+    }
+
+
+    /**
+     * The <code>restoreEvent()</code> method reads the delays written by
+     * <code>saveEvent()</code> and schedules the specified event at each of
+     * them, replacing any occurrences of it that are already scheduled.
+     *
+     * @param in
+     *            the input to read from
+     * @param clock
+     *            the clock in whose queue to schedule the event
+     * @param e
+     *            the event to restore
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    public static void restoreEvent(DataInput in, Clock clock, Simulator.Event e) throws IOException
+    {
+        clock.removeEvent(e);
+        int count = in.readInt();
+        for (int cntr = 0; cntr < count; cntr++)
+            clock.insertEvent(e, in.readLong());
+    }
+
+
+    /**
+     * The <code>restoreEvent()</code> method reads the delays written by
+     * <code>saveEvent()</code> for the event of the specified handle and
+     * schedules the handle at the saved delay, replacing its current
+     * schedule. A handle is scheduled at most once.
+     *
+     * @param in
+     *            the input to read from
+     * @param clock
+     *            the clock in whose queue to schedule the handle
+     * @param h
+     *            the handle to restore
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    public static void restoreEvent(DataInput in, Clock clock, EventHandle h) throws IOException
+    {
+        clock.removeEvent(h);
+        int count = in.readInt();
+        for (int cntr = 0; cntr < count; cntr++)
+            clock.insertEvent(h, in.readLong());
+    }
+
+
+    private static void writePart(DataOutput out, Checkpointable part) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream block = new DataOutputStream(bytes);
+        part.saveState(block);
+        block.flush();
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+    }
+
+
+    private static void readPart(DataInput in, Checkpointable part) throws IOException
+    {
+        byte[] block = new byte[in.readInt()];
+        in.readFully(block);
+        if (part != null)
+            part.restoreState(new DataInputStream(new ByteArrayInputStream(block)));
+    }
+}
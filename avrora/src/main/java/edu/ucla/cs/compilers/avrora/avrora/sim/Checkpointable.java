@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The <code>Checkpointable</code> interface is implemented by the parts of a
+ * simulation (interpreters, internal devices, external devices, platforms)
+ * whose state can be written to a checkpoint and later restored, possibly in a
+ * different JVM. A part writes only its own state; the <code>Checkpoint</code>
+ * class frames the output of each part so that parts which are not present in
+ * a later build can be skipped. Events that a part has scheduled are saved
+ * with their remaining delays, for example with
+ * <code>Checkpoint.saveEvent()</code>.
+ *
+ * @see Checkpoint
+ */
+public interface Checkpointable
+{
+
+    /**
+     * The <code>saveState()</code> method writes the state of this part of the
+     * simulation to the specified output.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    public void saveState(DataOutput out) throws IOException;
+
+
+    /**
+     * The <code>restoreState()</code> method reads the state of this part of
+     * the simulation as written by <code>saveState()</code>. Any events that
+     * were pending when the state was saved must be rescheduled relative to the
+     * current time of the node.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    public void restoreState(DataInput in) throws IOException;
+
+    /**
+     * The <code>Stateless</code> interface marks the parts of a simulation
+     * that have no state of their own that would need to be saved, for example
+     * devices whose state is entirely determined by the levels of the pins of
+     * the microcontroller, which are restored with the microcontroller. A
+     * checkpoint can only be taken if every part of every node is either
+     * <code>Checkpointable</code> or <code>Stateless</code>.
+     */
+    public interface Stateless
+    {
+    }
+}
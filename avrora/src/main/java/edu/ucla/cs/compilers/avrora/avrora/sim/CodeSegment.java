@@ -33,6 +33,8 @@
 package edu.ucla.cs.compilers.avrora.avrora.sim;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyInstr;
 import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyInstrProperties;
@@ -125,10 +127,92 @@ public class CodeSegment extends Segment
      */
     protected LegacyInstr[] segment_instr;
 
-    protected final NoLegacyInstr NO_INSTR = new NoLegacyInstr();
+    static LegacyInstrProperties NO_INSTR_PROPS = new LegacyInstrProperties(
+            "<none>", "<none>", 2, 1);
+
+    protected static final LegacyInstr NO_INSTR = new NoLegacyInstr();
 
     protected CodeSharer codeSharer;
 
+    /**
+     * The <code>sharedCode</code> field records whether the instruction array
+     * of this segment is still the loaded program image shared with other
+     * nodes running the same program. The first probe or write of an
+     * instruction replaces it with a private copy, since the interpreter
+     * dispatches through one flat array.
+     */
+    protected boolean sharedCode;
+
+    /**
+     * The machine code is stored in pages of <code>DATA_PAGE_SIZE</code>
+     * bytes. The <code>data_pages</code> field stores the pages of this
+     * segment, which are shared with the program image and with other nodes
+     * until they are written. The <code>privateData</code> field records which
+     * pages have been copied by this segment. Writing a byte, e.g. the node ID
+     * when the program is loaded, therefore copies only the page written.
+     */
+    protected static final int DATA_PAGE_BITS = 8;
+    protected static final int DATA_PAGE_SIZE = 1 << DATA_PAGE_BITS;
+    protected static final int DATA_PAGE_MASK = DATA_PAGE_SIZE - 1;
+
+    protected byte[][] data_pages;
+    protected boolean[] privateData;
+
+    /**
+     * The <code>ERASED_PAGE</code> field stores a page in which every byte has
+     * the default value. It is shared by all erased pages of all segments.
+     */
+    private static final byte[] ERASED_PAGE = newErasedPage();
+
+    /**
+     * The <code>images</code> field caches the decoded image of each loaded
+     * program so that all segments loading the same program share one copy of
+     * the instructions and machine code until they are written.
+     */
+    private static final Map<Program, Image> images = new WeakHashMap<Program, Image>();
+
+    private static class Image
+    {
+        final LegacyInstr[] instr;
+        final byte[][] pages;
+
+
+        Image(Program p, int size)
+        {
+            instr = new LegacyInstr[size];
+            byte[] data = new byte[size];
+            Arrays.fill(instr, NO_INSTR);
+            Arrays.fill(data, DEFAULT_VALUE);
+            for (int cntr = p.program_start; cntr < p.program_end;)
+            {
+                LegacyInstr i = (LegacyInstr) p.readInstr(cntr);
+                if (i != null)
+                {
+                    instr[cntr] = i;
+                    cntr += i.getSize();
+                } else
+                {
+                    cntr += 2;
+                }
+            }
+
+            // now initialize the flash data
+            for (int cntr = p.program_start; cntr < p.program_end; cntr++)
+                data[cntr] = p.readProgramByte(cntr);
+
+            // split it into pages; erased pages are not stored
+            pages = new byte[numPages(size)][];
+            for (int cntr = 0; cntr < pages.length; cntr++)
+            {
+                int start = cntr << DATA_PAGE_BITS;
+                byte[] page = Arrays.copyOfRange(data, start, start
+                        + DATA_PAGE_SIZE);
+                pages[cntr] = Arrays.equals(page, ERASED_PAGE) ? ERASED_PAGE
+                        : page;
+            }
+        }
+    }
+
     /**
      * The <code>CodeSharer</code> interface is used to allow sharing of the
      * underlying array representing the code. Only the interpreter should share
@@ -154,9 +238,27 @@ public class CodeSegment extends Segment
      */
     public CodeSegment(String name, int size, AtmelInterpreter bi)
     {
-        super(name, size, DEFAULT_VALUE, bi.state);
+        // the bytes are stored in pages instead of a single array
+        super(name, size, DEFAULT_VALUE, bi.state, null);
         interpreter = bi;
         segment_instr = new LegacyInstr[size];
+        data_pages = new byte[numPages(size)][];
+        Arrays.fill(data_pages, ERASED_PAGE);
+        privateData = new boolean[data_pages.length];
+    }
+
+
+    private static int numPages(int size)
+    {
+        return (size + DATA_PAGE_MASK) >> DATA_PAGE_BITS;
+    }
+
+
+    private static byte[] newErasedPage()
+    {
+        byte[] page = new byte[DATA_PAGE_SIZE];
+        Arrays.fill(page, DEFAULT_VALUE);
+        return page;
     }
 
 
@@ -179,34 +281,58 @@ public class CodeSegment extends Segment
     }
 
 
+    /**
+     * The <code>share()</code> method is not supported for code segments,
+     * because their bytes are not stored in a single array.
+     *
+     * @param s
+     *            the sharer that requests the underlying data
+     * @return never returns normally
+     */
+    @Override
+    public byte[] share(Sharer s)
+    {
+        throw Util.failure("Sharing of paged code segment not supported");
+    }
+
+
     /**
      * The <code>load()</code> method loads a program into the flash memory,
      * writing the binary machine code and the disassembled instructions. This
      * should only be done once for a <code>FlashMemory</code> object, before
-     * any instrumentation is added.
+     * any instrumentation is added. The program image is shared with every
+     * other segment of the same size that loads the same program. The
+     * instructions are copied the first time this segment is probed or its
+     * code is changed; a write to the machine code copies only the page that
+     * is written.
      * 
      * @param p
      *            the program to be loaded into the flash memory
      */
     public void load(Program p)
     {
-        Arrays.fill(segment_instr, NO_INSTR);
-        for (int cntr = p.program_start; cntr < p.program_end;)
+        Image image = getImage(p, length);
+        segment_instr = image.instr;
+        data_pages = image.pages.clone();
+        Arrays.fill(privateData, false);
+        sharedCode = true;
+        if (codeSharer != null)
+            codeSharer.update(segment_instr);
+    }
+
+
+    private static Image getImage(Program p, int size)
+    {
+        synchronized (images)
         {
-            LegacyInstr i = (LegacyInstr) p.readInstr(cntr);
-            if (i != null)
-            {
-                segment_instr[cntr] = i;
-                cntr += i.getSize();
-            } else
+            Image image = images.get(p);
+            if (image == null || image.instr.length != size)
             {
-                cntr += 2;
+                image = new Image(p, size);
+                images.put(p, image);
             }
+            return image;
         }
-
-        // now initialize the flash data
-        for (int cntr = p.program_start; cntr < p.program_end; cntr++)
-            segment_data[cntr] = p.readProgramByte(cntr);
     }
 
 
@@ -319,7 +445,40 @@ public class CodeSegment extends Segment
 
     protected void writeInstr(int address, LegacyInstr i)
     {
+        if (sharedCode)
+        {
+            segment_instr = segment_instr.clone();
+            sharedCode = false;
+            if (codeSharer != null)
+                codeSharer.update(segment_instr);
+        }
         segment_instr[address] = i;
+        interpreter.codeChanged(address);
+    }
+
+
+    @Override
+    protected byte direct_read(int address)
+    {
+        // the last page may extend beyond the end of the segment
+        if (address >= length)
+            throw new ArrayIndexOutOfBoundsException(address);
+        return data_pages[address >> DATA_PAGE_BITS][address & DATA_PAGE_MASK];
+    }
+
+
+    @Override
+    protected void direct_write(int address, byte val)
+    {
+        if (address >= length)
+            throw new ArrayIndexOutOfBoundsException(address);
+        int page = address >> DATA_PAGE_BITS;
+        if (!privateData[page])
+        {
+            data_pages[page] = data_pages[page].clone();
+            privateData[page] = true;
+        }
+        data_pages[page][address & DATA_PAGE_MASK] = val;
     }
 
     /**
@@ -412,10 +571,7 @@ public class CodeSegment extends Segment
         }
     }
 
-    static LegacyInstrProperties NO_INSTR_PROPS = new LegacyInstrProperties(
-            "<none>", "<none>", 2, 1);
-
-    private class NoLegacyInstr extends LegacyInstr
+    private static class NoLegacyInstr extends LegacyInstr
     {
 
         NoLegacyInstr()
@@ -451,7 +607,7 @@ public class CodeSegment extends Segment
         public void accept(LegacyInstrVisitor v)
         {
             throw new InterpreterError.NoSuchInstructionException(
-                    interpreter.getState().getPC());
+                    ((AtmelInterpreter) v).getState().getPC());
         }
 
 
@@ -33,6 +33,7 @@
 package edu.ucla.cs.compilers.avrora.avrora.sim;
 
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventHandle;
 import edu.ucla.cs.compilers.avrora.avrora.sim.util.MulticastFSMProbe;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
@@ -149,6 +150,7 @@ public class FiniteStateMachine
     protected final int startState;
     protected final Clock clock;
     protected final TransitionEvent transEvent = new TransitionEvent();
+    protected final EventHandle transHandle = new EventHandle(transEvent);
     protected final MulticastFSMProbe globalProbe = new MulticastFSMProbe();
     protected State[] states;
 
@@ -377,7 +379,7 @@ public class FiniteStateMachine
             // transition will complete in the future
             transEvent.oldState = curState;
             transEvent.newState = newState;
-            clock.insertEvent(transEvent, ttime);
+            clock.insertEvent(transHandle, ttime);
         }
     }
 
@@ -118,6 +118,21 @@ public abstract class Interpreter
     public abstract void stop();
 
 
+    /**
+     * The <code>suspend()</code> method stops the execution of the
+     * interpreter at the next instruction boundary, but unlike
+     * <code>stop()</code>, it leaves the interpreter in a state where a
+     * subsequent call to <code>start()</code> resumes execution where it left
+     * off rather than from the reset vector. This is used by synchronizers
+     * that multiplex many nodes onto a smaller number of threads. By default,
+     * this method simply calls <code>stop()</code>.
+     */
+    public void suspend()
+    {
+        stop();
+    }
+
+
     /**
      * The <code>getSimulator()</code> method gets a reference to the simulator
      * which encapsulates this interpreter.
@@ -261,6 +276,44 @@ public abstract class Interpreter
     protected abstract void removeWatch(Simulator.Watch p, int data_addr);
 
 
+    /**
+     * The <code>insertWatch()</code> method is used internally to insert a
+     * single watch on a range of memory locations. The default implementation
+     * inserts the watch on each address of the range in turn; interpreters
+     * can override it with a more compact representation.
+     * 
+     * @param p
+     *            the watch to insert on the memory locations
+     * @param low
+     *            the first address of the range
+     * @param high
+     *            the address immediately following the range
+     */
+    protected void insertWatch(Simulator.Watch p, int low, int high)
+    {
+        for (int addr = low; addr < high; addr++)
+            insertWatch(p, addr);
+    }
+
+
+    /**
+     * The <code>removeWatch()</code> method is used internally to remove a
+     * watch that was inserted on a range of memory locations.
+     * 
+     * @param p
+     *            the watch to remove from the memory locations
+     * @param low
+     *            the first address of the range
+     * @param high
+     *            the address immediately following the range
+     */
+    protected void removeWatch(Simulator.Watch p, int low, int high)
+    {
+        for (int addr = low; addr < high; addr++)
+            removeWatch(p, addr);
+    }
+
+
     /**
      * The <code>delay()</code> method is used to add some delay cycles before
      * the next instruction is executed. This is necessary because some devices
@@ -77,11 +77,7 @@ public class Segment
      */
     public Segment(String name, int size, byte defvalue, State st)
     {
-        this.name = name;
-        this.length = size;
-        this.value = defvalue;
-        this.segment_data = new byte[size];
-        this.state = st;
+        this(name, size, defvalue, st, new byte[size]);
 
         // if the default value is something other than zero, initialize the
         // array
@@ -89,6 +85,33 @@ public class Segment
             Arrays.fill(segment_data, defvalue);
     }
 
+
+    /**
+     * This constructor for the <code>Segment</code> class creates a segment
+     * that uses the specified array to store its values. A subclass that
+     * stores its values in another representation passes null and overrides
+     * the methods that access the array.
+     * 
+     * @param name
+     *            the name of the segment as a string
+     * @param size
+     *            the size of the segment in bytes
+     * @param defvalue
+     *            the default value of bytes in this segment
+     * @param st
+     *            the state object to pass to watches when fired
+     * @param data
+     *            the array that stores the values of this segment, or null
+     */
+    protected Segment(String name, int size, byte defvalue, State st, byte[] data)
+    {
+        this.name = name;
+        this.length = size;
+        this.value = defvalue;
+        this.segment_data = data;
+        this.state = st;
+    }
+
     /**
      * The <code>Sharer</code> interface must be implemented by a class that
      * needs to share the underlying data representation for efficiency reasons.
@@ -29,23 +29,30 @@ import edu.ucla.cs.compilers.avrora.avrora.core.LoadableProgram;
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
 import edu.ucla.cs.compilers.avrora.avrora.monitors.Monitor;
 import edu.ucla.cs.compilers.avrora.avrora.monitors.MonitorFactory;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.DeltaQueue;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventQueue;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Synchronizer;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.TimingWheelQueue;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.AtmelMicrocontroller;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.EEPROM;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.MicrocontrollerFactory;
+import edu.ucla.cs.compilers.avrora.avrora.sim.output.OutputPipeline;
 import edu.ucla.cs.compilers.avrora.avrora.sim.output.SimPrinter;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.DefaultPlatform;
+import edu.ucla.cs.compilers.avrora.avrora.sim.platform.ExternalFlash;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.Platform;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.PlatformFactory;
 import edu.ucla.cs.compilers.avrora.avrora.sim.util.ClockCycleTimeout;
 import edu.ucla.cs.compilers.avrora.avrora.sim.util.InterruptScheduler;
+import edu.ucla.cs.compilers.avrora.avrora.sim.util.RandomStream;
 import edu.ucla.cs.compilers.avrora.cck.help.HelpCategory;
 import edu.ucla.cs.compilers.avrora.cck.text.Verbose;
 import edu.ucla.cs.compilers.avrora.cck.util.Option;
 import edu.ucla.cs.compilers.avrora.cck.util.Options;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
@@ -89,13 +96,51 @@ public abstract class Simulation extends HelpCategory {
             "node 0.");
     public final Option.Str EELOADIMAGE = newOption("eeprom-load-image", "", "This option specifies a (binary) image " +
             "file to load into EEPROM before starting " + "the simulation.");
+    public final Option.Str DATAFLASH_DIR = newOption("dataflash-dir", "", "This option specifies a directory in " +
+            "which the contents of the external dataflash of each node are kept in a memory mapped file named " +
+            "after the node, e.g. \"node0.flash\". The files are kept after the simulation terminates, so that " +
+            "a later simulation continues with the contents of the dataflash where this one ended. When this " +
+            "option is not set, the contents are kept on the heap and are lost at the end of the simulation.");
+    public final Option.Str DATAFLASH_IMAGE = newOption("dataflash-image", "", "This option specifies a raw " +
+            "(binary) image of the whole external dataflash that each node starts with instead of an erased " +
+            "dataflash. The image is shared by all nodes and is never written to; each node only copies the " +
+            "pages it writes. When the \"dataflash-dir\" option is also set, the image is only used for nodes " +
+            "whose file does not exist yet.");
+    public final Option.Str EVENT_QUEUE = newOption("event-queue", "delta", "This option selects the data " +
+            "structure used for the event queue of each node. The \"delta\" queue is a linked delta list whose " +
+            "insertion cost grows with the distance of the event into the future. The \"wheel\" queue is a " +
+            "hierarchical timing wheel with constant time insertion and removal.");
+    public final Option.Bool BASIC_BLOCKS = newOption("basic-blocks", false, "This option enables basic block " +
+            "execution in the AVR interpreter. Runs of instructions that only operate on registers are " +
+            "decoded into blocks that are executed with a single clock update at their end, as long as no " +
+            "event falls inside the block. The simulation results are the same as without this option.");
+    public final Option.Bool BINARY_TRANSLATION = newOption("binary-translation", false, "This option enables " +
+            "dynamic binary translation in the AVR interpreter. It implies the \"basic-blocks\" option; in " +
+            "addition, basic blocks that are executed often are compiled into JVM classes at runtime, which " +
+            "keep the registers and flags in local variables.");
+    public final Option.Str CHECKPOINT = newOption("checkpoint", "", "This option specifies the name of a file to " +
+            "which the state of all nodes is written when they reach the time given by the \"seconds\" option. " +
+            "The checkpoint can be restored later, also in a different run of Avrora, with the \"restore\" " +
+            "option. A checkpoint is refused before the simulation starts if a device of the nodes does not " +
+            "support it.");
+    public final Option.Str RESTORE = newOption("restore", "", "This option specifies the name of a checkpoint file " +
+            "written by the \"checkpoint\" option. The nodes of the simulation, which must be running the same " +
+            "programs, are restored to the saved state before the simulation starts. Note that the \"seconds\" " +
+            "option then specifies the time to simulate in addition to the time stored in the checkpoint.");
+    public final Option.Bool ASYNC_OUTPUT = newOption("async-output", false, "This option controls how the output " +
+            "of the nodes is printed. By default, each line is printed immediately from the thread of the node. " +
+            "When this option is enabled, each node queues its output and a separate thread prints the output " +
+            "of all nodes in the order of simulated time, in large batches, which is faster for simulations " +
+            "that print a lot.");
     protected int num_nodes;
     protected Node[] nodes;
     protected boolean running;
     protected boolean paused;
     protected Random random;
+    private Long randomBase;
     protected LinkedList<MonitorFactory> monitorFactoryList;
     protected Synchronizer synchronizer;
+    protected final OutputPipeline output = new OutputPipeline();
 
     /**
      * The constructor for the <code>Simulation</code> class creates a new simulation. This is intended to be called
@@ -115,6 +160,16 @@ public abstract class Simulation extends HelpCategory {
         monitorFactoryList = new LinkedList<MonitorFactory>();
     }
 
+    /**
+     * The <code>getSynchronizer()</code> method returns the synchronizer that is used to start, stop, and
+     * synchronize the nodes of this simulation.
+     *
+     * @return the synchronizer of this simulation
+     */
+    public Synchronizer getSynchronizer() {
+        return synchronizer;
+    }
+
     /**
      * The <code>process()</code> method is called when the simulation is created from the command line. This gives the
      * simulation instance a chance to read in options from the command line, instantiate nodes, and configure the
@@ -132,13 +187,33 @@ public abstract class Simulation extends HelpCategory {
 
     public SimPrinter getPrinter(Simulator s, String category) {
         if (Verbose.isVerbose(category)) {
-            return new SimPrinter(s, category);
+            return new SimPrinter(s, category, getOutputChannel(s));
         }
         return null;
     }
 
     public SimPrinter getPrinter(Simulator s) {
-        return new SimPrinter(s, "");
+        return new SimPrinter(s, "", getOutputChannel(s));
+    }
+
+    protected OutputPipeline.Channel getOutputChannel(Simulator s) {
+        if (!ASYNC_OUTPUT.get()) return null;
+        return output.getChannel(s);
+    }
+
+    /**
+     * The <code>newEventQueue()</code> method creates a new, empty event queue for the main clock of a node, as
+     * selected by the "event-queue" option. This method is intended to be called by platform factories when they
+     * create the clock domain for a new node.
+     *
+     * @return a new event queue for the main clock of a node
+     */
+    public EventQueue newEventQueue() {
+        String name = EVENT_QUEUE.get();
+        if ("delta".equals(name)) return new DeltaQueue();
+        if ("wheel".equals(name)) return new TimingWheelQueue();
+        Util.userError("Unknown event queue", name);
+        return null;
     }
 
     /**
@@ -184,19 +259,41 @@ public abstract class Simulation extends HelpCategory {
     /**
      * The <code>getRandom()</code> method returns a reference to a random number generator that is used in the
      * simulation. The random number generator may be used to randomly perturb node start times, drop packets, etc. This
-     * random number generator has a user-selectable random seed for reproducibility.
+     * random number generator has a user-selectable random seed for reproducibility. It is shared and should only be
+     * used while setting up the simulation; the nodes and their devices should use their own streams obtained from
+     * <code>getRandomStream()</code>.
      *
      * @return a reference to the random number generator for this simulation
      */
     public Random getRandom() {
-        if (random == null) {
-            long seed = RANDOMSEED.get();
-            if (seed != 0) random = new Random(seed);
-            else random = new Random();
-        }
+        if (random == null) random = getRandomStream(-1, "simulation");
         return random;
     }
 
+    /**
+     * The <code>getRandomStream()</code> method creates a new random number generator for a node or a device. Its
+     * seed is derived from the random seed of the simulation, the node ID and the name of the stream, so the numbers it
+     * produces are reproducible regardless of how the threads of the simulation are scheduled. The generator is not
+     * thread safe and should only be used by the thread of the node.
+     *
+     * @param node the ID of the node, or -1 for a stream that does not belong to a node
+     * @param name the name of the stream, unique among the streams of the node
+     * @return a new random number generator
+     */
+    public Random getRandomStream(int node, String name) {
+        return new RandomStream(RandomStream.seed(getRandomBase(), node, name));
+    }
+
+    private long getRandomBase() {
+        synchronized (RANDOMSEED) {
+            if (randomBase == null) {
+                long seed = RANDOMSEED.get();
+                randomBase = seed != 0 ? seed : new Random().nextLong();
+            }
+            return randomBase;
+        }
+    }
+
     private void grow() {
         Node[] nnodes = new Node[nodes.length * 2];
         System.arraycopy(nodes, 0, nnodes, 0, nodes.length);
@@ -240,6 +337,8 @@ public abstract class Simulation extends HelpCategory {
         // if we are already running, do nothing
         if (running) return;
         instantiateNodes();
+        if (!CHECKPOINT.isBlank()) Checkpoint.check(this);
+        if (!RESTORE.isBlank()) Checkpoint.restore(this, RESTORE.get());
         synchronizer.start();
         running = true;
     }
@@ -280,18 +379,25 @@ public abstract class Simulation extends HelpCategory {
     public synchronized void stop() {
         if (!running) return;
         synchronizer.stop();
+        output.close();
         paused = false;
         running = false;
     }
 
     /**
      * The <code>join()</code> method waits for the simulation to terminate before returning. After this method returns,
-     * the nodes are all guaranteed to be have terminated.
+     * the nodes are all guaranteed to be have terminated and their queued output has been printed. If the "checkpoint"
+     * option is set, the state of the nodes is then written to the checkpoint file.
      *
      * @throws InterruptedException if the thread is interrupt
      */
     public synchronized void join() throws InterruptedException {
-        synchronizer.join();
+        try {
+            synchronizer.join();
+        } finally {
+            output.close();
+        }
+        if (!CHECKPOINT.isBlank()) Checkpoint.save(this, CHECKPOINT.get());
     }
 
     /**
@@ -333,6 +439,17 @@ public abstract class Simulation extends HelpCategory {
         return new Iter();
     }
 
+    /**
+     * The <code>getSharedParts()</code> method returns the parts of the simulation that are shared by the nodes and
+     * therefore do not belong to any of them, such as the radio medium, so that a checkpoint can save them. The default
+     * implementation returns an empty map.
+     *
+     * @return a map from the names of the shared parts to the parts
+     */
+    protected Map<String, Object> getSharedParts() {
+        return Collections.emptyMap();
+    }
+
     /**
      * The <code>getPlatform()</code> method is a helper method for extensions of the <code>Simulation</code> class.
      * This method will consult the value of the \"platform\" command line option and construct an appropriate
@@ -400,6 +517,10 @@ public abstract class Simulation extends HelpCategory {
         protected Simulator simulator;
         protected SimulatorThread thread;
 
+        protected Simulator.Event timeout;
+        protected long stopTime = -1;
+        protected boolean checkpointed;
+
         /**
          * The constructor for the <code>Node</code> class creates a representation of a new node that includes its id,
          * a factory capable of creating a platform instance (i.e. microcontroller with attached devices) and the
@@ -429,9 +550,12 @@ public abstract class Simulation extends HelpCategory {
             // create the simulator object
             platform = platformFactory.newPlatform(id, Simulation.this, path.getProgram());
             simulator = platform.getMicrocontroller().getSimulator();
+            // open the output channel before the node runs, on this thread
+            getOutputChannel(simulator);
             processTimeout();
             processInterruptSched();
             processEepromLoad();
+            processDataflash();
             synchronizer.addNode(this);
         }
 
@@ -454,8 +578,58 @@ public abstract class Simulation extends HelpCategory {
         private void processTimeout() {
             double secs = SECONDS.get();
             if (secs > 0) {
-                long cycles = (long) (secs * simulator.getClock().getHZ());
-                simulator.insertEvent(new ClockCycleTimeout(simulator, cycles), cycles);
+                stopTime = (long) (secs * simulator.getClock().getHZ());
+                if (CHECKPOINT.isBlank()) timeout = new ClockCycleTimeout(simulator, stopTime);
+                else timeout = new CheckpointEvent();
+                simulator.insertEvent(timeout, stopTime);
+            }
+        }
+
+        /**
+         * The <code>finish()</code> method is called by the synchronizer when this node has stopped running, so that
+         * its queued output no longer holds back the output of the nodes that are still running.
+         */
+        public void finish() {
+            output.finish(simulator);
+        }
+
+        /**
+         * The <code>restoreTime()</code> method sets the clock of this node to the count stored in a checkpoint. The
+         * time to simulate is counted from the time at which the checkpoint was taken, which may be slightly before
+         * the count, since the instruction executing at that time was completed.
+         *
+         * @param time  the time at which the checkpoint was taken
+         * @param count the clock count of this node when the checkpoint was taken
+         */
+        protected void restoreTime(long time, long count) {
+            simulator.getClock().setCount(count);
+            if (timeout != null) {
+                stopTime += time;
+                simulator.removeEvent(timeout);
+                simulator.insertEvent(timeout, stopTime - count);
+            }
+        }
+
+        /**
+         * The <code>isCheckpointed()</code> method checks whether this node was stopped in order to take a
+         * checkpoint.
+         *
+         * @return true if this node has reached the time of the checkpoint; false otherwise
+         */
+        public boolean isCheckpointed() {
+            return checkpointed;
+        }
+
+        /**
+         * The <code>CheckpointEvent</code> class stops the node when it reaches the time at which the checkpoint is
+         * taken. Unlike a timeout, it does not unwind the simulator in the middle of processing events; the node
+         * completes the current instruction and the events due during it, and then stops.
+         */
+        protected class CheckpointEvent implements Simulator.Event {
+            @Override
+            public void fire() {
+                checkpointed = true;
+                simulator.stop();
             }
         }
 
@@ -494,6 +668,29 @@ public abstract class Simulation extends HelpCategory {
             }
         }
 
+        private void processDataflash() {
+            if (DATAFLASH_DIR.isBlank() && DATAFLASH_IMAGE.isBlank()) return;
+            Object device = platform.getDevice("flash");
+            // not all platforms have an external dataflash
+            if (!(device instanceof ExternalFlash)) return;
+            File base = null;
+            if (!DATAFLASH_IMAGE.isBlank()) {
+                base = new File(DATAFLASH_IMAGE.get());
+                if (!base.isFile()) Util.userError("Dataflash image not found", base.getPath());
+            }
+            File image = null;
+            if (!DATAFLASH_DIR.isBlank()) {
+                File dir = new File(DATAFLASH_DIR.get());
+                if (!dir.isDirectory() && !dir.mkdirs()) Util.userError("Cannot create directory", dir.getPath());
+                image = new File(dir, "node" + id + ".flash");
+            }
+            try {
+                ((ExternalFlash) device).mapImage(image, base);
+            } catch (IOException e) {
+                throw Util.unexpected(e);
+            }
+        }
+
         /**
          * The <code>getSimulator()</code> method returns the simulator instance for this node while it is executing.
          * When the node is not currently executing (i.e. the simulation has not started yet), this method will return
@@ -34,6 +34,7 @@ package edu.ucla.cs.compilers.avrora.avrora.sim;
 
 import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyInstr;
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventHandle;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
 import edu.ucla.cs.compilers.avrora.avrora.sim.energy.EnergyControl;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
@@ -757,6 +758,18 @@ public class Simulator
     }
 
 
+    /**
+     * The <code>suspend()</code> method suspends the simulation at the next
+     * instruction boundary. A later call to <code>start()</code> resumes
+     * execution from the point at which it was suspended. This method should
+     * only be called from within a probe or event of this simulator.
+     */
+    public void suspend()
+    {
+        interpreter.suspend();
+    }
+
+
     /**
      * The <code>insertProbe()</code> method allows a probe to be inserted that
      * is executed before and after every instruction that is executed by the
@@ -850,6 +863,43 @@ public class Simulator
     }
 
 
+    /**
+     * The <code>insertWatch()</code> method allows a single watch to be
+     * inserted on a range of memory locations. The watch will be fired before
+     * and after every read or write to any address in the range. This is much
+     * cheaper than inserting the watch on each address separately.
+     *
+     * @param p
+     *            the watch to insert
+     * @param low
+     *            the first data address of the range
+     * @param high
+     *            the data address immediately following the range
+     */
+    public void insertWatch(Watch p, int low, int high)
+    {
+        interpreter.insertWatch(p, low, high);
+    }
+
+
+    /**
+     * The <code>removeWatch()</code> method removes a watch that was inserted
+     * on a range of memory locations. The range must be the same as the one
+     * given when the watch was inserted.
+     *
+     * @param p
+     *            the watch to remove
+     * @param low
+     *            the first data address of the range
+     * @param high
+     *            the data address immediately following the range
+     */
+    public void removeWatch(Watch p, int low, int high)
+    {
+        interpreter.removeWatch(p, low, high);
+    }
+
+
     /**
      * The <code>forceInterrupt()</code> method forces the simulator to post the
      * specified interrupt regardless of the normal source of the interrupt. If
@@ -900,6 +950,35 @@ public class Simulator
     }
 
 
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle in
+     * the event queue of the simulator with the specified delay in clock
+     * cycles. If the handle is already scheduled, it is moved to the new time.
+     *
+     * @param h
+     *            the handle of the event to be inserted
+     * @param cycles
+     *            the number of cycles in the future at which to fire
+     */
+    public void insertEvent(EventHandle h, long cycles)
+    {
+        clock.insertEvent(h, cycles);
+    }
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the event queue of the simulator in constant time, if it is scheduled.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    public void removeEvent(EventHandle h)
+    {
+        clock.removeEvent(h);
+    }
+
+
     /**
      * The <code>insertExceptionWatch()</code> method registers an
      * <code>ExceptionWatch</code> instance.
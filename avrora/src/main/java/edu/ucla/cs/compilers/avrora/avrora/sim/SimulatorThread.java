@@ -130,6 +130,7 @@ public class SimulatorThread extends Thread
         }
         finally
         {
+            node.finish();
             if (synchronizer != null)
                 synchronizer.removeNode(node);
         }
@@ -121,6 +121,30 @@ public abstract class Clock
     public abstract void removeEvent(Simulator.Event e);
 
 
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle in
+     * the event queue of the clock with the specified delay in clock cycles.
+     * If the handle is already scheduled, it is moved to the new time.
+     *
+     * @param h
+     *            the handle of the event to be inserted
+     * @param cycles
+     *            the number of cycles in the future at which to fire
+     */
+    public abstract void insertEvent(EventHandle h, long cycles);
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the event queue of the clock, if it is scheduled. Unlike removing an
+     * event, this does not require a search of the queue.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    public abstract void removeEvent(EventHandle h);
+
+
     /**
      * The <code>millisToCycles()</code> method converts the specified number of
      * milliseconds to a cycle count. The conversion factor used is the number
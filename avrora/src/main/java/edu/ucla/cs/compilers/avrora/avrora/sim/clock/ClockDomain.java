@@ -59,9 +59,25 @@ public class ClockDomain
      *            the speed of the main clock in cycles per second
      */
     public ClockDomain(long mainHz)
+    {
+        this(mainHz, new DeltaQueue());
+    }
+
+
+    /**
+     * The constructor for the <code>ClockDomain</code> class constructs the
+     * main clock (from which all other clocks are derived) with the specified
+     * speed, driven by the specified event queue.
+     * 
+     * @param mainHz
+     *            the speed of the main clock in cycles per second
+     * @param q
+     *            the (empty) event queue that drives the main clock
+     */
+    public ClockDomain(long mainHz, EventQueue q)
     {
         clockMap = new HashMap<String, Clock>();
-        mainClock = new MainClock("main", mainHz);
+        mainClock = new MainClock("main", mainHz, q);
         clockMap.put("main", mainClock);
     }
 
@@ -139,9 +139,7 @@ public class ClockPrescaler extends Clock
     @Override
     public void insertEvent(Simulator.Event e, long delta)
     {
-        long driverCount = driveClock.getCount() - base;
-        long nextTick = ((driverCount / divider) + 1) * divider;
-        driveClock.insertEvent(e, nextTick - driverCount);
+        driveClock.insertEvent(e, driverDelay(delta));
     }
 
 
@@ -160,6 +158,46 @@ public class ClockPrescaler extends Clock
     }
 
 
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle in
+     * the event queue of the clock, in the same way as an event inserted with
+     * <code>insertEvent()</code>. If the handle is already scheduled, it is
+     * moved to the new time.
+     *
+     * @param h
+     *            the handle of the event to be inserted
+     * @param delta
+     *            the number of (scaled) cycles in the future at which to fire
+     */
+    @Override
+    public void insertEvent(EventHandle h, long delta)
+    {
+        driveClock.insertEvent(h, driverDelay(delta));
+    }
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the event queue of the clock, if it is scheduled.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    @Override
+    public void removeEvent(EventHandle h)
+    {
+        driveClock.removeEvent(h);
+    }
+
+
+    private long driverDelay(long delta)
+    {
+        long driverCount = driveClock.getCount() - base;
+        long nextTick = ((driverCount / divider) + 1) * divider;
+        return nextTick - driverCount;
+    }
+
+
     /**
      * The <code>reset()</code> method resets the internal clock prescaler to
      * zero. Thus, the prescaler's previous phase is broken, and the clock
@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>ClusterSynchronizer</code> class implements a conservative
+ * parallel simulation for networks in which nodes only influence the nodes
+ * they are connected to, such as nodes connected by wires. The nodes are
+ * partitioned into clusters of connected nodes. Each cluster is run by a
+ * single worker thread in windows of global time no longer than the
+ * lookahead, i.e. the minimum latency of a connection, so that no node of the
+ * cluster passes the time at which a change on a connection reaches it.
+ * Different clusters never interact, so they run on different worker threads
+ * without synchronizing with each other, and a node that is not connected to
+ * any other node runs to completion without interruption.
+ * <p>
+ * Because all nodes of a cluster run on the same thread, a node may insert
+ * events into the queue of any node in its cluster, as long as the events
+ * are at least one lookahead in the future.
+ * </p>
+ */
+public class ClusterSynchronizer extends ParallelSynchronizer
+{
+
+    protected final Map<Simulator, Simulator> parent;
+    protected NodeTask[][] clusters;
+    protected ClusterWorker[] clusterWorkers;
+
+
+    /**
+     * The constructor for the <code>ClusterSynchronizer</code> class creates a
+     * new synchronizer that runs the clusters of nodes on the specified number
+     * of worker threads.
+     *
+     * @param p
+     *            the maximum length of a window of global time in clock cycles
+     * @param threads
+     *            the number of worker threads; if zero, one worker thread is
+     *            created for each available processor
+     */
+    public ClusterSynchronizer(long p, int threads)
+    {
+        super(p, threads);
+        parent = new HashMap<Simulator, Simulator>();
+    }
+
+
+    /**
+     * The <code>connect()</code> method records that the specified nodes can
+     * influence each other, which places them in the same cluster. This method
+     * should only be called before the <code>start()</code> method is called.
+     *
+     * @param a
+     *            the simulator of one node
+     * @param b
+     *            the simulator of the other node
+     */
+    public synchronized void connect(Simulator a, Simulator b)
+    {
+        Simulator ra = find(a);
+        Simulator rb = find(b);
+        if (ra != rb)
+            parent.put(ra, rb);
+    }
+
+
+    /**
+     * The <code>isConnected()</code> method checks whether the specified nodes
+     * are in the same cluster, i.e. whether they are connected directly or
+     * through other nodes.
+     *
+     * @param a
+     *            the simulator of one node
+     * @param b
+     *            the simulator of the other node
+     * @return true if the nodes are in the same cluster; false otherwise
+     */
+    public synchronized boolean isConnected(Simulator a, Simulator b)
+    {
+        return find(a) == find(b);
+    }
+
+
+    private Simulator find(Simulator s)
+    {
+        Simulator root = s;
+        for (Simulator p; (p = parent.get(root)) != null;)
+            root = p;
+        // compress the path to the root
+        while (s != root)
+        {
+            Simulator p = parent.get(s);
+            parent.put(s, root);
+            s = p;
+        }
+        return root;
+    }
+
+
+    /**
+     * The <code>ClusterWorker</code> class represents one of the threads in
+     * the pool. A worker repeatedly claims the next cluster that has not been
+     * run yet and runs it to completion.
+     */
+    protected class ClusterWorker extends Thread
+    {
+
+        protected ClusterWorker(int num)
+        {
+            super("cluster-" + num);
+        }
+
+
+        @Override
+        public void run()
+        {
+            for (int i = cursor.getAndIncrement(); i < clusters.length; i = cursor
+                    .getAndIncrement())
+            {
+                runCluster(clusters[i]);
+            }
+        }
+    }
+
+
+    /**
+     * The <code>runCluster()</code> method runs all nodes of a cluster, one
+     * window of global time after another, until all of them have terminated.
+     *
+     * @param c
+     *            the nodes of the cluster
+     */
+    protected void runCluster(NodeTask[] c)
+    {
+        if (c.length == 1)
+        {
+            // a single node never waits for any other node
+            c[0].runWindow(Long.MAX_VALUE);
+            return;
+        }
+        int live = c.length;
+        long end = 0;
+        while (live > 0)
+        {
+            end += lookahead;
+            int next = 0;
+            for (int i = 0; i < live; i++)
+            {
+                NodeTask t = c[i];
+                t.runWindow(end);
+                if (!t.finished)
+                    c[next++] = t;
+            }
+            live = next;
+        }
+    }
+
+
+    /**
+     * The <code>start()</code> method partitions the nodes into clusters and
+     * starts the worker threads.
+     */
+    @Override
+    public synchronized void start()
+    {
+        if (nodeMap.isEmpty())
+            throw Util.failure("No nodes in simulation");
+        LinkedHashMap<Simulator, List<NodeTask>> groups = new LinkedHashMap<Simulator, List<NodeTask>>();
+        for (NodeTask t : nodeMap.values())
+        {
+            Simulator root = find(t.simulator);
+            List<NodeTask> g = groups.get(root);
+            if (g == null)
+            {
+                g = new ArrayList<NodeTask>();
+                groups.put(root, g);
+            }
+            g.add(t);
+        }
+        clusters = new NodeTask[groups.size()][];
+        int i = 0;
+        for (List<NodeTask> g : groups.values())
+            clusters[i++] = g.toArray(new NodeTask[g.size()]);
+        cursor.set(0);
+
+        int count = Math.min(numWorkers, clusters.length);
+        clusterWorkers = new ClusterWorker[count];
+        for (i = 0; i < count; i++)
+        {
+            clusterWorkers[i] = new ClusterWorker(i);
+            clusterWorkers[i].start();
+        }
+    }
+
+
+    /**
+     * The <code>join()</code> method will block the caller until all of the
+     * worker threads have terminated, either through <code>stop()</code> being
+     * called, or all nodes terminating normally such as through a timeout.
+     */
+    @Override
+    public void join() throws InterruptedException
+    {
+        if (clusterWorkers == null)
+            return;
+        for (ClusterWorker w : clusterWorkers)
+        {
+            w.join();
+        }
+    }
+
+
+    /**
+     * The <code>getClusterCount()</code> method returns the number of clusters
+     * the nodes have been partitioned into.
+     *
+     * @return the number of clusters, or zero if the simulation has not been
+     *         started
+     */
+    public int getClusterCount()
+    {
+        return clusters == null ? 0 : clusters.length;
+    }
+}
@@ -57,7 +57,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
  * to store the maximum encountered simultaneous events. It does not use
  * standard libraries, casts, virtual dispatch, etc.
  */
-public class DeltaQueue
+public class DeltaQueue extends EventQueue
 {
 
     /**
@@ -77,12 +77,6 @@ public class DeltaQueue
      * free list is used to prevent garbage from accumulating.
      */
     protected EventList freeEventLists;
-    /**
-     * The <code>count</code> field stores the total number of cycles that this
-     * queue has been advanced, i.e. the sum of all <code>advance()</code>
-     * calls.
-     */
-    protected long count;
 
     /**
      * The <code>add</code> method adds an event to be executed in the future.
@@ -92,15 +86,32 @@ public class DeltaQueue
      * @param cycles
      *            the number of clock cycles in the future
      */
+    @Override
     public void insertEvent(Simulator.Event t, long cycles)
     {
-        // degenerate case, nothing in the queue.
-        if (head == null)
-        {
-            head = newLink(t, cycles, null);
-            return;
-        }
+        insert(t, cycles);
+    }
+
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle to
+     * fire its event in the future, moving it if it is already scheduled.
+     *
+     * @param h
+     *            the handle of the event to add
+     * @param cycles
+     *            the number of clock cycles in the future
+     */
+    @Override
+    public void insertEvent(EventHandle h, long cycles)
+    {
+        removeEvent(h);
+        EventList l = insert(h.event, cycles);
+        l.handle = h;
+        h.node = l;
+    }
 
+    private EventList insert(Simulator.Event t, long cycles)
+    {
         // search for first link that is "after" this cycle delta
         Link prev = null;
         Link pos = head;
@@ -111,28 +122,12 @@ public class DeltaQueue
             pos = pos.next;
         }
 
-        if (pos == null)
-        {
-            // end of the head
-            insertAfter(prev, t, cycles, null);
-        } else if (cycles == pos.delta)
-        {
+        if (pos != null && cycles == pos.delta)
             // exactly matched the delta of some other event
-            pos.add(t);
-        } else
-        {
-            // insert a new link in the chain
-            insertAfter(prev, t, cycles, pos);
-        }
-    }
+            return pos.add(t);
 
-    private void insertAfter(Link prev, Simulator.Event t, long cycles,
-            Link next)
-    {
-        if (prev != null)
-            prev.next = newLink(t, cycles, next);
-        else
-            head = newLink(t, cycles, next);
+        // insert a new link in the chain (or at the end)
+        return newLink(cycles, prev, pos).add(t);
     }
 
     /**
@@ -142,13 +137,9 @@ public class DeltaQueue
      * @param e
      *            the event to remove
      */
+    @Override
     public void removeEvent(Simulator.Event e)
     {
-        if (head == null)
-            return;
-
-        // search for first link that is "after" this cycle delta
-        Link prev = null;
         Link pos = head;
         while (pos != null)
         {
@@ -156,25 +147,9 @@ public class DeltaQueue
             pos.remove(e);
 
             if (pos.events == null)
-            {
                 // the link became empty because of removing this event
-                if (prev == null)
-                    head = pos.next;
-                else
-                    prev.next = pos.next;
-
-                // fixes up the delta of the next item in the queue
-                if (pos.next != null)
-                {
-                    pos.next.delta += pos.delta;
-                }
+                unlink(pos);
 
-                free(pos);
-            } else
-            {
-                // the link did not become empty, just move on
-                prev = pos;
-            }
             // advance to next link in the list
             pos = next;
         }
@@ -187,6 +162,7 @@ public class DeltaQueue
      * @param cycles
      *            the number of clock cycles to advance
      */
+    @Override
     public void advance(long cycles)
     {
         if (head == null)
@@ -212,6 +188,7 @@ public class DeltaQueue
      * The <code>skipAhead()</code> method skips ahead to the next event in the
      * queue and fires it.
      */
+    @Override
     public void skipAhead()
     {
         if (head == null)
@@ -223,7 +200,7 @@ public class DeltaQueue
 
         Link h = head;
         count += h.delta;
-        head = h.next;
+        chop(h);
         h.fire();
         free(h);
     }
@@ -235,7 +212,6 @@ public class DeltaQueue
         {
 
             Link pos = head;
-            Link next = pos.next;
 
             // cache pos.delta because it is used twice
             long delta = pos.delta;
@@ -254,7 +230,7 @@ public class DeltaQueue
             count += delta;
 
             // chop off head
-            head = next;
+            chop(pos);
 
             // fire all events at head
             pos.fire();
@@ -276,6 +252,7 @@ public class DeltaQueue
      *
      * @return the number of clock cycles until the first event will fire
      */
+    @Override
     public long getFirstEventTime()
     {
         if (head != null)
@@ -284,98 +261,153 @@ public class DeltaQueue
     }
 
     /**
-     * The <code>getCount()</code> gets the total cumulative count of all the
-     * <code>advance()</code> calls on this delta queue.
+     * The <code>getDelays()</code> method finds every occurrence of the
+     * specified event by walking the delta queue and summing up the deltas.
      *
-     * @return the total number of cycles this queue has been advanced
+     * @param e
+     *            the event to search for
+     * @return the number of clock cycles until each occurrence of the event
+     *         fires, in increasing order
      */
-    public long getCount()
+    @Override
+    public long[] getDelays(Simulator.Event e)
     {
-        return count;
+        int num = 0;
+        for (Link pos = head; pos != null; pos = pos.next)
+        {
+            for (EventList l = pos.events; l != null; l = l.next)
+            {
+                if (l.event == e)
+                    num++;
+            }
+        }
+        long[] delays = new long[num];
+        long delta = 0;
+        num = 0;
+        for (Link pos = head; pos != null; pos = pos.next)
+        {
+            delta += pos.delta;
+            for (EventList l = pos.events; l != null; l = l.next)
+            {
+                if (l.event == e)
+                    delays[num++] = delta;
+            }
+        }
+        return delays;
     }
 
-    private void free(Link l)
+    private void chop(Link h)
     {
-        l.next = freeLinks;
-        freeLinks = l;
+        // the events of a chopped link can still be cancelled while it fires
+        h.firing = true;
+        head = h.next;
+        if (head != null)
+            head.prev = null;
+    }
 
-        if (l.events != null)
+    private void unlink(Link pos)
+    {
+        if (pos.prev == null)
+            head = pos.next;
+        else
+            pos.prev.next = pos.next;
+
+        // fixes up the delta of the next item in the queue
+        if (pos.next != null)
         {
-            free(l.events);
-            l.events = null;
+            pos.next.prev = pos.prev;
+            pos.next.delta += pos.delta;
         }
+
+        free(pos);
+    }
+
+    private void free(Link l)
+    {
+        l.next = freeLinks;
+        l.prev = null;
+        freeLinks = l;
     }
 
     private void free(EventList l)
     {
         l.event = null;
+        l.link = null;
+        l.prev = null;
         l.next = freeEventLists;
         freeEventLists = l;
     }
 
-    private Link newLink(Simulator.Event t, long cycles, Link next)
+    private Link newLink(long cycles, Link prev, Link next)
     {
         Link l;
         if (freeLinks == null)
             // if none in the free list, allocate one
-            l = new Link(t, cycles);
+            l = new Link();
         else
         {
             // grab one from the free list
             l = freeLinks;
             freeLinks = freeLinks.next;
-            l.delta = cycles;
-            l.add(t);
+            l.firing = false;
         }
+        l.delta = cycles;
 
         // adjust delta in the next link in the chain
         if (next != null)
         {
             next.delta -= cycles;
+            next.prev = l;
         }
 
+        if (prev != null)
+            prev.next = l;
+        else
+            head = l;
+
+        l.prev = prev;
         l.next = next;
         return l;
     }
 
-    private EventList newEventList(Simulator.Event t, EventList next)
+    private EventList newEventList(Simulator.Event t, Link link, EventList next)
     {
         EventList l;
 
         if (freeEventLists == null)
         {
             // no free links, so allocate one
-            l = new EventList(t, next);
+            l = new EventList();
         } else
         {
             // grab the first link off the free chain
             l = freeEventLists;
             freeEventLists = freeEventLists.next;
-            l.next = next;
-            l.event = t;
         }
 
+        l.event = t;
+        l.link = link;
+        l.next = next;
         return l;
     }
 
     /**
      * The <code>EventList</code> class represents a link in the list of events for a given <code>Link</code>
-     * in the delta queue chain.
+     * in the delta queue chain. The list is doubly linked and each entry refers to its link, so that an
+     * entry inserted through a handle can be removed without searching for it.
      */
-    private static class EventList {
-        Simulator.Event event;
+    private class EventList extends Node {
+        Link link;
         EventList next;
-
-        /**
-         * The constructor for the <code>EventList</code> class simply initializes the internal references to
-         * the event and the next link in the chain based on the parameters passed.
-         *
-         * @param t a reference the event
-         * @param n the next link in the chain
-         */
-        EventList(Simulator.Event t, EventList n) {
-            event = t;
-            next = n;
+        EventList prev;
+
+        @Override
+        void cancel() {
+            Link l = link;
+            l.unlink(this);
+            free(this);
+            if (l.events == null && !l.firing)
+                DeltaQueue.this.unlink(l);
         }
     }
 
@@ -387,42 +419,58 @@ public class DeltaQueue
         EventList events;
 
         Link next;
+        Link prev;
         long delta;
-
-        Link(Simulator.Event t, long d) {
-            events = newEventList(t, null);
-            delta = d;
+        boolean firing;
+
+        EventList add(Simulator.Event t) {
+            EventList l = newEventList(t, this, events);
+            if (events != null)
+                events.prev = l;
+            events = l;
+            return l;
         }
 
-        void add(Simulator.Event t) {
-            events = newEventList(t, events);
+        void unlink(EventList pos) {
+            if (pos.prev == null)
+                events = pos.next;
+            else
+                pos.prev.next = pos.next;
+            if (pos.next != null)
+                pos.next.prev = pos.prev;
         }
 
         void remove(Simulator.Event t) {
-            EventList prev = null;
             EventList pos = events;
             while (pos != null) {
                 EventList next = pos.next;
 
                 if (pos.event == t) {
-                    if (prev == null)
-                        // remove the whole thing.
-                        events = pos.next;
-                    else
-                        // remove the "pos" link
-                        prev.next = pos.next;
-
+                    unlink(pos);
+                    if (pos.handle != null) {
+                        // release the handle that scheduled this entry
+                        pos.handle.node = null;
+                        pos.handle = null;
+                    }
                     free(pos);
-                } else {
-                    prev = pos;
                 }
                 pos = next;
             }
         }
 
         void fire() {
-            for (EventList pos = events; pos != null; pos = pos.next) {
-                pos.event.fire();
+            // take the entries off one at a time, so that any of the remaining
+            // entries can still be cancelled by the events that fire first
+            while (events != null) {
+                EventList pos = events;
+                Simulator.Event e = pos.event;
+                unlink(pos);
+                if (pos.handle != null) {
+                    pos.handle.node = null;
+                    pos.handle = null;
+                }
+                free(pos);
+                e.fire();
             }
         }
     }
@@ -115,10 +115,7 @@ public class DerivedClock extends Clock
     @Override
     public void insertEvent(Simulator.Event e, long delta)
     {
-        long driverCount = driveClock.getCount();
-        long nextTick = (long) (((long) (driverCount / divider) + delta)
-                * divider);
-        driveClock.insertEvent(e, nextTick - driverCount);
+        driveClock.insertEvent(e, driverDelay(delta));
     }
 
 
@@ -135,4 +132,44 @@ public class DerivedClock extends Clock
     {
         driveClock.removeEvent(e);
     }
+
+
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle in
+     * the event queue of the clock with the specified delay in clock cycles.
+     * If the handle is already scheduled, it is moved to the new time.
+     *
+     * @param h
+     *            the handle of the event to be inserted
+     * @param delta
+     *            the number of cycles in the future at which to event
+     */
+    @Override
+    public void insertEvent(EventHandle h, long delta)
+    {
+        driveClock.insertEvent(h, driverDelay(delta));
+    }
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the event queue of the clock, if it is scheduled.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    @Override
+    public void removeEvent(EventHandle h)
+    {
+        driveClock.removeEvent(h);
+    }
+
+
+    private long driverDelay(long delta)
+    {
+        long driverCount = driveClock.getCount();
+        long nextTick = (long) (((long) (driverCount / divider) + delta)
+                * divider);
+        return nextTick - driverCount;
+    }
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+
+/**
+ * The <code>EventHandle</code> class represents a reusable, cancellable
+ * scheduling of an event. A device that frequently reschedules or cancels the
+ * same event creates a handle for it once and then inserts and removes the
+ * handle instead of the event. The handle remembers where the event is stored
+ * in the event queue, so removing it takes constant time rather than a scan
+ * of the whole queue. A handle is scheduled at most once at any time;
+ * inserting a handle that is already scheduled moves it to the new time.
+ */
+public final class EventHandle
+{
+
+    /**
+     * The <code>event</code> field stores a reference to the event that is
+     * fired when this handle comes due.
+     */
+    final Simulator.Event event;
+
+    /**
+     * The <code>node</code> field stores the entry of the event queue in which
+     * this handle is currently scheduled, or <code>null</code> if it is not
+     * scheduled.
+     */
+    EventQueue.Node node;
+
+
+    /**
+     * The constructor for the <code>EventHandle</code> class creates a new,
+     * unscheduled handle for the specified event.
+     *
+     * @param e
+     *            the event to fire when the handle comes due
+     */
+    public EventHandle(Simulator.Event e)
+    {
+        event = e;
+    }
+
+
+    /**
+     * The <code>getEvent()</code> method returns the event that this handle
+     * schedules.
+     *
+     * @return the event of this handle
+     */
+    public Simulator.Event getEvent()
+    {
+        return event;
+    }
+
+
+    /**
+     * The <code>isScheduled()</code> method checks whether this handle is
+     * currently waiting in an event queue. A handle stops being scheduled just
+     * before its event fires, so that the event may reschedule its own handle.
+     *
+     * @return true if the handle has been inserted and has neither fired nor
+     *         been removed since
+     */
+    public boolean isScheduled()
+    {
+        return node != null;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+
+/**
+ * The <code>EventQueue</code> class represents the queue of scheduled events
+ * that drives a <code>MainClock</code>. Events are put into the queue to fire
+ * a given number of cycles in the future, and the queue is advanced by the
+ * interpreter as simulated time passes. Events scheduled to fire in the same
+ * clock cycle fire in the reverse order of their insertion. This class
+ * abstracts the data structure used so that different implementations can be
+ * selected for a simulation and compared against each other.
+ */
+public abstract class EventQueue
+{
+
+    /**
+     * The <code>count</code> field stores the total number of cycles that this
+     * queue has been advanced, i.e. the sum of all <code>advance()</code>
+     * calls.
+     */
+    protected long count;
+
+
+    /**
+     * The <code>insertEvent()</code> method adds an event to be executed in
+     * the future.
+     *
+     * @param t
+     *            the event to add
+     * @param cycles
+     *            the number of clock cycles in the future
+     */
+    public abstract void insertEvent(Simulator.Event t, long cycles);
+
+
+    /**
+     * The <code>removeEvent()</code> method removes all occurrences of the
+     * specified event within the queue.
+     *
+     * @param e
+     *            the event to remove
+     */
+    public abstract void removeEvent(Simulator.Event e);
+
+
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle to
+     * fire its event in the future. If the handle is already scheduled, it is
+     * first removed, so that its event fires only at the new time.
+     *
+     * @param h
+     *            the handle of the event to add
+     * @param cycles
+     *            the number of clock cycles in the future
+     */
+    public abstract void insertEvent(EventHandle h, long cycles);
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the queue in constant time, if it is scheduled. Unlike removing an
+     * event, this also cancels the handle if it is due in the current cycle
+     * and other events of that cycle are being fired.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    public void removeEvent(EventHandle h)
+    {
+        Node n = h.node;
+        if (n != null)
+        {
+            h.node = null;
+            n.handle = null;
+            n.cancel();
+        }
+    }
+
+
+    /**
+     * The <code>advance()</code> method advances timesteps through the queue
+     * by the specified number of clock cycles, processing any events.
+     *
+     * @param cycles
+     *            the number of clock cycles to advance
+     */
+    public abstract void advance(long cycles);
+
+
+    /**
+     * The <code>skipAhead()</code> method skips ahead to the next event in the
+     * queue and fires it.
+     */
+    public abstract void skipAhead();
+
+
+    /**
+     * The <code>getFirstEventTime()</code> method gets the number of clock
+     * cycles until the first event will fire.
+     *
+     * @return the number of clock cycles until the first event will fire; -1
+     *         if there are no events in the queue
+     */
+    public abstract long getFirstEventTime();
+
+
+    /**
+     * The <code>getDelays()</code> method finds every occurrence of the
+     * specified event in this queue. It searches the whole queue and is meant
+     * for rare uses such as checkpoints, not for use while simulating.
+     *
+     * @param e
+     *            the event to search for
+     * @return the number of clock cycles until each occurrence of the event
+     *         fires, in increasing order; an empty array if the event is not
+     *         in the queue
+     */
+    public abstract long[] getDelays(Simulator.Event e);
+
+
+    /**
+     * The <code>getCount()</code> gets the total cumulative count of all the
+     * <code>advance()</code> calls on this queue.
+     *
+     * @return the total number of cycles this queue has been advanced
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * The <code>Node</code> class is the base class of the entries in which
+     * the implementations store scheduled events. An entry that was inserted
+     * through a handle refers back to it, so that the handle can be released
+     * when the entry fires or is removed.
+     */
+    protected abstract static class Node
+    {
+        Simulator.Event event;
+        EventHandle handle;
+
+
+        /**
+         * The <code>cancel()</code> method removes this entry from the queue
+         * that contains it and returns it to the free list.
+         */
+        abstract void cancel();
+    }
+}
@@ -49,7 +49,14 @@ public class MainClock extends Clock
      * The <code>eventQueue</code> field stores a reference to the event queue
      * for this node.
      */
-    protected final DeltaQueue eventQueue;
+    protected final EventQueue eventQueue;
+
+    /**
+     * The <code>offset</code> field stores the number of cycles that elapsed
+     * before the event queue started counting, e.g. in a previous run of a
+     * simulation that was restored from a checkpoint.
+     */
+    protected long offset;
 
 
     /**
@@ -62,9 +69,27 @@ public class MainClock extends Clock
      *            the number of cycles per second for this clock
      */
     public MainClock(String n, long hz)
+    {
+        this(n, hz, new DeltaQueue());
+    }
+
+
+    /**
+     * The <code>MainClock()</code> method creates a main clock with the
+     * specified name and frequency that is driven by the specified event
+     * queue.
+     * 
+     * @param n
+     *            the name of this clock
+     * @param hz
+     *            the number of cycles per second for this clock
+     * @param q
+     *            the (empty) event queue for this clock
+     */
+    public MainClock(String n, long hz, EventQueue q)
     {
         super(n, hz);
-        eventQueue = new DeltaQueue();
+        eventQueue = q;
     }
 
 
@@ -77,7 +102,22 @@ public class MainClock extends Clock
     @Override
     public long getCount()
     {
-        return eventQueue.getCount();
+        return eventQueue.getCount() + offset;
+    }
+
+
+    /**
+     * The <code>setCount()</code> method sets the number of clock cycles
+     * reported by this clock without disturbing the events already in the
+     * queue, whose delays remain relative to the current time. It is used when
+     * restoring a node from a checkpoint.
+     *
+     * @param count
+     *            the new count of elapsed clock cycles
+     */
+    public void setCount(long count)
+    {
+        offset = count - eventQueue.getCount();
     }
 
 
@@ -113,6 +153,37 @@ public class MainClock extends Clock
     }
 
 
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle in
+     * the event queue of the clock with the specified delay in clock cycles.
+     * If the handle is already scheduled, it is moved to the new time.
+     *
+     * @param h
+     *            the handle of the event to be inserted
+     * @param cycles
+     *            the number of cycles in the future at which to fire
+     */
+    @Override
+    public void insertEvent(EventHandle h, long cycles)
+    {
+        eventQueue.insertEvent(h, cycles);
+    }
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the event queue of the clock in constant time, if it is scheduled.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    @Override
+    public void removeEvent(EventHandle h)
+    {
+        eventQueue.removeEvent(h);
+    }
+
+
     /**
      * The <code>advance()</code> method advances the time of the clock by the
      * number of cycles. This may happen as the result of executing an
@@ -143,6 +214,22 @@ public class MainClock extends Clock
     }
 
 
+    /**
+     * The <code>getDelays()</code> method finds every occurrence of the
+     * specified event in the event queue of this clock. It is used to save the
+     * events that are pending when a checkpoint is taken.
+     *
+     * @param e
+     *            the event to search for
+     * @return the number of clock cycles until each occurrence of the event
+     *         fires, in increasing order
+     */
+    public long[] getDelays(Simulator.Event e)
+    {
+        return eventQueue.getDelays(e);
+    }
+
+
     /**
      * The <code>skipAhead()</code> method skips ahead to the next event in the
      * queue and fires it.
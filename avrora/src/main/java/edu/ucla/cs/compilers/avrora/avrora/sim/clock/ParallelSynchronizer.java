@@ -0,0 +1,443 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.ucla.cs.compilers.avrora.avrora.actions.SimAction;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
+import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>ParallelSynchronizer</code> class implements a conservative
+ * parallel discrete event simulation that multiplexes all of the nodes onto a
+ * fixed pool of worker threads rather than creating one thread per node. Global
+ * time is divided into windows no longer than the lookahead of the
+ * simulation, i.e. the minimum latency with which one node can influence
+ * another (such as the time to transmit a single byte over the radio). Within
+ * a window, nodes are independent and are run to the end of the window one
+ * after another by whichever worker thread claims them next. When all nodes
+ * have reached the end of the window, the workers meet at a barrier and begin
+ * the next window.
+ * <p>
+ * Because every node has reached the beginning of the current window before
+ * any node executes within it, a call to <code>waitForNeighbors()</code> for
+ * a time at most one lookahead in the past never needs to block.
+ * </p>
+ */
+public class ParallelSynchronizer extends Synchronizer
+{
+
+    protected final int numWorkers;
+    protected final LinkedHashMap<Simulation.Node, NodeTask> nodeMap;
+    protected final AtomicInteger cursor;
+
+    /**
+     * <code>lookahead</code> is the length of each window of global time in
+     * clock cycles. It is initialized to the maximum period and reduced by
+     * calls to <code>constrainLookahead()</code>.
+     */
+    protected long lookahead;
+    protected long windowEnd;
+
+    protected NodeTask[] tasks;
+    protected int numTasks;
+    protected Worker[] workers;
+    protected CyclicBarrier barrier;
+
+    protected volatile boolean stopped;
+    protected volatile boolean shutdown;
+
+
+    /**
+     * The constructor for the <code>ParallelSynchronizer</code> class creates
+     * a new synchronizer that runs all nodes on the specified number of worker
+     * threads.
+     * 
+     * @param p
+     *            the maximum length of a window of global time in clock cycles
+     * @param threads
+     *            the number of worker threads; if zero, one worker thread is
+     *            created for each available processor
+     */
+    public ParallelSynchronizer(long p, int threads)
+    {
+        lookahead = p;
+        numWorkers = threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+        nodeMap = new LinkedHashMap<Simulation.Node, NodeTask>();
+        cursor = new AtomicInteger();
+    }
+
+
+    /**
+     * The <code>constrainLookahead()</code> method reduces the length of the
+     * synchronization window so that it does not exceed the specified number
+     * of cycles. Devices that allow nodes to influence each other (such as
+     * radios) call this method with the minimum latency of that influence.
+     * This method should only be called before the <code>start()</code>
+     * method is called.
+     * 
+     * @param cycles
+     *            the minimum latency in clock cycles between an action on one
+     *            node and its effect on another
+     */
+    public synchronized void constrainLookahead(long cycles)
+    {
+        if (cycles > 0 && cycles < lookahead)
+            lookahead = cycles;
+    }
+
+
+    /**
+     * The <code>getLookahead()</code> method returns the current length of
+     * the synchronization window.
+     * 
+     * @return the length of each window of global time in clock cycles
+     */
+    public long getLookahead()
+    {
+        return lookahead;
+    }
+
+    /**
+     * The <code>NodeTask</code> class represents a single node that is
+     * multiplexed onto the worker threads. It is also the event that is
+     * inserted into the node's queue at the end of each window in order to
+     * suspend the node.
+     */
+    protected class NodeTask implements Simulator.Event
+    {
+
+        protected final Simulation.Node node;
+        protected final Simulator simulator;
+        protected final MainClock clock;
+        protected boolean suspended;
+        protected volatile boolean finished;
+
+
+        protected NodeTask(Simulation.Node n)
+        {
+            node = n;
+            simulator = n.getSimulator();
+            clock = simulator.getClock();
+        }
+
+
+        /**
+         * The <code>runWindow()</code> method runs this node until it reaches
+         * the specified global time, or until it terminates.
+         * 
+         * @param end
+         *            the global time at which to suspend the node
+         */
+        protected void runWindow(long end)
+        {
+            if (finished)
+                return;
+            if (stopped)
+            {
+                finished = true;
+                return;
+            }
+            long delta = end - clock.getCount();
+            if (delta <= 0)
+            {
+                // this node is already past the end of the window (e.g.
+                // because of a long startup delay).
+                return;
+            }
+            clock.insertEvent(this, delta);
+            suspended = false;
+            boolean done = true;
+            try
+            {
+                simulator.start();
+                done = !suspended || node.isCheckpointed();
+            }
+            catch (SimAction.TimeoutException te)
+            {
+                // suppress timeout exceptions.
+            }
+            catch (SimAction.BreakPointException e)
+            {
+                Terminal.printYellow("Simulation terminated");
+                Terminal.println(": breakpoint at "
+                        + StringUtil.addrToString(e.address) + " reached.");
+            }
+            catch (Util.Error e)
+            {
+                e.report();
+            }
+            finally
+            {
+                if (done)
+                {
+                    finished = true;
+                    clock.removeEvent(this);
+                    node.finish();
+                }
+            }
+        }
+
+
+        /**
+         * The <code>fire()</code> method of this event is called when the
+         * node reaches the end of the current window. It suspends the node so
+         * that the worker thread can move on to the next node.
+         */
+        @Override
+        public void fire()
+        {
+            suspended = true;
+            simulator.suspend();
+        }
+    }
+
+    /**
+     * The <code>Worker</code> class represents one of the threads in the
+     * pool. In each window, a worker repeatedly claims the next node that has
+     * not yet been run in this window and runs it to the end of the window.
+     */
+    protected class Worker extends Thread
+    {
+
+        protected Worker(int num)
+        {
+            super("worker-" + num);
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (!shutdown)
+                {
+                    long end = windowEnd;
+                    for (int i = cursor.getAndIncrement(); i < numTasks; i = cursor
+                            .getAndIncrement())
+                    {
+                        tasks[i].runWindow(end);
+                    }
+                    barrier.await();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw Util.unexpected(e);
+            }
+            catch (BrokenBarrierException e)
+            {
+                // another worker terminated abnormally.
+            }
+            finally
+            {
+                if (!shutdown)
+                {
+                    shutdown = true;
+                    barrier.reset();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The <code>nextWindow()</code> method is called by the last worker to
+     * arrive at the barrier, while all other workers are waiting. It removes
+     * any nodes that have terminated and advances global time by one window.
+     */
+    protected void nextWindow()
+    {
+        int live = 0;
+        for (int i = 0; i < numTasks; i++)
+        {
+            if (!tasks[i].finished)
+                tasks[live++] = tasks[i];
+        }
+        for (int i = live; i < numTasks; i++)
+            tasks[i] = null;
+        numTasks = live;
+        cursor.set(0);
+        windowEnd += lookahead;
+        if (numTasks == 0 || stopped)
+            shutdown = true;
+    }
+
+
+    /**
+     * The <code>addNode()</code> method adds a node to this synchronization
+     * group. This method should only be called before the <code>start()</code>
+     * method is called.
+     * 
+     * @param n
+     *            the simulator representing the node to add to this group
+     */
+    @Override
+    public synchronized void addNode(Simulation.Node n)
+    {
+        if (nodeMap.containsKey(n))
+            return;
+        nodeMap.put(n, new NodeTask(n));
+    }
+
+
+    /**
+     * The <code>removeNode()</code> method removes a node from this
+     * synchronization group. The node is not run in any subsequent window.
+     * 
+     * @param n
+     *            the node to remove from this synchronization group
+     */
+    @Override
+    public synchronized void removeNode(Simulation.Node n)
+    {
+        NodeTask task = nodeMap.remove(n);
+        if (task != null)
+            task.finished = true;
+    }
+
+
+    /**
+     * The <code>waitForNeighbors()</code> method is called from within the
+     * execution of a node when that node needs to wait for its neighbors to
+     * catch up to it in execution time. In this synchronizer, all nodes have
+     * already reached the beginning of the current window, so this method
+     * never blocks as long as the requested time is no more than one lookahead
+     * in the past.
+     * 
+     * @param time
+     *            the global time to wait for all neighbors to reach
+     */
+    @Override
+    public void waitForNeighbors(long time)
+    {
+        // do nothing.
+    }
+
+
+    /**
+     * The <code>start()</code> method creates the worker threads and starts
+     * them executing the first window.
+     */
+    @Override
+    public synchronized void start()
+    {
+        if (nodeMap.isEmpty())
+            throw Util.failure("No nodes in simulation");
+        numTasks = nodeMap.size();
+        tasks = nodeMap.values().toArray(new NodeTask[numTasks]);
+        windowEnd = lookahead;
+        cursor.set(0);
+
+        int count = Math.min(numWorkers, numTasks);
+        barrier = new CyclicBarrier(count, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                nextWindow();
+            }
+        });
+        workers = new Worker[count];
+        for (int i = 0; i < count; i++)
+        {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+
+    /**
+     * The <code>join()</code> method will block the caller until all of the
+     * worker threads have terminated, either through <code>stop()</code> being
+     * called, or all nodes terminating normally such as through a timeout.
+     */
+    @Override
+    public void join() throws InterruptedException
+    {
+        if (workers == null)
+            return;
+        for (Worker w : workers)
+        {
+            w.join();
+        }
+    }
+
+
+    /**
+     * The <code>pause()</code> method temporarily pauses the simulation.
+     */
+    @Override
+    public synchronized void pause()
+    {
+        throw Util.unimplemented();
+    }
+
+
+    /**
+     * The <code>stop()</code> method will terminate all the nodes. It is not
+     * guaranteed to stop all the nodes at the same global time.
+     */
+    @Override
+    public synchronized void stop()
+    {
+        stopped = true;
+        for (NodeTask task : nodeMap.values())
+        {
+            task.simulator.stop();
+        }
+    }
+
+
+    /**
+     * The <code>synch()</code> method will pause all of the nodes at the same
+     * global time.
+     * 
+     * @param globalTime
+     *            the global time in clock cycles to run all threads ahead to
+     */
+    @Override
+    public synchronized void synch(long globalTime)
+    {
+        throw Util.unimplemented();
+    }
+}
@@ -30,6 +30,15 @@ public class RippleSynchronizer extends Synchronizer
      * simulated.
      */
     protected long notifyPeriod;
+
+    /**
+     * <code>idlePeriod</code> is the notification period used while no radio
+     * in the simulation is turned on. It is equal to <code>notifyPeriod</code>
+     * unless the synchronizer is adaptive.
+     */
+    protected final long idlePeriod;
+    protected long busyPeriod;
+    protected int activeRadios;
     protected final HashMap<SimulatorThread, NotifyEvent> threadMap;
     protected final Simulator.Event action;
 
@@ -53,8 +62,34 @@ public class RippleSynchronizer extends Synchronizer
      *            synchronization point
      */
     public RippleSynchronizer(long p, Simulator.Event a)
+    {
+        this(p, p, a);
+    }
+
+
+    /**
+     * This constructor for the <code>RippleSynchronizer</code> class creates
+     * an adaptive synchronizer. While no transmitter or receiver of any node
+     * is turned on, the nodes notify the synchronizer of their progress only
+     * once every idle period, which lets them run far apart. As soon as a
+     * radio turns on, the period shrinks to the time needed to transmit one
+     * byte over the medium, or to the normal period if that is shorter, so
+     * that receivers waiting for their neighbors are released quickly. Each
+     * node switches to the new period at its next notification.
+     * 
+     * @param p
+     *            the period in clock cycles which to synchronize the threads
+     * @param idle
+     *            the period in clock cycles used while all radios are off
+     * @param a
+     *            the event to fire each time all threads meet at a
+     *            synchronization point
+     */
+    public RippleSynchronizer(long p, long idle, Simulator.Event a)
     {
         notifyPeriod = p;
+        idlePeriod = idle;
+        busyPeriod = p;
         action = a;
         threadMap = new HashMap<SimulatorThread, NotifyEvent>();
         WaitLink end = new WaitLink(Long.MAX_VALUE);
@@ -80,6 +115,8 @@ public class RippleSynchronizer extends Synchronizer
         protected final MainClock clock;
         protected boolean removed;
         protected WaitLink lastLink;
+        protected long blockedNanos;
+        protected long blockedCount;
 
 
         protected NotifyEvent(SimulatorThread t)
@@ -102,17 +139,19 @@ public class RippleSynchronizer extends Synchronizer
             {
                 long now = clock.getCount();
                 long delta;
+                long period;
                 synchronized (RippleSynchronizer.this)
                 {
                     lastLink = advance(now, currentWaitLink());
                     delta = lastLink.next.time - now;
+                    period = activeRadios > 0 ? busyPeriod : idlePeriod;
                 }
-                if (delta < notifyPeriod)
+                if (delta < period)
                 {
                     clock.insertEvent(this, delta);
                 } else
                 {
-                    clock.insertEvent(this, notifyPeriod);
+                    clock.insertEvent(this, period);
                 }
             }
         }
@@ -185,11 +224,12 @@ public class RippleSynchronizer extends Synchronizer
     }
 
 
-    private void waitFor(long time, WaitLink link) throws InterruptedException
+    private void waitFor(long time, WaitLink link, NotifyEvent event)
+            throws InterruptedException
     {
         if (time <= link.time)
         {
-            waitForLink(link);
+            waitForLink(link, event);
             return;
         }
         WaitLink prev = link;
@@ -201,12 +241,12 @@ public class RippleSynchronizer extends Synchronizer
             {
                 // we met a link that has a greater time than this one.
                 WaitLink nlink = insertLink(time, prev, link);
-                waitForLink(nlink);
+                waitForLink(nlink, event);
                 return;
             } else if (time == link.time)
             {
                 // this notifier just met the link exactly in time
-                waitForLink(link);
+                waitForLink(link, event);
                 return;
             }
             // skip this link
@@ -215,12 +255,19 @@ public class RippleSynchronizer extends Synchronizer
     }
 
 
-    private void waitForLink(WaitLink nlink) throws InterruptedException
+    private void waitForLink(WaitLink nlink, NotifyEvent event)
+            throws InterruptedException
     {
         assert nlink.numPassed >= 1;
-        while (nlink.numPassed < goal)
+        if (nlink.numPassed < goal)
         {
-            RippleSynchronizer.this.wait();
+            long start = System.nanoTime();
+            while (nlink.numPassed < goal)
+            {
+                RippleSynchronizer.this.wait();
+            }
+            event.blockedNanos += System.nanoTime() - start;
+            event.blockedCount++;
         }
     }
 
@@ -395,7 +442,7 @@ public class RippleSynchronizer extends Synchronizer
             {
                 WaitLink link = event.currentWaitLink();
                 event.lastLink = advance(now, link);
-                waitFor(time, link);
+                waitFor(time, link, event);
             }
         }
         catch (InterruptedException e)
@@ -404,4 +451,76 @@ public class RippleSynchronizer extends Synchronizer
         }
     }
 
+
+    /**
+     * The <code>radioActivity()</code> method is called by a radio medium
+     * whenever a transmitter or receiver turns on or off. An adaptive
+     * synchronizer counts the radios that are turned on in order to choose
+     * between the idle period and the byte time of the medium.
+     * 
+     * @param on
+     *            true if the transmitter or receiver turned on
+     * @param cyclesPerByte
+     *            the number of clock cycles needed to transmit one byte
+     */
+    @Override
+    public synchronized void radioActivity(boolean on, long cyclesPerByte)
+    {
+        if (idlePeriod == notifyPeriod)
+            return;
+        if (on)
+        {
+            activeRadios++;
+            if (cyclesPerByte < busyPeriod)
+                busyPeriod = cyclesPerByte;
+        } else
+        {
+            activeRadios--;
+        }
+    }
+
+
+    /**
+     * The <code>getBlockedTime()</code> method returns the wall clock time
+     * that the specified node has spent blocked waiting for its neighbors.
+     * 
+     * @param n
+     *            the node
+     * @return the time in nanoseconds that the node was blocked
+     */
+    public synchronized long getBlockedTime(Simulation.Node n)
+    {
+        NotifyEvent event = threadMap.get(n.getThread());
+        return event == null ? 0 : event.blockedNanos;
+    }
+
+
+    /**
+     * The <code>getBlockedTime()</code> method returns the wall clock time
+     * that all nodes together have spent blocked waiting for their neighbors.
+     * 
+     * @return the total time in nanoseconds that nodes were blocked
+     */
+    public synchronized long getBlockedTime()
+    {
+        long total = 0;
+        for (NotifyEvent event : threadMap.values())
+            total += event.blockedNanos;
+        return total;
+    }
+
+
+    /**
+     * The <code>getBlockedCount()</code> method returns the number of times
+     * that any node had to block while waiting for its neighbors.
+     * 
+     * @return the number of times that nodes were blocked
+     */
+    public synchronized long getBlockedCount()
+    {
+        long total = 0;
+        for (NotifyEvent event : threadMap.values())
+            total += event.blockedCount;
+        return total;
+    }
 }
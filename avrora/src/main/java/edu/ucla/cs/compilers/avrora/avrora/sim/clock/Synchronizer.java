@@ -131,6 +131,25 @@ public abstract class Synchronizer
      */
     public abstract void synch(long globalTime);
 
+
+    /**
+     * The <code>radioActivity()</code> method is called by a radio medium
+     * whenever a transmitter or receiver of one of the nodes turns on or off.
+     * Synchronizers can use it to adapt how closely they keep the nodes
+     * together. The default implementation does nothing.
+     *
+     * @param on
+     *            true if the transmitter or receiver turned on, false if it
+     *            turned off
+     * @param cyclesPerByte
+     *            the number of clock cycles needed to transmit one byte over
+     *            the medium
+     */
+    public void radioActivity(boolean on, long cyclesPerByte)
+    {
+        // do nothing
+    }
+
     public static class Single extends Synchronizer
     {
 
@@ -81,6 +81,36 @@ public class SystemClock extends Clock
     }
 
 
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle in
+     * the event queue of the clock with the specified delay in clock cycles.
+     *
+     * @param h
+     *            the handle of the event to be inserted
+     * @param cycles
+     *            the number of cycles in the future at which to fire
+     */
+    @Override
+    public void insertEvent(EventHandle h, long cycles)
+    {
+        throw Util.unimplemented();
+    }
+
+
+    /**
+     * The <code>removeEvent()</code> method removes the specified handle from
+     * the event queue of the clock.
+     *
+     * @param h
+     *            the handle of the event to remove
+     */
+    @Override
+    public void removeEvent(EventHandle h)
+    {
+        throw Util.unimplemented();
+    }
+
+
     /**
      * The <code>getFirstEventDelta()</code> method returns the number of clock
      * cycles until the first event in the event queue will fire. This method
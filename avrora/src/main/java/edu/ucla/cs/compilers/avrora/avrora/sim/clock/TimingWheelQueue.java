@@ -0,0 +1,553 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import java.util.Arrays;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+
+/**
+ * The <code>TimingWheelQueue</code> class implements a hierarchical timing
+ * wheel for processing of scheduled events. Unlike the
+ * <code>DeltaQueue</code>, whose insertion cost grows with the number of
+ * distinct times between now and the event, inserting and removing an event
+ * in a timing wheel takes constant time regardless of how far in the future
+ * the event is scheduled.
+ * <p>
+ * The wheel consists of a number of levels, each with 64 slots. Level 0 holds
+ * the events that fire within the current block of 64 cycles, one slot per
+ * cycle. Level <i>k</i> holds events whose time differs from the current time
+ * first in the <i>k</i>th group of 6 bits, with one slot per value of that
+ * group. As time advances into a new block, the events of the corresponding
+ * slot are cascaded down to the lower levels. Each event is cascaded at most
+ * once per level, so the amortized cost per event is constant.
+ * </p><p>
+ * Events that fire in the same cycle fire in the reverse order of insertion,
+ * exactly as in the <code>DeltaQueue</code>, so that the two implementations
+ * produce identical simulations. Like the <code>DeltaQueue</code>, this class
+ * maintains a free list of entries and therefore does not create garbage over
+ * its execution.
+ * </p>
+ */
+public class TimingWheelQueue extends EventQueue
+{
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = (64 + SLOT_BITS - 1) / SLOT_BITS;
+    private static final int FIRING = -1;
+
+    /**
+     * The <code>head</code> and <code>tail</code> arrays store the first and
+     * last entries of each slot, indexed by <code>level * SLOTS + slot</code>.
+     */
+    protected final Entry[] head;
+    protected final Entry[] tail;
+
+    /**
+     * The <code>occupied</code> array stores a bitmap for each level that
+     * indicates which slots of that level contain at least one entry.
+     */
+    protected final long[] occupied;
+
+    /**
+     * The <code>freeEntries</code> field stores a reference to any free
+     * entries that have become unused during the processing of events. A free
+     * list is used to prevent garbage from accumulating.
+     */
+    protected Entry freeEntries;
+
+    /**
+     * The <code>firing</code> field stores the remaining entries of the slot
+     * whose events are currently being fired.
+     */
+    protected Entry firing;
+
+    /**
+     * The <code>next</code> field stores the absolute time of the earliest
+     * event in the queue, or <code>Long.MAX_VALUE</code> if it is empty.
+     */
+    protected long next;
+
+
+    /**
+     * The constructor for the <code>TimingWheelQueue</code> class creates a
+     * new, empty timing wheel at time zero.
+     */
+    public TimingWheelQueue()
+    {
+        head = new Entry[LEVELS * SLOTS];
+        tail = new Entry[LEVELS * SLOTS];
+        occupied = new long[LEVELS];
+        next = Long.MAX_VALUE;
+    }
+
+
+    /**
+     * The <code>insertEvent()</code> method adds an event to be executed in
+     * the future.
+     *
+     * @param t
+     *            the event to add
+     * @param cycles
+     *            the number of clock cycles in the future
+     */
+    @Override
+    public void insertEvent(Simulator.Event t, long cycles)
+    {
+        if (cycles < 0)
+            cycles = 0;
+        insert(t, cycles);
+    }
+
+
+    /**
+     * The <code>insertEvent()</code> method schedules the specified handle to
+     * fire its event in the future, moving it if it is already scheduled.
+     *
+     * @param h
+     *            the handle of the event to add
+     * @param cycles
+     *            the number of clock cycles in the future
+     */
+    @Override
+    public void insertEvent(EventHandle h, long cycles)
+    {
+        removeEvent(h);
+        if (cycles < 0)
+            cycles = 0;
+        Entry e = insert(h.event, cycles);
+        e.handle = h;
+        h.node = e;
+    }
+
+
+    private Entry insert(Simulator.Event t, long cycles)
+    {
+        long time = count + cycles;
+        Entry e = newEntry(t, time);
+        prepend(e);
+        if (time < next)
+            next = time;
+        return e;
+    }
+
+
+    /**
+     * The <code>removeEvent()</code> method removes all occurrences of the
+     * specified event within the queue.
+     *
+     * @param e
+     *            the event to remove
+     */
+    @Override
+    public void removeEvent(Simulator.Event e)
+    {
+        if (next == Long.MAX_VALUE)
+            return;
+        boolean first = false;
+        for (int level = 0; level < LEVELS; level++)
+        {
+            long bits = occupied[level];
+            while (bits != 0)
+            {
+                int slot = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                Entry pos = head[level * SLOTS + slot];
+                while (pos != null)
+                {
+                    Entry n = pos.next;
+                    if (pos.event == e)
+                    {
+                        first |= pos.time == next;
+                        unlink(pos);
+                        if (pos.handle != null)
+                        {
+                            // release the handle that scheduled this entry
+                            pos.handle.node = null;
+                            pos.handle = null;
+                        }
+                        free(pos);
+                    }
+                    pos = n;
+                }
+            }
+        }
+        if (first)
+            next = findNext();
+    }
+
+
+    /**
+     * The <code>advance()</code> method advances timesteps through the queue
+     * by the specified number of clock cycles, processing any events.
+     *
+     * @param cycles
+     *            the number of clock cycles to advance
+     */
+    @Override
+    public void advance(long cycles)
+    {
+        long target = count + cycles;
+        if (target < next && ((count ^ target) & ~SLOT_MASK) == 0)
+        {
+            // fast path: no event fires and no cascade is necessary
+            count = target;
+            return;
+        }
+
+        advanceSlow(target);
+    }
+
+
+    /**
+     * The <code>skipAhead()</code> method skips ahead to the next event in the
+     * queue and fires it.
+     */
+    @Override
+    public void skipAhead()
+    {
+        if (next == Long.MAX_VALUE)
+        {
+            // fast path: nothing in the queue
+            count++;
+            return;
+        }
+
+        moveTo(next);
+        fireSlot();
+    }
+
+
+    /**
+     * The <code>getFirstEventTime()</code> method gets the number of clock
+     * cycles until the first event will fire.
+     *
+     * @return the number of clock cycles until the first event will fire; -1
+     *         if there are no events in the queue
+     */
+    @Override
+    public long getFirstEventTime()
+    {
+        if (next != Long.MAX_VALUE)
+            return next - count;
+        return -1;
+    }
+
+
+    /**
+     * The <code>getDelays()</code> method finds every occurrence of the
+     * specified event by scanning the occupied slots of all levels. Entries
+     * of a slot that is currently being fired are not included.
+     *
+     * @param e
+     *            the event to search for
+     * @return the number of clock cycles until each occurrence of the event
+     *         fires, in increasing order
+     */
+    @Override
+    public long[] getDelays(Simulator.Event e)
+    {
+        long[] delays = new long[0];
+        for (int level = 0; level < LEVELS; level++)
+        {
+            long bits = occupied[level];
+            while (bits != 0)
+            {
+                int slot = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                for (Entry pos = head[level * SLOTS + slot]; pos != null; pos = pos.next)
+                {
+                    if (pos.event == e)
+                    {
+                        delays = Arrays.copyOf(delays, delays.length + 1);
+                        delays[delays.length - 1] = pos.time - count;
+                    }
+                }
+            }
+        }
+        Arrays.sort(delays);
+        return delays;
+    }
+
+
+    private void advanceSlow(long target)
+    {
+        // like the delta queue, events inserted for the target time while
+        // firing the events at the target time are not fired until the next
+        // advance.
+        while (count < target && next <= target)
+        {
+            moveTo(next);
+            fireSlot();
+        }
+        moveTo(target);
+    }
+
+
+    /**
+     * The <code>moveTo()</code> method sets the current time of the wheel and
+     * cascades the entries of each slot whose block of time has just been
+     * entered down to the lower levels. No entry may be earlier than the new
+     * time.
+     *
+     * @param time
+     *            the new current time
+     */
+    private void moveTo(long time)
+    {
+        long diff = count ^ time;
+        count = time;
+        if ((diff & ~SLOT_MASK) == 0)
+            return;
+        int top = (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS;
+        for (int level = top; level > 0; level--)
+        {
+            int slot = slotOf(time, level);
+            int indx = level * SLOTS + slot;
+            Entry pos = head[indx];
+            if (pos == null)
+                continue;
+            head[indx] = null;
+            tail[indx] = null;
+            occupied[level] &= ~(1L << slot);
+            while (pos != null)
+            {
+                Entry n = pos.next;
+                append(pos);
+                pos = n;
+            }
+        }
+    }
+
+
+    /**
+     * The <code>fireSlot()</code> method detaches the entries of the level 0
+     * slot for the current time and fires them in order. Events inserted for
+     * the current time while firing are placed in a new list and are fired by
+     * the next call. The detached entries are marked, so that an entry whose
+     * handle is removed by an earlier event of the slot does not fire.
+     */
+    private void fireSlot()
+    {
+        int slot = (int) count & SLOT_MASK;
+        Entry pos = head[slot];
+        head[slot] = null;
+        tail[slot] = null;
+        occupied[0] &= ~(1L << slot);
+        next = findNext();
+        for (Entry e = pos; e != null; e = e.next)
+            e.level = FIRING;
+
+        Entry outer = firing;
+        firing = pos;
+        while (firing != null)
+        {
+            pos = firing;
+            firing = pos.next;
+            if (firing != null)
+                firing.prev = null;
+            Simulator.Event e = pos.event;
+            if (pos.handle != null)
+            {
+                pos.handle.node = null;
+                pos.handle = null;
+            }
+            free(pos);
+            e.fire();
+        }
+        firing = outer;
+    }
+
+
+    /**
+     * The <code>findNext()</code> method finds the absolute time of the
+     * earliest event in the queue using the occupancy bitmaps.
+     *
+     * @return the time of the earliest event; <code>Long.MAX_VALUE</code> if
+     *         the queue is empty
+     */
+    private long findNext()
+    {
+        for (int level = 0; level < LEVELS; level++)
+        {
+            long bits = occupied[level] & (-1L << slotOf(count, level));
+            if (bits == 0)
+                continue;
+            int slot = Long.numberOfTrailingZeros(bits);
+            if (level == 0)
+                return (count & ~SLOT_MASK) | slot;
+            long min = Long.MAX_VALUE;
+            for (Entry pos = head[level * SLOTS + slot]; pos != null; pos = pos.next)
+            {
+                if (pos.time < min)
+                    min = pos.time;
+            }
+            return min;
+        }
+        return Long.MAX_VALUE;
+    }
+
+
+    private static int slotOf(long time, int level)
+    {
+        return (int) (time >>> (level * SLOT_BITS)) & SLOT_MASK;
+    }
+
+
+    private int levelOf(long time)
+    {
+        long diff = count ^ time;
+        if ((diff & ~SLOT_MASK) == 0)
+            return 0;
+        return (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS;
+    }
+
+
+    private void prepend(Entry e)
+    {
+        int level = levelOf(e.time);
+        int slot = slotOf(e.time, level);
+        int indx = level * SLOTS + slot;
+        Entry h = head[indx];
+        e.level = level;
+        e.prev = null;
+        e.next = h;
+        if (h == null)
+        {
+            tail[indx] = e;
+            occupied[level] |= 1L << slot;
+        } else
+            h.prev = e;
+        head[indx] = e;
+    }
+
+
+    private void append(Entry e)
+    {
+        int level = levelOf(e.time);
+        int slot = slotOf(e.time, level);
+        int indx = level * SLOTS + slot;
+        Entry t = tail[indx];
+        e.level = level;
+        e.next = null;
+        e.prev = t;
+        if (t == null)
+        {
+            head[indx] = e;
+            occupied[level] |= 1L << slot;
+        } else
+            t.next = e;
+        tail[indx] = e;
+    }
+
+
+    private void unlink(Entry e)
+    {
+        int slot = slotOf(e.time, e.level);
+        int indx = e.level * SLOTS + slot;
+        if (e.prev == null)
+            head[indx] = e.next;
+        else
+            e.prev.next = e.next;
+        if (e.next == null)
+            tail[indx] = e.prev;
+        else
+            e.next.prev = e.prev;
+        if (head[indx] == null)
+            occupied[e.level] &= ~(1L << slot);
+    }
+
+
+    private Entry newEntry(Simulator.Event t, long time)
+    {
+        Entry e;
+        if (freeEntries == null)
+            // if none in the free list, allocate one
+            e = new Entry();
+        else
+        {
+            // grab one from the free list
+            e = freeEntries;
+            freeEntries = e.next;
+        }
+        e.event = t;
+        e.time = time;
+        return e;
+    }
+
+
+    private void free(Entry e)
+    {
+        e.event = null;
+        e.prev = null;
+        e.next = freeEntries;
+        freeEntries = e;
+    }
+
+    /**
+     * The <code>Entry</code> class represents a single scheduled occurrence of
+     * an event in one of the slots of the wheel.
+     */
+    private class Entry extends Node
+    {
+        long time;
+        int level;
+        Entry next;
+        Entry prev;
+
+
+        @Override
+        void cancel()
+        {
+            if (level == FIRING)
+            {
+                // remove from the rest of the slot being fired
+                if (prev == null)
+                    firing = next;
+                else
+                    prev.next = next;
+                if (next != null)
+                    next.prev = prev;
+                free(this);
+                return;
+            }
+            boolean first = time == TimingWheelQueue.this.next;
+            unlink(this);
+            free(this);
+            if (first)
+                TimingWheelQueue.this.next = findNext();
+        }
+    }
+}
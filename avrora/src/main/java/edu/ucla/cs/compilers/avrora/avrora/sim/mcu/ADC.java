@@ -32,6 +32,12 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.InterruptTable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
@@ -47,7 +53,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.state.RegisterView;
  * @author Daniel Lee
  * @author Ben L. Titzer
  */
-public class ADC extends AtmelInternalDevice
+public class ADC extends AtmelInternalDevice implements Checkpointable
 {
 
     public static final float VBG_LEVEL = 1.0f;
@@ -161,6 +167,45 @@ public class ADC extends AtmelInternalDevice
         connectedDevices[num] = input;
     }
 
+
+    /**
+     * The <code>saveState()</code> method writes the voltage reference and the
+     * state of the conversion in progress. The inputs are separate devices
+     * that save their own state.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeFloat(voltageRef);
+        out.writeInt(ADCSRA_reg.cycles);
+        out.writeBoolean(ADCSRA_reg.converting);
+        Checkpoint.saveEvent(out, simulator.getClock(), ADCSRA_reg.conversion);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        voltageRef = in.readFloat();
+        ADCSRA_reg.cycles = in.readInt();
+        ADCSRA_reg.converting = in.readBoolean();
+        Checkpoint.restoreEvent(in, mainClock, ADCSRA_reg.conversion);
+    }
+
     static final byte[] SINGLE_ENDED_INPUT = { 0, 1, 2, 3, 4, 5, 6, 7, -1, -1,
             -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
             -1, -1, -1, 8, 9 };
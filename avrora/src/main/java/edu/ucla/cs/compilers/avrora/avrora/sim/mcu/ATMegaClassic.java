@@ -92,14 +92,14 @@ public abstract class ATMegaClassic extends ATMegaFamilyNew
         @Override
         public int getCounter()
         {
-            return TCNTn_reg.read();
+            return TCNTn_reg.register.read();
         }
 
 
         @Override
         public void setCounter(int count)
         {
-            TCNTn_reg.write((byte) count);
+            TCNTn_reg.register.write((byte) count);
         }
 
 
@@ -386,9 +386,8 @@ public abstract class ATMegaClassic extends ATMegaFamilyNew
 
             protected void decode(byte val)
             {
-                // TODO: if there is a change, remove ticker and requeue?
-                timerClock = Arithmetic.getBit(val, AS0) ? externalClock
-                        : mainClock;
+                setTimerClock(Arithmetic.getBit(val, AS0) ? externalClock
+                        : mainClock);
             }
 
         }
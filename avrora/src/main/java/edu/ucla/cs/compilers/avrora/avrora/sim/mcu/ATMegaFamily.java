@@ -368,9 +368,8 @@ public abstract class ATMegaFamily extends AtmelMicrocontroller
 
             protected void decode(byte val)
             {
-                // TODO: if there is a change, remove ticker and requeue?
-                timerClock = Arithmetic.getBit(val, AS0) ? externalClock
-                        : mainClock;
+                setTimerClock(Arithmetic.getBit(val, AS0) ? externalClock
+                        : mainClock);
             }
 
         }
@@ -475,6 +474,55 @@ public abstract class ATMegaFamily extends AtmelMicrocontroller
     }
 
 
+    /**
+     * The <code>restorePins()</code> method drives the general purpose IO pins
+     * from the restored port registers. All directions are set before any
+     * output is written, so that each pin is driven only if it is an output.
+     * Driving a pin may sense an edge of an external interrupt, which was
+     * already saved in the flag registers and posted interrupts, so these are
+     * restored again afterwards.
+     */
+    @Override
+    protected void restorePins()
+    {
+        int size = getRegisterSet().getSize();
+        byte[] flags = new byte[size];
+        for (int cntr = 0; cntr < size; cntr++)
+        {
+            ActiveRegister reg = interpreter.getIOReg(cntr);
+            if (reg instanceof FlagRegister)
+                flags[cntr] = ((FlagRegister) reg).value;
+        }
+        long posted = interpreter.getInterruptTable().getPostedInterrupts();
+
+        for (int cntr = 0; cntr < size; cntr++)
+        {
+            ActiveRegister reg = interpreter.getIOReg(cntr);
+            if (reg instanceof DirectionRegister)
+                reg.write(((DirectionRegister) reg).value);
+        }
+        for (int cntr = 0; cntr < size; cntr++)
+        {
+            ActiveRegister reg = interpreter.getIOReg(cntr);
+            if (reg instanceof PortRegister)
+                reg.write(((PortRegister) reg).value);
+        }
+
+        for (int cntr = 0; cntr < size; cntr++)
+        {
+            ActiveRegister reg = interpreter.getIOReg(cntr);
+            if (reg instanceof FlagRegister)
+                ((FlagRegister) reg).value = flags[cntr];
+        }
+        long changed = posted ^ interpreter.getInterruptTable().getPostedInterrupts();
+        for (int inum = 0; changed != 0; inum++, changed >>>= 1)
+        {
+            if ((changed & 1) != 0)
+                interpreter.setPosted(inum, Arithmetic.getBit(posted, inum));
+        }
+    }
+
+
     /**
      * The <code>buildPort()</code> method builds the IO registers corresponding
      * to a general purpose IO port. These ports are named A-G, and each consist
@@ -339,6 +339,30 @@ public abstract class ATMegaFamilyNew extends AtmelMicrocontroller
     }
 
 
+    /**
+     * The <code>restorePins()</code> method drives the general purpose IO pins
+     * from the restored port registers. All directions are set before any
+     * output is written, so that each pin is driven only if it is an output.
+     */
+    @Override
+    protected void restorePins()
+    {
+        int size = getRegisterSet().getSize();
+        for (int cntr = 0; cntr < size; cntr++)
+        {
+            ActiveRegister reg = interpreter.getIOReg(cntr);
+            if (reg instanceof DirectionRegister)
+                reg.write(((DirectionRegister) reg).value);
+        }
+        for (int cntr = 0; cntr < size; cntr++)
+        {
+            ActiveRegister reg = interpreter.getIOReg(cntr);
+            if (reg instanceof PortRegister)
+                reg.write(((PortRegister) reg).value);
+        }
+    }
+
+
     /**
      * The <code>buildPort()</code> method builds the IO registers corresponding
      * to a general purpose IO port. These ports are named A-G, and each consist
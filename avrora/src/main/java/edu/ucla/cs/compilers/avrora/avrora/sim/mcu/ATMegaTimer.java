@@ -79,6 +79,7 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
      */ boolean compareMatchBlocked;
     Clock timerClock;
     int timerNumber;
+    final Counter counter;
 
     protected ATMegaTimer(int n, AtmelMicrocontroller m, int[] p, String ovfName) {
         super("Timer" + n, m);
@@ -96,6 +97,7 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         externalClock = m.getClock("external");
         timerClock = mainClock;
+        counter = new Counter();
     }
 
     private RegisterSet.Field newPeriodField() {
@@ -111,7 +113,9 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         return new RegisterSet.Field() {
             @Override
             public void update() {
+                counter.sync();
                 resetMode(value);
+                counter.schedule();
             }
         };
     }
@@ -131,19 +135,29 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
         if (nPeriod == 0) {
             if (timerEnabled) {
                 if (devicePrinter != null) devicePrinter.println(name + " disabled");
-                timerClock.removeEvent(mode);
+                counter.sync();
+                counter.restart(0);
                 timerEnabled = false;
             }
             return;
         }
-        if (timerEnabled) {
-            timerClock.removeEvent(mode);
-        }
+        counter.sync();
         if (devicePrinter != null)
             devicePrinter.println(name + " enabled: period = " + nPeriod + " mode = " + WGMn.value);
         period = nPeriod;
         timerEnabled = true;
-        timerClock.insertEvent(mode, period);
+        counter.restart(period);
+    }
+
+    /**
+     * Selects the clock that drives this timer, e.g. the external clock in
+     * asynchronous mode.
+     *
+     * @param c the clock that drives the timer
+     */
+    protected void setTimerClock(Clock c) {
+        timerClock = c;
+        counter.setClock(c);
     }
 
     /**
@@ -409,8 +423,6 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
             // XXX: verify the timing on this.
             compareMatchBlocked = false;
-
-            if (period != 0) timerClock.insertEvent(this, period);
         }
 
         protected void registerWritten(BufferedRegister reg) {
@@ -421,6 +433,21 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
             protected abstract int nextValue(int count);
 
+            /**
+             * @return the direction of counting, 1 for up and -1 for down
+             */
+            protected int direction() {
+                return 1;
+            }
+
+            /**
+             * @return true if the next count has a side effect regardless of
+             * the counter value
+             */
+            protected boolean atTop() {
+                return false;
+            }
+
             protected abstract void registerWritten(BufferedRegister reg);
         }
 
@@ -471,6 +498,11 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
             boolean zero = false;
 
+            @Override
+            protected boolean atTop() {
+                return zero;
+            }
+
             @Override
             protected int nextValue(int count) {
                 count++;
@@ -498,6 +530,11 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         protected class PWM extends Strategy {
 
+            @Override
+            protected int direction() {
+                return countUp ? 1 : -1;
+            }
+
             @Override
             protected int nextValue(int count) {
                 if (countUp) count++;
@@ -525,6 +562,11 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         protected class FC_PWM extends Strategy {
 
+            @Override
+            protected int direction() {
+                return countUp ? 1 : -1;
+            }
+
             @Override
             protected int nextValue(int count) {
                 if (countUp) count++;
@@ -656,7 +698,7 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
     protected class TCNTnRegister implements ActiveRegister {
 
         public final String name;
-        private final ActiveRegister register;
+        final ActiveRegister register;
 
         protected TCNTnRegister(String n, ActiveRegister r) {
             name = n;
@@ -665,12 +707,15 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         @Override
         public void write(byte val) {
+            counter.sync();
             register.write(val);
             compareMatchBlocked = true;
+            counter.schedule();
         }
 
         @Override
         public byte read() {
+            counter.sync();
             return register.read();
         }
     }
@@ -719,14 +764,18 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
 
         @Override
         public void write(byte val) {
+            counter.sync();
             value = val;
             mode.registerWritten(this);
+            counter.schedule();
         }
 
         @Override
         public void write(int val) {
+            counter.sync();
             value = val;
             mode.registerWritten(this);
+            counter.schedule();
         }
 
         public int readBuffer() {
@@ -822,4 +871,54 @@ public abstract class ATMegaTimer extends AtmelInternalDevice {
             return (byte) (reg.read16() >> 8);
         }
     }
+
+    /**
+     * The <code>Counter</code> class counts this timer lazily. Only the counts
+     * that reach TOP, MAX or BOTTOM, the count after the counter was written,
+     * and the counts at which the counter matches a compare unit are performed
+     * by the mode; all others just change the counter.
+     */
+    protected class Counter extends LazyCounter {
+
+        Counter() {
+            super(timerClock);
+        }
+
+        @Override
+        int getCount() {
+            return getCounter() & getMax();
+        }
+
+        @Override
+        void setCount(int count) {
+            setCounter(count);
+        }
+
+        @Override
+        int direction() {
+            return mode.strategy.direction();
+        }
+
+        @Override
+        long distance() {
+            if (mode == null) return -1;
+            // the mode prints the counter on every count
+            if (devicePrinter != null || compareMatchBlocked || mode.strategy.atTop()) return 0;
+            int dir = direction();
+            // the side effects depend on the value after the count
+            int next = getCount() + dir;
+            long d = distance(next, dir, getMax() + 1);
+            d = Math.min(d, distance(next, dir, 0));
+            d = Math.min(d, distance(next, dir, mode.getTop() & getMax()));
+            for (Comparator c : comparators.values()) {
+                d = Math.min(d, distance(next, dir, c.read() & getMax()));
+            }
+            return d;
+        }
+
+        @Override
+        void tick() {
+            mode.fire();
+        }
+    }
 }
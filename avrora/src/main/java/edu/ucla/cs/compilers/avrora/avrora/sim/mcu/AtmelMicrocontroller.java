@@ -35,6 +35,8 @@ package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 import edu.ucla.cs.compilers.avrora.avrora.arch.avr.AVRProperties;
 import edu.ucla.cs.compilers.avrora.avrora.sim.ActiveRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.AtmelInterpreter;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
 import edu.ucla.cs.compilers.avrora.avrora.sim.InterruptTable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.InterruptTable.Notification;
@@ -44,6 +46,9 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.ATMegaFamily.FlagRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.state.RegisterUtil.BitRangeView;
 import edu.ucla.cs.compilers.avrora.cck.text.Printer;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 
 /**
@@ -55,7 +60,7 @@ import java.util.HashMap;
  *
  * @author Ben L. Titzer
  */
-public abstract class AtmelMicrocontroller extends DefaultMCU
+public abstract class AtmelMicrocontroller extends DefaultMCU implements Checkpointable
 {
 
     public static final int MODE_ACTIVE = 0;
@@ -198,6 +203,58 @@ public abstract class AtmelMicrocontroller extends DefaultMCU
         return devices.get(name);
     }
 
+    /**
+     * The <code>saveState()</code> method writes the state of the interpreter
+     * (registers, memory, interrupts), the sleep mode, and the state of each
+     * internal device. It fails if a device does not support checkpointing.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        interpreter.saveState(out);
+        out.writeInt(sleepState.getCurrentState());
+        Checkpoint.saveParts(out, devices);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. After the internal devices have been restored,
+     * the IO pins are driven to their saved levels so that external devices
+     * observe the same outputs as before.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        interpreter.restoreState(in);
+        int mode = in.readInt();
+        if (mode != FiniteStateMachine.IN_TRANSITION && mode != sleepState.getCurrentState())
+            sleepState.transition(mode);
+        Checkpoint.restoreParts(in, devices);
+        restorePins();
+    }
+
+
+    /**
+     * The <code>restorePins()</code> method is called at the end of
+     * <code>restoreState()</code> to drive the IO pins from the restored
+     * values of the IO registers. The default implementation does nothing.
+     */
+    protected void restorePins()
+    {
+        // do nothing.
+    }
+
     /**
      * The <code>getPin()</code> method looks up the named pin and returns a
      * reference to that pin. Names of pins should be UPPERCASE. The intended
@@ -32,6 +32,12 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.state.BooleanView;
@@ -46,7 +52,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
  * @author Daniel Lee
  * @author Sascha Silbe
  */
-public class EEPROM extends AtmelInternalDevice
+public class EEPROM extends AtmelInternalDevice implements Checkpointable
 {
 
     final int EEPROM_SIZE, EEPROM_SIZE_numBits;
@@ -130,6 +136,57 @@ public class EEPROM extends AtmelInternalDevice
         return EEPROM_data;
     }
 
+
+    /**
+     * The <code>saveState()</code> method writes the contents of the EEPROM,
+     * the state of the access protocol and the pending ticks and writes.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeInt(EEPROM_SIZE);
+        out.write(EEPROM_data);
+        out.writeBoolean(masterWriteEnable);
+        out.writeBoolean(writeEnable);
+        out.writeBoolean(readEnable);
+        out.writeInt(writeCount);
+        out.writeBoolean(writeEnableWritten);
+        out.writeBoolean(readEnableWritten);
+        Checkpoint.saveEvent(out, simulator.getClock(), ticker);
+        Checkpoint.saveEvent(out, simulator.getClock(), writeFinishedEvent);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        byte[] contents = new byte[in.readInt()];
+        in.readFully(contents);
+        setContent(contents);
+        masterWriteEnable = in.readBoolean();
+        writeEnable = in.readBoolean();
+        readEnable = in.readBoolean();
+        writeCount = in.readInt();
+        writeEnableWritten = in.readBoolean();
+        readEnableWritten = in.readBoolean();
+        Checkpoint.restoreEvent(in, mainClock, ticker);
+        Checkpoint.restoreEvent(in, mainClock, writeFinishedEvent);
+    }
+
     protected class EEARHReg extends RWRegister
     {
 
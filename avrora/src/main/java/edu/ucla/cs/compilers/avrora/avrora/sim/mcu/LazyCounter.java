@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventHandle;
+
+/**
+ * The <code>LazyCounter</code> class implements the counting engine shared by
+ * the timer devices. A timer counts once every <code>period</code> cycles of
+ * its clock, but most of those counts simply increment (or decrement) the
+ * counter register. Instead of firing an event for every count, this class
+ * fires an event only for the next count that has a side effect, such as an
+ * overflow, reaching TOP or BOTTOM, or a compare match, as determined by the
+ * timer. The counts in between are applied to the counter register when it is
+ * read by the program or when the state of the timer changes.
+ * <p>
+ * A timer must call <code>sync()</code> before reading the counter or changing
+ * any state that affects counting, and <code>schedule()</code> after changing
+ * such state, so that the next event is moved accordingly.
+ * </p>
+ */
+abstract class LazyCounter implements Simulator.Event
+{
+
+    /**
+     * The <code>handle</code> field stores the handle through which the next
+     * count with side effects is scheduled.
+     */
+    final EventHandle handle = new EventHandle(this);
+
+    /**
+     * The <code>clock</code> field stores the clock that drives the counter.
+     */
+    Clock clock;
+
+    /**
+     * The <code>period</code> field stores the number of cycles of the clock
+     * per count, or zero if the counter is stopped.
+     */
+    long period;
+
+    /**
+     * The <code>lastTick</code> field stores the time of the last count that
+     * has been applied to the counter register.
+     */
+    long lastTick;
+
+    /**
+     * The <code>pending</code> field stores the number of counts after
+     * <code>lastTick</code> at which the scheduled event fires, or zero if no
+     * event is scheduled.
+     */
+    long pending;
+
+
+    LazyCounter(Clock c)
+    {
+        clock = c;
+    }
+
+
+    /**
+     * The <code>getCount()</code> method reads the counter register without
+     * any side effects.
+     *
+     * @return the value of the counter register
+     */
+    abstract int getCount();
+
+
+    /**
+     * The <code>setCount()</code> method writes the counter register without
+     * any side effects.
+     *
+     * @param count
+     *            the new value of the counter register
+     */
+    abstract void setCount(int count);
+
+
+    /**
+     * The <code>direction()</code> method returns the direction in which the
+     * counter currently counts.
+     *
+     * @return 1 if the counter counts up; -1 if it counts down
+     */
+    abstract int direction();
+
+
+    /**
+     * The <code>distance()</code> method computes the number of counts without
+     * side effects that precede the next count with side effects, given the
+     * current state of the timer.
+     *
+     * @return the number of counts that only change the counter register; -1
+     *         if the timer does not count in its current mode
+     */
+    abstract long distance();
+
+
+    /**
+     * The <code>tick()</code> method performs a count with side effects.
+     */
+    abstract void tick();
+
+
+    /**
+     * The <code>distance()</code> method computes the number of counts before
+     * the counter reaches the specified value, counting in the specified
+     * direction from the specified value.
+     *
+     * @param count
+     *            the current value of the counter
+     * @param dir
+     *            the direction of counting
+     * @param stop
+     *            the value to reach
+     * @return the number of counts; <code>Long.MAX_VALUE</code> if the value
+     *         is not ahead of the counter
+     */
+    static long distance(int count, int dir, int stop)
+    {
+        if (dir > 0)
+            return stop >= count ? stop - count : Long.MAX_VALUE;
+        return stop <= count ? count - stop : Long.MAX_VALUE;
+    }
+
+
+    /**
+     * The <code>sync()</code> method applies the counts that have elapsed since
+     * the last count applied to the counter register, up to but not including
+     * the count at which the scheduled event fires.
+     */
+    void sync()
+    {
+        long k = pending - 1;
+        if (k <= 0)
+            return;
+        long elapsed = (clock.getCount() - lastTick) / period;
+        if (elapsed < k)
+            k = elapsed;
+        if (k > 0)
+        {
+            setCount(getCount() + direction() * (int) k);
+            lastTick += k * period;
+            pending -= k;
+        }
+    }
+
+
+    /**
+     * The <code>schedule()</code> method schedules the event for the next count
+     * with side effects, according to the current state of the timer. The
+     * counter must have been synchronized with <code>sync()</code> first.
+     */
+    void schedule()
+    {
+        pending = 0;
+        long d = period == 0 ? -1 : distance();
+        if (d < 0)
+        {
+            clock.removeEvent(handle);
+            return;
+        }
+        pending = d + 1;
+        clock.insertEvent(handle, lastTick + pending * period
+                - clock.getCount());
+    }
+
+
+    /**
+     * The <code>restart()</code> method restarts counting with the specified
+     * period, with the first count one period from now. The counter must have
+     * been synchronized with <code>sync()</code> first.
+     *
+     * @param p
+     *            the number of cycles of the clock per count; zero to stop the
+     *            counter
+     */
+    void restart(long p)
+    {
+        period = p;
+        lastTick = clock.getCount();
+        schedule();
+    }
+
+
+    /**
+     * The <code>setClock()</code> method changes the clock that drives the
+     * counter. The counts elapsed on the old clock are applied and counting
+     * restarts on the new clock with the same period.
+     *
+     * @param c
+     *            the new clock
+     */
+    void setClock(Clock c)
+    {
+        if (c == clock)
+            return;
+        sync();
+        clock.removeEvent(handle);
+        clock = c;
+        restart(period);
+    }
+
+
+    /**
+     * The <code>phase()</code> method applies the elapsed counts and returns
+     * the number of cycles of the clock since the last count. Together with
+     * the counter register and the period, it determines the state of the
+     * counter in a checkpoint.
+     *
+     * @return the number of cycles since the last count; zero if the counter
+     *         is stopped
+     */
+    long phase()
+    {
+        if (period == 0)
+            return 0;
+        sync();
+        return clock.getCount() - lastTick;
+    }
+
+
+    /**
+     * The <code>resume()</code> method resumes counting on the specified clock
+     * with the specified period and phase, as returned by <code>phase()</code>
+     * when the checkpoint was taken. The counter register must have been
+     * restored first.
+     *
+     * @param c
+     *            the clock that drives the counter
+     * @param p
+     *            the number of cycles of the clock per count; zero to stop the
+     *            counter
+     * @param phase
+     *            the number of cycles of the clock since the last count
+     */
+    void resume(Clock c, long p, long phase)
+    {
+        clock.removeEvent(handle);
+        clock = c;
+        period = p;
+        lastTick = clock.getCount() - Math.min(phase, p);
+        schedule();
+    }
+
+
+    /**
+     * The <code>fire()</code> method is called when the count with side effects
+     * is reached. It applies the preceding counts, performs the count, and
+     * schedules the next event.
+     */
+    @Override
+    public void fire()
+    {
+        sync();
+        tick();
+        lastTick += period;
+        schedule();
+    }
+}
@@ -32,9 +32,15 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 import edu.ucla.cs.compilers.avrora.avrora.sim.ActiveRegister;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
@@ -50,7 +56,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Util;
  *
  * @author Ben L. Titzer
  */
-public class RegisterSet
+public class RegisterSet implements Checkpointable
 {
 
     /**
@@ -415,4 +421,61 @@ public class RegisterSet
         fwriter.fobject = fo;
         return fo;
     }
+
+
+    /**
+     * The <code>saveState()</code> method writes the values of all the fields
+     * and of the registers that are composed of fields.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        TreeMap<String, FieldWriter> sorted = new TreeMap<String, FieldWriter>(fields);
+        out.writeInt(sorted.size());
+        for (Map.Entry<String, FieldWriter> e : sorted.entrySet())
+        {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue().fobject.value);
+        }
+        for (int ior = 0; ior < registers.length; ior++)
+        {
+            if (registers[ior] instanceof MultiFieldRegister)
+                out.writeByte(((MultiFieldRegister) registers[ior]).value);
+        }
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the values of the fields
+     * and registers written by <code>saveState()</code>. The values are set
+     * directly, without calling <code>update()</code> on the fields; devices
+     * that derive state from their fields recompute it when they are restored.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        int count = in.readInt();
+        for (int cntr = 0; cntr < count; cntr++)
+        {
+            FieldWriter fwriter = fields.get(in.readUTF());
+            int value = in.readInt();
+            if (fwriter != null)
+                fwriter.fobject.value = value;
+        }
+        for (int ior = 0; ior < registers.length; ior++)
+        {
+            if (registers[ior] instanceof MultiFieldRegister)
+                ((MultiFieldRegister) registers[ior]).value = in.readByte();
+        }
+    }
 }
@@ -469,6 +469,17 @@ public class ReprogrammableCodeSegment extends CodeSegment
     }
 
 
+    private LegacyInstr disassemble(int address)
+    {
+        // the bytes are stored in pages; copy out the longest instruction
+        byte[] code = new byte[4];
+        for (int cntr = 0; cntr < code.length; cntr++)
+            code[cntr] = address + cntr < length ? direct_read(address + cntr)
+                    : value;
+        return disassembler.disassembleLegacy(code, address, 0);
+    }
+
+
     private int bufferSize()
     {
         // pagesize stores the number of bits representing the word offset in an
@@ -499,8 +510,7 @@ public class ReprogrammableCodeSegment extends CodeSegment
         @Override
         public void accept(LegacyInstrVisitor v)
         {
-            LegacyInstr i = disassembler.disassembleLegacy(segment_data, 0,
-                    address);
+            LegacyInstr i = disassemble(address);
             if (i == null)
                 throw Util.failure("invalid instruction at "
                         + StringUtil.addrToString(address));
@@ -527,8 +537,7 @@ public class ReprogrammableCodeSegment extends CodeSegment
         @Override
         public LegacyInstr asInstr()
         {
-            LegacyInstr i = disassembler.disassembleLegacy(segment_data, 0,
-                    address);
+            LegacyInstr i = disassemble(address);
             if (i == null)
                 return null;
             replaceInstr(address, i);
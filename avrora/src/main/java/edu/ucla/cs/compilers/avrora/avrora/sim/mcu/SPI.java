@@ -32,7 +32,13 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import edu.ucla.cs.compilers.avrora.avrora.sim.ActiveRegister;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.InterruptTable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
@@ -49,7 +55,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
  * @author Daniel Lee, Simon Han
  */
 public class SPI extends AtmelInternalDevice
-        implements SPIDevice, InterruptTable.Notification
+        implements SPIDevice, InterruptTable.Notification, Checkpointable
 {
 
     final SPDReg SPDR_reg;
@@ -142,6 +148,55 @@ public class SPI extends AtmelInternalDevice
     }
 
 
+    /**
+     * The <code>saveState()</code> method writes the state of the SPI that is
+     * not visible in its IO registers: the data buffers, the clock period,
+     * the state of the interrupt flag and the transfer in progress.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeInt(period);
+        out.writeBoolean(SPCR_reg.prev_spie);
+        out.writeByte(SPSR_reg.prev_value);
+        out.writeBoolean(spifAccessed);
+        out.writeByte(SPDR_reg.receiveReg.value);
+        out.writeByte(SPDR_reg.transmitReg.value);
+        out.writeBoolean(transferEvent.transmitting);
+        out.writeByte(transferEvent.frame == null ? 0 : transferEvent.frame.data);
+        Checkpoint.saveEvent(out, simulator.getClock(), transferEvent);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        period = in.readInt();
+        SPCR_reg.prev_spie = in.readBoolean();
+        SPSR_reg.prev_value = in.readByte();
+        spifAccessed = in.readBoolean();
+        SPDR_reg.receiveReg.value = in.readByte();
+        SPDR_reg.transmitReg.value = in.readByte();
+        transferEvent.transmitting = in.readBoolean();
+        transferEvent.frame = newFrame(in.readByte());
+        Checkpoint.restoreEvent(in, mainClock, transferEvent);
+    }
+
+
     /**
      * Post SPI interrupt
      */
@@ -32,6 +32,11 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
@@ -47,6 +52,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.state.BooleanView;
  * @author Daniel Lee
  */
 public abstract class Timer16Bit extends AtmelInternalDevice
+        implements Checkpointable
 {
 
     // Timer/Counter Modes of Operations
@@ -155,6 +161,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
             {
                 if (value == 1)
                 {
+                    counter.sync();
                     if (read16(TCNTnH_reg, TCNTnL_reg) == read())
                     {
                         output();
@@ -223,7 +230,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
     final PairedRegister TCNTn_reg;
 
     final OutputCompareUnit[] compareUnits;
-    final Simulator.Event[] tickers;
+    final Mode[] tickers;
 
     final RWRegister highTempReg;
 
@@ -231,7 +238,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
     final RWRegister ICRnL_reg;
     final PairedRegister ICRn_reg;
 
-    Simulator.Event ticker;
+    Mode ticker;
 
     final RegisterSet.Field WGMn;
     final RegisterSet.Field CSn;
@@ -244,6 +251,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
 
     protected final Clock externalClock;
     Clock timerClock;
+    final Counter counter;
 
     // information about registers and flags that specifies
     // which specific registers this 16-bit timer interacts with
@@ -316,11 +324,11 @@ public abstract class Timer16Bit extends AtmelInternalDevice
 
         TCNTnH_reg = new RWRegister();
         TCNTnL_reg = new TCNTnRegister();
-        TCNTn_reg = new PairedRegister(TCNTnH_reg, TCNTnL_reg);
+        TCNTn_reg = new TCNTnPairedRegister(TCNTnH_reg, TCNTnL_reg);
 
         ICRnH_reg = new RWRegister();
         ICRnL_reg = new RWRegister();
-        ICRn_reg = new PairedRegister(ICRnL_reg, ICRnH_reg);
+        ICRn_reg = new ICRnPairedRegister(ICRnL_reg, ICRnH_reg);
 
         ICESn_flag = rset.getField("ICES" + n);
 
@@ -333,8 +341,9 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         installIOReg("ICR" + n + "H", highTempReg);
         installIOReg("ICR" + n + "L", ICRn_reg);
 
-        tickers = new Simulator.Event[16];
+        tickers = new Mode[16];
         installTickers();
+        counter = new Counter();
     }
 
 
@@ -375,8 +384,11 @@ public abstract class Timer16Bit extends AtmelInternalDevice
 
     void captureInput()
     {
+        counter.sync();
         ICRnL_reg.write(TCNTnL_reg.value);
         ICRnH_reg.write(TCNTnH_reg.value);
+        // ICRn may define TOP
+        counter.schedule();
         xTIFR_reg.flagBit(ICFn);
         interpreter.getInterruptTable().post(inputCaptureInterrupt);
     }
@@ -450,6 +462,48 @@ public abstract class Timer16Bit extends AtmelInternalDevice
 
     }
 
+    /**
+     * The <code>TCNTnPairedRegister</code> class brings the counter up to date
+     * before the program reads it.
+     */
+    protected class TCNTnPairedRegister extends PairedRegister
+    {
+        TCNTnPairedRegister(RWRegister high, RWRegister low)
+        {
+            super(high, low);
+        }
+
+
+        @Override
+        public byte read()
+        {
+            counter.sync();
+            return super.read();
+        }
+    }
+
+    /**
+     * The <code>ICRnPairedRegister</code> class moves the next event of the
+     * counter when the program writes the input capture register, which may
+     * define TOP.
+     */
+    protected class ICRnPairedRegister extends PairedRegister
+    {
+        ICRnPairedRegister(RWRegister high, RWRegister low)
+        {
+            super(high, low);
+        }
+
+
+        @Override
+        public void write(byte val)
+        {
+            counter.sync();
+            super.write(val);
+            counter.schedule();
+        }
+    }
+
     /**
      * The normal 16-bit read behavior described in the doc for PairedRegister
      * does not apply for the OCRnx registers. Reads on the OCRnxH registers are
@@ -511,8 +565,10 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         @Override
         public void write(byte val)
         {
+            counter.sync();
             value = val;
             blockCompareMatch = true;
+            counter.schedule();
         }
 
     }
@@ -525,29 +581,30 @@ public abstract class Timer16Bit extends AtmelInternalDevice
             // disable the timer.
             if (devicePrinter != null)
                 devicePrinter.println("Timer" + n + " disabled");
-            if (ticker != null)
-                timerClock.removeEvent(ticker);
+            counter.sync();
+            counter.restart(0);
         } else
         {
             // enable the timer.
             if (devicePrinter != null)
                 devicePrinter.println("Timer" + n + " enabled: period = "
                         + nPeriod + " mode = " + WGMn.value);
-            if (ticker != null)
-                timerClock.removeEvent(ticker);
+            counter.sync();
             ticker = tickers[WGMn.value];
             period = nPeriod;
-            timerClock.insertEvent(ticker, period);
+            counter.restart(period);
         }
     }
 
 
-    public void resetTicker(Simulator.Event e)
+    public void resetTicker(Mode m)
     {
-        if (ticker != null)
-            simulator.removeEvent(ticker);
-        ticker = e;
-        simulator.insertEvent(e, period);
+        counter.sync();
+        ticker = m;
+        counter.restart(period);
+        if (period == 0)
+            // the new mode still performs a single count
+            simulator.insertEvent(counter.handle, 0);
     }
 
     /**
@@ -572,6 +629,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         @Override
         public void write(byte val)
         {
+            counter.sync();
             super.write(val);
             int mode = WGMn.value;
             if (mode == MODE_NORMAL || mode == MODE_CTC_OCRnA
@@ -579,6 +637,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
             {
                 flush();
             }
+            counter.schedule();
         }
 
 
@@ -601,7 +660,25 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         }
     }
 
-    protected class Mode_Reserved implements Simulator.Event
+    /**
+     * The <code>Mode</code> class is the base class of the modes of the timer.
+     * Each mode performs a single count of the timer when fired.
+     */
+    protected abstract class Mode implements Simulator.Event
+    {
+        int direction()
+        {
+            return 1;
+        }
+
+
+        int top()
+        {
+            return MAX;
+        }
+    }
+
+    protected class Mode_Reserved extends Mode
     {
         @Override
         public void fire()
@@ -610,7 +687,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         }
     }
 
-    protected class Mode_Normal implements Simulator.Event
+    protected class Mode_Normal extends Mode
     {
         @Override
         public void fire()
@@ -625,11 +702,11 @@ public abstract class Timer16Bit extends AtmelInternalDevice
             {
                 ncount++;
             }
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    protected class Mode_CTC implements Simulator.Event
+    protected class Mode_CTC extends Mode
     {
         protected final RWRegister compareRegHigh;
         protected final RWRegister compareRegLow;
@@ -642,6 +719,15 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         }
 
 
+        @Override
+        int top()
+        {
+            if (compareRegHigh != null)
+                return read16(compareRegHigh, compareRegLow);
+            return MAX;
+        }
+
+
         @Override
         public void fire()
         {
@@ -662,11 +748,11 @@ public abstract class Timer16Bit extends AtmelInternalDevice
             {
                 ncount++;
             }
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    protected class Mode_FastPWM implements Simulator.Event
+    protected class Mode_FastPWM extends Mode
     {
         protected final int top;
         protected final RWRegister compareRegHigh;
@@ -682,6 +768,15 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         }
 
 
+        @Override
+        int top()
+        {
+            if (compareRegHigh != null)
+                return read16(compareRegHigh, compareRegLow);
+            return top;
+        }
+
+
         @Override
         public void fire()
         {
@@ -708,17 +803,24 @@ public abstract class Timer16Bit extends AtmelInternalDevice
             {
                 ncount++;
             }
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    protected class Mode_PWM_PNF implements Simulator.Event
+    protected class Mode_PWM_PNF extends Mode
     {
         protected byte increment = 1;
         protected final RWRegister compareRegHigh;
         protected final RWRegister compareRegLow;
 
 
+        @Override
+        int direction()
+        {
+            return increment;
+        }
+
+
         protected Mode_PWM_PNF(RWRegister compareRegH, RWRegister compareRegL)
         {
             compareRegHigh = compareRegH;
@@ -726,6 +828,15 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         }
 
 
+        @Override
+        int top()
+        {
+            if (compareRegHigh != null)
+                return read16(compareRegHigh, compareRegLow);
+            return MAX;
+        }
+
+
         @Override
         public void fire()
         {
@@ -754,11 +865,11 @@ public abstract class Timer16Bit extends AtmelInternalDevice
                 ncount = BOTTOM - 1;
             }
             ncount += increment;
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    protected class Mode_PWMPhaseCorrect implements Simulator.Event
+    protected class Mode_PWMPhaseCorrect extends Mode
     {
         protected byte increment = 1;
         protected final int top;
@@ -766,6 +877,13 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         protected final RWRegister compareRegLow;
 
 
+        @Override
+        int direction()
+        {
+            return increment;
+        }
+
+
         protected Mode_PWMPhaseCorrect(int t, RWRegister compareRegH,
                 RWRegister compareRegL)
         {
@@ -775,6 +893,15 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         }
 
 
+        @Override
+        int top()
+        {
+            if (compareRegHigh != null)
+                return read16(compareRegHigh, compareRegLow);
+            return top;
+        }
+
+
         @Override
         public void fire()
         {
@@ -801,7 +928,7 @@ public abstract class Timer16Bit extends AtmelInternalDevice
                 ncount = BOTTOM - 1;
             }
             ncount += increment;
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
@@ -817,14 +944,11 @@ public abstract class Timer16Bit extends AtmelInternalDevice
     }
 
 
-    private void tickerFinish(Simulator.Event ticker, int ncount)
+    private void tickerFinish(int ncount)
     {
-        write16(ncount, TCNTnH_reg, TCNTnL_reg);
-        // previous write sets the compare, so reset it now
+        TCNTnH_reg.value = (byte) (ncount >> 8);
+        TCNTnL_reg.value = (byte) ncount;
         blockCompareMatch = false;
-
-        if (period != 0)
-            timerClock.insertEvent(ticker, period);
     }
 
 
@@ -833,4 +957,144 @@ public abstract class Timer16Bit extends AtmelInternalDevice
         for (int cntr = 0; cntr < compareUnits.length; cntr++)
             compareUnits[cntr].flush();
     }
+
+    /**
+     * The <code>saveState()</code> method writes the state of this timer that
+     * is not visible in its IO registers: the up to date counter, the input
+     * capture register, the buffered and active output compare values, the
+     * direction of counting in the PWM modes, and the number of cycles since
+     * the last count.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        long phase = counter.phase();
+        out.writeByte(TCNTnH_reg.value);
+        out.writeByte(TCNTnL_reg.value);
+        out.writeByte(ICRnH_reg.value);
+        out.writeByte(ICRnL_reg.value);
+        for (int cntr = 0; cntr < compareUnits.length; cntr++)
+        {
+            OutputCompareUnit unit = compareUnits[cntr];
+            out.writeByte(unit.OCRnXH_reg.value);
+            out.writeByte(unit.OCRnXH_reg.register.value);
+            out.writeByte(unit.OCRnXL_reg.value);
+            out.writeByte(unit.OCRnXL_reg.register.value);
+        }
+        for (int cntr = 0; cntr < tickers.length; cntr++)
+        {
+            if (tickers[cntr] instanceof Mode_PWM_PNF)
+                out.writeByte(((Mode_PWM_PNF) tickers[cntr]).increment);
+            else if (tickers[cntr] instanceof Mode_PWMPhaseCorrect)
+                out.writeByte(((Mode_PWMPhaseCorrect) tickers[cntr]).increment);
+        }
+        out.writeBoolean(blockCompareMatch);
+        out.writeLong(phase);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. The mode and prescaler are taken from the
+     * restored register fields, and counting resumes with the saved phase.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        TCNTnH_reg.value = in.readByte();
+        TCNTnL_reg.value = in.readByte();
+        ICRnH_reg.value = in.readByte();
+        ICRnL_reg.value = in.readByte();
+        for (int cntr = 0; cntr < compareUnits.length; cntr++)
+        {
+            OutputCompareUnit unit = compareUnits[cntr];
+            unit.OCRnXH_reg.value = in.readByte();
+            unit.OCRnXH_reg.register.value = in.readByte();
+            unit.OCRnXL_reg.value = in.readByte();
+            unit.OCRnXL_reg.register.value = in.readByte();
+        }
+        for (int cntr = 0; cntr < tickers.length; cntr++)
+        {
+            if (tickers[cntr] instanceof Mode_PWM_PNF)
+                ((Mode_PWM_PNF) tickers[cntr]).increment = in.readByte();
+            else if (tickers[cntr] instanceof Mode_PWMPhaseCorrect)
+                ((Mode_PWMPhaseCorrect) tickers[cntr]).increment = in.readByte();
+        }
+        blockCompareMatch = in.readBoolean();
+        long phase = in.readLong();
+        ticker = tickers[WGMn.value];
+        period = periods[CSn.value];
+        counter.resume(timerClock, period, phase);
+    }
+
+    /**
+     * The <code>Counter</code> class counts this timer lazily. Only the counts
+     * at MAX, BOTTOM and TOP, the count after the counter was written, and the
+     * counts at which the counter matches an output compare register are
+     * performed by the mode; all others just change the counter.
+     */
+    protected class Counter extends LazyCounter
+    {
+        Counter()
+        {
+            super(timerClock);
+        }
+
+
+        @Override
+        int getCount()
+        {
+            return (TCNTnL_reg.value & 0xff) | (TCNTnH_reg.value & 0xff) << 8;
+        }
+
+
+        @Override
+        void setCount(int count)
+        {
+            TCNTnH_reg.value = (byte) (count >> 8);
+            TCNTnL_reg.value = (byte) count;
+        }
+
+
+        @Override
+        int direction()
+        {
+            return ticker.direction();
+        }
+
+
+        @Override
+        long distance()
+        {
+            if (ticker instanceof Mode_Reserved)
+                return -1;
+            if (blockCompareMatch)
+                return 0;
+            int count = getCount();
+            int dir = ticker.direction();
+            long d = distance(count, dir, MAX);
+            d = Math.min(d, distance(count, dir, BOTTOM));
+            d = Math.min(d, distance(count, dir, ticker.top()));
+            for (int cntr = 0; cntr < compareUnits.length; cntr++)
+                d = Math.min(d, distance(count, dir, compareUnits[cntr].read()));
+            return d;
+        }
+
+
+        @Override
+        void tick()
+        {
+            ticker.fire();
+        }
+    }
 }
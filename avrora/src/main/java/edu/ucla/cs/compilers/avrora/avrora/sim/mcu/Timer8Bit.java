@@ -32,6 +32,11 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
@@ -44,6 +49,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.state.RegisterView;
  * @author Daniel Lee
  */
 public abstract class Timer8Bit extends AtmelInternalDevice
+        implements Checkpointable
 {
     public static final int MODE_NORMAL = 0;
     public static final int MODE_PWM = 1;
@@ -58,14 +64,15 @@ public abstract class Timer8Bit extends AtmelInternalDevice
 
     protected final int n; // number of timer. 0 for Timer0, 2 for Timer2
 
-    protected Simulator.Event ticker;
+    protected Mode ticker;
     protected final Clock externalClock;
     protected Clock timerClock;
+    protected final Counter counter;
 
     protected int period;
 
     final AtmelMicrocontroller.Pin outputComparePin;
-    final Simulator.Event[] tickers;
+    final Mode[] tickers;
 
     /*
      * pg. 93 of manual. Block compareMatch for one period after TCNTn is
@@ -112,8 +119,9 @@ public abstract class Timer8Bit extends AtmelInternalDevice
         installIOReg("TCNT" + n, TCNTn_reg);
         installIOReg("OCR" + n, OCRn_reg);
 
-        tickers = new Simulator.Event[4];
+        tickers = new Mode[4];
         installTickers();
+        counter = new Counter();
     }
 
 
@@ -126,6 +134,20 @@ public abstract class Timer8Bit extends AtmelInternalDevice
     }
 
 
+    /**
+     * The <code>setTimerClock()</code> method selects the clock that drives
+     * this timer, e.g. the external clock in asynchronous mode.
+     *
+     * @param c
+     *            the clock that drives the timer
+     */
+    protected void setTimerClock(Clock c)
+    {
+        timerClock = c;
+        counter.setClock(c);
+    }
+
+
     protected void compareMatch()
     {
         if (devicePrinter != null)
@@ -162,11 +184,21 @@ public abstract class Timer8Bit extends AtmelInternalDevice
     protected class TCNTnRegister extends RWRegister
     {
 
+        @Override
+        public byte read()
+        {
+            counter.sync();
+            return value;
+        }
+
+
         @Override
         public void write(byte val)
         {
+            counter.sync();
             value = val;
             blockCompareMatch = true;
+            counter.schedule();
         }
 
     }
@@ -190,11 +222,13 @@ public abstract class Timer8Bit extends AtmelInternalDevice
         @Override
         public void write(byte val)
         {
+            counter.sync();
             super.write(val);
             if (TCCRn_reg.mode == MODE_NORMAL || TCCRn_reg.mode == MODE_CTC)
             {
                 flush();
             }
+            counter.schedule();
         }
 
 
@@ -254,16 +288,12 @@ public abstract class Timer8Bit extends AtmelInternalDevice
             // if the scale or the mode has changed
             if (nmode != mode || nscale != scale)
             {
-                if (ticker != null)
-                    timerClock.removeEvent(ticker);
+                counter.sync();
                 mode = nmode;
                 scale = nscale;
                 ticker = tickers[mode];
                 period = periods[scale];
-                if (period != 0)
-                {
-                    timerClock.insertEvent(ticker, period);
-                }
+                counter.restart(period);
                 if (devicePrinter != null)
                 {
                     if (period != 0)
@@ -309,7 +339,19 @@ public abstract class Timer8Bit extends AtmelInternalDevice
         }
     }
 
-    class Mode_Normal implements Simulator.Event
+    /**
+     * The <code>Mode</code> class is the base class of the modes of the timer.
+     * Each mode performs a single count of the timer when fired.
+     */
+    abstract class Mode implements Simulator.Event
+    {
+        int direction()
+        {
+            return 1;
+        }
+    }
+
+    class Mode_Normal extends Mode
     {
         @Override
         public void fire()
@@ -324,15 +366,22 @@ public abstract class Timer8Bit extends AtmelInternalDevice
             {
                 ncount++;
             }
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    class Mode_PWM implements Simulator.Event
+    class Mode_PWM extends Mode
     {
         protected byte increment = 1;
 
 
+        @Override
+        int direction()
+        {
+            return increment;
+        }
+
+
         @Override
         public void fire()
         {
@@ -351,11 +400,11 @@ public abstract class Timer8Bit extends AtmelInternalDevice
                 ncount = BOTTOM;
             }
             ncount += increment;
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    class Mode_CTC implements Simulator.Event
+    class Mode_CTC extends Mode
     {
         @Override
         public void fire()
@@ -374,11 +423,11 @@ public abstract class Timer8Bit extends AtmelInternalDevice
             {
                 ncount++;
             }
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
-    class Mode_FastPWM implements Simulator.Event
+    class Mode_FastPWM extends Mode
     {
         @Override
         public void fire()
@@ -395,7 +444,7 @@ public abstract class Timer8Bit extends AtmelInternalDevice
             {
                 ncount++;
             }
-            tickerFinish(this, ncount);
+            tickerFinish(ncount);
         }
     }
 
@@ -409,12 +458,115 @@ public abstract class Timer8Bit extends AtmelInternalDevice
     }
 
 
-    private void tickerFinish(Simulator.Event ticker, int ncount)
+    private void tickerFinish(int ncount)
     {
-        TCNTn_reg.write((byte) ncount);
-        // previous write sets the compare, so reset it now
+        TCNTn_reg.value = (byte) ncount;
         blockCompareMatch = false;
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of this timer that
+     * is not visible in its IO registers: the up to date counter, the active
+     * output compare value, the direction of counting, the clock source and
+     * the number of cycles since the last count.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        long phase = counter.phase();
+        out.writeByte(TCNTn_reg.value);
+        out.writeByte(OCRn_reg.register.value);
+        out.writeBoolean(blockCompareMatch);
+        out.writeByte(((Mode_PWM) tickers[MODE_PWM]).increment);
+        out.writeBoolean(timerClock == externalClock);
+        out.writeLong(phase);
+    }
 
-        timerClock.insertEvent(ticker, period);
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. The mode and prescaler are decoded again from
+     * the restored control register, and counting resumes with the saved
+     * phase.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        TCNTn_reg.value = in.readByte();
+        OCRn_reg.register.value = in.readByte();
+        blockCompareMatch = in.readBoolean();
+        ((Mode_PWM) tickers[MODE_PWM]).increment = in.readByte();
+        timerClock = in.readBoolean() ? externalClock : mainClock;
+        long phase = in.readLong();
+        TCCRn_reg.mode = TCCRn_reg.WGMn.getValue();
+        TCCRn_reg.scale = TCCRn_reg.CSn.getValue();
+        ticker = tickers[TCCRn_reg.mode];
+        period = periods[TCCRn_reg.scale];
+        counter.resume(timerClock, period, phase);
+    }
+
+    /**
+     * The <code>Counter</code> class counts this timer lazily. Only the counts
+     * at MAX and BOTTOM, the count after the counter was written, and the
+     * count at which the counter matches the output compare register are
+     * performed by the mode; all others just change the counter.
+     */
+    protected class Counter extends LazyCounter
+    {
+        Counter()
+        {
+            super(timerClock);
+        }
+
+
+        @Override
+        int getCount()
+        {
+            return TCNTn_reg.value & 0xff;
+        }
+
+
+        @Override
+        void setCount(int count)
+        {
+            TCNTn_reg.value = (byte) count;
+        }
+
+
+        @Override
+        int direction()
+        {
+            return ticker.direction();
+        }
+
+
+        @Override
+        long distance()
+        {
+            if (blockCompareMatch)
+                return 0;
+            int count = getCount();
+            int dir = ticker.direction();
+            long d = distance(count, dir, MAX);
+            d = Math.min(d, distance(count, dir, BOTTOM));
+            return Math.min(d, distance(count, dir, OCRn_reg.read() & 0xff));
+        }
+
+
+        @Override
+        void tick()
+        {
+            ticker.fire();
+        }
     }
 }
@@ -32,6 +32,8 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.mcu;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.RWRegister;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.output.SimPrinter;
@@ -41,6 +43,10 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.state.RegisterView;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedList;
 
 /**
@@ -56,7 +62,7 @@ import java.util.LinkedList;
  * @author Daniel Lee
  * @author Ben L. Titzer
  */
-public class USART extends AtmelInternalDevice
+public class USART extends AtmelInternalDevice implements Checkpointable
 {
 
     static final int RXCn = 7;
@@ -183,6 +189,93 @@ public class USART extends AtmelInternalDevice
         period *= UBRRMultiplier;
     }
 
+    /**
+     * The <code>saveState()</code> method writes the state of this USART that
+     * is not visible in its IO registers: the baud rate, the frames being
+     * transmitted and received with the times at which they complete, the
+     * frames waiting to be read by the program, and the state of the connected
+     * device.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeInt(period);
+        out.writeInt(UBRRMultiplier);
+        out.writeByte(UDRn_reg.transmitRegister.value);
+        out.writeBoolean(transmitter.transmitting);
+        saveFrame(out, transmitter.transmit.frame);
+        Checkpoint.saveEvent(out, simulator.getClock(), transmitter.transmit);
+        out.writeBoolean(receiver.receiving);
+        saveFrame(out, receiver.receive.frame);
+        Checkpoint.saveEvent(out, simulator.getClock(), receiver.receive);
+        LinkedList<DataRegister.TwoLevelFIFO.USARTFrameWrapper> ready = UDRn_reg.receiveRegister.readyQueue;
+        out.writeInt(ready.size());
+        for (DataRegister.TwoLevelFIFO.USARTFrameWrapper w : ready)
+            saveFrame(out, w.frame);
+        Checkpoint.saveParts(out, Collections.singletonMap("device", connectedDevice));
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        period = in.readInt();
+        UBRRMultiplier = in.readInt();
+        UDRn_reg.transmitRegister.value = in.readByte();
+        transmitter.transmitting = in.readBoolean();
+        transmitter.transmit.frame = restoreFrame(in);
+        Checkpoint.restoreEvent(in, mainClock, transmitter.transmit);
+        receiver.receiving = in.readBoolean();
+        receiver.receive.frame = restoreFrame(in);
+        Checkpoint.restoreEvent(in, mainClock, receiver.receive);
+        DataRegister.TwoLevelFIFO fifo = UDRn_reg.receiveRegister;
+        while (!fifo.readyQueue.isEmpty())
+            fifo.waitQueue.add(fifo.readyQueue.removeLast());
+        int count = in.readInt();
+        for (int cntr = 0; cntr < count; cntr++)
+        {
+            DataRegister.TwoLevelFIFO.USARTFrameWrapper w = fifo.waitQueue.removeLast();
+            w.frame = restoreFrame(in);
+            fifo.readyQueue.addLast(w);
+        }
+        Checkpoint.restoreParts(in, Collections.singletonMap("device", connectedDevice));
+    }
+
+
+    private static void saveFrame(DataOutput out, Frame f) throws IOException
+    {
+        out.writeBoolean(f != null);
+        if (f != null)
+        {
+            out.writeInt(f.value);
+            out.writeInt(f.size);
+        }
+    }
+
+
+    private static Frame restoreFrame(DataInput in) throws IOException
+    {
+        if (!in.readBoolean())
+            return null;
+        int value = in.readInt();
+        int size = in.readInt();
+        return new Frame((byte) value, Arithmetic.getBit(value, 8), size);
+    }
+
     /**
      * Initiate a receive between the UART and the connected device.
      */
@@ -614,7 +707,7 @@ public class USART extends AtmelInternalDevice
      * USART on the processor. It simply prints out a representation of each
      * frame it receives.
      */
-    protected class SerialPrinter implements USARTDevice
+    protected class SerialPrinter implements USARTDevice, Checkpointable
     {
 
         SimPrinter serialPrinter = simulator.getPrinter("atmel.usart.printer");
@@ -637,6 +730,20 @@ public class USART extends AtmelInternalDevice
             if (serialPrinter != null)
                 serialPrinter.println("Serial Printer " + frame.toString());
         }
+
+
+        @Override
+        public void saveState(DataOutput out) throws IOException
+        {
+            out.writeInt(count);
+        }
+
+
+        @Override
+        public void restoreState(DataInput in) throws IOException
+        {
+            count = in.readInt();
+        }
     }
 
 }
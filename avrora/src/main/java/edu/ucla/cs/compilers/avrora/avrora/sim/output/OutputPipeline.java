@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.output;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.util.SimUtil;
+import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
+
+/**
+ * The <code>OutputPipeline</code> class decouples the printing of simulation
+ * output from the simulation threads. Each node appends the lines it prints,
+ * together with the time at which they were printed, to its own lock-free
+ * channel. A single writer thread periodically collects the lines of all
+ * channels, merges them in the order of simulated time, and writes them to the
+ * terminal in large batches.
+ *
+ * <p>
+ * Lines are only written once every running node has advanced past their
+ * time, so that a line printed later by a slower node cannot precede them.
+ * Each node publishes its progress to its channel periodically in simulated
+ * time; the writer never reads the clocks of the nodes directly. A node that
+ * has stopped no longer holds back the output of the others. Lines that are
+ * still pending when the pipeline is closed are written in order at that time.
+ */
+public class OutputPipeline
+{
+
+    /**
+     * The <code>INTERVAL</code> field stores the time in milliseconds between
+     * two passes of the writer thread.
+     */
+    public static final long INTERVAL = 20;
+
+    /**
+     * The <code>MAX_PENDING</code> field stores the number of lines the writer
+     * will hold back waiting for slower nodes before it writes them anyway.
+     */
+    public static final int MAX_PENDING = 1 << 16;
+
+    /**
+     * The <code>PUBLISH_RATE</code> field stores the number of times per
+     * simulated second that each node publishes its progress to its channel.
+     */
+    public static final int PUBLISH_RATE = 1000;
+
+    private static final int BATCH = 1 << 16;
+
+    private final Map<Simulator, Channel> channelMap = new IdentityHashMap<Simulator, Channel>();
+    private final List<Channel> channels = new CopyOnWriteArrayList<Channel>();
+    private final PriorityQueue<Record> pending = new PriorityQueue<Record>();
+    private Writer writer;
+    private volatile boolean closed;
+
+    /**
+     * The <code>Channel</code> class represents the output of a single node. It
+     * is written only by the thread that runs the node and read only by the
+     * writer thread. Besides the lines, the node publishes the time it has
+     * reached, below which it will not print any more lines.
+     */
+    public class Channel
+    {
+        final int index;
+        final int id;
+        final Clock clock;
+        final ConcurrentLinkedQueue<Record> queue;
+        long seq;
+        volatile long published;
+        volatile boolean finished;
+
+
+        Channel(int index, Simulator s)
+        {
+            this.index = index;
+            this.id = s.getID();
+            this.clock = s.getClock();
+            this.queue = new ConcurrentLinkedQueue<Record>();
+            this.published = clock.getCount();
+            long period = Math.max(1, clock.getHZ() / PUBLISH_RATE);
+            s.insertEvent(new Publisher(this, period), period);
+        }
+
+
+        /**
+         * The <code>add()</code> method appends a line to this channel. The
+         * line is stamped with the current time of the node.
+         *
+         * @param text
+         *            the line to print
+         * @param stamped
+         *            true if the line already begins with the node ID and
+         *            time; false if they should be added when it is written
+         * @return true if the line was accepted; false if the pipeline has
+         *         been closed and the line should be printed directly
+         */
+        public boolean add(String text, boolean stamped)
+        {
+            if (closed)
+                return false;
+            long time = clock.getCount();
+            queue.offer(new Record(this, time, seq++, text, stamped));
+            published = time;
+            return true;
+        }
+
+
+        /**
+         * The <code>finish()</code> method marks this channel as finished
+         * because its node has stopped. Its pending lines are still written,
+         * but it no longer holds back the lines of the other channels.
+         */
+        public void finish()
+        {
+            finished = true;
+        }
+    }
+
+    /**
+     * The <code>Publisher</code> class is an event that periodically publishes
+     * the time of a node to its channel, so that the output of the other nodes
+     * is not held back by a node that prints nothing for a long time.
+     */
+    static class Publisher implements Simulator.Event
+    {
+        final Channel channel;
+        final long period;
+
+
+        Publisher(Channel c, long p)
+        {
+            channel = c;
+            period = p;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            channel.published = channel.clock.getCount();
+            channel.clock.insertEvent(this, period);
+        }
+    }
+
+    static class Record implements Comparable<Record>
+    {
+        final Channel channel;
+        final long time;
+        final long seq;
+        final String text;
+        final boolean stamped;
+
+
+        Record(Channel c, long t, long s, String str, boolean st)
+        {
+            channel = c;
+            time = t;
+            seq = s;
+            text = str;
+            stamped = st;
+        }
+
+
+        @Override
+        public int compareTo(Record r)
+        {
+            if (time != r.time)
+                return time < r.time ? -1 : 1;
+            if (channel != r.channel)
+                return channel.index < r.channel.index ? -1 : 1;
+            return seq < r.seq ? -1 : seq == r.seq ? 0 : 1;
+        }
+
+
+        void appendTo(StringBuffer buf)
+        {
+            if (!stamped)
+                SimUtil.toIDTimeString(buf, channel.id, time,
+                        channel.clock.getHZ());
+            buf.append(text);
+            buf.append('\n');
+        }
+    }
+
+    private class Writer extends Thread
+    {
+
+        Writer()
+        {
+            super("output");
+            setDaemon(true);
+        }
+
+
+        @Override
+        public void run()
+        {
+            while (!closed)
+            {
+                try
+                {
+                    Thread.sleep(INTERVAL);
+                }
+                catch (InterruptedException e)
+                {
+                    // closed; write everything that is left
+                    break;
+                }
+                drain(watermark());
+            }
+            drain(Long.MAX_VALUE);
+        }
+    }
+
+
+    /**
+     * The <code>getChannel()</code> method returns the channel for the output
+     * of the specified node, creating it and starting the writer thread if
+     * necessary.
+     *
+     * @param s
+     *            the simulator of the node
+     * @return the channel to which the node should append its output
+     */
+    public synchronized Channel getChannel(Simulator s)
+    {
+        Channel c = channelMap.get(s);
+        if (c == null)
+        {
+            c = new Channel(channelMap.size(), s);
+            channelMap.put(s, c);
+            channels.add(c);
+        }
+        if (writer == null && !closed)
+        {
+            writer = new Writer();
+            writer.start();
+        }
+        return c;
+    }
+
+
+    /**
+     * The <code>finish()</code> method marks the channel of the specified node
+     * as finished. It should be called when the node stops, so that its
+     * channel no longer holds back the output of the nodes still running.
+     *
+     * @param s
+     *            the simulator of the node that has stopped
+     */
+    public synchronized void finish(Simulator s)
+    {
+        Channel c = channelMap.get(s);
+        if (c != null)
+            c.finish();
+    }
+
+
+    /**
+     * The <code>close()</code> method writes all pending output and stops the
+     * writer thread. Lines added to any channel afterwards are rejected, so
+     * that they are printed directly by the caller. This method should only be
+     * called after the nodes have stopped.
+     */
+    public void close()
+    {
+        Writer w;
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            closed = true;
+            w = writer;
+        }
+        if (w == null)
+            return;
+        w.interrupt();
+        try
+        {
+            w.join();
+        }
+        catch (InterruptedException e)
+        {
+            // the output will be incomplete
+        }
+    }
+
+
+    private long watermark()
+    {
+        long min = Long.MAX_VALUE;
+        for (Channel c : channels)
+        {
+            if (c.finished)
+                continue;
+            long t = c.published;
+            if (t < min)
+                min = t;
+        }
+        return min;
+    }
+
+
+    private void drain(long limit)
+    {
+        for (Channel c : channels)
+        {
+            Record r;
+            while ((r = c.queue.poll()) != null)
+                pending.add(r);
+        }
+        StringBuffer buf = new StringBuffer(BATCH + 256);
+        while (!pending.isEmpty())
+        {
+            if (pending.peek().time >= limit && pending.size() <= MAX_PENDING)
+                break;
+            pending.poll().appendTo(buf);
+            if (buf.length() >= BATCH)
+            {
+                write(buf);
+                buf.setLength(0);
+            }
+        }
+        if (buf.length() > 0)
+            write(buf);
+    }
+
+
+    private static void write(StringBuffer buf)
+    {
+        synchronized (Terminal.class)
+        {
+            Terminal.print(buf.toString());
+            Terminal.flush();
+        }
+    }
+}
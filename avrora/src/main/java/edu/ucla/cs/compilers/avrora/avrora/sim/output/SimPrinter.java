@@ -48,6 +48,7 @@ public class SimPrinter
 {
 
     private Simulator simulator;
+    private OutputPipeline.Channel channel;
 
 
     public SimPrinter(Simulator simulator, String category)
@@ -56,10 +57,31 @@ public class SimPrinter
     }
 
 
+    /**
+     * This constructor creates a printer that appends its output to the given
+     * channel of an <code>OutputPipeline</code> instead of printing it
+     * directly. A <code>null</code> channel selects direct printing.
+     *
+     * @param simulator
+     *            the simulator this printer reports for
+     * @param category
+     *            the category of output
+     * @param channel
+     *            the output channel of the node, or <code>null</code>
+     */
+    public SimPrinter(Simulator simulator, String category,
+            OutputPipeline.Channel channel)
+    {
+        this.simulator = simulator;
+        this.channel = channel;
+    }
+
+
     /**
      * The <code>println()</code> method prints the node ID, the time, and a
      * message to the console, synchronizing with other threads so that output
-     * is not interleaved. This method SHOULD ONLY BE CALLED WHEN
+     * is not interleaved. If the printer is attached to an output channel, the
+     * message is queued and printed later by the writer of the pipeline. This method SHOULD ONLY BE CALLED WHEN
      * <code>enabled</code> IS TRUE! This is done to prevent performance bugs
      * created by string construction inside printing (and debugging code).
      * 
@@ -68,6 +90,8 @@ public class SimPrinter
      */
     public void println(String s)
     {
+        if (channel != null && channel.add(s, false))
+            return;
         synchronized (Terminal.class)
         {
             // synchronize on the terminal to prevent interleaved output
@@ -81,6 +105,8 @@ public class SimPrinter
 
     public void printBuffer(StringBuffer buffer)
     {
+        if (channel != null && channel.add(buffer.toString(), true))
+            return;
         synchronized (Terminal.class)
         {
             // synchronize on the terminal to prevent interleaved output
@@ -0,0 +1,549 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.output;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>TraceFile</code> class implements a compact binary format for
+ * instruction traces. Each node writes its records into its own buffer, which
+ * is compressed and appended to the file as a block when it fills up. Within
+ * a block, times and program counters are stored as variable length deltas to
+ * the previous record, so that a typical instruction takes three bytes before
+ * compression.
+ *
+ * <p>
+ * A file starts with a magic number and a version. Each block consists of the
+ * node ID, the time and program counter that the deltas of the block start
+ * from, the raw and the compressed length, and the compressed records.
+ */
+public class TraceFile
+{
+
+    public static final int MAGIC = 0x41565452; // "AVTR"
+    public static final int VERSION = 1;
+
+    public static final int BLOCK_SIZE = 1 << 16;
+
+    static final int NODE = 1;
+    static final int INSTR = 2;
+    static final int REGISTER = 3;
+    static final int MEMORY = 4;
+    static final int MARK = 5;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The <code>Visitor</code> interface is implemented by clients of the
+     * <code>read()</code> method that receive the records of a trace file.
+     */
+    public interface Visitor
+    {
+        public void node(int node, long hz, String program);
+
+
+        public void instr(int node, long time, int pc);
+
+
+        public void register(int node, int reg, byte value);
+
+
+        public void memory(int node, int address, byte value);
+
+
+        public void mark(int node, long time, String text);
+    }
+
+    /**
+     * The <code>Writer</code> class writes blocks of records to a trace file
+     * through a file channel. It is shared by all nodes of a simulation; the
+     * nodes append their records to their own <code>NodeBuffer</code>.
+     */
+    public static class Writer
+    {
+        private final FileOutputStream stream;
+        private final FileChannel channel;
+        private final Deflater deflater;
+        private byte[] compressed;
+        private int users;
+
+
+        public Writer(String fname) throws IOException
+        {
+            stream = new FileOutputStream(fname);
+            channel = stream.getChannel();
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            compressed = new byte[BLOCK_SIZE];
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.flip();
+            write(header);
+        }
+
+
+        /**
+         * The <code>newBuffer()</code> method creates the buffer for the
+         * records of a new node. The file is closed once the buffers of all
+         * nodes have been closed.
+         *
+         * @param node
+         *            the ID of the node
+         * @param hz
+         *            the frequency of the main clock of the node
+         * @param program
+         *            the name of the file containing the program of the node
+         * @return a new buffer for the records of the node
+         */
+        public synchronized NodeBuffer newBuffer(int node, long hz,
+                String program)
+        {
+            users++;
+            NodeBuffer b = new NodeBuffer(this, node);
+            b.node(hz, program);
+            return b;
+        }
+
+
+        synchronized void writeBlock(NodeBuffer b)
+        {
+            deflater.reset();
+            deflater.setInput(b.data, 0, b.length);
+            deflater.finish();
+            int clen = 0;
+            while (!deflater.finished())
+            {
+                if (clen == compressed.length)
+                {
+                    byte[] nc = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, nc, 0, clen);
+                    compressed = nc;
+                }
+                clen += deflater.deflate(compressed, clen,
+                        compressed.length - clen);
+            }
+            ByteBuffer header = ByteBuffer.allocate(28);
+            header.putInt(b.node);
+            header.putLong(b.startTime);
+            header.putInt(b.startPc);
+            header.putInt(b.length);
+            header.putInt(clen);
+            header.flip();
+            write(header);
+            write(ByteBuffer.wrap(compressed, 0, clen));
+        }
+
+
+        synchronized void release()
+        {
+            if (--users > 0)
+                return;
+            try
+            {
+                channel.force(false);
+                stream.close();
+            }
+            catch (IOException e)
+            {
+                throw Util.unexpected(e);
+            }
+            deflater.end();
+        }
+
+
+        private void write(ByteBuffer buf)
+        {
+            try
+            {
+                while (buf.hasRemaining())
+                    channel.write(buf);
+            }
+            catch (IOException e)
+            {
+                throw Util.unexpected(e);
+            }
+        }
+    }
+
+    /**
+     * The <code>NodeBuffer</code> class collects the records of a single node
+     * until a block is full. It is not thread safe and must only be used by
+     * the thread that runs the node.
+     */
+    public static class NodeBuffer
+    {
+        final Writer writer;
+        final int node;
+        byte[] data;
+        int length;
+        long startTime;
+        int startPc;
+        long lastTime;
+        int lastPc;
+
+
+        NodeBuffer(Writer w, int n)
+        {
+            writer = w;
+            node = n;
+            data = new byte[BLOCK_SIZE + 64];
+        }
+
+
+        void node(long hz, String program)
+        {
+            putByte(NODE);
+            putVarLong(hz);
+            putString(program);
+        }
+
+
+        /**
+         * The <code>instr()</code> method records the execution of an
+         * instruction.
+         *
+         * @param time
+         *            the time at which the instruction executes
+         * @param pc
+         *            the address of the instruction
+         */
+        public void instr(long time, int pc)
+        {
+            putByte(INSTR);
+            putVarLong(time - lastTime);
+            putVarInt(zigzag(pc - lastPc));
+            lastTime = time;
+            lastPc = pc;
+            checkFull();
+        }
+
+
+        /**
+         * The <code>register()</code> method records a change to a register by
+         * the previous instruction.
+         *
+         * @param reg
+         *            the number of the register
+         * @param value
+         *            the new value of the register
+         */
+        public void register(int reg, byte value)
+        {
+            putByte(REGISTER);
+            putByte(reg);
+            putByte(value);
+        }
+
+
+        /**
+         * The <code>memory()</code> method records a write to memory by the
+         * previous instruction.
+         *
+         * @param address
+         *            the address that was written
+         * @param value
+         *            the value written
+         */
+        public void memory(int address, byte value)
+        {
+            putByte(MEMORY);
+            putVarInt(address);
+            putByte(value);
+        }
+
+
+        /**
+         * The <code>mark()</code> method records a message, such as the start
+         * or end of a traced region.
+         *
+         * @param time
+         *            the time of the message
+         * @param text
+         *            the message
+         */
+        public void mark(long time, String text)
+        {
+            putByte(MARK);
+            putVarLong(time - lastTime);
+            putString(text);
+            lastTime = time;
+            checkFull();
+        }
+
+
+        /**
+         * The <code>close()</code> method writes the remaining records of this
+         * node and releases the file.
+         */
+        public void close()
+        {
+            flush();
+            writer.release();
+        }
+
+
+        private void checkFull()
+        {
+            if (length >= BLOCK_SIZE)
+                flush();
+        }
+
+
+        private void flush()
+        {
+            if (length > 0)
+                writer.writeBlock(this);
+            length = 0;
+            startTime = lastTime;
+            startPc = lastPc;
+        }
+
+
+        private void ensure(int n)
+        {
+            if (length + n > data.length)
+            {
+                byte[] nd = new byte[Math.max(data.length * 2, length + n)];
+                System.arraycopy(data, 0, nd, 0, length);
+                data = nd;
+            }
+        }
+
+
+        private void putByte(int b)
+        {
+            ensure(1);
+            data[length++] = (byte) b;
+        }
+
+
+        private void putVarInt(int v)
+        {
+            putVarLong(v & 0xffffffffL);
+        }
+
+
+        private void putVarLong(long v)
+        {
+            ensure(10);
+            while ((v & ~0x7fL) != 0)
+            {
+                data[length++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            data[length++] = (byte) v;
+        }
+
+
+        private void putString(String s)
+        {
+            byte[] b = s.getBytes(UTF8);
+            putVarInt(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, data, length, b.length);
+            length += b.length;
+        }
+    }
+
+
+    static int zigzag(int v)
+    {
+        return (v << 1) ^ (v >> 31);
+    }
+
+
+    static int unzigzag(int v)
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+
+    /**
+     * The <code>read()</code> method reads a trace file and passes each of its
+     * records to the visitor, in the order in which they were written.
+     *
+     * @param fname
+     *            the name of the trace file
+     * @param v
+     *            the visitor that receives the records
+     * @throws IOException
+     *             if the file cannot be read or is not a trace file
+     */
+    public static void read(String fname, Visitor v) throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(fname)));
+        try
+        {
+            if (in.readInt() != MAGIC)
+                Util.userError("Not a trace file", fname);
+            int version = in.readInt();
+            if (version != VERSION)
+                Util.userError("Unsupported trace file version",
+                        String.valueOf(version));
+            Inflater inflater = new Inflater();
+            byte[] compressed = new byte[BLOCK_SIZE];
+            byte[] raw = new byte[BLOCK_SIZE];
+            while (true)
+            {
+                int node;
+                try
+                {
+                    node = in.readInt();
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                long time = in.readLong();
+                int pc = in.readInt();
+                int rlen = in.readInt();
+                int clen = in.readInt();
+                if (compressed.length < clen)
+                    compressed = new byte[clen];
+                if (raw.length < rlen)
+                    raw = new byte[rlen];
+                in.readFully(compressed, 0, clen);
+                inflater.reset();
+                inflater.setInput(compressed, 0, clen);
+                try
+                {
+                    if (inflater.inflate(raw, 0, rlen) != rlen)
+                        Util.userError("Corrupt trace file", fname);
+                }
+                catch (DataFormatException e)
+                {
+                    Util.userError("Corrupt trace file", fname);
+                }
+                new BlockReader(node, time, pc, raw, rlen).read(v);
+            }
+            inflater.end();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    static class BlockReader
+    {
+        final int node;
+        final byte[] data;
+        final int length;
+        int pos;
+        long time;
+        int pc;
+
+
+        BlockReader(int n, long t, int p, byte[] d, int l)
+        {
+            node = n;
+            time = t;
+            pc = p;
+            data = d;
+            length = l;
+        }
+
+
+        void read(Visitor v)
+        {
+            while (pos < length)
+            {
+                int tag = data[pos++];
+                switch (tag)
+                {
+                    case NODE:
+                        long hz = getVarLong();
+                        v.node(node, hz, getString());
+                        break;
+                    case INSTR:
+                        time += getVarLong();
+                        pc += unzigzag((int) getVarLong());
+                        v.instr(node, time, pc);
+                        break;
+                    case REGISTER:
+                        int reg = data[pos++] & 0xff;
+                        v.register(node, reg, data[pos++]);
+                        break;
+                    case MEMORY:
+                        int addr = (int) getVarLong();
+                        v.memory(node, addr, data[pos++]);
+                        break;
+                    case MARK:
+                        time += getVarLong();
+                        v.mark(node, time, getString());
+                        break;
+                    default:
+                        throw Util.failure("invalid trace record " + tag);
+                }
+            }
+        }
+
+
+        long getVarLong()
+        {
+            long v = 0;
+            int shift = 0;
+            while (true)
+            {
+                byte b = data[pos++];
+                v |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                    return v;
+                shift += 7;
+            }
+        }
+
+
+        String getString()
+        {
+            int len = (int) getVarLong();
+            String s = new String(data, pos, len, UTF8);
+            pos += len;
+            return s;
+        }
+    }
+}
@@ -36,6 +36,19 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.platform;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
@@ -47,6 +60,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.state.BooleanView.ValueSetListene
 import edu.ucla.cs.compilers.avrora.avrora.sim.state.Register;
 import edu.ucla.cs.compilers.avrora.avrora.sim.state.RegisterUtil;
 import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
 /**
  * The <code>ExternalFlash</code> class implements the necessary functionality
@@ -59,7 +73,7 @@ import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
  *</p>
  * @author Thomas Gaertner
  */
-public class ExternalFlash
+public class ExternalFlash implements Checkpointable
 {
 
     // DataFlash Status Register
@@ -104,6 +118,9 @@ public class ExternalFlash
     private boolean tick;
     private short step;
     private byte i;
+    private final Delay delayEvent = new Delay();
+    private final PD5Output sck = new PD5Output();
+    private final PD2Input soInput;
 
     public ExternalFlash(Microcontroller mcunit, int numPages, int pageBytes)
     {
@@ -122,88 +139,60 @@ public class ExternalFlash
         // output
         mcu.getPin("PA3").connectOutput(new PA3Output());
         mcu.getPin("PD3").connectOutput(new PD3Output());
-        mcu.getPin("PD5").connectOutput(new PD5Output());
+        mcu.getPin("PD5").connectOutput(sck);
         // input
-        mcu.getPin("PD2").connectInput(new PD2Input());
+        soInput = new PD2Input();
+        mcu.getPin("PD2").connectInput(soInput);
 
         // setup energy recording
         new Energy("flash", modeAmpere, stateMachine, sim.getEnergyControl());
     }
 
-    private Page getMemoryPage(int num)
-    {
-        return memory.getPage(num);
-    }
-
     private short getMemoryPageAt(int num, int offset)
     {
-        return memory.getPage(num).bytes[offset];
-    }
-
-    private void setMemoryPage(int num, Page val)
-    {
-        memory.setPage(num, val);
-        val.debug();
-    }
-
-    private Page getBuffer1()
-    {
-        return memory.buffer1;
-    }
-
-    private void setBuffer1(Page value)
-    {
-        memory.buffer1 = value;
+        return (short) (memory.read(num, offset) & 0xff);
     }
 
     private short getBuffer1(int offset)
     {
-        return memory.buffer1.bytes[offset];
+        return (short) (memory.buffer1[offset] & 0xff);
     }
 
     private void setBuffer1(int offset, short value)
     {
-        memory.buffer1.bytes[offset] = value;
-    }
-
-    private Page getBuffer2()
-    {
-        return memory.buffer2;
-    }
-
-    private void setBuffer2(Page value)
-    {
-        memory.buffer2 = value;
+        memory.buffer1[offset] = (byte) value;
     }
 
     private short getBuffer2(int offset)
     {
-        return memory.buffer2.bytes[offset];
+        return (short) (memory.buffer2[offset] & 0xff);
     }
 
     private void setBuffer2(int offset, short value)
     {
-        memory.buffer2.bytes[offset] = value;
+        memory.buffer2[offset] = (byte) value;
     }
 
     private void copyBuffer1toPage(int num)
     {
-        setMemoryPage(num, getBuffer1());
+        memory.writePage(num, memory.buffer1);
+        debug(memory.buffer1);
     }
 
     private void copyBuffer2toPage(int num)
     {
-        setMemoryPage(num, getBuffer2());
+        memory.writePage(num, memory.buffer2);
+        debug(memory.buffer2);
     }
 
     private void copyPageToBuffer1(int num)
     {
-        setBuffer1(getMemoryPage(num));
+        memory.readPage(num, memory.buffer1);
     }
 
     private void copyPageToBuffer2(int num)
     {
-        setBuffer2(getMemoryPage(num));
+        memory.readPage(num, memory.buffer2);
     }
 
     private void echo(String str)
@@ -218,67 +207,319 @@ public class ExternalFlash
         }
     }
 
+    private void debug(byte[] page)
+    {
+        if (printer != null)
+        {
+            int i;
+            for (i = 0; i < page.length; i++)
+            {
+                echo("Byte " + i + " = " + (page[i] & 0xff));
+            }
+        }
+    }
+
     /**
-     * The <code>Memory</code> class simulates the Dataflash Memory
+     * The <code>mapImage()</code> method moves the contents of the dataflash
+     * out of the heap into a memory mapped file. If an image file is given, it
+     * holds the contents of the dataflash of this node and keeps them after
+     * the simulation terminates, so that a later simulation can continue with
+     * them. If the file does not exist yet, it is created with the contents of
+     * the base image, or erased if there is no base image. If no image file is
+     * given, the base image is mapped read-only and used copy-on-write: a page
+     * is only copied to the heap when this node writes to it, so that all
+     * nodes share the pages of the base image that they do not write to. This method should be called before the
+     * simulation is started.
+     *
+     * @param image
+     *            the file holding the contents of the dataflash of this node,
+     *            or null if the contents should not be kept
+     * @param base
+     *            the raw image the dataflash of this node initially contains,
+     *            or null if it is initially erased
+     * @throws IOException
+     *             if there is a problem reading or creating one of the files
+     */
+    public void mapImage(File image, File base) throws IOException
+    {
+        long size = memory.size();
+        if (base != null && base.length() != size)
+            Util.userError("Dataflash image must be " + size + " bytes",
+                    base.getPath());
+        if (image == null)
+        {
+            if (base != null)
+                memory.base = memory.map(base, FileChannel.MapMode.READ_ONLY);
+            return;
+        }
+        if (!image.exists())
+        {
+            createImage(image, base, size);
+        } else if (image.length() != size)
+        {
+            Util.userError("Dataflash image must be " + size + " bytes",
+                    image.getPath());
+        }
+        memory.image = memory.map(image, FileChannel.MapMode.READ_WRITE);
+    }
+
+    /**
+     * The <code>saveState()</code> method writes the state of the dataflash:
+     * the pages that have been written, the two buffers, the state of the
+     * serial interface and of the command being received, and the busy time.
+     * The pages of a memory mapped image file are all saved. The pages of a
+     * base image are not saved, so the dataflash must be restored with the
+     * same base image.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        memory.saveState(out);
+        out.writeBoolean(isSelected);
+        out.writeBoolean(isReading);
+        out.writeInt(dfOpcode);
+        out.writeInt(dfPageAddress);
+        out.writeInt(dfByteOffset);
+        out.writeInt(dfTempByte);
+        out.writeShort(dfStatus);
+        out.writeDouble(delay);
+        out.writeBoolean(so.getValue());
+        out.writeBoolean(si);
+        out.writeInt(icPage);
+        out.writeBoolean(tick);
+        out.writeShort(step);
+        out.writeByte(i);
+        out.writeShort(sck.temp);
+        out.writeInt(stateMachine.getCurrentState());
+        Checkpoint.saveEvent(out, sim.getClock(), delayEvent);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. It overrides any side effects that driving the
+     * pins of the microcontroller to their restored levels had on the
+     * dataflash.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        memory.restoreState(in);
+        isSelected = in.readBoolean();
+        isReading = in.readBoolean();
+        dfOpcode = in.readInt();
+        dfPageAddress = in.readInt();
+        dfByteOffset = in.readInt();
+        dfTempByte = in.readInt();
+        dfStatus = in.readShort();
+        delay = in.readDouble();
+        // the level of SO was seen by the microcontroller when it was set
+        so.setValueSetListener(null);
+        so.setValue(in.readBoolean());
+        so.setValueSetListener(soInput);
+        si = in.readBoolean();
+        icPage = in.readInt();
+        tick = in.readBoolean();
+        step = in.readShort();
+        i = in.readByte();
+        sck.temp = in.readShort();
+        int mode = in.readInt();
+        if (mode != FiniteStateMachine.IN_TRANSITION && mode != stateMachine.getCurrentState())
+            stateMachine.transition(mode);
+        Checkpoint.restoreEvent(in, clock, delayEvent);
+    }
+
+    private static void createImage(File image, File base, long size)
+            throws IOException
+    {
+        if (base != null)
+        {
+            Files.copy(base.toPath(), image.toPath());
+            return;
+        }
+        byte[] erased = new byte[(int) Math.min(size, 65536)];
+        Arrays.fill(erased, (byte) 0xff);
+        FileOutputStream out = new FileOutputStream(image);
+        try
+        {
+            for (long pos = 0; pos < size; pos += erased.length)
+            {
+                out.write(erased, 0, (int) Math.min(erased.length, size - pos));
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * The <code>Memory</code> class simulates the Dataflash Memory. The pages
+     * are stored either in a memory mapped image file, or on the heap, where a
+     * page is only allocated when it is first written. Pages that have not
+     * been written are read from the base image, if there is one, or are
+     * erased.
      */
     private class Memory
     {
         private final int bytesPerPage;
-        private final Page[] pages;
-        Page buffer1;
-        Page buffer2;
+        private final byte[][] pages;
+        private ByteBuffer image;
+        private ByteBuffer base;
+        final byte[] buffer1;
+        final byte[] buffer2;
 
 
         protected Memory(int numPages, int numBytes)
         {
-            pages = new Page[numPages];
+            pages = new byte[numPages][];
             bytesPerPage = numBytes;
-            buffer1 = new Page(numBytes);
-            buffer2 = new Page(numBytes);
+            buffer1 = erased(numBytes);
+            buffer2 = erased(numBytes);
         }
 
 
-        Page getPage(int pageNum)
+        long size()
         {
-            ExternalFlash.Page page = pages[pageNum];
-            if (page == null)
+            return (long) pages.length * bytesPerPage;
+        }
+
+
+        ByteBuffer map(File file, FileChannel.MapMode mode) throws IOException
+        {
+            RandomAccessFile raf = new RandomAccessFile(file,
+                    mode == FileChannel.MapMode.READ_WRITE ? "rw" : "r");
+            try
             {
-                page = new Page(bytesPerPage);
-                pages[pageNum] = page;
+                return raf.getChannel().map(mode, 0, size());
+            }
+            finally
+            {
+                raf.close();
             }
-            return page;
         }
 
 
-        void setPage(int pageNum, Page page)
+        byte read(int pageNum, int offset)
         {
-            pages[pageNum] = page;
+            if (image != null)
+                return image.get(pageNum * bytesPerPage + offset);
+            byte[] page = pages[pageNum];
+            if (page != null)
+                return page[offset];
+            if (base != null)
+                return base.get(pageNum * bytesPerPage + offset);
+            return (byte) 0xff;
         }
-    }
 
-    private class Page
-    {
-        final short[] bytes;
+
+        void readPage(int pageNum, byte[] buf)
+        {
+            byte[] page = pages[pageNum];
+            ByteBuffer b = image != null ? image : page == null ? base : null;
+            if (b != null)
+            {
+                b = b.duplicate();
+                b.position(pageNum * bytesPerPage);
+                b.get(buf);
+            } else if (page != null)
+            {
+                System.arraycopy(page, 0, buf, 0, bytesPerPage);
+            } else
+            {
+                Arrays.fill(buf, (byte) 0xff);
+            }
+        }
 
 
-        protected Page(int numBytes)
+        void writePage(int pageNum, byte[] buf)
         {
-            bytes = new short[numBytes];
-            java.util.Arrays.fill(bytes, (short) 0xff); // empty flash is filled
-                                                        // with 0xff, not 0!
+            if (image != null)
+            {
+                ByteBuffer b = image.duplicate();
+                b.position(pageNum * bytesPerPage);
+                b.put(buf);
+                return;
+            }
+            byte[] page = pages[pageNum];
+            if (page == null)
+            {
+                page = new byte[bytesPerPage];
+                pages[pageNum] = page;
+            }
+            System.arraycopy(buf, 0, page, 0, bytesPerPage);
         }
 
 
-        void debug()
+        boolean comparePage(int pageNum, byte[] buf)
         {
-            if (printer != null)
+            for (int i = 0; i < bytesPerPage; i++)
             {
-                int i;
-                for (i = 0; i < bytes.length; i++)
+                if (read(pageNum, i) != buf[i])
+                    return false;
+            }
+            return true;
+        }
+
+
+        void saveState(DataOutput out) throws IOException
+        {
+            int count = 0;
+            for (int num = 0; num < pages.length; num++)
+            {
+                if (image != null || pages[num] != null)
+                    count++;
+            }
+            out.writeInt(bytesPerPage);
+            out.writeInt(count);
+            byte[] buf = new byte[bytesPerPage];
+            for (int num = 0; num < pages.length; num++)
+            {
+                if (image != null || pages[num] != null)
                 {
-                    echo("Byte " + i + " = " + bytes[i]);
+                    readPage(num, buf);
+                    out.writeInt(num);
+                    out.write(buf);
                 }
             }
+            out.write(buffer1);
+            out.write(buffer2);
+        }
+
+
+        void restoreState(DataInput in) throws IOException
+        {
+            if (in.readInt() != bytesPerPage)
+                throw Util.failure("checkpoint does not match dataflash page size");
+            int count = in.readInt();
+            byte[] buf = new byte[bytesPerPage];
+            for (int cntr = 0; cntr < count; cntr++)
+            {
+                int num = in.readInt();
+                in.readFully(buf);
+                writePage(num, buf);
+            }
+            in.readFully(buffer1);
+            in.readFully(buffer2);
+        }
+
+
+        private byte[] erased(int numBytes)
+        {
+            byte[] page = new byte[numBytes];
+            Arrays.fill(page, (byte) 0xff); // empty flash is filled with 0xff,
+                                            // not 0!
+            return page;
         }
     }
 
@@ -387,7 +628,7 @@ public class ExternalFlash
                     break;
 
                 case 0x60: // Main Memory Page to Buffer1 Compare
-                    if (getBuffer1() == getMemoryPage(dfPageAddress))
+                    if (memory.comparePage(dfPageAddress, memory.buffer1))
                     {
                         dfStatus &= ~DF_STATUS_COMPARE;
                         echo("compare Memory Page " + dfPageAddress
@@ -402,7 +643,7 @@ public class ExternalFlash
                     break;
 
                 case 0x61: // Main Memory Page to Buffer2 Compare
-                    if (getBuffer2() == getMemoryPage(dfPageAddress))
+                    if (memory.comparePage(dfPageAddress, memory.buffer2))
                     {
                         dfStatus &= ~DF_STATUS_COMPARE;
                         echo("compare Memory Page " + dfPageAddress
@@ -426,7 +667,7 @@ public class ExternalFlash
                 // Dataflash is busy
                 dfStatus &= ~DF_STATUS_READY;
                 long dfDelay = clock.millisToCycles(delay / 1000);
-                clock.insertEvent(new Delay(), dfDelay);
+                clock.insertEvent(delayEvent, dfDelay);
 
                 // reset values
                 dfOpcode = 0;
@@ -32,6 +32,7 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.platform;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
@@ -103,7 +104,12 @@ public class LED implements Microcontroller.Pin.Output
         }
     }
 
-    public static class LEDGroup
+    /**
+     * The <code>LEDGroup</code> class groups the LEDs of a platform. The LEDs
+     * have no state of their own in a checkpoint; they follow the levels of
+     * the pins that drive them, which are restored with the microcontroller.
+     */
+    public static class LEDGroup implements Checkpointable.Stateless
     {
         public final Simulator sim;
         public final LED[] leds;
@@ -81,7 +81,7 @@ public class Mica2 extends Platform
         @Override
         public Platform newPlatform(int id, Simulation sim, Program p)
         {
-            ClockDomain cd = new ClockDomain(MAIN_HZ);
+            ClockDomain cd = new ClockDomain(MAIN_HZ, sim.newEventQueue());
             cd.newClock("external", EXT_HZ);
 
             return new Mica2(new ATMega128(id, sim, cd, p));
@@ -136,6 +136,7 @@ public class Mica2 extends Platform
         sensorboard = new SensorBoard(sim);
         // external flash
         externalFlash = new ExternalFlash(mcu, 2048, 264);
+        addDevice("flash", externalFlash);
         AtmelMicrocontroller amcu = (AtmelMicrocontroller) mcu;
         // acceleration sensors
         AccelSensorPower asp = new AccelSensorPower(amcu, "PC4");
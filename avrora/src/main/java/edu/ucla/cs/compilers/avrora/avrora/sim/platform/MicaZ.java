@@ -82,7 +82,7 @@ public class MicaZ extends Platform
         @Override
         public Platform newPlatform(int id, Simulation sim, Program p)
         {
-            ClockDomain cd = new ClockDomain(MAIN_HZ);
+            ClockDomain cd = new ClockDomain(MAIN_HZ, sim.newEventQueue());
             cd.newClock("external", 32768);
 
             return new MicaZ(new ATMega128(id, sim, cd, p));
@@ -153,6 +153,7 @@ public class MicaZ extends Platform
         sensorboard = new SensorBoard(sim);
         // external flash
         externalFlash = new ExternalFlash(mcu, 2048, 264);
+        addDevice("flash", externalFlash);
         // acceleration sensors
         AccelSensorPower asp = new AccelSensorPower(amcu, "PC4");
         accelXSensor = new AccelSensor(amcu, 3, asp);
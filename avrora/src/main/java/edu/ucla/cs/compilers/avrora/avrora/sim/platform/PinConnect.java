@@ -36,8 +36,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.SimulatorThread;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.ClusterSynchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.StepSynchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Synchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
@@ -51,7 +54,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
 public class PinConnect
 {
 
-    public static final PinConnect pinConnect;
+    public static PinConnect pinConnect;
 
 
     static
@@ -59,6 +62,20 @@ public class PinConnect
         pinConnect = new PinConnect();
     }
 
+    /**
+     * The <code>reset()</code> method replaces the interconnect with a new one
+     * that has no nodes or connections, so that the nodes of a new simulation
+     * are not connected to those of a previous simulation in the same VM. It
+     * should be called before the platforms of the new simulation are created.
+     *
+     * @return the new interconnect
+     */
+    public static synchronized PinConnect reset()
+    {
+        pinConnect = new PinConnect();
+        return pinConnect;
+    }
+
     private final PinEvent pinEvent;
     public final Synchronizer synchronizer;
 
@@ -206,6 +223,30 @@ public class PinConnect
 
     }
 
+
+    /**
+     * The <code>propagateByEvents()</code> method switches all connections
+     * from being polled after every clock cycle of the
+     * <code>synchronizer</code> of this class to being driven by the changes
+     * of their output wires. Each change of an output wire schedules an event
+     * on the receiving node that delivers the new level after the propagation
+     * delay of the wire, so that connections whose level does not change cost
+     * nothing. The nodes at both ends of each connection are placed in the same
+     * cluster of the specified synchronizer, and its lookahead is limited to
+     * the propagation delay. This method should be called after the
+     * connections have been initialized and before the simulation is started.
+     *
+     * @param clusters
+     *            the synchronizer that runs the nodes of the simulation
+     */
+    public void propagateByEvents(ClusterSynchronizer clusters)
+    {
+        for (PinLink link : pinConnections)
+        {
+            link.propagateByEvents(clusters);
+        }
+    }
+
     /**
      * This class stores all the information for a single controller node and
      * its PinWires.
@@ -469,6 +510,92 @@ public class PinConnect
                 }
             }
         }
+
+
+        // deliver the changes of the output pin to the input pins as events
+        protected void propagateByEvents(ClusterSynchronizer clusters)
+        {
+            PinWire output = pinWires.getFirst();
+            Simulator target = inputNode.mcu.getSimulator();
+            clusters.connect(outputNode.mcu.getSimulator(), target);
+            clusters.constrainLookahead(output.propDelay);
+            output.state.insertProbe(new LinkProbe(output, target));
+        }
+
+
+        /**
+         * The <code>LinkProbe</code> class watches the output pin of a
+         * connection and schedules the delivery of each change of its level on
+         * the receiving node.
+         */
+        protected class LinkProbe implements FiniteStateMachine.Probe
+        {
+
+            protected final Clock source;
+            protected final Simulator target;
+            protected final long delay;
+
+
+            protected LinkProbe(PinWire output, Simulator target)
+            {
+                this.source = output.sim.getClock();
+                this.target = target;
+                this.delay = output.propDelay;
+            }
+
+
+            @Override
+            public void fireBeforeTransition(int beforeState, int afterState)
+            {
+                // do nothing
+            }
+
+
+            @Override
+            public void fireAfterTransition(int beforeState, int afterState)
+            {
+                if (beforeState == afterState)
+                    return;
+
+                // the receiving node may be behind or ahead of this node
+                // within the current window, so schedule the delivery at an
+                // absolute time
+                long time = source.getCount() + delay;
+                long cycles = time - target.getClock().getCount();
+                target.insertEvent(new LinkDelivery(afterState == 1),
+                        cycles > 0 ? cycles : 0);
+            }
+        }
+
+
+        /**
+         * The <code>LinkDelivery</code> class is the event that writes a level
+         * of the output pin of a connection to its input pins.
+         */
+        protected class LinkDelivery implements Simulator.Event
+        {
+
+            protected final boolean level;
+
+
+            protected LinkDelivery(boolean level)
+            {
+                this.level = level;
+            }
+
+
+            @Override
+            public void fire()
+            {
+                Iterator<PinWire> i = pinWires.iterator();
+                // skip the output pin
+                i.next();
+                while (i.hasNext())
+                {
+                    i.next().wireOutput.write(level);
+                }
+            }
+        }
     }
 
     protected class PinEvent implements Simulator.Event
@@ -32,8 +32,13 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.platform;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
 
 /**
@@ -43,7 +48,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
  *
  * @author Ben L. Titzer
  */
-public abstract class Platform
+public abstract class Platform implements Checkpointable
 {
 
     protected final Microcontroller mcu;
@@ -98,4 +103,49 @@ public abstract class Platform
     {
         return devices.get(name);
     }
+
+
+    /**
+     * The <code>saveState()</code> method writes the state of the
+     * microcontroller and of each external device of this platform. It fails
+     * if a device does not support checkpointing. The microcontroller is
+     * written first, so that the devices are restored after the pins of the
+     * microcontroller have been driven to their saved levels.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        Checkpoint.saveParts(out, getMicrocontrollerPart());
+        Checkpoint.saveParts(out, devices);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state of the
+     * microcontroller and of the external devices of this platform.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        Checkpoint.restoreParts(in, getMicrocontrollerPart());
+        Checkpoint.restoreParts(in, devices);
+    }
+
+
+    private HashMap<String, Object> getMicrocontrollerPart()
+    {
+        HashMap<String, Object> part = new HashMap<String, Object>();
+        part.put("mcu", mcu);
+        return part;
+    }
 }
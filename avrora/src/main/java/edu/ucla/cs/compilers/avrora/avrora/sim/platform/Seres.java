@@ -70,7 +70,7 @@ public class Seres extends Platform
         @Override
         public Platform newPlatform(int id, Simulation sim, Program p)
         {
-            ClockDomain cd = new ClockDomain(7372800);
+            ClockDomain cd = new ClockDomain(7372800, sim.newEventQueue());
             cd.newClock("external", 32768);
 
             return new Seres(new ATMega128(id, sim, cd, p));
@@ -68,7 +68,7 @@ public class Superbot extends Platform
         @Override
         public Platform newPlatform(int id, Simulation sim, Program p)
         {
-            ClockDomain cd = new ClockDomain(7372800);
+            ClockDomain cd = new ClockDomain(7372800, sim.newEventQueue());
             cd.newClock("external", 32768);
 
             return new Superbot(new ATMega128(id, sim, cd, p));
@@ -105,7 +105,7 @@ public class Telos extends Platform
          */
         @Override
         public Platform newPlatform(int id, Simulation sim, Program p) {
-            ClockDomain cd = new ClockDomain(MAIN_HZ);
+            ClockDomain cd = new ClockDomain(MAIN_HZ, sim.newEventQueue());
             cd.newClock("external", EXT_HZ);
 
             return new Telos(new F1611(id, sim, cd, p));
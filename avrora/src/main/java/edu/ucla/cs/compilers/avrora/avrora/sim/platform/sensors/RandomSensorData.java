@@ -32,12 +32,19 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.platform.sensors;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Random;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
+
 /**
  * @author Ben L. Titzer
  */
-public class RandomSensorData implements SensorData
+public class RandomSensorData implements SensorData, Checkpointable
 {
 
     protected final Random random;
@@ -54,4 +61,18 @@ public class RandomSensorData implements SensorData
     {
         return random.nextInt() & 0x3ff;
     }
+
+
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        Checkpoint.saveParts(out, Collections.singletonMap("random", random));
+    }
+
+
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        Checkpoint.restoreParts(in, Collections.singletonMap("random", random));
+    }
 }
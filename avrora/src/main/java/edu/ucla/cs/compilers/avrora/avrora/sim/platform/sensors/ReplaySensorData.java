@@ -32,14 +32,18 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.platform.sensors;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.StreamTokenizer;
 
 import edu.ucla.cs.compilers.avrora.avrora.Main;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
-import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
@@ -49,15 +53,17 @@ import edu.ucla.cs.compilers.avrora.cck.util.Util;
  *
  * @author Ben L. Titzer
  */
-public class ReplaySensorData implements SensorData
+public class ReplaySensorData implements SensorData, Checkpointable
 {
 
-    final Clock clock;
+    final MainClock clock;
     final File file;
     final FileReader fr;
     final StreamTokenizer st;
     final ChangeReading change;
     int currentReading;
+    // the number of tokens read from the file so far
+    int tokens;
 
 
     public ReplaySensorData(Microcontroller m, String fn) throws IOException
@@ -75,7 +81,7 @@ public class ReplaySensorData implements SensorData
 
     private void getNextReading() throws IOException
     {
-        int tt = st.nextToken();
+        int tt = nextToken();
         if (tt == StreamTokenizer.TT_EOF)
             return;
         if (tt != StreamTokenizer.TT_NUMBER)
@@ -104,7 +110,7 @@ public class ReplaySensorData implements SensorData
 
     private void scheduleNextChange() throws IOException
     {
-        int tt = st.nextToken();
+        int tt = nextToken();
         if (tt == StreamTokenizer.TT_EOF)
             return;
         if (tt != StreamTokenizer.TT_NUMBER)
@@ -114,9 +120,60 @@ public class ReplaySensorData implements SensorData
     }
 
 
+    private int nextToken() throws IOException
+    {
+        int tt = st.nextToken();
+        if (tt != StreamTokenizer.TT_EOF)
+            tokens++;
+        return tt;
+    }
+
+
     @Override
     public int reading()
     {
         return currentReading;
     }
+
+
+    /**
+     * The <code>saveState()</code> method writes the position in the file,
+     * the current reading and the time of the next change.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeInt(tokens);
+        out.writeInt(currentReading);
+        Checkpoint.saveEvent(out, clock, change);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. The file is read forward to the saved
+     * position, so it must be the file the checkpoint was taken with.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        int saved = in.readInt();
+        while (tokens < saved)
+        {
+            if (nextToken() == StreamTokenizer.TT_EOF)
+                Util.userError("Sensor data file is shorter than in the checkpoint", file.getPath());
+        }
+        currentReading = in.readInt();
+        Checkpoint.restoreEvent(in, clock, change);
+    }
 }
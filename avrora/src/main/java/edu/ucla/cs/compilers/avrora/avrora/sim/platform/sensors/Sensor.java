@@ -32,13 +32,21 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.platform.sensors;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
+
 /**
  * The <code>Sensor</code> class represents a sensor device that contains a
  * reference to the <code>SensorData</code> instance feeding data to the device.
  *
  * @author Ben L. Titzer
  */
-public class Sensor
+public class Sensor implements Checkpointable
 {
 
     protected SensorData data;
@@ -55,4 +63,40 @@ public class Sensor
     {
         data = d;
     }
+
+
+    /**
+     * The <code>saveState()</code> method writes the state of the sensor data
+     * source, if there is one. Whether the sensor is powered follows from the
+     * pins of the microcontroller.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeBoolean(data != null);
+        if (data != null)
+            Checkpoint.saveParts(out, Collections.singletonMap("data", data));
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        if (in.readBoolean())
+            Checkpoint.restoreParts(in, Collections.singletonMap("data", data));
+    }
 }
@@ -32,14 +32,24 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Synchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.energy.Energy;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.*;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.Microcontroller.Pin.ListenableBooleanViewInput;
 import edu.ucla.cs.compilers.avrora.avrora.sim.output.SimPrinter;
+import edu.ucla.cs.compilers.avrora.avrora.sim.state.BooleanView;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
 
@@ -52,7 +62,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
  * @author Ben L. Titzer
  * @author Daniel Lee
  */
-public class CC1000Radio implements Radio
+public class CC1000Radio implements Radio, Checkpointable
 {
 
     /**
@@ -141,6 +151,7 @@ public class CC1000Radio implements Radio
     protected RadioRegister[] registers = new RadioRegister[0x47];
     protected FrequencyRegister currentFrequencyRegister;
     protected Medium medium;
+    protected final Medium privateMedium;
                                                                 // milliamperes
     protected Transmitter transmitter;
     protected Receiver receiver;
@@ -206,7 +217,7 @@ public class CC1000Radio implements Radio
         ATMegaFamily amcu = (ATMegaFamily) mcu;
         ticker = new SPITicker();
         ticker.spiDevice = (SPIDevice) amcu.getDevice("spi");
-        setMedium(createMedium(null, null));
+        setMedium(privateMedium = createMedium(null, null));
         rssiOutput = new RSSIOutput();
         ADC adc = ((ADC) amcu.getDevice("adc"));
         adc.connectADCInput(rssiOutput, 0);
@@ -299,6 +310,100 @@ public class CC1000Radio implements Radio
         receiver = new Receiver(m);
     }
 
+    /**
+     * The <code>saveState()</code> method writes the state of the radio chip:
+     * its registers, the state of the calibration, the serial configuration
+     * interface and the exchange of bytes with the SPI, the state of its state
+     * machine, and the times at which the transmitter and receiver next
+     * handle a byte. A transmission that is in the air when the checkpoint is
+     * taken belongs to the medium, which is saved here only if it is the
+     * private medium of this radio; a medium shared by several nodes is saved
+     * by the simulation.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        MainClock mainClock = sim.getClock();
+        for (RadioRegister reg : registers)
+            out.writeByte(reg.value);
+        out.writeByte(MAIN_reg.oldVal);
+        out.writeBoolean(CAL_reg.calibrating);
+        Checkpoint.saveEvent(out, mainClock, CAL_reg.calibrate);
+        out.writeInt(stateMachine.getCurrentState());
+        out.writeByte(txBuffer);
+        out.writeInt(rxBuffer);
+        out.writeLong(spiTick);
+        out.writeBoolean(ticker.activated);
+        Checkpoint.saveEvent(out, mainClock, ticker);
+        Checkpoint.saveEvent(out, mainClock, transmitter.ticker);
+        Checkpoint.saveEvent(out, mainClock, receiver.ticker);
+        config.saveState(out);
+        Checkpoint.saveParts(out, getPrivateParts());
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. The registers are decoded again, which turns
+     * the transmitter and receiver on as before, and the events they schedule
+     * are then moved to their saved times. A private medium is restored last,
+     * since it replaces the transmission begun by turning the transmitter on.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        byte[] values = new byte[registers.length];
+        in.readFully(values);
+        byte oldVal = in.readByte();
+        // do not start a calibration again, its saved event is restored below
+        CAL_reg.calibrating = true;
+        // the main register is decoded last, since it uses the others
+        for (int cntr = 0; cntr < registers.length; cntr++)
+        {
+            if (cntr == MAIN)
+                continue;
+            registers[cntr].value = values[cntr];
+            registers[cntr].decode(values[cntr]);
+        }
+        CAL_reg.calibrating = in.readBoolean();
+        Checkpoint.restoreEvent(in, clock, CAL_reg.calibrate);
+        MAIN_reg.value = values[MAIN];
+        MAIN_reg.oldVal = oldVal;
+        MAIN_reg.decode(values[MAIN]);
+        // decoding remembers the value, which the program may not have written
+        MAIN_reg.oldVal = oldVal;
+        int mode = in.readInt();
+        if (mode != FiniteStateMachine.IN_TRANSITION && mode != stateMachine.getCurrentState())
+            stateMachine.transition(mode);
+        txBuffer = in.readByte();
+        rxBuffer = in.readInt();
+        spiTick = in.readLong();
+        ticker.activated = in.readBoolean();
+        Checkpoint.restoreEvent(in, clock, ticker);
+        Checkpoint.restoreEvent(in, clock, transmitter.ticker);
+        Checkpoint.restoreEvent(in, clock, receiver.ticker);
+        config.restoreState(in);
+        Checkpoint.restoreParts(in, getPrivateParts());
+    }
+
+
+    private Map<String, Medium> getPrivateParts()
+    {
+        if (medium != privateMedium)
+            return Collections.emptyMap();
+        return Collections.singletonMap("medium", medium);
+    }
+
     /**
      * The <code>RadioRegister</code> is an abstract register grouping together
      * registers on the CC1000 radio.
@@ -1159,6 +1264,36 @@ public class CC1000Radio implements Radio
             readerPrinter = sim.getPrinter("radio.cc1000.pinconfig");
         }
 
+        void saveState(DataOutput out) throws IOException
+        {
+            out.writeByte(address);
+            out.writeBoolean(writeCommand);
+            out.writeInt(writeValue);
+            out.writeBoolean(inputPin);
+            out.writeByte(readData);
+            out.writeInt(bitsRead);
+            out.writeBoolean(PCLK_in.last);
+            out.writeBoolean(PALE_in.last);
+            out.writeBoolean(PDATA_out.getLevelView().getValue());
+        }
+
+        void restoreState(DataInput in) throws IOException
+        {
+            address = in.readByte();
+            writeCommand = in.readBoolean();
+            writeValue = in.readInt();
+            inputPin = in.readBoolean();
+            readData = in.readByte();
+            bitsRead = in.readInt();
+            PCLK_in.last = in.readBoolean();
+            PALE_in.last = in.readBoolean();
+            // the level of PDATA was seen by the microcontroller when it was set
+            BooleanView level = PDATA_out.getLevelView();
+            level.setValueSetListener(null);
+            level.setValue(in.readBoolean());
+            level.setValueSetListener(PDATA_out);
+        }
+
         private void clockInBit()
         {
             if (bitsRead < 7)
@@ -33,12 +33,21 @@
  */
 package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Random;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpoint;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventHandle;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Synchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.energy.Energy;
 import edu.ucla.cs.compilers.avrora.avrora.sim.mcu.ADC;
@@ -65,7 +74,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Util;
  * @author Ben L. Titzer
  * @author Rodolfo de Paz
  */
-public class CC2420Radio implements Radio
+public class CC2420Radio implements Radio, Checkpointable
 {
 
     // -- Register addresses ---------------------------------------------------
@@ -131,6 +140,7 @@ public class CC2420Radio implements Radio
     // -- Simulation objects -----------------------------------------------
     protected final Microcontroller mcu;
     protected final Simulator sim;
+    protected final Random random;
 
     // -- Radio state ------------------------------------------------------
     protected final int xfreq;
@@ -143,6 +153,7 @@ public class CC2420Radio implements Radio
     protected boolean globalRxfifoOverflow = false;
 
     protected Medium medium;
+    protected final Medium privateMedium;
     protected Transmitter transmitter;
     protected Receiver receiver;
 
@@ -280,10 +291,12 @@ public class CC2420Radio implements Radio
         this.mcu = mcu;
         this.sim = mcu.getSimulator();
         this.xfreq = xfreq;
+        this.random = sim.getSimulation().getRandomStream(sim.getID(),
+                "cc2420");
 
         // create a private medium for this radio
         // the simulation may replace this later with a new one.
-        setMedium(createMedium(null, null));
+        setMedium(privateMedium = createMedium(null, null));
 
         // setup energy recording
         stateMachine = new FiniteStateMachine(sim.getClock(),
@@ -316,6 +329,172 @@ public class CC2420Radio implements Radio
     }
 
 
+    /**
+     * The <code>saveState()</code> method writes the state of the radio chip:
+     * its registers, security RAM, FIFOs, status, pin levels and configuration
+     * interface, the state of its state machine, whether the transmitter or
+     * receiver is on, the random stream used for backoffs, and how far the
+     * transmitter and receiver have got in the packet they are handling,
+     * including the times at which they next handle a byte. A packet that is
+     * in the air when the checkpoint is taken belongs to the medium, which is
+     * saved here only if it is the private medium of this radio; a medium
+     * shared by several nodes is saved by the simulation.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        MainClock mainClock = sim.getClock();
+        out.writeInt(stateMachine.getCurrentState());
+        out.writeBoolean(transmitter.activated);
+        out.writeBoolean(receiver.activated);
+        for (int cntr = 0; cntr < NUM_REGISTERS; cntr++)
+            out.writeChar(registers[cntr]);
+        out.write(RAMSecurityRegisters);
+        txFIFO.writeTo(out);
+        rxFIFO.writeTo(out);
+        out.writeInt(statusRegister.getValue());
+        out.writeBoolean(startingOscillator);
+        out.writeBoolean(FIFO_active);
+        out.writeBoolean(FIFOP_active);
+        out.writeBoolean(CCA_active);
+        out.writeBoolean(SFD_active);
+        out.writeInt(SendAck);
+        out.writeBoolean(AutoAckPend);
+        out.writeBoolean(lastCRCok);
+        out.writeByte(DSN);
+        out.writeBoolean(ClearFlag);
+        out.writeBoolean(globalRxfifoOverflow);
+        out.writeInt(configCommand);
+        out.writeInt(configByteCnt);
+        out.writeInt(configRegAddr);
+        out.writeByte(configByteHigh);
+        out.writeInt(configRAMAddr);
+        out.writeInt(configRAMBank);
+        CC2420Pin[] inputs = { SCLK_pin, MISO_pin, MOSI_pin, CS_pin, VREN_pin, RSTN_pin };
+        for (CC2420Pin pin : inputs)
+            out.writeBoolean(pin.level);
+        out.writeBoolean(FIFO_pin.getLevel());
+        out.writeBoolean(FIFOP_pin.getLevel());
+        out.writeBoolean(SFD_value.getValue());
+        Checkpoint.saveParts(out, Collections.singletonMap("random", random));
+        out.writeBoolean(rssiValid.getValue());
+        out.writeInt(transmitter.state);
+        out.writeInt(transmitter.counter);
+        out.writeInt(transmitter.length);
+        out.writeChar(transmitter.crc);
+        out.writeBoolean(transmitter.wasAck);
+        out.writeInt(receiver.state);
+        out.writeInt(receiver.counter);
+        out.writeInt(receiver.length);
+        out.writeChar(receiver.crc);
+        out.writeByte(receiver.crcLow);
+        out.writeDouble(BERtotal);
+        out.writeInt(BERcount);
+        Checkpoint.saveEvent(out, mainClock, transmitter.ticker);
+        Checkpoint.saveEvent(out, mainClock, receiver.ticker);
+        Checkpoint.saveEvent(out, mainClock, receiver.rssiValidEvent.getEvent());
+        Checkpoint.saveParts(out, getPrivateParts());
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>. It overrides any side effects that driving the
+     * pins of the microcontroller to their restored levels had on the radio.
+     * The transmitter and receiver are turned on as before and then resume the
+     * packet they were handling; a private medium is restored last, since it
+     * replaces the transmission begun by turning the transmitter on.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        int mode = in.readInt();
+        boolean txOn = in.readBoolean();
+        boolean rxOn = in.readBoolean();
+        transmitter.shutdown();
+        receiver.shutdown();
+        for (int cntr = 0; cntr < NUM_REGISTERS; cntr++)
+            registers[cntr] = in.readChar();
+        in.readFully(RAMSecurityRegisters);
+        txFIFO.readFrom(in);
+        rxFIFO.readFrom(in);
+        statusRegister.setValue(in.readInt());
+        boolean oscillatorStarting = in.readBoolean();
+        FIFO_active = in.readBoolean();
+        FIFOP_active = in.readBoolean();
+        CCA_active = in.readBoolean();
+        SFD_active = in.readBoolean();
+        SendAck = in.readInt();
+        AutoAckPend = in.readBoolean();
+        lastCRCok = in.readBoolean();
+        DSN = in.readByte();
+        ClearFlag = in.readBoolean();
+        globalRxfifoOverflow = in.readBoolean();
+        configCommand = in.readInt();
+        configByteCnt = in.readInt();
+        configRegAddr = in.readInt();
+        configByteHigh = in.readByte();
+        configRAMAddr = in.readInt();
+        configRAMBank = in.readInt();
+        CC2420Pin[] inputs = { SCLK_pin, MISO_pin, MOSI_pin, CS_pin, VREN_pin, RSTN_pin };
+        for (CC2420Pin pin : inputs)
+            pin.level = in.readBoolean();
+        FIFO_pin.setLevel(in.readBoolean());
+        FIFOP_pin.setLevel(in.readBoolean());
+        SFD_value.setValue(in.readBoolean());
+        Checkpoint.restoreParts(in, Collections.singletonMap("random", random));
+
+        // the transmitter and receiver set these bits again when they start
+        txActive.setValue(false);
+        rssiValid.setValue(false);
+        setCCAMux(registers[IOCFG1] & 0x1f);
+        if (mode != FiniteStateMachine.IN_TRANSITION && mode != stateMachine.getCurrentState())
+            stateMachine.transition(mode);
+        startingOscillator = false;
+        if (oscillatorStarting)
+            startOscillator();
+        if (rxOn)
+            receiver.startup();
+        else if (txOn)
+            transmitter.startup();
+        rssiValid.setValue(in.readBoolean());
+        transmitter.state = in.readInt();
+        transmitter.counter = in.readInt();
+        transmitter.length = in.readInt();
+        transmitter.crc = in.readChar();
+        transmitter.wasAck = in.readBoolean();
+        receiver.state = in.readInt();
+        receiver.counter = in.readInt();
+        receiver.length = in.readInt();
+        receiver.crc = in.readChar();
+        receiver.crcLow = in.readByte();
+        BERtotal = in.readDouble();
+        BERcount = in.readInt();
+        Checkpoint.restoreEvent(in, sim.getClock(), transmitter.ticker);
+        Checkpoint.restoreEvent(in, sim.getClock(), receiver.ticker);
+        Checkpoint.restoreEvent(in, sim.getClock(), receiver.rssiValidEvent);
+        Checkpoint.restoreParts(in, getPrivateParts());
+    }
+
+
+    private Map<String, Medium> getPrivateParts()
+    {
+        if (medium != privateMedium)
+            return Collections.emptyMap();
+        return Collections.singletonMap("medium", medium);
+    }
+
+
     private void reset()
     {
         for (int cntr = 0; cntr < NUM_REGISTERS; cntr++)
@@ -1350,7 +1529,6 @@ public class CC2420Radio implements Radio
         public double getCorrelation()
         {
             int PERindex = (int) (getPER() * 100);
-            Random random = new Random();
             // get the range, casting to long to avoid overflow problems
             long range = (long) Corr_MAX[PERindex] - (long) Corr_MIN[PERindex]
                     + 1;
@@ -1783,7 +1961,7 @@ public class CC2420Radio implements Radio
             }
         }
 
-        protected RssiValid rssiValidEvent = new RssiValid();
+        protected EventHandle rssiValidEvent = new EventHandle(new RssiValid());
 
 
         void startup()
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Topology.Position;
+
+/**
+ * The <code>LinkCache</code> class stores values that a radio model computes
+ * for each pair of transmitter and receiver, such as the path loss between
+ * them, indexed by the link index of both nodes.
+ *
+ * <p>
+ * The receivers of different nodes read and fill the cache on their own
+ * threads while a mobility model may move a node on yet another thread.
+ * Therefore the values of a link are stored as an immutable record that is
+ * published atomically, and each node has an epoch that is advanced whenever
+ * it moves. A record is stamped with the epochs of both nodes read before its
+ * values were computed, and is only used while both epochs are unchanged, so
+ * that values computed from a position that changed in the meantime are never
+ * used.
+ */
+final class LinkCache
+{
+
+    static final class Link
+    {
+        final long stamp;
+        final double[] values;
+
+
+        Link(long s, double[] v)
+        {
+            stamp = s;
+            values = v;
+        }
+    }
+
+    private final List<Position> positions = new ArrayList<Position>();
+    private int capacity;
+    private AtomicReferenceArray<Link> links = new AtomicReferenceArray<Link>(
+            0);
+    private AtomicIntegerArray epochs = new AtomicIntegerArray(0);
+
+
+    /**
+     * The <code>add()</code> method adds a node to the cache and returns its
+     * link index. Nodes must be added before the simulation starts.
+     *
+     * @param p the position of the node
+     * @return the link index of the new node
+     */
+    int add(Position p)
+    {
+        int index = positions.size();
+        positions.add(p);
+        if (index >= capacity)
+            grow(Math.max(16, capacity * 2));
+        return index;
+    }
+
+
+    /**
+     * The <code>stamp()</code> method returns the current epochs of the
+     * specified nodes. It must be read before the values of their link are
+     * computed from their positions.
+     *
+     * @param t the link index of the transmitter
+     * @param r the link index of the receiver
+     * @return the stamp to pass to <code>put()</code>
+     */
+    long stamp(int t, int r)
+    {
+        return ((long) epochs.get(t) << 32) | (epochs.get(r) & 0xffffffffL);
+    }
+
+
+    /**
+     * The <code>get()</code> method returns the values of the link between
+     * the specified nodes, if they were computed since either node last moved.
+     *
+     * @param t the link index of the transmitter
+     * @param r the link index of the receiver
+     * @return the values of the link; null if they must be computed
+     */
+    double[] get(int t, int r)
+    {
+        Link l = links.get(t * capacity + r);
+        if (l == null || l.stamp != stamp(t, r))
+            return null;
+        return l.values;
+    }
+
+
+    /**
+     * The <code>put()</code> method stores the values of the link between
+     * the specified nodes. The array must not be modified afterwards.
+     *
+     * @param t the link index of the transmitter
+     * @param r the link index of the receiver
+     * @param stamp the stamp read before the values were computed
+     * @param values the values of the link
+     */
+    void put(int t, int r, long stamp, double[] values)
+    {
+        links.set(t * capacity + r, new Link(stamp, values));
+    }
+
+
+    /**
+     * The <code>moved()</code> method invalidates all links of the nodes at
+     * the specified position. It must be called after the position has been
+     * updated.
+     *
+     * @param p the position that changed
+     */
+    void moved(Position p)
+    {
+        for (int i = 0; i < positions.size(); i++)
+        {
+            if (positions.get(i) == p)
+                epochs.incrementAndGet(i);
+        }
+    }
+
+
+    private void grow(int c)
+    {
+        AtomicReferenceArray<Link> l = new AtomicReferenceArray<Link>(c * c);
+        for (int i = 0; i < capacity; i++)
+            for (int j = 0; j < capacity; j++)
+                l.set(i * c + j, links.get(i * capacity + j));
+        AtomicIntegerArray e = new AtomicIntegerArray(c);
+        for (int i = 0; i < capacity; i++)
+            e.set(i, epochs.get(i));
+        links = l;
+        epochs = e;
+        capacity = c;
+    }
+}
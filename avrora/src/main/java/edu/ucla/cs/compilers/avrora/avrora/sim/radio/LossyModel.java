@@ -20,39 +20,59 @@
  */
 package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.state.Complex;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * The <code>LossyModel</code> definition.
  *
  * @author Rodolfo de Paz
  */
-public class LossyModel implements Medium.Arbitrator
+public class LossyModel implements Medium.Arbitrator, Topology.Listener
 {
 
     protected static final double Sensitivity = -95;
-    private static Random rn = new Random();
     protected final Map<Object, Topology.Position> positions;
+    protected final NoiseTrace noise;
+    // the random stream of each receiver, used on the thread of its node
+    protected final Map<Medium.Receiver, Random> streams;
+    // per link: time sharing, path loss, shadowing mean and deviation
+    protected final LinkCache links = new LinkCache();
     protected final double lambda = Math.exp(-5D / 6D);
     protected final double u = Math.sqrt((1 - Math.pow(lambda, 2D)));
-    protected int TimeBefore = 0;
-    protected double Csf, Sf;
-    protected boolean first = true;
+    protected final Simulation simulation;
+    // per epoch of one second: the factors of the shadowing mean and deviation
+    private volatile double[][] epochs = new double[0][];
+    // the last shadowing value and its linear factor
+    private volatile double[] shadowing = { Double.NaN, Double.NaN };
 
 
-    public LossyModel()
+    public LossyModel(NoiseTrace n, Simulation sim)
     {
+        noise = n;
+        simulation = sim;
         positions = new HashMap<Object, Topology.Position>();
+        streams = new HashMap<Medium.Receiver, Random>();
     }
 
-    public static double getGaussian(double mean, double std)
+    public static double getGaussian(Random r, double mean, double std)
     {
-        return mean + std * rn.nextGaussian();
+        return mean + std * r.nextGaussian();
+    }
+
+
+    protected Random getRandom(Medium.Receiver receiver)
+    {
+        Random r = streams.get(receiver);
+        return r != null ? r : ThreadLocalRandom.current();
     }
 
     @Override
@@ -96,37 +116,44 @@ public class LossyModel implements Medium.Arbitrator
         return (char) value;
     }
 
-    private double Rayleigh()
+    private double Rayleigh(Random rn)
     {
-        Complex c = new Complex(getGaussian(0, 1), getGaussian(0, 1));
-        return Complex.abs(c);
+        return Complex.abs(getGaussian(rn, 0, 1), getGaussian(rn, 0, 1));
     }
 
 
-    private double Shadowing(double mean, double std, int Milliseconds)
+    double Shadowing(double mean, double std, int Milliseconds)
     {
-        // Correlated shadowing computation updating values every 1second
-        if (first)
-        {
-            first = false;
-            return Sf = getGaussian(mean, std);
-        } else
+        // Correlated shadowing computation updating values every 1second. The
+        // random part of each epoch is shared by all links and drawn from a
+        // stream of the epoch, so it does not depend on which receiver
+        // reaches the epoch first.
+        int epoch = Math.max(0, Milliseconds / 1000);
+        double[][] e = epochs;
+        if (epoch >= e.length)
+            e = extendEpochs(epoch);
+        return mean * e[epoch][0] + std * e[epoch][1];
+    }
+
+
+    private synchronized double[][] extendEpochs(int epoch)
+    {
+        double[][] e = epochs;
+        if (epoch < e.length)
+            return e;
+        double[][] n = Arrays.copyOf(e, Math.max(epoch + 1, e.length * 2));
+        for (int i = e.length; i < n.length; i++)
         {
-            if (Milliseconds < 1000)
-            {
-                return Csf = Sf;
-            } else
-            {
-                if ((Milliseconds - TimeBefore) > 1000)
-                {
-                    TimeBefore = Milliseconds;
-                    return Csf = lambda * Csf + u * getGaussian(mean, std);
-                } else
-                {
-                    return Csf;
-                }
-            }
+            Random rn = simulation.getRandomStream(-1, "shadowing." + i);
+            double g = getGaussian(rn, 0, 1);
+            if (i == 0)
+                n[i] = new double[] { 1, g };
+            else
+                n[i] = new double[] { lambda * n[i - 1][0] + u,
+                        lambda * n[i - 1][1] + u * g };
         }
+        epochs = n;
+        return n;
     }
 
 
@@ -134,20 +161,26 @@ public class LossyModel implements Medium.Arbitrator
     {
         positions.put(radio.getTransmitter(), pos);
         positions.put(radio.getReceiver(), pos);
+        Simulator sim = radio.getSimulator();
+        streams.put(radio.getReceiver(), sim.getSimulation()
+                .getRandomStream(sim.getID(), "lossy-model"));
+        int index = links.add(pos);
+        radio.getTransmitter().linkIndex = index;
+        radio.getReceiver().linkIndex = index;
+    }
+
+
+    @Override
+    public void moved(Topology.Position p)
+    {
+        links.moved(p);
     }
 
 
     @Override
     public int getNoise(int index)
     {
-        if (noise.sizeNoise() == 1)
-            return noise.getNoise(0);
-        else
-        {
-            index = index % noise.sizeNoise();
-        }
         return noise.getNoise(index);
-
     }
 
 
@@ -198,14 +231,70 @@ public class LossyModel implements Medium.Arbitrator
     @Override
     public double computeReceivedPower(Medium.Transmission t,
             Medium.Receiver receiver, int Milliseconds)
+    {
+        int ti = t.origin.linkIndex;
+        int ri = receiver.linkIndex;
+        double[] v;
+        if (ti < 0 || ri < 0)
+        {
+            v = computeLink(t.origin, receiver);
+        } else
+        {
+            v = links.get(ti, ri);
+            if (v == null)
+            {
+                long stamp = links.stamp(ti, ri);
+                v = computeLink(t.origin, receiver);
+                links.put(ti, ri, stamp, v);
+            }
+        }
+        double A = v[0];
+        double PathLoss = v[1];
+        double mean = v[2];
+        double std = v[3];
+        // Rayleigh fading
+        Random rn = getRandom(receiver);
+        double L_Rayleigh = Rayleigh(rn);
+        // Ricean fading
+        int k = 6;// Rician k factor
+        double L_Rician = (L_Rayleigh / (Math.sqrt(k)) + 1);
+        // Shadowing
+        double s = Shadowing(mean, std, Milliseconds);
+        // double s = getGaussian(mean,std);
+        double[] e = shadowing;
+        if (e[0] != s)
+        {
+            // the shadowing only changes once per epoch
+            e = new double[] { s, Math.pow(10, s / 20) };
+            shadowing = e;
+        }
+        double Lsf = e[1];
+        // Fading computation following Lutz's model
+        double Fading = 10
+                * Math.log10(A * L_Rician + (1 - A) * (Lsf * L_Rayleigh));
+        return (t.Pt - Fading - PathLoss);
+    }
+
+
+    /**
+     * The <code>computeLink()</code> method computes the parts of the received
+     * power that only depend on the positions of the transmitter and the
+     * receiver.
+     *
+     * @param t the transmitter
+     * @param r the receiver
+     * @return the time sharing, path loss, shadowing mean and shadowing
+     *         deviation of the link
+     */
+    private double[] computeLink(Medium.Transmitter t, Medium.Receiver r)
     {
         // Indoor channel model with consideration of movement of
         // people/obstacles
         // people density -number of people or obstacles over an occupied area-
         // (m-2)
-        double p = densityObstacles(t.origin, receiver);
+        double p = densityObstacles(t, r);
         // length of ray over area with moving people(m)
-        double d = distance(t.origin, receiver);
+        double d = distance(t, r);
         // Time sharing between bad and good state
         double A = Math.pow((1 - p), 0.2 * d);
         // Log-distance Pathloss model (d0,n)
@@ -218,20 +307,7 @@ public class LossyModel implements Medium.Arbitrator
         double PathLoss = 55;
         if (d > 1)
             PathLoss = PathLoss + 10 * n * Math.log10(d);
-        // Rayleigh fading
-        double L_Rayleigh = Rayleigh();
-        // Ricean fading
-        int k = 6;// Rician k factor
-        double L_Rician = (L_Rayleigh / (Math.sqrt(k)) + 1);
-        // Shadowing
-        double std = (Math.log10(55 * d * p + 1) / Math.log10(7)) + 0.5;
-        double mean = Math.pow(3 * d * p, 0.7);
-        double s = Shadowing(mean, std, Milliseconds);
-        // double s = getGaussian(mean,std);
-        double Lsf = Math.pow(10, s / 20);
-        // Fading computation following Lutz's model
-        double Fading = 10
-                * Math.log10(A * L_Rician + (1 - A) * (Lsf * L_Rayleigh));
-        return (t.Pt - Fading - PathLoss);
+        return new double[] { A, PathLoss, Math.pow(3 * d * p, 0.7),
+                (Math.log10(55 * d * p + 1) / Math.log10(7)) + 0.5 };
     }
 }
@@ -33,15 +33,27 @@
  */
 package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
 
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Synchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.util.TransactionalList;
 import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
-
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The <code>Medium</code> definition drives the timming in the transmission and
@@ -50,11 +62,20 @@ import java.util.List;
  * @author Ben L. Titzer
  * @author Rodolfo de Paz
  */
-public class Medium
+public class Medium implements Topology.Listener, Checkpointable
 {
 
     private static final int BYTE_SIZE = 8;
 
+    private static final Comparator<Transmission> BY_SERIAL = new Comparator<Transmission>()
+    {
+        @Override
+        public int compare(Transmission a, Transmission b)
+        {
+            return a.serial - b.serial;
+        }
+    };
+
     private static int Pn = -95;// Noise Power in dBm
     private static double Pr = Pn;// Received Power in dBm
     public final Synchronizer synch;
@@ -63,7 +84,12 @@ public class Medium
     public final int leadBits;
     public final int minLength;
     public final int maxLength;
-    protected List<Transmission> transmissions = new LinkedList<Transmission>();
+    protected final TransmissionLog transmissions = new TransmissionLog();
+    protected final SpatialIndex index;
+    private final AtomicLong horizon = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger count = new AtomicInteger();
+    private final List<Transmitter> transmitters = new ArrayList<Transmitter>();
+    private final List<Receiver> receivers = new ArrayList<Receiver>();
 
     /**
      * The constructor for the <code>Medium</code> class creates a new shared
@@ -100,6 +126,10 @@ public class Medium
             arbitrator = new BasicArbitrator();
         else
             arbitrator = arb;
+        if (arbitrator instanceof SpatialArbitrator)
+            index = new SpatialIndex((SpatialArbitrator) arbitrator);
+        else
+            index = null;
     }
 
     /**
@@ -126,8 +156,9 @@ public class Medium
     }
 
     /**
-     * The synchronized class <code>newTransmission</code> creates a new
-     * Transmission object and adds it to the list of transmissions
+     * The <code>newTransmission</code> method creates a new Transmission
+     * object and appends it to the log of transmissions. Transmitters in
+     * different threads may call it concurrently.
      *
      * @param o
      *            Transmitter that creates the new transmission
@@ -138,13 +169,195 @@ public class Medium
      * @param f the frequency for the transmission
      * @return the added transmission
      */
-    protected synchronized Transmission newTransmission(Transmitter o, double p,
-            double f)
+    protected Transmission newTransmission(Transmitter o, double p, double f)
     {
         Transmission tx = new Transmission(o, p, f);
-        transmissions.add(tx);
+        if (index != null)
+        {
+            index.add(o);
+            o.recent.retire(horizon.get());
+            o.recent.append(tx);
+        } else
+            transmissions.append(tx);
         return tx;
     }
+
+
+    /**
+     * The <code>moved()</code> method is called by the topology when a node
+     * moves, so that the spatial index of this medium can be updated.
+     *
+     * @param p the position of the node that moved
+     */
+    @Override
+    public void moved(Topology.Position p)
+    {
+        if (index != null)
+            index.moved(p);
+    }
+
+
+    /**
+     * The <code>saveState()</code> method writes the state of this medium: the
+     * retirement horizon, the transmissions that are still visible to some
+     * receiver, and the state of each transmitter and receiver attached to
+     * the medium. It is called after all of the nodes have stopped. The
+     * transmitters and receivers are identified by the order in which they
+     * were attached, which is the order in which the nodes are instantiated.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public synchronized void saveState(DataOutput out) throws IOException
+    {
+        long h = horizon.get();
+        List<Transmission> live = new ArrayList<Transmission>();
+        if (index == null)
+            collect(live, transmissions, h);
+        for (Transmitter t : transmitters)
+        {
+            if (index != null)
+                collect(live, t.recent, h);
+            // the transmission of a transmitter that is shutting down is needed
+            // even if no receiver can see it any more
+            if (t.transmission != null && !live.contains(t.transmission))
+                live.add(t.transmission);
+        }
+        Collections.sort(live, BY_SERIAL);
+
+        out.writeInt(transmitters.size());
+        out.writeInt(receivers.size());
+        out.writeLong(h);
+        out.writeInt(count.get());
+        out.writeInt(live.size());
+        for (Transmission t : live)
+        {
+            out.writeInt(transmitters.indexOf(t.origin));
+            out.writeInt(t.serial);
+            out.writeLong(t.start);
+            out.writeLong(t.firstBit);
+            out.writeLong(t.lastBit);
+            out.writeLong(t.end);
+            out.writeDouble(t.power);
+            out.writeDouble(t.f);
+            out.writeInt(t.counter);
+            out.writeInt(t.data.length);
+            out.write(t.data);
+        }
+        for (Transmitter t : transmitters)
+        {
+            out.writeBoolean(t.activated);
+            out.writeBoolean(t.shutdown);
+            out.writeInt(t.transmission == null ? -1 : t.transmission.serial);
+        }
+        for (Receiver r : receivers)
+        {
+            out.writeBoolean(r.activated);
+            out.writeBoolean(r.locked);
+            out.writeDouble(r.frequency);
+        }
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code> after the nodes have been restored and before
+     * they start. It replaces the transmissions that the radios began while
+     * they were restored with the transmissions that were in the air, and
+     * turns each transmitter and receiver on or off as it was.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public synchronized void restoreState(DataInput in) throws IOException
+    {
+        int numTransmitters = in.readInt();
+        int numReceivers = in.readInt();
+        if (numTransmitters != transmitters.size() || numReceivers != receivers.size())
+            Util.userError("Checkpoint of the radio medium was taken with a different number of radios");
+        transmissions.clear();
+        for (Transmitter t : transmitters)
+            t.recent.clear();
+        horizon.set(in.readLong());
+        count.set(in.readInt());
+        Map<Integer, Transmission> restored = new HashMap<Integer, Transmission>();
+        int live = in.readInt();
+        for (int cntr = 0; cntr < live; cntr++)
+        {
+            Transmitter o = transmitters.get(in.readInt());
+            Transmission t = new Transmission(o, in);
+            restored.put(t.serial, t);
+            if (index != null)
+            {
+                index.add(o);
+                o.recent.append(t);
+            } else
+                transmissions.append(t);
+        }
+        for (Transmitter t : transmitters)
+        {
+            boolean on = in.readBoolean();
+            t.shutdown = in.readBoolean();
+            t.transmission = restored.get(in.readInt());
+            t.setActivated(on);
+        }
+        for (Receiver r : receivers)
+        {
+            boolean on = in.readBoolean();
+            r.locked = in.readBoolean();
+            r.frequency = in.readDouble();
+            r.setActivated(on);
+        }
+    }
+
+
+    private static void collect(List<Transmission> live, TransmissionLog log,
+            long horizon)
+    {
+        for (TransmissionLog.Entry e = log.first(); e != null; e = e.next)
+        {
+            if (e.transmission.lastBit >= horizon)
+                live.add(e.transmission);
+        }
+    }
+
+
+    private synchronized void attach(Transmitter t)
+    {
+        transmitters.add(t);
+    }
+
+
+    private synchronized void attach(Receiver r)
+    {
+        receivers.add(r);
+    }
+
+
+    /**
+     * The <code>advanceHorizon()</code> method moves the retirement horizon of
+     * this medium forward. Transmissions whose last bit lies before the
+     * horizon are no longer visible to any receiver.
+     *
+     * @param bit the oldest bit the calling receiver is interested in
+     * @return the new horizon
+     */
+    private long advanceHorizon(long bit)
+    {
+        while (true)
+        {
+            long h = horizon.get();
+            if (bit <= h || horizon.compareAndSet(h, bit))
+                return Math.max(h, bit);
+        }
+    }
+
     public interface Arbitrator
     {
         boolean lockTransmission(Receiver receiver, Transmission tran, int Milliseconds);
@@ -160,6 +373,21 @@ public class Medium
         int getNoise(int index);
     }
 
+    /**
+     * The <code>Medium.SpatialArbitrator</code> interface is implemented by
+     * arbitrators that never lock a receiver onto a transmitter further away
+     * than a fixed range. For such arbitrators, the medium indexes the
+     * transmitters by position, and each receiver only considers the
+     * transmissions of the transmitters within range.
+     */
+    public interface SpatialArbitrator extends Arbitrator
+    {
+        double getRange();
+
+
+        Topology.Position getPosition(TXRX node);
+    }
+
     /**
      * The <code>Probe</code> interface defined method to insert and removes
      * probes before and after transmit and receive.
@@ -263,6 +491,8 @@ public class Medium
         public final long cyclesPerBit;
         public boolean activated;
         protected Probe.List probeList;
+        // the index of this node in the link cache of the radio model
+        protected int linkIndex = -1;
 
 
         /**
@@ -311,6 +541,25 @@ public class Medium
             if (this.probeList != null)
                 this.probeList.remove(probe);
         }
+
+
+        /**
+         * The <code>setActivated()</code> method turns this transmitter or
+         * receiver on or off and tells the synchronizer of the medium about
+         * the change, so that it can adapt to the radio activity of the
+         * simulation.
+         *
+         * @param on true if the transmitter or receiver turns on
+         */
+        protected void setActivated(boolean on)
+        {
+            if (activated != on)
+            {
+                activated = on;
+                if (medium.synch != null)
+                    medium.synch.radioActivity(on, cyclesPerByte);
+            }
+        }
     }
 
     /**
@@ -324,6 +573,7 @@ public class Medium
     {
 
         protected final Transmitter.Ticker ticker;
+        protected final TransmissionLog recent = new TransmissionLog();
         protected Transmission transmission;
         protected boolean shutdown;
 
@@ -339,6 +589,7 @@ public class Medium
         {
             super(m, c);
             ticker = new Ticker();
+            m.attach(this);
         }
 
 
@@ -357,7 +608,7 @@ public class Medium
             if (!activated)
             {
                 transmission = medium.newTransmission(this, pow, freq);
-                activated = true;
+                setActivated(true);
                 clock.insertEvent(ticker, leadCycles);
             }
         }
@@ -404,7 +655,7 @@ public class Medium
                         probeList.fireBeforeTransmitEnd(Transmitter.this);
                     transmission = null;
                     shutdown = false;
-                    activated = false;
+                    setActivated(false);
                 } else if (activated)
                 {
                     // otherwise, transmit a single byte and add it to the
@@ -448,6 +699,7 @@ public class Medium
         {
             super(m, c);
             ticker = new Ticker();
+            m.attach(this);
         }
 
 
@@ -457,7 +709,7 @@ public class Medium
             frequency = freq;
             if (!activated)
             {
-                activated = true;
+                setActivated(true);
                 clock.insertEvent(ticker, leadCycles + cyclesPerByte);
             }
         }
@@ -474,7 +726,7 @@ public class Medium
                 if (probeList != null)
                     probeList.fireAfterReceiveEnd(Receiver.this);
             }
-            activated = false;
+            setActivated(false);
             locked = false;
             clock.removeEvent(ticker);
         }
@@ -566,7 +818,10 @@ public class Medium
 
         /**
          * The <code>earliestNewTransmission</code> method determines if there
-         * is a new transmission from the other threads
+         * is a new transmission from the other threads. It reads the
+         * transmission logs without locking the medium and advances the
+         * retirement horizon of the medium to the oldest bit this receiver
+         * can still be interested in.
          *
          * @param bit
          *            equal to oneBitBeforeNow - BYTE_SIZE
@@ -574,26 +829,33 @@ public class Medium
          */
         private Transmission earliestNewTransmission(long bit)
         {
+            long horizon = medium.advanceHorizon(bit - 8 - 2 * medium.leadBits);
+            if (medium.index == null)
+                return earliestNewTransmission(bit, horizon,
+                        medium.transmissions, null);
             Transmission tx = null;
-            synchronized (medium)
+            for (Transmitter n : medium.index.getNeighbors(Receiver.this))
+                tx = earliestNewTransmission(bit, horizon, n.recent, tx);
+            return tx;
+        }
+
+
+        private Transmission earliestNewTransmission(long bit, long horizon,
+                TransmissionLog log, Transmission tx)
+        {
+            log.retire(horizon);
+            for (TransmissionLog.Entry e = log.first(); e != null; e = e.next)
             {
-                Iterator<Transmission> i = medium.transmissions.iterator();
-                while (i.hasNext())
+                Transmission t = e.transmission;
+                if (bit <= t.firstBit && t.lastBit >= horizon
+                        && medium.arbitrator.lockTransmission(Receiver.this, t,
+                                (int) clock.cyclesToMillis(clock.getCount())))
                 {
-                    Transmission t = i.next();
-                    if (bit <= t.firstBit && medium.arbitrator.lockTransmission(
-                            Receiver.this, t,
-                            (int) clock.cyclesToMillis(clock.getCount())))
-                    {
-                        if (tx == null)
-                            tx = t;
-                        else if (t.firstBit < tx.firstBit)
-                            tx = t;
-                    } else if (bit - 8 - 2 * medium.leadBits > t.lastBit)
-                    {
-                        // remove older transmissions
-                        i.remove();
-                    }
+                    // ties go to the transmission that began first
+                    if (tx == null || t.firstBit < tx.firstBit
+                            || t.firstBit == tx.firstBit
+                                    && t.serial < tx.serial)
+                        tx = t;
                 }
             }
             return tx;
@@ -610,17 +872,31 @@ public class Medium
          */
         private List<Transmission> getIntersection(long bit)
         {
+            long horizon = medium.horizon.get();
+            if (medium.index == null)
+                return getIntersection(bit, horizon, medium.transmissions,
+                        null);
             List<Transmission> it = null;
-            synchronized (medium)
+            for (Transmitter n : medium.index.getNeighbors(Receiver.this))
+                it = getIntersection(bit, horizon, n.recent, it);
+            // merge the transmissions in the order in which they began
+            if (it != null && it.size() > 1)
+                Collections.sort(it, BY_SERIAL);
+            return it;
+        }
+
+
+        private List<Transmission> getIntersection(long bit, long horizon,
+                TransmissionLog log, List<Transmission> it)
+        {
+            for (TransmissionLog.Entry e = log.first(); e != null; e = e.next)
             {
-                for (Transmission t : medium.transmissions)
+                Transmission t = e.transmission;
+                if (t.lastBit >= horizon && intersect(bit, t))
                 {
-                    if (intersect(bit, t))
-                    {
-                        if (it == null)
-                            it = new LinkedList<Transmission>();
-                        it.add(t);
-                    }
+                    if (it == null)
+                        it = new LinkedList<Transmission>();
+                    it.add(t);
                 }
             }
             return it;
@@ -876,8 +1152,9 @@ public class Medium
         public final double power;
         public final double Pt;
         public final double f;
-        public long lastBit;
+        public volatile long lastBit;
         public long end;
+        protected final int serial;
 
         protected int counter;
         protected byte[] data;
@@ -907,6 +1184,36 @@ public class Medium
             firstBit = origin.getBitNum(l);
             lastBit = Long.MAX_VALUE;
             data = new byte[Arithmetic.roundup(o.medium.maxLength, BYTE_SIZE)];
+            serial = count.getAndIncrement();
+        }
+
+
+        /**
+         * This constructor for the <code>Transmission</code> class reads a
+         * transmission that was in the air when a checkpoint was taken, as
+         * written by <code>Medium.saveState()</code>.
+         *
+         * @param o
+         *            the transmitter that began the transmission
+         * @param in
+         *            the input to read the transmission from
+         * @throws IOException
+         *             if the underlying input fails
+         */
+        protected Transmission(Transmitter o, DataInput in) throws IOException
+        {
+            origin = o;
+            serial = in.readInt();
+            start = in.readLong();
+            firstBit = in.readLong();
+            lastBit = in.readLong();
+            end = in.readLong();
+            power = in.readDouble();
+            Pt = power;
+            f = in.readDouble();
+            counter = in.readInt();
+            data = new byte[in.readInt()];
+            in.readFully(data);
         }
 
 
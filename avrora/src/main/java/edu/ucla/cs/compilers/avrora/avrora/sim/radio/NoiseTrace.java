@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>NoiseTrace</code> class represents a time trace of noise floor
+ * values in dBm, with one sample per millisecond. A trace is immutable once
+ * loaded and is owned by the radio model of a medium, so that several
+ * simulations in the same VM do not share any state.
+ *
+ * <p>
+ * A trace can be loaded from a text file with one value per line, where
+ * lines starting with <code>#</code> are comments, or from a binary file
+ * written by the <code>save()</code> method. Text traces are stored in a
+ * primitive array; binary traces are mapped into memory, so that even very
+ * large traces load immediately and are paged in on demand.
+ */
+public class NoiseTrace
+{
+
+    public static final int MAGIC = 0x41564e54; // "AVNT"
+    public static final int VERSION = 1;
+
+    // the samples are mapped in chunks, since a buffer is limited to 2 GB
+    private static final int CHUNK_BITS = 28;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int HEADER = 16;
+
+    /**
+     * The <code>DEFAULT</code> trace is used when no noise file is given and
+     * consists of a constant noise floor of -95 dBm.
+     */
+    public static final NoiseTrace DEFAULT = new NoiseTrace(new short[] { -95 });
+
+    private final int size;
+    private final short[] samples;
+    private final ShortBuffer[] chunks;
+
+
+    /**
+     * The constructor for the <code>NoiseTrace</code> class creates a trace
+     * from an array of samples.
+     *
+     * @param s the noise values in dBm, one per millisecond
+     */
+    public NoiseTrace(short[] s)
+    {
+        if (s.length == 0)
+            throw Util.failure("Noise trace is empty");
+        size = s.length;
+        samples = s;
+        chunks = null;
+    }
+
+
+    private NoiseTrace(int s, ShortBuffer[] c)
+    {
+        size = s;
+        samples = null;
+        chunks = c;
+    }
+
+
+    /**
+     * The <code>size()</code> method returns the number of samples in this
+     * trace.
+     *
+     * @return the number of samples
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * The <code>getNoise()</code> method returns the noise value at the
+     * specified millisecond. The trace is repeated when the index is past its
+     * end.
+     *
+     * @param index the time in milliseconds
+     * @return the noise value in dBm
+     */
+    public int getNoise(int index)
+    {
+        if (size == 1)
+            index = 0;
+        else if (index >= size)
+            index = index % size;
+        if (samples != null)
+            return samples[index];
+        return chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+
+    /**
+     * The <code>load()</code> method loads a noise trace from the specified
+     * file. Files that begin with the magic number of the binary format are
+     * mapped into memory; all others are parsed as text.
+     *
+     * @param fname the name of the file
+     * @return the noise trace in the file
+     * @throws IOException if the file cannot be read
+     */
+    public static NoiseTrace load(String fname) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fname, "r");
+        try
+        {
+            FileChannel ch = file.getChannel();
+            long length = ch.size();
+            if (length >= HEADER)
+            {
+                ByteBuffer head = ByteBuffer.allocate(HEADER);
+                ch.read(head, 0);
+                if (head.getInt(0) == MAGIC)
+                    return map(fname, ch, head);
+            }
+            return parse(fname, ch.map(FileChannel.MapMode.READ_ONLY, 0,
+                    length));
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    private static NoiseTrace map(String fname, FileChannel ch,
+            ByteBuffer head) throws IOException
+    {
+        if (head.getInt(4) != VERSION)
+            Util.userError("Unsupported noise trace version", fname);
+        long count = head.getLong(8);
+        if (count <= 0 || count > Integer.MAX_VALUE
+                || HEADER + 2 * count > ch.size())
+            Util.userError("Corrupted noise trace", fname);
+        int size = (int) count;
+        ShortBuffer[] chunks = new ShortBuffer[((size - 1) >>> CHUNK_BITS)
+                + 1];
+        for (int i = 0; i < chunks.length; i++)
+        {
+            long start = (long) i << CHUNK_BITS;
+            long len = Math.min(count - start, 1L << CHUNK_BITS);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER + 2 * start, 2 * len);
+            chunks[i] = buf.asShortBuffer();
+        }
+        return new NoiseTrace(size, chunks);
+    }
+
+
+    private static NoiseTrace parse(String fname, ByteBuffer buf)
+    {
+        short[] s = new short[Math.max(16, buf.remaining() / 4)];
+        int size = 0;
+        int end = buf.limit();
+        int pos = 0;
+        while (pos < end)
+        {
+            // find the end of the line
+            int eol = pos;
+            while (eol < end && buf.get(eol) != '\n')
+                eol++;
+            int next = eol + 1;
+            if (eol > pos && buf.get(eol - 1) == '\r')
+                eol--;
+            if (eol > pos && buf.get(pos) != '#')
+            {
+                // lines with exactly one token hold a value
+                int tokens = 0;
+                int value = 0;
+                int i = pos;
+                while (i < eol)
+                {
+                    while (i < eol && buf.get(i) == ' ')
+                        i++;
+                    if (i == eol)
+                        break;
+                    int start = i;
+                    while (i < eol && buf.get(i) != ' ')
+                        i++;
+                    if (tokens++ == 0)
+                        value = parseValue(fname, buf, start, i);
+                }
+                if (tokens == 1)
+                {
+                    if (size == s.length)
+                        s = Arrays.copyOf(s, size * 2);
+                    s[size++] = (short) value;
+                }
+            }
+            pos = next;
+        }
+        if (size == 0)
+            Util.userError("Noise trace is empty", fname);
+        return new NoiseTrace(Arrays.copyOf(s, size));
+    }
+
+
+    private static int parseValue(String fname, ByteBuffer buf, int start,
+            int end)
+    {
+        boolean neg = buf.get(start) == '-';
+        int i = neg || buf.get(start) == '+' ? start + 1 : start;
+        if (i == end)
+            throw Util.failure("Error reading Noise file " + fname);
+        int value = 0;
+        for (; i < end; i++)
+        {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9 || value > Short.MAX_VALUE)
+                throw Util.failure("Error reading Noise file " + fname);
+            value = value * 10 + d;
+        }
+        if (value > Short.MAX_VALUE)
+            throw Util.failure("Error reading Noise file " + fname);
+        return neg ? -value : value;
+    }
+
+
+    /**
+     * The <code>save()</code> method writes this trace to the specified file
+     * in the binary format, so that it can be mapped into memory when it is
+     * loaded again.
+     *
+     * @param fname the name of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String fname) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fname), 65536));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            for (int i = 0; i < size; i++)
+                out.writeShort(getNoise(i));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -18,7 +18,7 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Topology.Position;
  *
  * @author Ben L. Titzer
  */
-public class RadiusModel implements Medium.Arbitrator
+public class RadiusModel implements Medium.SpatialArbitrator, Topology.Listener
 {
 
     protected final double minimumDistance;
@@ -26,6 +26,7 @@ public class RadiusModel implements Medium.Arbitrator
     protected final double maximumDistance;
     protected final double maximumDistanceSq;
     protected final Map<TXRX, Position> positions;
+    protected final LinkCache links = new LinkCache();
 
 
     public RadiusModel(double minDist, double maxDist)
@@ -93,14 +94,53 @@ public class RadiusModel implements Medium.Arbitrator
     }
 
 
+    @Override
+    public double getRange()
+    {
+        return maximumDistance;
+    }
+
+
+    @Override
+    public Position getPosition(TXRX node)
+    {
+        return positions.get(node);
+    }
+
+
     public void setPosition(Radio radio, Topology.Position pos)
     {
         positions.put(radio.getTransmitter(), pos);
         positions.put(radio.getReceiver(), pos);
+        int index = links.add(pos);
+        radio.getTransmitter().linkIndex = index;
+        radio.getReceiver().linkIndex = index;
+    }
+
+
+    @Override
+    public void moved(Position p)
+    {
+        links.moved(p);
     }
 
 
     protected double distanceSq(Medium.Transmitter t, Medium.Receiver r)
+    {
+        if (t.linkIndex < 0 || r.linkIndex < 0)
+            return computeDistanceSq(t, r);
+        double[] v = links.get(t.linkIndex, r.linkIndex);
+        if (v == null)
+        {
+            long stamp = links.stamp(t.linkIndex, r.linkIndex);
+            v = new double[] { computeDistanceSq(t, r) };
+            links.put(t.linkIndex, r.linkIndex, stamp, v);
+        }
+        return v[0];
+    }
+
+
+    private double computeDistanceSq(Medium.Transmitter t, Medium.Receiver r)
     {
         double distSq = 0;
         Topology.Position a = positions.get(t);
@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Medium.Receiver;
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Medium.TXRX;
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Medium.Transmitter;
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Topology.Position;
+
+/**
+ * The <code>SpatialIndex</code> class divides space into cubic cells whose
+ * side is the range of a <code>Medium.SpatialArbitrator</code> and remembers
+ * which cell each transmitter and receiver of a medium lies in. For each
+ * receiver it caches the list of transmitters within range, which only has to
+ * be recomputed when a node in a neighboring cell is added or moves. Nodes
+ * without a position are within range of every other node. Receivers read
+ * their cached neighbors without locking; adding, moving and recomputing
+ * neighbors synchronize on the index.
+ */
+final class SpatialIndex
+{
+
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final Transmitter[] NONE = {};
+
+    private static final class Entry
+    {
+        final TXRX node;
+        final Position pos;
+        long cell;
+        volatile Transmitter[] neighbors;
+
+
+        Entry(TXRX node, Position pos)
+        {
+            this.node = node;
+            this.pos = pos;
+        }
+    }
+
+    private final Medium.SpatialArbitrator arbitrator;
+    private final double rangeSq;
+    private final double cellSize;
+    private final Map<TXRX, Entry> entries = new ConcurrentHashMap<TXRX, Entry>();
+    private final Map<Position, List<Entry>> located = new HashMap<Position, List<Entry>>();
+    private final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+    private final List<Entry> unplaced = new ArrayList<Entry>();
+    private final List<Transmitter> transmitters = new ArrayList<Transmitter>();
+    private volatile Transmitter[] all;
+
+
+    SpatialIndex(Medium.SpatialArbitrator arb)
+    {
+        arbitrator = arb;
+        double range = arb.getRange();
+        rangeSq = range * range;
+        cellSize = range > 0 ? range : 1;
+    }
+
+
+    /**
+     * The <code>add()</code> method adds a transmitter or receiver to the
+     * index, if it is not known yet, at the position given by the arbitrator.
+     *
+     * @param node the transmitter or receiver to add
+     */
+    void add(TXRX node)
+    {
+        if (!entries.containsKey(node))
+            put(node);
+    }
+
+
+    private synchronized void put(TXRX node)
+    {
+        if (entries.containsKey(node))
+            return;
+        Entry e = new Entry(node, arbitrator.getPosition(node));
+        entries.put(node, e);
+        if (node instanceof Transmitter)
+        {
+            transmitters.add((Transmitter) node);
+            all = null;
+        }
+        if (e.pos == null)
+        {
+            unplaced.add(e);
+            if (node instanceof Transmitter)
+                invalidateAll();
+        } else
+        {
+            e.cell = cellOf(e.pos);
+            cell(e.cell).add(e);
+            List<Entry> l = located.get(e.pos);
+            if (l == null)
+            {
+                l = new ArrayList<Entry>(2);
+                located.put(e.pos, l);
+            }
+            l.add(e);
+            if (node instanceof Transmitter)
+                invalidateAround(e.cell);
+        }
+    }
+
+
+    /**
+     * The <code>getNeighbors()</code> method returns the transmitters within
+     * range of the specified receiver. The returned array must not be
+     * modified.
+     *
+     * @param r the receiver
+     * @return an array of the transmitters that can reach the receiver
+     */
+    Transmitter[] getNeighbors(Receiver r)
+    {
+        Entry e = entries.get(r);
+        if (e == null)
+        {
+            put(r);
+            e = entries.get(r);
+        }
+        if (e.pos == null)
+        {
+            Transmitter[] a = all;
+            return a != null ? a : getAll();
+        }
+        Transmitter[] n = e.neighbors;
+        return n != null ? n : getNeighbors(e);
+    }
+
+
+    private synchronized Transmitter[] getNeighbors(Entry e)
+    {
+        if (e.neighbors == null)
+            e.neighbors = computeNeighbors(e);
+        return e.neighbors;
+    }
+
+
+    /**
+     * The <code>moved()</code> method updates the index after the specified
+     * position has changed. The nodes at that position move to their new
+     * cell and the cached neighbors of the receivers near the old and the
+     * new position are discarded.
+     *
+     * @param p the position that changed
+     */
+    synchronized void moved(Position p)
+    {
+        List<Entry> l = located.get(p);
+        if (l == null)
+            return;
+        for (Entry e : l)
+        {
+            long cell = cellOf(p);
+            invalidateAround(e.cell);
+            if (cell != e.cell)
+            {
+                cell(e.cell).remove(e);
+                cell(cell).add(e);
+                e.cell = cell;
+            }
+            invalidateAround(cell);
+            e.neighbors = null;
+        }
+    }
+
+
+    private synchronized Transmitter[] getAll()
+    {
+        if (all == null)
+            all = transmitters.toArray(NONE);
+        return all;
+    }
+
+
+    private Transmitter[] computeNeighbors(Entry r)
+    {
+        List<Transmitter> list = new ArrayList<Transmitter>();
+        long x = r.cell >> 2 * BITS & MASK;
+        long y = r.cell >> BITS & MASK;
+        long z = r.cell & MASK;
+        for (long dx = -1; dx <= 1; dx++)
+            for (long dy = -1; dy <= 1; dy++)
+                for (long dz = -1; dz <= 1; dz++)
+                {
+                    List<Entry> c = cells.get(key(x + dx, y + dy, z + dz));
+                    if (c == null)
+                        continue;
+                    for (Entry e : c)
+                    {
+                        if (e.node instanceof Transmitter
+                                && distanceSq(e.pos, r.pos) <= rangeSq)
+                            list.add((Transmitter) e.node);
+                    }
+                }
+        for (Entry e : unplaced)
+        {
+            if (e.node instanceof Transmitter)
+                list.add((Transmitter) e.node);
+        }
+        return list.toArray(NONE);
+    }
+
+
+    private void invalidateAll()
+    {
+        for (Entry e : entries.values())
+            e.neighbors = null;
+    }
+
+
+    private void invalidateAround(long cell)
+    {
+        long x = cell >> 2 * BITS & MASK;
+        long y = cell >> BITS & MASK;
+        long z = cell & MASK;
+        for (long dx = -1; dx <= 1; dx++)
+            for (long dy = -1; dy <= 1; dy++)
+                for (long dz = -1; dz <= 1; dz++)
+                {
+                    List<Entry> c = cells.get(key(x + dx, y + dy, z + dz));
+                    if (c == null)
+                        continue;
+                    for (Entry e : c)
+                        e.neighbors = null;
+                }
+    }
+
+
+    private List<Entry> cell(long key)
+    {
+        List<Entry> c = cells.get(key);
+        if (c == null)
+        {
+            c = new ArrayList<Entry>();
+            cells.put(key, c);
+        }
+        return c;
+    }
+
+
+    private long cellOf(Position p)
+    {
+        return key((long) Math.floor(p.x / cellSize),
+                (long) Math.floor(p.y / cellSize),
+                (long) Math.floor(p.z / cellSize));
+    }
+
+
+    private static long key(long x, long y, long z)
+    {
+        return (x & MASK) << 2 * BITS | (y & MASK) << BITS | z & MASK;
+    }
+
+
+    private static double distanceSq(Position a, Position b)
+    {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        double dz = a.z - b.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -37,6 +37,7 @@
 package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.cck.help.HelpCategory;
@@ -75,9 +76,19 @@ public abstract class Topology extends HelpCategory
         }
     }
 
+    /**
+     * The <code>Topology.Listener</code> interface is notified whenever the
+     * position of a node changes during the simulation.
+     */
+    public interface Listener
+    {
+        void moved(Position p);
+    }
+
     // structure of the node positions
     protected final ArrayList<Position> positions;
     protected final ArrayList<Simulation.Node> nodes;
+    protected final List<Listener> listeners;
 
 
     /**
@@ -99,6 +110,7 @@ public abstract class Topology extends HelpCategory
 
         positions = new ArrayList<Position>();
         nodes = new ArrayList<Simulation.Node>();
+        listeners = new ArrayList<Listener>();
     }
 
 
@@ -114,6 +126,25 @@ public abstract class Topology extends HelpCategory
     }
 
 
+    public void addListener(Listener l)
+    {
+        listeners.add(l);
+    }
+
+
+    /**
+     * The <code>fireMoved()</code> method notifies the listeners that the
+     * specified position has been changed.
+     *
+     * @param p the position that changed
+     */
+    protected void fireMoved(Position p)
+    {
+        for (Listener l : listeners)
+            l.moved(p);
+    }
+
+
     public void processOptions(Options o)
     {
         options.process(o);
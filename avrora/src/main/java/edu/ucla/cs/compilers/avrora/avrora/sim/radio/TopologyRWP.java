@@ -36,7 +36,6 @@ package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
 
 import java.util.Random;
 
-import edu.ucla.cs.compilers.avrora.avrora.Defaults;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
@@ -80,9 +79,6 @@ public class TopologyRWP extends TopologyStatic
     private double minX, maxX, minY, maxY, minZ, maxZ, minVelocity, maxVelocity,
             maxWait, granularity;
 
-    private static Random rand = Defaults.getSimulation("sensor-network")
-            .getRandom();
-
 
 //    /**
 //     * @param o
@@ -109,10 +105,13 @@ public class TopologyRWP extends TopologyStatic
         protected long eventCycles;
         private long allCycles;
         private boolean wasWaiting;
+        // the mobility stream of the node, used on the thread of the node
+        private final Random rand;
 
 
-        public NodeMover(Simulation.Node n, Position p)
+        public NodeMover(Simulation.Node n, Position p, Random r)
         {
+            rand = r;
             clock = n.getSimulator().getClock();
             nodepos = p;
             wasWaiting = false;
@@ -191,6 +190,7 @@ public class TopologyRWP extends TopologyStatic
                 nodepos.x = newX;
                 nodepos.y = newY;
                 nodepos.z = newZ;
+                fireMoved(nodepos);
                 // set new position
                 setNewPosition();
                 // check if we may wait
@@ -213,6 +213,7 @@ public class TopologyRWP extends TopologyStatic
                 nodepos.x += dirX;
                 nodepos.y += dirY;
                 nodepos.z += dirZ;
+                fireMoved(nodepos);
                 if (allCycles < eventCycles)
                 {
                     eventCycles = allCycles;
@@ -232,6 +233,8 @@ public class TopologyRWP extends TopologyStatic
     public void addNode(Simulation.Node node)
     {
         super.addNode(node);
+        Random rand = node.getSimulator().getSimulation()
+                .getRandomStream(node.id, "mobility");
 
         // add a position if it is not known
         if (nodes.size() > positions.size())
@@ -247,7 +250,8 @@ public class TopologyRWP extends TopologyStatic
         {
             if (mobileNodeIds[i] == nodenr)
             {
-                NodeMover nm = new NodeMover(node, positions.get(nodenr));
+                NodeMover nm = new NodeMover(node, positions.get(nodenr),
+                        rand);
                 node.getSimulator().getClock().insertEvent(nm, nm.eventCycles);
                 break;
             }
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Medium.Transmission;
+
+/**
+ * The <code>TransmissionLog</code> class is an append-only list of
+ * transmissions in the order in which they began. Transmitters append to it
+ * and receivers read it concurrently without locking. A transmission is
+ * retired once its last bit lies before the retirement horizon of the medium;
+ * retired transmissions at the front of the log are unlinked by moving its
+ * head, so that entries are never removed from the middle of a scan.
+ */
+final class TransmissionLog
+{
+
+    /**
+     * The <code>TransmissionLog.Entry</code> class links one transmission to
+     * the next one in the log.
+     */
+    static final class Entry
+    {
+        final Transmission transmission;
+        volatile Entry next;
+
+
+        Entry(Transmission t)
+        {
+            transmission = t;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<Entry, Entry> NEXT = AtomicReferenceFieldUpdater
+            .newUpdater(Entry.class, Entry.class, "next");
+
+    // the head is a sentinel whose transmission has been retired
+    private final AtomicReference<Entry> head;
+    private final AtomicReference<Entry> tail;
+
+
+    TransmissionLog()
+    {
+        Entry sentinel = new Entry(null);
+        head = new AtomicReference<Entry>(sentinel);
+        tail = new AtomicReference<Entry>(sentinel);
+    }
+
+
+    /**
+     * The <code>first()</code> method returns the first entry of the log that
+     * has not been unlinked yet. It may contain retired transmissions, which
+     * the caller has to skip.
+     *
+     * @return the first entry of the log, or <code>null</code> if it is empty
+     */
+    Entry first()
+    {
+        return head.get().next;
+    }
+
+
+    /**
+     * The <code>append()</code> method adds a new transmission at the end of
+     * the log.
+     *
+     * @param t the transmission to append
+     */
+    void append(Transmission t)
+    {
+        Entry e = new Entry(t);
+        while (true)
+        {
+            Entry last = tail.get();
+            Entry next = last.next;
+            if (next == null)
+            {
+                if (NEXT.compareAndSet(last, null, e))
+                {
+                    tail.compareAndSet(last, e);
+                    return;
+                }
+            } else
+            {
+                // another transmitter appended but did not move the tail yet
+                tail.compareAndSet(last, next);
+            }
+        }
+    }
+
+
+    /**
+     * The <code>clear()</code> method removes all transmissions from the log.
+     * It must not be called while the simulation is running.
+     */
+    void clear()
+    {
+        Entry sentinel = new Entry(null);
+        head.set(sentinel);
+        tail.set(sentinel);
+    }
+
+
+    /**
+     * The <code>retire()</code> method unlinks the transmissions at the front
+     * of the log that ended before the specified bit.
+     *
+     * @param horizon the retirement horizon in bits
+     */
+    void retire(long horizon)
+    {
+        Entry h = head.get();
+        Entry last = h;
+        for (Entry e = h.next; e != null && e.transmission.lastBit < horizon; e = e.next)
+            last = e;
+        if (last != h)
+            head.compareAndSet(h, last);
+    }
+}
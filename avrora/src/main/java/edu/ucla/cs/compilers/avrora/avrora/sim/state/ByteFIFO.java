@@ -33,6 +33,9 @@
  */
 package edu.ucla.cs.compilers.avrora.avrora.sim.state;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -289,6 +292,49 @@ public class ByteFIFO
     }
 
 
+    /**
+     * The <code>writeTo()</code> method writes the complete state of this FIFO,
+     * including the position saved by <code>saveState()</code> and the sticky
+     * flags, to a checkpoint.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.write(data);
+        out.writeInt(head);
+        out.writeInt(used);
+        out.writeInt(save_head);
+        out.writeInt(save_used);
+        out.writeBoolean(underflow);
+        out.writeBoolean(overflow);
+    }
+
+
+    /**
+     * The <code>readFrom()</code> method restores the state of this FIFO from
+     * a checkpoint written by <code>writeTo()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    public void readFrom(DataInput in) throws IOException
+    {
+        in.readFully(data);
+        head = in.readInt();
+        used = in.readInt();
+        save_head = in.readInt();
+        save_used = in.readInt();
+        underflow = in.readBoolean();
+        overflow = in.readBoolean();
+    }
+
+
     private int wrap(int i)
     {
         if (i >= data.length)
@@ -41,8 +41,15 @@ public class Complex
     // Absolute value (modulus) of a complex number
     public static double abs(Complex a)
     {
-        double rmod = Math.abs(a.real);
-        double imod = Math.abs(a.imag);
+        return abs(a.real, a.imag);
+    }
+
+
+    // Absolute value of the complex number with the given parts
+    public static double abs(double real, double imag)
+    {
+        double rmod = Math.abs(real);
+        double imod = Math.abs(imag);
         double ratio = 0.0D;
         double res = 0.0D;
 
@@ -57,11 +64,11 @@ public class Complex
             }
             if (rmod >= imod)
             {
-                ratio = a.imag / a.real;
+                ratio = imag / real;
                 res = rmod * Math.sqrt(1.0D + ratio * ratio);
             } else
             {
-                ratio = a.real / a.imag;
+                ratio = real / imag;
                 res = imod * Math.sqrt(1.0D + ratio * ratio);
             }
         }
@@ -36,7 +36,9 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
 import edu.ucla.cs.compilers.avrora.avrora.Defaults;
 import edu.ucla.cs.compilers.avrora.avrora.Main;
@@ -46,6 +48,7 @@ import edu.ucla.cs.compilers.avrora.avrora.core.SourceMapping;
 import edu.ucla.cs.compilers.avrora.avrora.sim.AtmelInterpreter;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.avrora.sim.SimulatorThread;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.ParallelSynchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.clock.RippleSynchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.Platform;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.PlatformFactory;
@@ -56,10 +59,10 @@ import edu.ucla.cs.compilers.avrora.avrora.sim.radio.CC1000Radio;
 import edu.ucla.cs.compilers.avrora.avrora.sim.radio.CC2420Radio;
 import edu.ucla.cs.compilers.avrora.avrora.sim.radio.LossyModel;
 import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Medium;
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.NoiseTrace;
 import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Radio;
 import edu.ucla.cs.compilers.avrora.avrora.sim.radio.RadiusModel;
 import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Topology;
-import edu.ucla.cs.compilers.avrora.avrora.sim.radio.noise;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.util.Arithmetic;
 import edu.ucla.cs.compilers.avrora.cck.util.Option;
@@ -99,7 +102,9 @@ public class SensorSimulation extends Simulation
     public final Option.Str NOISE = newOption("Noise", "",
             "This option can be used to specify the name of "
                     + "a file that contains a Noise time trace. When this option is specified"
-                    + "the indoor radio model will be used to model radio propagation.");
+                    + "the indoor radio model will be used to model radio propagation. "
+                    + "The file is either text with one value in dBm per line, or a binary "
+                    + "trace, which is mapped into memory.");
     public final Option.Double RANGE = newOption("radio-range", 15.0,
             "This option, when used in conjunction with the -topology option, specifies "
                     + "the maximum range for radio communication between nodes. This simple "
@@ -136,6 +141,25 @@ public class SensorSimulation extends Simulation
                     + "a node, the simulator will search for these labels, and if found, will update the word "
                     + "in flash with the node's ID number.");
 
+    public final Option.Str SYNCHRONIZER = newOption("synchronizer", "ripple",
+            "This option selects the strategy used to keep the nodes of the simulation "
+                    + "synchronized in simulated time. The \"ripple\" synchronizer runs each node "
+                    + "in its own thread and blocks a node only when it must wait for its neighbors. "
+                    + "The \"parallel\" synchronizer multiplexes all nodes onto a fixed pool of "
+                    + "worker threads that advance together through windows of simulated time no "
+                    + "longer than the time needed to transmit one byte over the radio. "
+                    + "The \"adaptive\" synchronizer works like the ripple synchronizer, but lets "
+                    + "the nodes drift apart by up to the idle period while no radio is turned on "
+                    + "and keeps them within one byte time of each other while any radio is on.");
+    public final Option.Long IDLE_PERIOD = newOption("idle-period", 1000000,
+            "This option specifies the number of clock cycles that nodes may drift apart "
+                    + "from each other in the \"adaptive\" synchronizer while all of the radios "
+                    + "in the simulation are turned off.");
+    public final Option.Long THREADS = newOption("threads", 0,
+            "This option specifies the number of worker threads used by the \"parallel\" "
+                    + "synchronizer. When this option is set to zero, one worker thread is created "
+                    + "for each available processor.");
+
     class SensorDataInput
     {
         String sensor;
@@ -154,7 +178,9 @@ public class SensorSimulation extends Simulation
                             "sensor dvice does not exist");
                 }
                 if (".".equals(fname))
-                    s.setSensorData(new RandomSensorData(getRandom()));
+                    s.setSensorData(new RandomSensorData(getRandomStream(
+                            p.getMicrocontroller().getSimulator().getID(),
+                            sensor + "-sensor")));
                 else
                     s.setSensorData(new ReplaySensorData(p.getMicrocontroller(),
                             fname));
@@ -232,6 +258,11 @@ public class SensorSimulation extends Simulation
                 this.radio = radio;
                 radio.setMedium(createCC1000Medium());
             }
+            if (parallel != null && radio != null)
+            {
+                // a node cannot influence its neighbors faster than one byte
+                parallel.constrainLookahead(radio.getReceiver().cyclesPerByte);
+            }
             simulator.delay(startup);
             if (topology != null)
             {
@@ -252,8 +283,8 @@ public class SensorSimulation extends Simulation
                             .createMedium(synchronizer, lossyModel);
                 } else
                 {
-                    return cc2420_medium = CC2420Radio
-                            .createMedium(synchronizer, radiusModel);
+                    return cc2420_medium = track(CC2420Radio
+                            .createMedium(synchronizer, radiusModel));
                 }
             }
             return cc2420_medium;
@@ -271,24 +302,37 @@ public class SensorSimulation extends Simulation
                             .createMedium(synchronizer, lossyModel);
                 } else
                 {
-                    return cc1000_medium = CC1000Radio
-                            .createMedium(synchronizer, radiusModel);
+                    return cc1000_medium = track(CC1000Radio
+                            .createMedium(synchronizer, radiusModel));
                 }
             }
             return cc1000_medium;
         }
 
 
+        private Medium track(Medium m)
+        {
+            // the medium indexes the nodes by position, so it must know when
+            // they move
+            if (topology != null)
+                topology.addListener(m);
+            return m;
+        }
+
+
         private void createRadioModel()
         {
             if (topology != null)
             {
                 if (LOSSY_MODEL.get())
                 {
-                    lossyModel = new LossyModel();
+                    lossyModel = new LossyModel(noise,
+                            SensorSimulation.this);
+                    topology.addListener(lossyModel);
                 } else
                 {
                     radiusModel = new RadiusModel(1.0, RANGE.get());
+                    topology.addListener(radiusModel);
                 }
             }
         }
@@ -361,11 +405,12 @@ public class SensorSimulation extends Simulation
     }
 
     Topology topology;
-    noise noise;
+    NoiseTrace noise;
     LossyModel lossyModel;
     RadiusModel radiusModel;
     Medium cc2420_medium;
     Medium cc1000_medium;
+    ParallelSynchronizer parallel;
     long stagger;
 
 
@@ -410,6 +455,25 @@ public class SensorSimulation extends Simulation
     }
 
 
+    /**
+     * The <code>getSharedParts()</code> method returns the radio media shared
+     * by the nodes of this simulation, so that the transmissions that are in
+     * the air when a checkpoint is taken are saved with it.
+     *
+     * @return a map from the names of the radio media to the media
+     */
+    @Override
+    protected Map<String, Object> getSharedParts()
+    {
+        Map<String, Object> parts = new TreeMap<String, Object>();
+        if (cc1000_medium != null)
+            parts.put("cc1000", cc1000_medium);
+        if (cc2420_medium != null)
+            parts.put("cc2420", cc2420_medium);
+        return parts;
+    }
+
+
     /**
      * The <code>process()</code> method processes options and arguments from
      * the command line. In this implementation, this method accepts multiple
@@ -436,7 +500,7 @@ public class SensorSimulation extends Simulation
         PlatformFactory pf = getPlatform();
 
         // build the synchronizer
-        synchronizer = new RippleSynchronizer(100000, null);
+        createSynchronizer();
 
         // create the topology
         processTopology();
@@ -452,6 +516,27 @@ public class SensorSimulation extends Simulation
     }
 
 
+    private void createSynchronizer()
+    {
+        String name = SYNCHRONIZER.get();
+        if ("ripple".equals(name))
+        {
+            synchronizer = new RippleSynchronizer(100000, null);
+        } else if ("adaptive".equals(name))
+        {
+            synchronizer = new RippleSynchronizer(100000,
+                    Math.max(100000, IDLE_PERIOD.get()), null);
+        } else if ("parallel".equals(name))
+        {
+            synchronizer = parallel = new ParallelSynchronizer(100000,
+                    (int) THREADS.get());
+        } else
+        {
+            Util.userError("Unknown synchronizer", name);
+        }
+    }
+
+
     private void createNodes(String[] args, PlatformFactory pf) throws Exception
     {
         Iterator<String> i = NODECOUNT.get().iterator();
@@ -478,10 +563,10 @@ public class SensorSimulation extends Simulation
     {
         if (noise == null && !NOISE.isBlank())
         {
-            noise = new noise(NOISE.get());
+            noise = NoiseTrace.load(NOISE.get());
         } else if (noise == null && NOISE.isBlank())
         {
-            noise = new noise();
+            noise = NoiseTrace.DEFAULT;
         }
     }
 
@@ -28,6 +28,7 @@ import edu.ucla.cs.compilers.avrora.avrora.Main;
 import edu.ucla.cs.compilers.avrora.avrora.core.LoadableProgram;
 import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
 import edu.ucla.cs.compilers.avrora.avrora.sim.SimulatorThread;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.ClusterSynchronizer;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.PinConnect;
 import edu.ucla.cs.compilers.avrora.avrora.sim.platform.PlatformFactory;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
@@ -65,14 +66,26 @@ public class WiredSimulation extends Simulation {
             "cycle-level " + "synchronization between nodes. The starting times are staggered by the specified number" +
             " " + "of clock cycles. For example, if this option is given the " + "value X, then node 0 will start at " +
             "time 0, node 1 at time 1*X, node 2 at " + "time 2*X, etc.");
+    public final Option.Str SYNCHRONIZER = newOption("synchronizer", "step", "This option selects the " +
+            "strategy used to run the nodes and propagate the signals on the wires. The \"step\" synchronizer runs " +
+            "all nodes in lockstep on a single thread and propagates the signals on all wires after every clock " +
+            "cycle, so that a change arrives at the receiving node about one cycle later. The \"cluster\" " +
+            "synchronizer delivers each change of a wire to the receiving node as an event after the propagation " +
+            "delay of the wire (about 10 cycles), and runs each group of nodes that are connected by wires on its " +
+            "own worker thread, which is much faster for large simulations.");
+    public final Option.Long THREADS = newOption("threads", 0, "This option specifies the number of worker " +
+            "threads used by the \"cluster\" synchronizer. When this option is set to zero, one worker thread is " +
+            "created for each available processor.");
     long stagger;
+    // synchronizer that runs the clusters of connected nodes, if selected
+    ClusterSynchronizer clusters;
     // class that connects all the nodes together via wire interconnect
     PinConnect pinConnect;
 
     public WiredSimulation() {
         super("wired", HELP, null);
 
-        pinConnect = PinConnect.pinConnect;
+        pinConnect = PinConnect.reset();
         synchronizer = pinConnect.synchronizer;
 
         addSection("WIRED SIMULATION OVERVIEW", help);
@@ -126,6 +139,9 @@ public class WiredSimulation extends Simulation {
         Main.checkFilesExist(args);
         PlatformFactory pf = getPlatform();
 
+        // build the synchronizer
+        createSynchronizer();
+
         // create the nodes based on arguments
         createNodes(args, pf);
     }
@@ -135,6 +151,18 @@ public class WiredSimulation extends Simulation {
         super.instantiateNodes();
 
         pinConnect.initializeConnections();
+        if (clusters != null) pinConnect.propagateByEvents(clusters);
+    }
+
+    private void createSynchronizer() {
+        String name = SYNCHRONIZER.get();
+        if ("cluster".equals(name)) {
+            synchronizer = clusters = new ClusterSynchronizer(Long.MAX_VALUE, (int) THREADS.get());
+        } else if ("step".equals(name)) {
+            synchronizer = pinConnect.synchronizer;
+        } else {
+            Util.userError("Unknown synchronizer", name);
+        }
     }
 
     private void createNodes(String[] args, PlatformFactory pf) throws Exception {
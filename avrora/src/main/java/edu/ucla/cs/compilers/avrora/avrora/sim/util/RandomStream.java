@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.avrora.sim.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Checkpointable;
+
+/**
+ * The <code>RandomStream</code> class is a random number generator for use by
+ * a single thread, such as the thread of one node. It extends
+ * <code>java.util.Random</code> so that it can be passed wherever a generator
+ * is expected, but draws its numbers with the algorithm of
+ * <code>SplittableRandom</code>, which needs neither atomic updates nor locks
+ * and does not allocate. The algorithm is implemented here, producing the same
+ * numbers as <code>SplittableRandom</code>, so that the state of a stream can
+ * be saved in a checkpoint.
+ *
+ * <p>
+ * Streams are usually created with the <code>getRandomStream()</code> method
+ * of the simulation, which derives the seed of each stream from the random
+ * seed of the simulation, the ID of the node and the name of the stream. The
+ * numbers a node draws therefore do not depend on the order in which the
+ * threads of the simulation happen to run.
+ */
+public class RandomStream extends Random implements Checkpointable
+{
+
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+    private double nextGaussian;
+    private boolean haveNextGaussian;
+
+
+    public RandomStream(long seed)
+    {
+        super(seed);
+        state = seed;
+    }
+
+
+    /**
+     * The <code>seed()</code> method derives the seed of a stream from a base
+     * seed, the ID of a node, and the name of the stream. Different inputs
+     * give statistically independent seeds.
+     *
+     * @param base
+     *            the base seed of the simulation
+     * @param node
+     *            the ID of the node, or -1 for streams not tied to a node
+     * @param name
+     *            the name of the stream, e.g. the name of a device
+     * @return the seed for the stream
+     */
+    public static long seed(long base, int node, String name)
+    {
+        long z = mix(base + (node + 1) * GOLDEN_GAMMA);
+        return mix(z ^ name.hashCode());
+    }
+
+
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+
+    private static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+
+    private static int mix32(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+
+    private long nextSeed()
+    {
+        return state += GOLDEN_GAMMA;
+    }
+
+
+    @Override
+    public void setSeed(long seed)
+    {
+        state = seed;
+        haveNextGaussian = false;
+    }
+
+
+    @Override
+    protected int next(int bits)
+    {
+        return mix32(nextSeed()) >>> (32 - bits);
+    }
+
+
+    @Override
+    public int nextInt()
+    {
+        return mix32(nextSeed());
+    }
+
+
+    @Override
+    public int nextInt(int bound)
+    {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        int r = mix32(nextSeed());
+        int m = bound - 1;
+        if ((bound & m) == 0)
+            // the bound is a power of two
+            return r & m;
+        // reject the values that would make the result biased
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1)
+            ;
+        return r;
+    }
+
+
+    @Override
+    public long nextLong()
+    {
+        return mix64(nextSeed());
+    }
+
+
+    @Override
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+
+    @Override
+    public boolean nextBoolean()
+    {
+        return mix32(nextSeed()) < 0;
+    }
+
+
+    @Override
+    public float nextFloat()
+    {
+        return (nextInt() >>> 8) * 0x1.0p-24f;
+    }
+
+
+    /**
+     * The <code>nextGaussian()</code> method returns a normally distributed
+     * value with mean 0 and standard deviation 1, computed with the polar
+     * method like <code>java.util.Random</code>, but without synchronization.
+     *
+     * @return the next value from the standard normal distribution
+     */
+    @Override
+    public double nextGaussian()
+    {
+        if (haveNextGaussian)
+        {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+        double v1, v2, s;
+        do
+        {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        nextGaussian = v2 * multiplier;
+        haveNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+
+    /**
+     * The <code>saveState()</code> method writes the state of this stream, so
+     * that a restored stream continues with the same numbers.
+     *
+     * @param out
+     *            the output to write the state to
+     * @throws IOException
+     *             if the underlying output fails
+     */
+    @Override
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeLong(state);
+        out.writeBoolean(haveNextGaussian);
+        out.writeDouble(nextGaussian);
+    }
+
+
+    /**
+     * The <code>restoreState()</code> method restores the state written by
+     * <code>saveState()</code>.
+     *
+     * @param in
+     *            the input to read the state from
+     * @throws IOException
+     *             if the underlying input fails
+     */
+    @Override
+    public void restoreState(DataInput in) throws IOException
+    {
+        state = in.readLong();
+        haveNextGaussian = in.readBoolean();
+        nextGaussian = in.readDouble();
+    }
+}
@@ -75,6 +75,27 @@ public class SimUtil
 
 
     private static void toIDTimeString(StringBuffer buf, int id, Clock clk)
+    {
+        toIDTimeString(buf, id, clk.getCount(), clk.getHZ());
+    }
+
+
+    /**
+     * The <code>toIDTimeString()</code> method appends the node ID and the
+     * given time to the buffer, in the same format used for the current time
+     * of a simulator. This is used to format output that was recorded earlier.
+     *
+     * @param buf
+     *            the buffer to append to
+     * @param id
+     *            the ID of the node
+     * @param count
+     *            the time in clock cycles
+     * @param hz
+     *            the frequency of the clock
+     */
+    public static void toIDTimeString(StringBuffer buf, int id, long count,
+            long hz)
     {
         boolean R = true;
         StringUtil.justify(R, buf, id, ID_LENGTH);
@@ -83,8 +104,6 @@ public class SimUtil
         if (REPORT_SECONDS)
         {
             StringBuffer buf2 = new StringBuffer(TIME_LENGTH + 1);
-            long hz = clk.getHZ();
-            long count = clk.getCount();
             long seconds = count / hz;
             long fract = count % hz;
             double f = (double) fract / hz;
@@ -93,7 +112,7 @@ public class SimUtil
             StringUtil.justify(R, buf, buf2.toString(), TIME_LENGTH);
         } else
         {
-            StringUtil.justify(R, buf, clk.getCount(), TIME_LENGTH);
+            StringUtil.justify(R, buf, count, TIME_LENGTH);
         }
         buf.append("  ");
     }
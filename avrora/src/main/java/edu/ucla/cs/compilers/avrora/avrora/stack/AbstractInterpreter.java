@@ -53,7 +53,7 @@ public class AbstractInterpreter extends AbstractArithmetic implements LegacyIns
 
     protected final AnalyzerPolicy policy;
     protected final Program program;
-    protected StateCache.State oldState;
+    protected AbstractState oldState;
     protected MutableState state;
 
     AbstractInterpreter(Program pr, AnalyzerPolicy p) {
@@ -68,9 +68,10 @@ public class AbstractInterpreter extends AbstractArithmetic implements LegacyIns
      * constructor to this interpreter instance.
      *
      * @param os
-     *            the immutable old state to compute the next state from
+     *            the old state to compute the next state from; it is not
+     *            modified
      */
-    public void computeNextStates(StateCache.State os) {
+    public void computeNextStates(AbstractState os) {
         oldState = os;
         state = oldState.copy();
 
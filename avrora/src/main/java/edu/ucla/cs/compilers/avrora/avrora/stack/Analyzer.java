@@ -32,14 +32,14 @@
 
 package edu.ucla.cs.compilers.avrora.avrora.stack;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
 
 import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyInstr;
 import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyRegister;
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
-import edu.ucla.cs.compilers.avrora.avrora.stack.StateCache.State;
 import edu.ucla.cs.compilers.avrora.avrora.stack.isea.ISEAnalyzer;
 import edu.ucla.cs.compilers.avrora.avrora.stack.isea.ISEState;
 import edu.ucla.cs.compilers.avrora.avrora.stack.isea.ISEValue;
@@ -67,12 +67,14 @@ public class Analyzer
     public static boolean TRACE_SUMMARY;
     public static boolean USE_ISEA;
     public static boolean SHOW_PATH;
+    public static int THREADS = 1;
 
     protected final Verbose.Printer printer = Verbose
             .getVerbosePrinter("analyzer.stack");
 
     protected final Program program;
     protected final StateTransitionGraph graph;
+    protected final StateCache cache;
     final ContextSensitivePolicy policy;
     final AbstractInterpreter interpreter;
     protected int retCount;
@@ -80,13 +82,21 @@ public class Analyzer
     protected int newRetCount;
     protected int newEdgeCount;
 
-    protected StateTransitionGraph.StateList newReturnStates;
-    protected StateTransitionGraph.EdgeList newEdges;
+    // the return states and edges that remain to be propagated, as stacks
+    protected int[] newReturnStates = new int[16];
+    protected int[] newEdges = new int[16];
+
+    // the mark of the current propagation, and its traversal stack
+    private int mark;
+    private int[] stackStates = new int[64];
+    private int[] stackEdges = new int[64];
 
     long buildTime;
     long traverseTime;
     boolean unbounded;
-    Path maximalPath;
+    // the edges of the path to the maximum stack depth and that depth
+    int[] maximalPath;
+    int maximalDepth;
     ISEAnalyzer isea;
 
     public static final int NORMAL_EDGE = 0;
@@ -116,6 +126,7 @@ public class Analyzer
     {
         program = p;
         graph = new StateTransitionGraph(p);
+        cache = graph.getStateCache();
         policy = new ContextSensitivePolicy();
         interpreter = new AbstractInterpreter(program, policy);
         if (USE_ISEA)
@@ -191,13 +202,12 @@ public class Analyzer
 
     private void analyzeAggregationPoints()
     {
-        Iterator<State> i = graph.getStateCache().getStateIterator();
+        int count = (int) cache.getTotalStateCount();
         Distribution sizeDist = new Distribution("Set Size Statistics",
                 "Number of sets", "Aggregate size", "Distribution of Set Size");
-        while (i.hasNext())
+        for (int state = 0; state < count; state++)
         {
-            StateCache.State state = i.next();
-            StateCache.Set stateSet = state.info.stateSet;
+            StateCache.Set stateSet = graph.getStateSet(state);
             int size = stateSet == null ? 0 : stateSet.size();
             sizeDist.record(size);
         }
@@ -208,14 +218,13 @@ public class Analyzer
 
     private void analyzeStates()
     {
-        Iterator<State> i = graph.getStateCache().getStateIterator();
+        int count = (int) cache.getTotalStateCount();
         Distribution pcDist = new Distribution(
                 "Distribution of program states over PC",
                 "Number of unique instructions", null, "Distribution");
-        while (i.hasNext())
+        for (int state = 0; state < count; state++)
         {
-            StateCache.State s = i.next();
-            pcDist.record(s.getPC());
+            pcDist.record(cache.getPC(state));
 
         }
         pcDist.process();
@@ -327,17 +336,24 @@ public class Analyzer
      */
     protected void buildReachableStateSpace()
     {
-        StateCache.State s = graph.getNextFrontierState();
+        // tracing prints the states in the order they are explored
+        if (THREADS > 1 && !TRACE)
+        {
+            buildReachableStateSpaceInParallel();
+            return;
+        }
+
+        int s = graph.getNextFrontierState();
 
         while (true)
         {
-            if (s != null)
+            if (s != StateTransitionGraph.NO_STATE)
             {
                 processFrontierState(s);
-            } else if (newReturnStates != null)
+            } else if (newRetCount > 0)
             {
                 processNewReturns();
-            } else if (newEdges != null)
+            } else if (newEdgeCount > 0)
             {
                 processNewEdges();
             } else
@@ -349,6 +365,154 @@ public class Analyzer
     }
 
 
+    /**
+     * The <code>buildReachableStateSpaceInParallel()</code> method builds the
+     * same state space as <code>buildReachableStateSpace()</code>, but
+     * explores the frontier states with a pool of worker threads. New states
+     * found by a worker are explored by the same worker unless another, idle
+     * worker steals them. The propagation of return states to callers is done
+     * by this thread once all workers have finished, exactly as in the
+     * sequential analysis; since the state space is the fixpoint of both
+     * phases, it does not depend on the order in which states are explored.
+     */
+    protected void buildReachableStateSpaceInParallel()
+    {
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try
+        {
+            while (true)
+            {
+                int[] frontier = graph.takeFrontierList();
+                if (frontier != null)
+                {
+                    pool.invoke(new FrontierTask(frontier));
+                } else if (newRetCount > 0)
+                {
+                    processNewReturns();
+                } else if (newEdgeCount > 0)
+                {
+                    processNewEdges();
+                } else
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The <code>FrontierTask</code> class starts the parallel exploration of
+     * the states on the frontier list. It completes when all states reachable
+     * from them (without propagating return states) have been explored.
+     */
+    private class FrontierTask extends CountedCompleter<Void>
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int[] frontier;
+
+
+        FrontierTask(int[] l)
+        {
+            frontier = l;
+        }
+
+
+        @Override
+        public void compute()
+        {
+            for (int state : frontier)
+            {
+                addToPendingCount(1);
+                new ExploreTask(this, state).fork();
+            }
+            tryComplete();
+        }
+    }
+
+    /**
+     * The <code>ExploreTask</code> class explores a single state and forks a
+     * new task for each new state that it finds.
+     */
+    private class ExploreTask extends CountedCompleter<Void>
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int state;
+
+
+        ExploreTask(CountedCompleter<?> parent, int s)
+        {
+            super(parent);
+            state = s;
+        }
+
+
+        @Override
+        public void compute()
+        {
+            Explorer explorer = explorers.get();
+            explorer.explore(state);
+            for (int cntr = 0; cntr < explorer.discoveredCount; cntr++)
+            {
+                addToPendingCount(1);
+                new ExploreTask(this, explorer.discovered[cntr]).fork();
+            }
+            explorer.discoveredCount = 0;
+            tryComplete();
+        }
+    }
+
+    private final ThreadLocal<Explorer> explorers = new ThreadLocal<Explorer>()
+    {
+        @Override
+        protected Explorer initialValue()
+        {
+            return new Explorer();
+        }
+    };
+
+    /**
+     * The <code>Explorer</code> class is the policy used by each worker
+     * thread of the parallel exploration. It has its own abstract interpreter
+     * and, instead of adding new states to the frontier list, claims them and
+     * collects them for the worker to explore.
+     */
+    private class Explorer extends ContextSensitivePolicy
+    {
+
+        final AbstractInterpreter interpreter = new AbstractInterpreter(
+                program, this);
+        int[] discovered = new int[16];
+        int discoveredCount;
+
+
+        void explore(int s)
+        {
+            frontierState = s;
+            edgeType = NORMAL_EDGE;
+            graph.exploreFrontierState(s);
+            interpreter.computeNextStates(cache.getMutableState(s));
+        }
+
+
+        @Override
+        protected void pushFrontier(int t)
+        {
+            if (t != frontierState && graph.claimFrontierState(t))
+            {
+                if (discoveredCount == discovered.length)
+                    discovered = Arrays.copyOf(discovered, discoveredCount * 2);
+                discovered[discoveredCount++] = t;
+            }
+        }
+    }
+
+
     /**
      * The <code>processPropagationList()</code> method walks through a list of
      * target/caller state pairs, propagating callers to return states. When
@@ -358,118 +522,163 @@ public class Analyzer
      */
     protected void processNewReturns()
     {
-        while (newReturnStates != null)
+        while (newRetCount > 0)
         {
-            StateCache.State state = newReturnStates.state;
-            propagateOneBackwards(state, state, state.copy(), new Object());
-            newReturnStates = newReturnStates.next;
-            newRetCount--;
+            int state = newReturnStates[--newRetCount];
+            propagateOneBackwards(state, state, cache.getMutableState(state),
+                    ++mark);
         }
     }
 
 
     protected void processNewEdges()
     {
-        while (newEdges != null)
+        while (newEdgeCount > 0)
         {
-            StateTransitionGraph.Edge edge = newEdges.edge;
-            newEdges = newEdges.next;
-            StateCache.Set set = edge.target.info.stateSet;
+            int edge = newEdges[--newEdgeCount];
+            StateCache.Set set = graph.getStateSet(graph.getTarget(edge));
             if (set != null && !set.isEmpty())
-                propagateSetBackwards(edge.source, edge.target.info.stateSet,
-                        new Object());
-            newEdgeCount--;
+                propagateSetBackwards(graph.getSource(edge), set, ++mark);
         }
     }
 
 
-    // propagate return state back through the graph to callers
-    private void propagateOneBackwards(StateCache.State t, StateCache.State rt,
-            MutableState copy, Object mark)
+    // propagate return state back through the graph to callers; the
+    // traversal uses an explicit stack, since paths can be very long
+    private void propagateOneBackwards(int t, int rt, MutableState copy,
+            int mark)
     {
-        // visited this node already?
-        if (t.mark == mark)
-            return;
-        t.mark = mark;
+        int sp = 0;
+        if (enterOne(t, rt, mark))
+            sp = pushBackwards(sp, t);
 
-        StateTransitionGraph.StateInfo info = t.info;
-        if (info.stateSet == null)
-            info.stateSet = graph.newSet();
-        else if (info.stateSet.contains(rt))
-            return;
-
-        info.stateSet.add(rt);
-
-        for (StateTransitionGraph.Edge edge = info.backwardEdges; edge != null; edge = edge.backwardLink)
+        while (sp > 0)
         {
+            int edge = stackEdges[sp - 1];
+            if (edge == StateTransitionGraph.NO_EDGE)
+            {
+                sp--;
+                continue;
+            }
+            stackEdges[sp - 1] = graph.getBackwardLink(edge);
 
-            if (edge.type == CALL_EDGE)
+            int source = graph.getSource(edge);
+            if (graph.getEdgeType(edge) == CALL_EDGE)
             {
                 // found a call edge: we need to connect this caller to a new
                 // return state
-                insertReturnEdge(edge.source, copy, rt.getType() == RETI_STATE);
-            } else
+                insertReturnEdge(source, copy, graph.getType(rt) == RETI_STATE);
+            } else if (enterOne(source, rt, mark))
             {
                 // propagate this return state backwards
-                propagateOneBackwards(edge.source, rt, copy, mark);
+                sp = pushBackwards(sp, source);
             }
         }
     }
 
 
-    // propagate return state back through the graph to callers
-    private void propagateSetBackwards(StateCache.State t, StateCache.Set rset,
-            Object mark)
+    private boolean enterOne(int t, int rt, int mark)
     {
         // visited this node already?
-        if (t.mark == mark)
-            return;
-        t.mark = mark;
+        if (graph.getMark(t) == mark)
+            return false;
+        graph.setMark(t, mark);
 
-        StateTransitionGraph.StateInfo info = t.info;
-        if (info.stateSet == null)
-            info.stateSet = graph.newSet();
-        else if (info.stateSet.containsAll(rset))
-            return;
+        StateCache.Set set = graph.getStateSet(t);
+        if (set == null)
+        {
+            set = graph.newSet();
+            graph.setStateSet(t, set);
+        } else if (set.contains(rt))
+            return false;
+
+        set.add(rt);
+        return true;
+    }
+
+
+    // propagate return state back through the graph to callers
+    private void propagateSetBackwards(int t, StateCache.Set rset, int mark)
+    {
+        int sp = 0;
+        if (enterSet(t, rset, mark))
+            sp = pushBackwards(sp, t);
 
-        for (StateTransitionGraph.Edge edge = info.backwardEdges; edge != null; edge = edge.backwardLink)
+        while (sp > 0)
         {
+            int edge = stackEdges[sp - 1];
+            if (edge == StateTransitionGraph.NO_EDGE)
+            {
+                // all the callers are connected
+                graph.getStateSet(stackStates[sp - 1]).addAll(rset);
+                sp--;
+                continue;
+            }
+            stackEdges[sp - 1] = graph.getBackwardLink(edge);
 
-            if (edge.type == CALL_EDGE)
+            int source = graph.getSource(edge);
+            if (graph.getEdgeType(edge) == CALL_EDGE)
             {
                 // found a call edge: we need to connect this caller to the new
                 // return states
-                insertReturnEdges(edge.source, edge.target.info.stateSet, rset);
-            } else
+                insertReturnEdges(source,
+                        graph.getStateSet(graph.getTarget(edge)), rset);
+            } else if (enterSet(source, rset, mark))
             {
                 // propagate these calls to all children
-                propagateSetBackwards(edge.source, rset, mark);
+                sp = pushBackwards(sp, source);
             }
         }
+    }
 
-        info.stateSet.addAll(rset);
+
+    private boolean enterSet(int t, StateCache.Set rset, int mark)
+    {
+        // visited this node already?
+        if (graph.getMark(t) == mark)
+            return false;
+        graph.setMark(t, mark);
+
+        StateCache.Set set = graph.getStateSet(t);
+        if (set == null)
+            graph.setStateSet(t, graph.newSet());
+        else if (set.containsAll(rset))
+            return false;
+        return true;
     }
 
 
-    private void insertReturnEdges(StateCache.State caller, StateCache.Set prev,
+    private int pushBackwards(int sp, int t)
+    {
+        if (sp == stackStates.length)
+        {
+            stackStates = Arrays.copyOf(stackStates, sp * 2);
+            stackEdges = Arrays.copyOf(stackEdges, sp * 2);
+        }
+        stackStates[sp] = t;
+        stackEdges[sp] = graph.getBackwardEdges(t);
+        return sp + 1;
+    }
+
+
+    private void insertReturnEdges(int caller, StateCache.Set prev,
             StateCache.Set rset)
     {
-        Iterator<State> i = rset.iterator();
-        while (i.hasNext())
+        for (int rs : rset.toArray())
         {
-            State rs = i.next();
             if (!prev.contains(rs))
             {
-                insertReturnEdge(caller, rs.copy(), rs.getType() == RETI_STATE);
+                insertReturnEdge(caller, cache.getMutableState(rs),
+                        graph.getType(rs) == RETI_STATE);
             }
         }
     }
 
 
-    private void insertReturnEdge(StateCache.State caller, MutableState rstate,
+    private void insertReturnEdge(int caller, MutableState rstate,
             boolean reti)
     {
-        int cpc = caller.getPC();
+        int cpc = cache.getPC(caller);
         int npc;
 
         if (isea != null)
@@ -477,7 +686,7 @@ public class Analyzer
             ISEState rs = isea.getReturnSummary(rstate.getPC());
             if (rs != null)
             {
-                mergeReturnStateIntoCaller(caller, rstate, rs);
+                mergeReturnStateIntoCaller(cache.getState(caller), rstate, rs);
             }
         }
 
@@ -543,14 +752,15 @@ public class Analyzer
     }
 
 
-    private void postNewEdge(StateTransitionGraph.Edge edge)
+    private synchronized void postNewEdge(int edge)
     {
-        newEdges = new StateTransitionGraph.EdgeList(edge, newEdges);
-        newEdgeCount++;
+        if (newEdgeCount == newEdges.length)
+            newEdges = Arrays.copyOf(newEdges, newEdgeCount * 2);
+        newEdges[newEdgeCount++] = edge;
     }
 
 
-    private void processFrontierState(StateCache.State s)
+    private void processFrontierState(int s)
     {
         traceState(s);
 
@@ -562,159 +772,133 @@ public class Analyzer
         graph.setExplored(s);
 
         // compute the possible next states
-        interpreter.computeNextStates(s);
-    }
-
-
-    private void findMaximalPath()
-    {
-        // the stack hashmap contains a mapping between states on the stack
-        // and the current stack depth at which they are being explored
-        HashMap<State, Integer> stack = new HashMap<State, Integer>(1000);
-        StateCache.State state = graph.getEdenState();
-
-        try
-        {
-            maximalPath = findMaximalPath(state, stack, 0);
-        }
-        catch (UnboundedStackException e)
-        {
-            unbounded = true;
-            maximalPath = e.path;
-        }
+        interpreter.computeNextStates(cache.getMutableState(s));
     }
 
-    private class Path
-    {
-        final int depth;
-        final int length;
-        final StateTransitionGraph.Edge edge;
-        final Path tail;
-
-
-        Path(int d, StateTransitionGraph.Edge e, Path p)
-        {
-            depth = d;
-            edge = e;
-            tail = p;
-            length = p == null ? 1 : 1 + p.length;
-        }
-    }
+    // the status of states in the search for the maximal path
+    private static final byte NEW = 0;
+    private static final byte ON_STACK = 1;
+    private static final byte DONE = 2;
 
 
     /**
-     * The <code>findMaximalPath()</code> method is a recursive procedure that
-     * discovers the maximal weight path in the state graph. If there is a
-     * non-zero weight cycle, this method will throw a
-     * <code>UnboundedStackException</code> which contains as a field the path
-     * leading out of the specified state back to a state on the stack.
-     *
-     * @param s
-     *            the state to explore
-     * @param stack
-     *            the states on the traversal stack
-     * @param depth
-     *            the current stack depth
-     * @return a path leading out of the current state that adds the maximum
-     *         height to the stack of any path leading out of this state
-     * @throws UnboundedStackException
-     *             if a non-zero weight cycle exists in the graph
+     * The <code>findMaximalPath()</code> method discovers the maximal weight
+     * path in the state graph with a depth-first search. The search keeps its
+     * own stack, since paths in the state graph can be very long. If there is
+     * a non-zero weight cycle, the stack is unbounded, and the path leading
+     * from the eden state around the cycle is recorded instead.
      */
-    protected Path findMaximalPath(StateCache.State s,
-            HashMap<State, Integer> stack, int depth)
-                    throws UnboundedStackException
+    private void findMaximalPath()
     {
-        // record this node and the stack depth at which we first encounter it
-        stack.put(s, new Integer(depth));
-
-        int maxdepth = 0;
-        int minlength = Integer.MAX_VALUE;
-        Path maxtail = null;
-        StateTransitionGraph.Edge maxedge = null;
-        for (StateTransitionGraph.Edge edge = s.info.forwardEdges; edge != null; edge = edge.forwardLink)
-        {
+        int count = (int) cache.getTotalStateCount();
+        // for a state on the stack, the stack depth at which we first
+        // encounter it; for a finished state, the maximum amount of stack depth
+        // that it can add, the first edge of the path that adds it, and the
+        // length of that path
+        byte[] status = new byte[count];
+        int[] depth = new int[count];
+        int[] maxedge = new int[count];
+        int[] length = new int[count];
+
+        // the traversal stack: a state, the edge being followed from it, and
+        // the maximal path from it found so far
+        int[] states = new int[64];
+        int[] edges = new int[64];
+        int[] maxdepths = new int[64];
+        int[] minlengths = new int[64];
+        int[] maxedges = new int[64];
+
+        int eden = graph.getEdenState();
+        int sp = 0;
+        int next = eden;
+        int nextdepth = 0;
 
-            StateCache.State t = edge.target;
-            if (stack.containsKey(t))
+        while (true)
+        {
+            if (next != StateTransitionGraph.NO_STATE)
             {
-                // cycle detected. check that the depth when reentering is the
-                // same
-                int prevdepth = stack.get(t);
-                if (depth + edge.weight != prevdepth)
+                // record this node and the stack depth at which we first
+                // encounter it
+                if (sp == states.length)
                 {
-                    stack.remove(s);
-                    throw new UnboundedStackException(
-                            new Path(depth + edge.weight, edge, null));
+                    states = Arrays.copyOf(states, sp * 2);
+                    edges = Arrays.copyOf(edges, sp * 2);
+                    maxdepths = Arrays.copyOf(maxdepths, sp * 2);
+                    minlengths = Arrays.copyOf(minlengths, sp * 2);
+                    maxedges = Arrays.copyOf(maxedges, sp * 2);
                 }
-            } else
+                status[next] = ON_STACK;
+                depth[next] = nextdepth;
+                states[sp] = next;
+                edges[sp] = graph.getForwardEdges(next);
+                maxdepths[sp] = 0;
+                minlengths[sp] = Integer.MAX_VALUE;
+                maxedges[sp] = StateTransitionGraph.NO_EDGE;
+                sp++;
+                next = StateTransitionGraph.NO_STATE;
+            }
+
+            int f = sp - 1;
+            int s = states[f];
+            int edge = edges[f];
+            if (edge == StateTransitionGraph.NO_EDGE)
             {
-                Path tail;
+                // we are finished with this node, remember how much deeper it
+                // can take us
+                int e = maxedges[f];
+                status[s] = DONE;
+                depth[s] = maxdepths[f];
+                maxedge[s] = e;
+                length[s] = e == StateTransitionGraph.NO_EDGE ? 1
+                        : 1 + length[graph.getTarget(e)];
+                // the edge that led here is now followed to a finished node
+                if (--sp == 0)
+                    break;
+                continue;
+            }
 
-                if (edge.target.mark instanceof Path)
-                {
-                    // node has already been visited and marked with the
-                    // maximum amount of stack depth that it can add.
-                    tail = ((Path) edge.target.mark);
-                } else
+            int t = graph.getTarget(edge);
+            int weight = graph.getWeight(edge);
+            if (status[t] == ON_STACK)
+            {
+                // cycle detected. check that the depth when reentering is the
+                // same
+                if (depth[s] + weight != depth[t])
                 {
-                    // node has not been seen before, traverse it
-                    try
-                    {
-                        tail = findMaximalPath(edge.target, stack,
-                                depth + edge.weight);
-                    }
-                    catch (UnboundedStackException e)
-                    {
-                        // this node is part of an unbounded cycle, add it to
-                        // the path
-                        // and rethrow the exception
-                        e.path = new Path(depth + edge.weight, edge, e.path);
-                        stack.remove(s);
-                        throw e;
-                    }
+                    unbounded = true;
+                    maximalPath = Arrays.copyOf(edges, sp);
+                    return;
                 }
-
+            } else if (status[t] == DONE)
+            {
                 // compute maximum added stack depth by following this edge
-                int extra = edge.weight + tail.depth;
+                int extra = weight + depth[t];
 
                 // remember the shortest path (in number of links) to the
                 // maximum depth stack from following any of the links
-                if (extra > maxdepth
-                        || (tail.length < minlength && extra == maxdepth))
+                if (extra > maxdepths[f]
+                        || (length[t] < minlengths[f] && extra == maxdepths[f]))
                 {
-                    maxdepth = extra;
-                    maxtail = tail;
-                    maxedge = edge;
-                    minlength = tail.length;
+                    maxdepths[f] = extra;
+                    maxedges[f] = edge;
+                    minlengths[f] = length[t];
                 }
+            } else
+            {
+                // node has not been seen before, traverse it
+                next = t;
+                nextdepth = depth[s] + weight;
+                continue;
             }
+            edges[f] = graph.getForwardLink(edge);
         }
-        // we are finished with this node, remember how much deeper it can take
-        // us
-        stack.remove(s);
-        Path maxpath = new Path(maxdepth, maxedge, maxtail);
-        s.mark = maxpath;
-        return maxpath;
-    }
 
-    /**
-     * The <code>UnboundedStackException</code> class is an exception thrown
-     * when traversing the graph to find the maximal stack depth. It is thrown
-     * if a cycle in the graph is found to have non-zero weight; such a cycle
-     * means that the stack is unbounded.
-     */
-    private class UnboundedStackException extends Exception
-    {
-
-        private static final long serialVersionUID = 1L;
-
-        Path path;
-
-
-        UnboundedStackException(Path p)
-        {
-            path = p;
-        }
+        maximalDepth = depth[eden];
+        maximalPath = new int[length[eden] - 1];
+        int n = 0;
+        for (int e = maxedge[eden]; e != StateTransitionGraph.NO_EDGE; e = maxedge[graph
+                .getTarget(e)])
+            maximalPath[n++] = e;
     }
 
 
@@ -744,7 +928,7 @@ public class Analyzer
             printQuantity("Maximum stack depth   ", "unbounded");
         else
             printQuantity("Maximum stack depth   ",
-                    "" + maximalPath.depth + " bytes");
+                    "" + maximalDepth + " bytes");
 
         if (SHOW_PATH)
         {
@@ -753,35 +937,53 @@ public class Analyzer
     }
 
 
+    /**
+     * The <code>getMaximumStackDepth()</code> method returns the maximum stack
+     * depth computed by the analysis.
+     *
+     * @return the maximum stack depth in bytes; -1 if the stack is unbounded
+     *         or the analysis did not complete
+     */
+    public int getMaximumStackDepth()
+    {
+        if (maximalPath == null || unbounded)
+            return -1;
+        return maximalDepth;
+    }
+
+
     public void dump()
     {
         graph.dump(Printer.STDOUT);
     }
 
 
-    private void printPath(Path p)
+    private void printPath(int[] path)
     {
         int depth = 0;
         int cntr = 1;
-        for (Path path = p; path != null && path.edge != null; path = path.tail)
+        for (int edge : path)
         {
 
-            StateTransitionGraph.Edge edge = path.edge;
+            int source = graph.getSource(edge);
+            int target = graph.getTarget(edge);
+            int weight = graph.getWeight(edge);
 
-            if (cntr > 1 && TRACE_SUMMARY && edge.weight == 0)
+            if (cntr > 1 && TRACE_SUMMARY && weight == 0)
             {
-                int pc = edge.source.getPC();
-                if (edge.target.getPC() == program.getNextPC(pc))
+                int pc = cache.getPC(source);
+                if (cache.getPC(target) == program.getNextPC(pc))
                 {
                     cntr++;
                     continue;
                 }
             }
 
-            printFullState("[" + cntr + "] Depth: " + depth, edge.source);
+            printFullState("[" + cntr + "] Depth: " + depth, source);
             Terminal.print("    ");
-            StatePrinter.printEdge(edge.type, edge.weight, edge.target);
-            depth += edge.weight;
+            StatePrinter.printEdge(graph.getEdgeType(edge), weight,
+                    cache.getState(target));
+            depth += weight;
             cntr++;
         }
     }
@@ -794,11 +996,15 @@ public class Analyzer
     }
 
 
-    private void postReturnState(StateCache.State rs)
+    private synchronized void postReturnState(int rs)
     {
-        newReturnStates = new StateTransitionGraph.StateList(rs,
-                newReturnStates);
-        newRetCount++;
+        if (newRetCount == newReturnStates.length)
+            newReturnStates = Arrays.copyOf(newReturnStates, newRetCount * 2);
+        newReturnStates[newRetCount++] = rs;
+        if (graph.getType(rs) == RETI_STATE)
+            retiCount++;
+        else
+            retCount++;
     }
 
 
@@ -835,7 +1041,7 @@ public class Analyzer
     public class ContextSensitivePolicy implements AnalyzerPolicy
     {
 
-        public StateCache.State frontierState;
+        public int frontierState;
         protected int edgeType;
 
 
@@ -860,7 +1066,12 @@ public class Analyzer
         {
             if (isea != null)
             {
-                ISEState rs = isea.getProcedureSummary(target_address);
+                ISEState rs;
+                // procedures are summarized lazily
+                synchronized (isea)
+                {
+                    rs = isea.getProcedureSummary(target_address);
+                }
                 if (rs != null)
                     maskIrrelevantState(s, rs);
             }
@@ -916,9 +1127,8 @@ public class Analyzer
         @Override
         public MutableState ret(MutableState s)
         {
-            frontierState.setType(RET_STATE);
+            graph.setType(frontierState, RET_STATE);
             postReturnState(frontierState);
-            retCount++;
 
             // do not continue abstract interpretation after this state; this
             // state
@@ -940,9 +1150,8 @@ public class Analyzer
         @Override
         public MutableState reti(MutableState s)
         {
-            frontierState.setType(RETI_STATE);
+            graph.setType(frontierState, RETI_STATE);
             postReturnState(frontierState);
-            retiCount++;
 
             // do not continue abstract interpretation after this state; this
             // state
@@ -1131,16 +1340,16 @@ public class Analyzer
         }
 
 
-        private void addEdge(StateCache.State from, int type, MutableState to)
+        private void addEdge(int from, int type, MutableState to)
         {
-            StateCache.State t = graph.getCachedState(to);
+            int t = graph.getCachedState(to);
             traceProducedState(t);
             addEdge(type, from, t, EDGE_DELTA[type]);
             pushFrontier(t);
         }
 
 
-        private void pushFrontier(StateCache.State t)
+        protected void pushFrontier(int t)
         {
             // CASE 4: self loop
             if (t == frontierState)
@@ -1164,11 +1373,10 @@ public class Analyzer
         }
 
 
-        private void addEdge(int type, StateCache.State s, StateCache.State t,
-                int weight)
+        private void addEdge(int type, int s, int t, int weight)
         {
             traceEdge(type, s, t, weight);
-            StateTransitionGraph.Edge edge = graph.addEdge(s, type, weight, t);
+            int edge = graph.addEdge(s, type, weight, t);
             if (graph.isExplored(t))
                 postNewEdge(edge);
         }
@@ -1181,7 +1389,7 @@ public class Analyzer
     // -----------------------------------------------------------------------
     // -----------------------------------------------------------------------
 
-    private void traceState(StateCache.State s)
+    private void traceState(int s)
     {
         if (TRACE)
         {
@@ -1190,8 +1398,9 @@ public class Analyzer
     }
 
 
-    private void printFullState(String head, StateCache.State s)
+    private void printFullState(String head, int id)
     {
+        StateCache.State s = cache.getState(id);
         Terminal.print(head + ' ');
         StatePrinter.printStateName(s);
         Terminal.nextln();
@@ -1201,7 +1410,7 @@ public class Analyzer
     }
 
 
-    private void traceProducedState(StateCache.State s)
+    private void traceProducedState(int s)
     {
         if (TRACE)
         {
@@ -1217,18 +1426,18 @@ public class Analyzer
             {
                 str = "        N ==> ";
             }
-            StatePrinter.printState(str, s);
+            StatePrinter.printState(str, cache.getState(s));
         }
     }
 
 
-    public static void traceEdge(int type, StateCache.State s,
-            StateCache.State t, int weight)
+    private void traceEdge(int type, int s, int t, int weight)
     {
         if (!TRACE)
             return;
         Terminal.print("adding edge ");
-        StatePrinter.printEdge(s, type, weight, t);
+        StatePrinter.printEdge(cache.getState(s), type, weight,
+                cache.getState(t));
     }
 
 }
@@ -30,11 +30,11 @@
  * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package edu.ucla.cs.compilers.avrora.avrora.stack;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
@@ -43,49 +43,66 @@ import edu.ucla.cs.compilers.avrora.cck.util.Util;
 /**
  * The <code>StateSpace</code> class represents the reachable state space as it
  * is explored by the <code>Analyzer</code> class. It stores reachable states
- * and the outgoing edges that connect them.
+ * in a packed form and numbers them consecutively; the rest of the analysis
+ * refers to states by their numbers.
+ * <p>
+ * Each state is encoded in a single <code>long</code> that holds the program
+ * counter, the status register, and the number of a <i>context</i>. A context
+ * holds the interrupt mask registers and the general purpose registers and is
+ * shared by all states that differ only in program counter and status
+ * register. States and contexts are found through open-addressing hash tables
+ * of their numbers, which are split into shards with their own locks, so that
+ * the state space can be explored by several threads at once.
+ * </p>
  *
  * @author Ben L. Titzer
  */
 public class StateCache
 {
 
-    private long uidCount;
+    // states and contexts are stored in pages that never move
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // the number of shards of the hash tables is a power of two
+    private static final int SHARD_BITS = 6;
+
+    // a context is stored in 9 words: the interrupt masks and 4 registers each
+    private static final int NUM_REGS = IORegisterConstants.NUM_REGS;
+    private static final int CONTEXT_WORDS = 1 + NUM_REGS / 4;
+
+    // the layout of an encoded state
+    private static final int PC_SHIFT = 47;
+    private static final int SREG_SHIFT = 31;
+    private static final int PC_LIMIT = 1 << 64 - PC_SHIFT;
+    private static final long CONTEXT_MASK = 0x7fffffffL;
 
     /**
-     * The <code>LegacyState</code> class represents an immutable state within
-     * the state space of the program. Such a state is cached and cannot be
-     * modified. It contains a unique identifier, a mark for graph traversals,
-     * and a list of outgoing edges.
+     * The <code>State</code> class represents an immutable copy of a state in
+     * the state space. Such a copy is created on demand from the packed state,
+     * for example to print the state or to read its abstract values.
      */
     public class State extends AbstractState implements IORegisterConstants
     {
 
-        private final int hashCode;
-        private int type;
-        public final long UID;
+        public final int UID;
 
-        boolean isExplored;
-        boolean onFrontier;
 
-
-        State(MutableState s)
+        State(int id)
         {
-            pc = s.pc;
-            av_SREG = s.av_SREG;
-            av_EIMSK = s.av_EIMSK;
-            av_TIMSK = s.av_TIMSK;
-            av_REGISTERS = new char[NUM_REGS];
-            System.arraycopy(s.av_REGISTERS, 0, av_REGISTERS, 0, NUM_REGS);
-            hashCode = computeHashCode();
-            UID = uidCount++;
+            UID = id;
+            long key = getKey(id);
+            pc = decodePC(key);
+            av_SREG = decodeSREG(key);
+            readContext(decodeContext(key), this);
         }
 
 
         @Override
         public int hashCode()
         {
-            return hashCode;
+            return UID;
         }
 
 
@@ -96,18 +113,9 @@ public class StateCache
                 return true;
             if (!(o instanceof State))
                 return false;
-            return deepCompare((State) o);
+            return UID == ((State) o).UID;
         }
 
-        /**
-         * The <code>mark</code> field is used by graph traversal algorithms to
-         * detect cycles and terminate traversals. Concurrent traversal is not
-         * supported.
-         */
-        public Object mark;
-
-        public StateTransitionGraph.StateInfo info;
-
 
         /**
          * The <code>getUniqueName()</code> gets a string that uniquely
@@ -118,59 +126,147 @@ public class StateCache
          */
         public String getUniqueName()
         {
-            return StringUtil.toHex(UID, 10);
-        }
-
-
-        public void setType(int t)
-        {
-            type = t;
+            return StateCache.getUniqueName(UID);
         }
 
 
         public int getType()
         {
-            return type;
+            return page(UID).types[UID & PAGE_MASK];
         }
 
     }
 
-    public class Set
+    /**
+     * The <code>StatePage</code> class stores one page of packed states
+     * together with the information that the state transition graph keeps for
+     * each of them. Pages are allocated before the numbers of their states are
+     * handed out, and are never moved.
+     */
+    static final class StatePage
     {
+        final long[] keys = new long[PAGE_SIZE];
+        final byte[] flags = new byte[PAGE_SIZE];
+        final byte[] types = new byte[PAGE_SIZE];
+        final int[] forwardEdges = new int[PAGE_SIZE];
+        final int[] backwardEdges = new int[PAGE_SIZE];
+        final int[] marks = new int[PAGE_SIZE];
+        final Set[] stateSets = new Set[PAGE_SIZE];
+    }
 
-        private State oneState;
-        private HashSet<State> delegate;
+    /**
+     * The <code>IntSet</code> class is a set of state numbers stored in an
+     * open-addressing hash table.
+     */
+    private static final class IntSet
+    {
+        // state numbers plus one; zero marks an empty slot
+        private int[] slots = new int[8];
+        private int size;
 
-        private boolean delegating = false;
-        private boolean empty = true;
 
-        private class OptionalIterator implements Iterator<State>
+        int size()
         {
-            boolean done;
+            return size;
+        }
 
 
-            @Override
-            public boolean hasNext()
+        boolean contains(int s)
+        {
+            int mask = slots.length - 1;
+            for (int i = mix(s) & mask;; i = i + 1 & mask)
             {
-                return !done && oneState != null;
+                int slot = slots[i];
+                if (slot == 0)
+                    return false;
+                if (slot == s + 1)
+                    return true;
             }
+        }
 
 
-            @Override
-            public State next()
+        boolean add(int s)
+        {
+            int mask = slots.length - 1;
+            for (int i = mix(s) & mask;; i = i + 1 & mask)
             {
-                done = true;
-                return oneState;
+                int slot = slots[i];
+                if (slot == s + 1)
+                    return false;
+                if (slot == 0)
+                {
+                    slots[i] = s + 1;
+                    if (++size * 2 > slots.length)
+                        grow();
+                    return true;
+                }
             }
+        }
+
+
+        boolean containsAll(IntSet o)
+        {
+            for (int slot : o.slots)
+                if (slot != 0 && !contains(slot - 1))
+                    return false;
+            return true;
+        }
 
 
-            @Override
-            public void remove()
+        boolean addAll(IntSet o)
+        {
+            boolean changed = false;
+            // copy the slots in case the other set is this set
+            for (int slot : o.slots.clone())
+                if (slot != 0)
+                    changed |= add(slot - 1);
+            return changed;
+        }
+
+
+        int[] toArray()
+        {
+            int[] a = new int[size];
+            int n = 0;
+            for (int slot : slots)
+                if (slot != 0)
+                    a[n++] = slot - 1;
+            return a;
+        }
+
+
+        private void grow()
+        {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            int mask = slots.length - 1;
+            for (int slot : old)
             {
-                throw Util.unimplemented();
+                if (slot == 0)
+                    continue;
+                int i = mix(slot - 1) & mask;
+                while (slots[i] != 0)
+                    i = i + 1 & mask;
+                slots[i] = slot;
             }
+        }
+
 
+        private static int mix(int s)
+        {
+            int h = s * 0x9E3779B9;
+            return h ^ h >>> 16;
         }
+    }
+
+    public class Set
+    {
+
+        private int oneState = -1;
+        private IntSet delegate;
+
+        private boolean delegating = false;
+        private boolean empty = true;
 
 
         public int size()
@@ -179,7 +275,7 @@ public class StateCache
                 return delegate.size();
             else
             {
-                return oneState == null ? 0 : 1;
+                return oneState < 0 ? 0 : 1;
             }
         }
 
@@ -191,33 +287,39 @@ public class StateCache
                 return false;
             } else
             {
-                return (oneState != null);
+                return (oneState < 0);
             }
         }
 
 
-        public boolean contains(Object o)
+        public boolean contains(int s)
         {
             if (delegating)
             {
-                return delegate.contains(o);
+                return delegate.contains(s);
             } else
             {
-                return oneState == o;
+                return oneState == s;
             }
         }
 
 
-        public Iterator<State> iterator()
+        /**
+         * The <code>toArray()</code> method returns the numbers of the states
+         * in this set.
+         *
+         * @return a new array containing the states in this set
+         */
+        public int[] toArray()
         {
             if (delegating)
-                return delegate.iterator();
+                return delegate.toArray();
             else
-                return new OptionalIterator();
+                return oneState < 0 ? new int[0] : new int[] { oneState };
         }
 
 
-        public boolean add(StateCache.State ns)
+        public boolean add(int ns)
         {
             empty = false;
 
@@ -225,7 +327,7 @@ public class StateCache
                 return delegate.add(ns);
             else
             {
-                if (oneState == null)
+                if (oneState < 0)
                 {
                     oneState = ns;
                     return false;
@@ -240,11 +342,11 @@ public class StateCache
 
         private void beginDelegation()
         {
-            delegate = new HashSet<State>();
-            if (oneState != null)
+            delegate = new IntSet();
+            if (oneState >= 0)
                 delegate.add(oneState);
             else
-                oneState = null;
+                oneState = -1;
             delegating = true;
         }
 
@@ -268,7 +370,7 @@ public class StateCache
                     return false;
                 else
                 {
-                    return oneState == oset.oneState || oset.oneState == null;
+                    return oneState == oset.oneState || oset.oneState < 0;
                 }
             }
         }
@@ -298,21 +400,146 @@ public class StateCache
 
     }
 
-    private HashMap<State, State> stateMap;
-    private final State edenState;
-    private long totalStateCount;
+    /**
+     * The <code>StateShard</code> class is one shard of the hash table that
+     * maps encoded states to their numbers.
+     */
+    private class StateShard
+    {
+        // state numbers plus one; zero marks an empty slot
+        private int[] slots;
+        private int size;
+
+
+        StateShard(int capacity)
+        {
+            slots = new int[capacity];
+        }
+
+
+        synchronized int intern(long key, long hash)
+        {
+            int mask = slots.length - 1;
+            for (int i = index(hash) & mask;; i = i + 1 & mask)
+            {
+                int slot = slots[i];
+                if (slot == 0)
+                {
+                    // the state is new, number it and put it in the table
+                    int id = newState(key);
+                    slots[i] = id + 1;
+                    if (++size * 2 > slots.length)
+                        grow();
+                    return id;
+                }
+                if (getKey(slot - 1) == key)
+                    return slot - 1;
+            }
+        }
+
+
+        private void grow()
+        {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            int mask = slots.length - 1;
+            for (int slot : old)
+            {
+                if (slot == 0)
+                    continue;
+                int i = index(hashKey(getKey(slot - 1))) & mask;
+                while (slots[i] != 0)
+                    i = i + 1 & mask;
+                slots[i] = slot;
+            }
+        }
+    }
+
+    /**
+     * The <code>ContextShard</code> class is one shard of the hash table that
+     * maps contexts to their numbers.
+     */
+    private class ContextShard
+    {
+        // context numbers plus one; zero marks an empty slot
+        private int[] slots;
+        private int size;
+
+
+        ContextShard(int capacity)
+        {
+            slots = new int[capacity];
+        }
+
+
+        synchronized int intern(long[] words, long hash)
+        {
+            int mask = slots.length - 1;
+            for (int i = index(hash) & mask;; i = i + 1 & mask)
+            {
+                int slot = slots[i];
+                if (slot == 0)
+                {
+                    int ctx = newContext(words);
+                    slots[i] = ctx + 1;
+                    if (++size * 2 > slots.length)
+                        grow();
+                    return ctx;
+                }
+                if (matchContext(slot - 1, words))
+                    return slot - 1;
+            }
+        }
+
+
+        private void grow()
+        {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            int mask = slots.length - 1;
+            long[] words = new long[CONTEXT_WORDS];
+            for (int slot : old)
+            {
+                if (slot == 0)
+                    continue;
+                long[] page = contextPages[slot - 1 >>> PAGE_BITS];
+                System.arraycopy(page, (slot - 1 & PAGE_MASK) * CONTEXT_WORDS,
+                        words, 0, CONTEXT_WORDS);
+                int i = index(hashContext(words)) & mask;
+                while (slots[i] != 0)
+                    i = i + 1 & mask;
+                slots[i] = slot;
+            }
+        }
+    }
+
+    private final StateShard[] stateShards;
+    private final ContextShard[] contextShards;
+    private final AtomicInteger stateCount = new AtomicInteger();
+    private final AtomicInteger contextCount = new AtomicInteger();
+    private volatile StatePage[] statePages = new StatePage[16];
+    private volatile long[][] contextPages = new long[16][];
+    private final int edenState;
 
 
     /**
      * The constructor for the <code>StateSpace</code> accepts a program as a
-     * parameter. This is currently unused, but is reserved for use later.
+     * parameter. The size of the program is used to estimate the initial
+     * capacity of the cache.
      *
      * @param p
      *            the program to create the state space for
      */
     public StateCache(Program p)
     {
-        stateMap = new HashMap<State, State>(p.program_end * 5);
+        int capacity = Integer.highestOneBit((p.program_end * 2 >> SHARD_BITS) + 16);
+        stateShards = new StateShard[1 << SHARD_BITS];
+        contextShards = new ContextShard[1 << SHARD_BITS];
+        for (int cntr = 0; cntr < stateShards.length; cntr++)
+        {
+            stateShards[cntr] = new StateShard(capacity);
+            contextShards[cntr] = new ContextShard(capacity);
+        }
         edenState = getStateFor(new MutableState());
     }
 
@@ -321,59 +548,119 @@ public class StateCache
      * The <code>getEdenState()</code> method gets the starting state of the
      * abstract interpretation.
      *
-     * @return the initial state to begin abstract interpretation
+     * @return the number of the initial state to begin abstract interpretation
      */
-    public State getEdenState()
+    public int getEdenState()
     {
         return edenState;
     }
 
 
     /**
-     * The <code>getCachedState()</code> method searches the state cache for an
-     * immutable state that corresponds to the given mutable state. If no
-     * immutable state exists in the cache, one will be created and inserted.
+     * The <code>getStateFor()</code> method searches the state cache for the
+     * state that corresponds to the given mutable state. If no such state
+     * exists in the cache, one will be created and inserted. This method may be
+     * called by several threads at once.
      *
      * @param s
      *            the state to search for
-     * @return an instance of the <code>StateSpace.LegacyState</code> immutable
-     *         state that corresponds to the given mutable state
+     * @return the number of the state that corresponds to the given mutable
+     *         state
      */
-    public State getStateFor(MutableState s)
+    public int getStateFor(MutableState s)
     {
-        State is = new State(s);
-        State cs = stateMap.get(is);
+        if (s.pc < 0 || s.pc >= PC_LIMIT)
+            throw Util.failure("PC beyond end of program: " + StringUtil.addrToString(s.pc));
+
+        long[] words = new long[CONTEXT_WORDS];
+        words[0] = (long) s.av_EIMSK << 16 | s.av_TIMSK;
+        for (int cntr = 0; cntr < NUM_REGS; cntr++)
+            words[1 + (cntr >> 2)] |= (long) s.av_REGISTERS[cntr] << ((cntr & 3) << 4);
+        long hash = hashContext(words);
+        int ctx = contextShards[shard(hash)].intern(words, hash);
+
+        long key = (long) s.pc << PC_SHIFT | (long) s.av_SREG << SREG_SHIFT | ctx;
+        hash = hashKey(key);
+        return stateShards[shard(hash)].intern(key, hash);
+    }
 
-        if (cs != null)
-        {
-            // if the state is already in the state map, return original
-            return cs;
-        } else
-        {
-            totalStateCount++;
-            // the state is new, put it in the map and return it.
-            stateMap.put(is, is);
-            return is;
-        }
+
+    /**
+     * The <code>getState()</code> method creates an immutable copy of the
+     * state with the given number.
+     *
+     * @param id
+     *            the number of the state
+     * @return an immutable copy of the state
+     */
+    public State getState(int id)
+    {
+        return new State(id);
+    }
+
+
+    /**
+     * The <code>getMutableState()</code> method creates a mutable copy of the
+     * state with the given number, e.g. to compute its successors.
+     *
+     * @param id
+     *            the number of the state
+     * @return a new mutable state with the same values as the state
+     */
+    public MutableState getMutableState(int id)
+    {
+        long key = getKey(id);
+        MutableState s = new MutableState();
+        s.pc = decodePC(key);
+        s.av_SREG = decodeSREG(key);
+        readContext(decodeContext(key), s);
+        return s;
+    }
+
+
+    /**
+     * The <code>getPC()</code> method returns the program counter of a state.
+     *
+     * @param id
+     *            the number of the state
+     * @return the program counter of the state
+     */
+    public int getPC(int id)
+    {
+        return decodePC(getKey(id));
     }
 
 
     /**
      * The <code>getTotalStateCount()</code> method returns the internally
-     * recorded number of states created in this state space. This is mainly
-     * used for reporting purposes.
+     * recorded number of states created in this state space. States are
+     * numbered from zero up to this count. This is mainly used for reporting
+     * purposes.
      *
      * @return the total number of states in the state cache
      */
     public long getTotalStateCount()
     {
-        return totalStateCount;
+        return stateCount.get();
     }
 
 
-    public Iterator<State> getStateIterator()
+    /**
+     * The <code>getContextCount()</code> method returns the number of distinct
+     * contexts, i.e. the combinations of interrupt masks and registers, that
+     * the states in this state space share.
+     *
+     * @return the number of contexts in the state cache
+     */
+    public long getContextCount()
     {
-        return stateMap.values().iterator();
+        return contextCount.get();
+    }
+
+
+    public static String getUniqueName(int id)
+    {
+        return StringUtil.toHex(id, 10);
     }
 
 
@@ -381,4 +668,133 @@ public class StateCache
     {
         return new Set();
     }
+
+
+    StatePage page(int id)
+    {
+        return statePages[id >>> PAGE_BITS];
+    }
+
+
+    private long getKey(int id)
+    {
+        return page(id).keys[id & PAGE_MASK];
+    }
+
+
+    private int newState(long key)
+    {
+        int id = stateCount.getAndIncrement();
+        ensureStatePage(id);
+        page(id).keys[id & PAGE_MASK] = key;
+        return id;
+    }
+
+
+    private synchronized void ensureStatePage(int id)
+    {
+        int p = id >>> PAGE_BITS;
+        StatePage[] pages = statePages;
+        if (p < pages.length && pages[p] != null)
+            return;
+        if (p >= pages.length)
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        pages[p] = new StatePage();
+        statePages = pages;
+    }
+
+
+    private int newContext(long[] words)
+    {
+        int ctx = contextCount.getAndIncrement();
+        if (ctx > CONTEXT_MASK)
+            throw Util.failure("too many contexts in state space");
+        ensureContextPage(ctx);
+        System.arraycopy(words, 0, contextPages[ctx >>> PAGE_BITS],
+                (ctx & PAGE_MASK) * CONTEXT_WORDS, CONTEXT_WORDS);
+        return ctx;
+    }
+
+
+    private synchronized void ensureContextPage(int ctx)
+    {
+        int p = ctx >>> PAGE_BITS;
+        long[][] pages = contextPages;
+        if (p < pages.length && pages[p] != null)
+            return;
+        if (p >= pages.length)
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        pages[p] = new long[PAGE_SIZE * CONTEXT_WORDS];
+        contextPages = pages;
+    }
+
+
+    private boolean matchContext(int ctx, long[] words)
+    {
+        long[] page = contextPages[ctx >>> PAGE_BITS];
+        int base = (ctx & PAGE_MASK) * CONTEXT_WORDS;
+        for (int cntr = 0; cntr < CONTEXT_WORDS; cntr++)
+            if (page[base + cntr] != words[cntr])
+                return false;
+        return true;
+    }
+
+
+    private void readContext(int ctx, AbstractState s)
+    {
+        long[] page = contextPages[ctx >>> PAGE_BITS];
+        int base = (ctx & PAGE_MASK) * CONTEXT_WORDS;
+        s.av_EIMSK = (char) (page[base] >>> 16);
+        s.av_TIMSK = (char) page[base];
+        for (int cntr = 0; cntr < NUM_REGS; cntr++)
+            s.av_REGISTERS[cntr] = (char) (page[base + 1 + (cntr >> 2)] >>> ((cntr & 3) << 4));
+    }
+
+
+    private static int decodePC(long key)
+    {
+        return (int) (key >>> PC_SHIFT);
+    }
+
+
+    private static char decodeSREG(long key)
+    {
+        return (char) (key >>> SREG_SHIFT);
+    }
+
+
+    private static int decodeContext(long key)
+    {
+        return (int) (key & CONTEXT_MASK);
+    }
+
+
+    private static long hashKey(long key)
+    {
+        long h = (key ^ key >>> 33) * 0xff51afd7ed558ccdL;
+        return h ^ h >>> 29;
+    }
+
+
+    private static long hashContext(long[] words)
+    {
+        long h = 0;
+        for (long w : words)
+            h = (h ^ w) * 0x9E3779B97F4A7C15L;
+        return h ^ h >>> 29;
+    }
+
+
+    // the shard is selected by the upper bits of the hash, the slot in the
+    // table of the shard by the lower bits
+    private static int shard(long hash)
+    {
+        return (int) (hash >>> 64 - SHARD_BITS);
+    }
+
+
+    private static int index(long hash)
+    {
+        return (int) hash;
+    }
 }
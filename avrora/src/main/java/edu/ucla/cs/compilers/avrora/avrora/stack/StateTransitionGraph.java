@@ -30,6 +30,7 @@
  * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package edu.ucla.cs.compilers.avrora.avrora.stack;
 
 import edu.ucla.cs.compilers.avrora.avrora.core.Program;
@@ -37,28 +38,65 @@ import edu.ucla.cs.compilers.avrora.cck.text.Printer;
 import edu.ucla.cs.compilers.avrora.cck.text.StringUtil;
 import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * The <code>StateTransitionGraph</code> class stores the edges between the
+ * states of the state cache, and for each state whether it is explored or on
+ * the frontier. States are referred to by their numbers in the state cache.
+ * Edges are numbered from one, and are stored in arrays that link each edge
+ * into the list of edges leaving its source and the list of edges entering its
+ * target; the number <code>NO_EDGE</code> ends these lists.
+ *
  * @author Ben L. Titzer
  */
 public class StateTransitionGraph
 {
 
-    private final StateCache.State edenState;
+    public static final int NO_EDGE = 0;
+    public static final int NO_STATE = -1;
+
+    private static final int EXPLORED = 1;
+    private static final int FRONTIER = 2;
+
+    private static final int PAGE_BITS = StateCache.PAGE_BITS;
+    private static final int PAGE_MASK = StateCache.PAGE_MASK;
+
+    // edges into a state are linked under the lock of the state's stripe
+    private static final int LOCK_MASK = 255;
+
+    private final int edenState;
     /**
-     * The <code>frontierList</code> field stores a simple linked list of the current states on the frontier.
+     * The <code>frontier</code> field stores the states on the frontier as a
+     * stack; the last state added is explored first.
      */
-    private StateList frontierList;
+    private int[] frontier = new int[64];
+    private int frontierSize;
     /**
      * The <code>cache</code> field stores a cache of all states; it guarantees
-     * that object equality for states implies reference equality and vice
-     * versa.
+     * that each state has exactly one number.
      */
-    private StateCache cache;
-    private long edgeCount;
-    private long frontierCount;
-    private long exploredCount;
+    private final StateCache cache;
+    private final AtomicLong edgeCount = new AtomicLong();
+    private final AtomicLong frontierCount = new AtomicLong();
+    private final AtomicLong exploredCount = new AtomicLong();
+    private final AtomicInteger edgeNumber = new AtomicInteger(1);
+    private volatile EdgePage[] edgePages = new EdgePage[16];
+    private final Object[] locks = new Object[LOCK_MASK + 1];
+
+    /**
+     * The <code>EdgePage</code> class stores one page of edges.
+     */
+    private static final class EdgePage {
+        final int[] source = new int[StateCache.PAGE_SIZE];
+        final int[] target = new int[StateCache.PAGE_SIZE];
+        final int[] forwardLink = new int[StateCache.PAGE_SIZE];
+        final int[] backwardLink = new int[StateCache.PAGE_SIZE];
+        final byte[] type = new byte[StateCache.PAGE_SIZE];
+        final byte[] weight = new byte[StateCache.PAGE_SIZE];
+    }
 
     /**
      * The constructor for the <code>StateTransitionGraph</code> class
@@ -70,30 +108,31 @@ public class StateTransitionGraph
      *            the program to create a state transition graph for.
      */
     public StateTransitionGraph(Program p) {
+        for (int cntr = 0; cntr < locks.length; cntr++) locks[cntr] = new Object();
         cache = new StateCache(p);
         edenState = cache.getEdenState();
-        edenState.info = new StateInfo(edenState);
         addFrontierState(edenState);
     }
 
     /**
-     * The <code>getCachedState()</code> method looks for the a cached,
-     * immutable state that corresponds to the given mutable state. If there is
-     * no cached state yet, it will create and return a new one.
+     * The <code>getCachedState()</code> method looks for the cached state that
+     * corresponds to the given mutable state. If there is no cached state yet,
+     * it will create a new one. This method may be called by several threads at
+     * once.
      *
      * @param s
      *            the mutable state to look for
-     * @return an instance of the <code>StateCache.LegacyState</code> class
+     * @return the number of the state in the state cache
      */
-    public StateCache.State getCachedState(MutableState s) {
-        StateCache.State ns = cache.getStateFor(s);
-        if (ns.info == null) ns.info = new StateInfo(ns);
-        return ns;
+    public int getCachedState(MutableState s) {
+        return cache.getStateFor(s);
     }
 
     /**
      * The <code>addEdge()</code> method adds an edge between two states in the
-     * state transition graph. The edge has a type and a weight.
+     * state transition graph. The edge has a type and a weight. Edges may be
+     * added by several threads at once, as long as the edges leaving each state
+     * are only added by one thread.
      *
      * @param s
      *            the source node of the edge
@@ -104,36 +143,101 @@ public class StateTransitionGraph
      * @param t
      *            the target node of the edge
      *
-     * @return the added edge
+     * @return the number of the added edge
      */
-    public Edge addEdge(StateCache.State s, int type, int weight, StateCache.State t) {
-        if (s.info == null) throw Util.failure("No edge info for: " + s.getUniqueName());
-        if (t.info == null) throw Util.failure("No edge info for: " + t.getUniqueName());
-        edgeCount++;
-        return s.info.addEdge(type, weight, t);
+    public int addEdge(int s, int type, int weight, int t) {
+        int e = edgeNumber.getAndIncrement();
+        EdgePage page = edgePage(e);
+        int i = e & PAGE_MASK;
+        page.source[i] = s;
+        page.target[i] = t;
+        page.type[i] = (byte) type;
+        page.weight[i] = (byte) weight;
+
+        StateCache.StatePage sp = cache.page(s);
+        StateCache.StatePage tp = cache.page(t);
+        page.forwardLink[i] = sp.forwardEdges[s & PAGE_MASK];
+        synchronized (locks[t & LOCK_MASK]) {
+            page.backwardLink[i] = tp.backwardEdges[t & PAGE_MASK];
+            tp.backwardEdges[t & PAGE_MASK] = e;
+        }
+        sp.forwardEdges[s & PAGE_MASK] = e;
+        edgeCount.incrementAndGet();
+        return e;
     }
 
     /**
      * The <code>getNextFrontierState()</code> chooses a state off of the state
      * frontier, removes it from the state frontier, and returns it. If there
-     * are no states left on the state frontier, this method returns null. Note
-     * that initially only the eden state is on the frontier.
+     * are no states left on the state frontier, this method returns
+     * <code>NO_STATE</code>. Note that initially only the eden state is on the
+     * frontier.
      *
-     * @return one of the states on the current state frontier; null if there
-     *         are none.
+     * @return one of the states on the current state frontier;
+     *         <code>NO_STATE</code> if there are none.
      */
-    public StateCache.State getNextFrontierState() {
-        if (frontierList == null) return null;
-        StateList l = frontierList;
-        frontierList = frontierList.next;
+    public int getNextFrontierState() {
+        if (frontierSize == 0) return NO_STATE;
+        int state = frontier[--frontierSize];
+        clearFlag(state, FRONTIER);
+        frontierCount.decrementAndGet();
+        return state;
+    }
 
-        StateCache.State state = l.state;
-        if (state.info == null)
-            throw Util.failure("LegacyState on frontier has no edge info: " + state.getUniqueName());
+    /**
+     * The <code>takeFrontierList()</code> method removes all states from the
+     * frontier list and returns them. The states are still marked as being on
+     * the frontier until they are explored with
+     * <code>exploreFrontierState()</code>, so that no other thread claims them
+     * in the meantime.
+     *
+     * @return the states on the frontier; null if there are none
+     */
+    public int[] takeFrontierList() {
+        if (frontierSize == 0) return null;
+        int[] l = Arrays.copyOf(frontier, frontierSize);
+        frontierSize = 0;
+        return l;
+    }
 
-        state.onFrontier = false;
-        frontierCount--;
-        return state;
+    /**
+     * The <code>claimFrontierState()</code> method atomically tests whether a
+     * state is new and, if so, marks it as being on the frontier without adding
+     * it to the frontier list. It is used by threads that explore the state
+     * space in parallel, where the claiming thread becomes responsible for
+     * exploring the state.
+     *
+     * @param s
+     *            the state to claim
+     * @return true if the state was neither explored nor on the frontier and
+     *         has been claimed by the caller; false otherwise
+     */
+    public boolean claimFrontierState(int s) {
+        StateCache.StatePage page = cache.page(s);
+        synchronized (locks[s & LOCK_MASK]) {
+            if (page.flags[s & PAGE_MASK] != 0) return false;
+            page.flags[s & PAGE_MASK] = FRONTIER;
+        }
+        frontierCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The <code>exploreFrontierState()</code> method moves a state that was
+     * claimed or taken from the frontier list to the explored states.
+     *
+     * @param s
+     *            the state to mark as explored
+     */
+    public void exploreFrontierState(int s) {
+        StateCache.StatePage page = cache.page(s);
+        synchronized (locks[s & LOCK_MASK]) {
+            if (page.flags[s & PAGE_MASK] != FRONTIER)
+                throw Util.failure("state is not on frontier: " + StateCache.getUniqueName(s));
+            page.flags[s & PAGE_MASK] = EXPLORED;
+        }
+        frontierCount.decrementAndGet();
+        exploredCount.incrementAndGet();
     }
 
     /**
@@ -142,13 +246,14 @@ public class StateTransitionGraph
      * @param s
      *            the state to add
      */
-    public void addFrontierState(StateCache.State s) {
-        if (isExplored(s)) throw Util.failure("Attempt to re-add state to frontier: " + s.getUniqueName());
+    public void addFrontierState(int s) {
+        if (isExplored(s)) throw Util.failure("Attempt to re-add state to frontier: " + StateCache.getUniqueName(s));
 
         if (!isFrontier(s)) {
-            frontierList = new StateList(s, frontierList);
-            s.onFrontier = true;
-            frontierCount++;
+            if (frontierSize == frontier.length) frontier = Arrays.copyOf(frontier, frontierSize * 2);
+            frontier[frontierSize++] = s;
+            setFlag(s, FRONTIER);
+            frontierCount.incrementAndGet();
         }
     }
 
@@ -161,8 +266,8 @@ public class StateTransitionGraph
      * @return true if this state has been explored and had its outgoing edges
      *         computed; false otherwise
      */
-    public boolean isExplored(StateCache.State s) {
-        return s.isExplored;
+    public boolean isExplored(int s) {
+        return (cache.page(s).flags[s & PAGE_MASK] & EXPLORED) != 0;
     }
 
     /**
@@ -174,13 +279,13 @@ public class StateTransitionGraph
      * @param s
      *            the state to mark as explored
      */
-    public void setExplored(StateCache.State s) {
+    public void setExplored(int s) {
         if (isFrontier(s))
-            throw Util.failure("state cannot be on frontier and explored: " + s.getUniqueName());
+            throw Util.failure("state cannot be on frontier and explored: " + StateCache.getUniqueName(s));
 
         if (!isExplored(s)) {
-            s.isExplored = true;
-            exploredCount++;
+            setFlag(s, EXPLORED);
+            exploredCount.incrementAndGet();
         }
     }
 
@@ -193,8 +298,8 @@ public class StateTransitionGraph
      * @return true if the state is currently on the frontier of the state
      *         transition graph; false otherwise
      */
-    public boolean isFrontier(StateCache.State s) {
-        return s.onFrontier;
+    public boolean isFrontier(int s) {
+        return (cache.page(s).flags[s & PAGE_MASK] & FRONTIER) != 0;
     }
 
     /**
@@ -208,20 +313,95 @@ public class StateTransitionGraph
         return cache;
     }
 
-    public StateCache.State getEdenState() {
+    public int getEdenState() {
         return edenState;
     }
 
     public long getFrontierCount() {
-        return frontierCount;
+        return frontierCount.get();
     }
 
     public long getEdgeCount() {
-        return edgeCount;
+        return edgeCount.get();
     }
 
     public long getExploredCount() {
-        return exploredCount;
+        return exploredCount.get();
+    }
+
+    public int getType(int s) {
+        return cache.page(s).types[s & PAGE_MASK];
+    }
+
+    public void setType(int s, int type) {
+        cache.page(s).types[s & PAGE_MASK] = (byte) type;
+    }
+
+    /**
+     * The <code>getStateSet()</code> method gets the set of return states
+     * reachable from the given state, which is computed by the propagation
+     * phase of the analysis.
+     *
+     * @param s
+     *            the state
+     * @return the set of reachable return states; null if none has been
+     *         computed yet
+     */
+    public StateCache.Set getStateSet(int s) {
+        return cache.page(s).stateSets[s & PAGE_MASK];
+    }
+
+    public void setStateSet(int s, StateCache.Set set) {
+        cache.page(s).stateSets[s & PAGE_MASK] = set;
+    }
+
+    /**
+     * The <code>getMark()</code> method gets the mark of a state, which graph
+     * traversals use to detect states they have already visited. Concurrent
+     * traversal is not supported.
+     *
+     * @param s
+     *            the state
+     * @return the mark of the state
+     */
+    public int getMark(int s) {
+        return cache.page(s).marks[s & PAGE_MASK];
+    }
+
+    public void setMark(int s, int mark) {
+        cache.page(s).marks[s & PAGE_MASK] = mark;
+    }
+
+    public int getForwardEdges(int s) {
+        return cache.page(s).forwardEdges[s & PAGE_MASK];
+    }
+
+    public int getBackwardEdges(int s) {
+        return cache.page(s).backwardEdges[s & PAGE_MASK];
+    }
+
+    public int getForwardLink(int e) {
+        return edgePages[e >>> PAGE_BITS].forwardLink[e & PAGE_MASK];
+    }
+
+    public int getBackwardLink(int e) {
+        return edgePages[e >>> PAGE_BITS].backwardLink[e & PAGE_MASK];
+    }
+
+    public int getSource(int e) {
+        return edgePages[e >>> PAGE_BITS].source[e & PAGE_MASK];
+    }
+
+    public int getTarget(int e) {
+        return edgePages[e >>> PAGE_BITS].target[e & PAGE_MASK];
+    }
+
+    public int getEdgeType(int e) {
+        return edgePages[e >>> PAGE_BITS].type[e & PAGE_MASK];
+    }
+
+    public int getWeight(int e) {
+        return edgePages[e >>> PAGE_BITS].weight[e & PAGE_MASK];
     }
 
     public StateCache.Set newSet() {
@@ -229,41 +409,36 @@ public class StateTransitionGraph
     }
 
     public void deleteStateSets() {
-        Iterator<StateCache.State> i = cache.getStateIterator();
-        while (i.hasNext()) {
-            StateCache.State state = i.next();
-            state.info.stateSet = null;
-        }
+        int count = (int) cache.getTotalStateCount();
+        for (int state = 0; state < count; state++)
+            setStateSet(state, null);
     }
 
     public void dump(Printer p) {
-        Iterator<StateCache.State> i = cache.getStateIterator();
-        while (i.hasNext()) {
-            StateCache.State state = i.next();
-            StringBuffer buf = dumpToBuffer(state);
+        int count = (int) cache.getTotalStateCount();
+        for (int state = 0; state < count; state++) {
+            StringBuffer buf = dumpToBuffer(cache.getState(state));
             p.println(buf.toString());
         }
 
-        i = cache.getStateIterator();
-        while (i.hasNext()) {
-            StateCache.State state = i.next();
-            for (Edge e = state.info.forwardEdges; e != null; e = e.forwardLink) {
-                StringBuffer buf = dumpToBuffer(e);
+        for (int state = 0; state < count; state++) {
+            for (int e = getForwardEdges(state); e != NO_EDGE; e = getForwardLink(e)) {
+                StringBuffer buf = dumpEdgeToBuffer(e);
                 p.println(buf.toString());
             }
         }
     }
 
-    private StringBuffer dumpToBuffer(Edge e) {
+    private StringBuffer dumpEdgeToBuffer(int e) {
         StringBuffer buf = new StringBuffer(32);
         buf.append('[');
-        buf.append(e.source.getUniqueName());
+        buf.append(StateCache.getUniqueName(getSource(e)));
         buf.append("] --(");
-        buf.append(Analyzer.EDGE_NAMES[e.type]);
+        buf.append(Analyzer.EDGE_NAMES[getEdgeType(e)]);
         buf.append(',');
-        buf.append(e.weight);
+        buf.append(getWeight(e));
         buf.append(")--> [");
-        buf.append(e.target.getUniqueName());
+        buf.append(StateCache.getUniqueName(getTarget(e)));
         buf.append(']');
         return buf;
     }
@@ -289,70 +464,26 @@ public class StateTransitionGraph
         return buf;
     }
 
-    public static class StateList {
-        public final StateCache.State state;
-        public final StateList next;
-
-        StateList(StateCache.State tar, StateList n) {
-            state = tar;
-            next = n;
-        }
+    private EdgePage edgePage(int e) {
+        EdgePage[] pages = edgePages;
+        int p = e >>> PAGE_BITS;
+        if (p < pages.length && pages[p] != null) return pages[p];
+        return newEdgePage(p);
     }
 
-    public static class EdgeList {
-        public final Edge edge;
-        public final EdgeList next;
-
-        EdgeList(Edge tar, EdgeList n) {
-            edge = tar;
-            next = n;
-        }
+    private synchronized EdgePage newEdgePage(int p) {
+        EdgePage[] pages = edgePages;
+        if (p >= pages.length) pages = Arrays.copyOf(pages, Math.max(pages.length * 2, p + 1));
+        if (pages[p] == null) pages[p] = new EdgePage();
+        edgePages = pages;
+        return pages[p];
     }
 
-    /**
-     * The <code>Edge</code> inner class represents a bidirectional edge between
-     * two states. It is contained on two linked lists: the forward edge list of
-     * the source node and the backward edge list of the target node.
-     */
-    public static class Edge {
-        public final StateCache.State source;
-        public final StateCache.State target;
-        public final Edge forwardLink;
-        public final Edge backwardLink;
-        public final int type;
-        public final int weight;
-
-        Edge(StateCache.State source, StateCache.State target, Edge fl, Edge bl, int type, int weight) {
-            this.source = source;
-            this.target = target;
-            this.forwardLink = fl;
-            this.backwardLink = bl;
-            this.type = type;
-            this.weight = weight;
-        }
+    private void setFlag(int s, int flag) {
+        cache.page(s).flags[s & PAGE_MASK] |= flag;
     }
 
-    /**
-     * The <code>StateInfo</code> class is a representation of both the forward and backward edge list
-     * corresponding to a node in the state transition graph. It also stores a cache of reachable return
-     * states (based on backwards reachability search).
-     */
-    public static class StateInfo {
-        public final StateCache.State state;
-        public StateCache.Set stateSet;
-        public Edge forwardEdges;
-        public Edge backwardEdges;
-
-        StateInfo(StateCache.State s) {
-            state = s;
-        }
-
-        public Edge addEdge(int type, int weight, StateCache.State target) {
-            Edge nedge = new Edge(state, target, forwardEdges, target.info.backwardEdges, type, weight);
-
-            this.forwardEdges = nedge;
-            target.info.backwardEdges = nedge;
-            return nedge;
-        }
+    private void clearFlag(int s, int flag) {
+        cache.page(s).flags[s & PAGE_MASK] &= ~flag;
     }
 }
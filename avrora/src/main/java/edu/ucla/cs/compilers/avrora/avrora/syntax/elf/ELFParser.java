@@ -34,6 +34,7 @@ package edu.ucla.cs.compilers.avrora.avrora.syntax.elf;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import edu.ucla.cs.compilers.avrora.avrora.Main;
@@ -100,7 +101,17 @@ public class ELFParser extends ProgramReader
         String fname = args[0];
         Main.checkFileExists(fname);
 
-        RandomAccessFile fis = new RandomAccessFile(fname, "r");
+        // map the whole file; the tables are read from the mapping
+        RandomAccessFile file = new RandomAccessFile(fname, "r");
+        ByteBuffer fis;
+        try
+        {
+            fis = ELFLoader.map(file);
+        }
+        finally
+        {
+            file.close();
+        }
 
         // read the ELF header
         try
@@ -133,7 +144,7 @@ public class ELFParser extends ProgramReader
     }
 
 
-    private void loadSymbolTables(Program p, RandomAccessFile fis)
+    private void loadSymbolTables(Program p, ByteBuffer fis)
             throws IOException
     {
         SourceMapping map = new SourceMapping(p);
@@ -166,17 +177,16 @@ public class ELFParser extends ProgramReader
     }
 
 
-    private Program loadSections(RandomAccessFile fis) throws IOException
+    private Program loadSections(ByteBuffer fis) throws IOException
     {
         // load each section
-        ELFDataInputStream is = new ELFDataInputStream(header, fis);
+        ELFDataInputStream is = new ELFDataInputStream(header, fis, 0);
         Program p = createProgram();
         for (int cntr = 0; cntr < pht.entries.length; cntr++)
         {
             ELFProgramHeaderTable.Entry32 e = pht.entries[cntr];
             if (e.isLoadable() && e.p_filesz > 0)
             {
-                fis.seek(e.p_offset);
                 byte[] sect = is.read_section(e.p_offset, e.p_filesz);
                 p.writeProgramBytes(sect, e.p_paddr);
                 if (e.isExecutable())
@@ -33,10 +33,20 @@
  */
 package edu.ucla.cs.compilers.avrora.cck.elf;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
+ * The <code>ELFDataInputStream</code> class reads the data types of the ELF
+ * specification from a buffer that holds the contents of an ELF file, usually
+ * a mapping of the whole file. The byte order of the buffer is taken from the
+ * ELF header, and reads that run past the end of the file throw an
+ * <code>EOFException</code>.
+ *
  * @author Ben L. Titzer
  */
 public class ELFDataInputStream
@@ -44,26 +54,89 @@ public class ELFDataInputStream
 
     final boolean bigEndian;
     final ELFHeader header;
-    final RandomAccessFile file;
+    final ByteBuffer buffer;
+
+
+    /**
+     * The constructor for the <code>ELFDataInputStream</code> class creates a
+     * stream that reads from the specified buffer, starting at the specified
+     * offset in the file.
+     *
+     * @param header the ELF header of the file, which determines the byte order
+     * @param buf the buffer holding the contents of the file
+     * @param off the offset at which to start reading
+     * @throws IOException if the offset is past the end of the file
+     */
+    public ELFDataInputStream(ELFHeader header, ByteBuffer buf, int off)
+            throws IOException
+    {
+        this.header = header;
+        bigEndian = header.isBigEndian();
+        buffer = buf.duplicate();
+        buffer.order(bigEndian ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN);
+        seek(off);
+    }
 
 
+    /**
+     * The constructor for the <code>ELFDataInputStream</code> class creates a
+     * stream that maps the specified file and starts reading at its current
+     * file pointer.
+     *
+     * @param header the ELF header of the file, which determines the byte order
+     * @param f the file to read from
+     * @throws IOException if the file cannot be mapped
+     */
     public ELFDataInputStream(ELFHeader header, RandomAccessFile f)
+            throws IOException
     {
-        this.header = header;
-        bigEndian = header.isBigEndian();
-        file = f;
+        this(header, ELFLoader.map(f), (int) f.getFilePointer());
+    }
+
+
+    /**
+     * The <code>seek()</code> method moves this stream to the specified offset
+     * in the file.
+     *
+     * @param off the offset in the file
+     * @throws IOException if the offset is past the end of the file
+     */
+    public void seek(int off) throws IOException
+    {
+        if (off < 0 || off > buffer.limit())
+            throw new EOFException("ELF offset out of range: " + off);
+        buffer.position(off);
+    }
+
+
+    /**
+     * The <code>skip()</code> method skips over the specified number of bytes,
+     * such as the padding at the end of a table entry.
+     *
+     * @param count the number of bytes to skip
+     * @throws IOException if the new position is past the end of the file
+     */
+    public void skip(int count) throws IOException
+    {
+        if (count > 0)
+            seek(buffer.position() + count);
     }
 
 
     public byte[] read_section(int off, int length) throws IOException
     {
-        byte[] buffer = new byte[length];
-        file.seek(off);
-        for (int cntr = 0; cntr < length;)
+        byte[] data = new byte[length];
+        seek(off);
+        try
+        {
+            buffer.get(data);
+        }
+        catch (BufferUnderflowException e)
         {
-            cntr += file.read(buffer, cntr, length - cntr);
+            throw new EOFException("ELF section out of range: " + off);
         }
-        return buffer;
+        return data;
     }
 
 
@@ -111,41 +184,25 @@ public class ELFDataInputStream
 
     private int read_1() throws IOException
     {
-        return file.read() & 0xff;
+        if (buffer.remaining() < 1)
+            throw new EOFException();
+        return buffer.get() & 0xff;
     }
 
 
     private int read_2() throws IOException
     {
-        int b1 = read_1();
-        int b2 = read_1();
-        if (bigEndian)
-            return asShort(b2, b1);
-        return asShort(b1, b2);
+        if (buffer.remaining() < 2)
+            throw new EOFException();
+        return buffer.getShort();
     }
 
 
     private int read_4() throws IOException
     {
-        int b1 = read_1();
-        int b2 = read_1();
-        int b3 = read_1();
-        int b4 = read_1();
-        if (bigEndian)
-            return asInt(b4, b3, b2, b1);
-        return asInt(b1, b2, b3, b4);
-    }
-
-
-    private short asShort(int bl, int bh)
-    {
-        return (short) ((bh << 8) | bl);
-    }
-
-
-    private int asInt(int b1, int b2, int b3, int b4)
-    {
-        return (b4 << 24) | (b3 << 16) | (b2 << 8) | b1;
+        if (buffer.remaining() < 4)
+            throw new EOFException();
+        return buffer.getInt();
     }
 
 }
@@ -34,6 +34,7 @@ package edu.ucla.cs.compilers.avrora.cck.elf;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * The <code>ELFHeader</code> class represents the header of an ELF file. It can
@@ -103,12 +104,28 @@ public class ELFHeader
      *  if the identification string cannot be read
      */
     public void read(RandomAccessFile fs) throws IOException, FormatError {
+        read(ELFLoader.map(fs));
+    }
+
+    /**
+     * The method reads the header from the specified buffer, which holds the
+     * contents of the file, in the same way as the <code>read()</code> method
+     * that reads from a file.
+     *
+     * @param buf
+     *            the buffer from which to read the ELF header
+     * @throws IOException
+     *             if the header extends past the end of the buffer
+     * @throws FormatError
+     *  if the identification string cannot be read
+     */
+    public void read(ByteBuffer buf) throws IOException, FormatError {
         // read the identification string
-        if (fs.length() < EI_NIDENT) throw new FormatError();
-        for (int index = 0; index < EI_NIDENT; )
-            index += fs.read(e_ident, index, EI_NIDENT - index);
+        if (buf.limit() < EI_NIDENT) throw new FormatError();
+        for (int index = 0; index < EI_NIDENT; index++)
+            e_ident[index] = buf.get(index);
         checkIdent();
-        ELFDataInputStream is = new ELFDataInputStream(this, fs);
+        ELFDataInputStream is = new ELFDataInputStream(this, buf, EI_NIDENT);
         e_type = is.read_Elf32_Half();
         e_machine = is.read_Elf32_Half();
         e_version = is.read_Elf32_Word();
@@ -35,6 +35,8 @@ package edu.ucla.cs.compilers.avrora.cck.elf;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -48,6 +50,25 @@ import java.util.List;
 public class ELFLoader
 {
 
+    /**
+     * The <code>map()</code> method maps the contents of the specified file
+     * into memory. The tables of the file can then be read from the returned
+     * buffer without a system call for each field, and the mapping remains
+     * valid after the file has been closed.
+     * 
+     * @param fis
+     *            the random access file to map
+     * @return a read-only buffer holding the contents of the file
+     * @throws IOException
+     *             if the file cannot be mapped
+     */
+    public static ByteBuffer map(RandomAccessFile fis) throws IOException
+    {
+        FileChannel ch = fis.getChannel();
+        return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+
+
     /**
      * The <code>readELFHeader()</code> method loads an ELF header data
      * structure from the specified random access file. This method checks for
@@ -65,9 +86,30 @@ public class ELFLoader
      */
     public static ELFHeader readELFHeader(RandomAccessFile fis)
             throws IOException, ELFHeader.FormatError
+    {
+        return readELFHeader(map(fis));
+    }
+
+
+    /**
+     * The <code>readELFHeader()</code> method loads an ELF header data
+     * structure from the specified buffer, which holds the contents of the
+     * file.
+     * 
+     * @param buf
+     *            the buffer from which to read the header
+     * @return a reference to a new <code>ELFHeader</code> instance representing
+     *         the header
+     * @throws IOException
+     *             if the header extends past the end of the buffer
+     * @throws ELFHeader.FormatError
+     *             if the header does not comply with the ELF specification
+     */
+    public static ELFHeader readELFHeader(ByteBuffer buf)
+            throws IOException, ELFHeader.FormatError
     {
         ELFHeader header = new ELFHeader();
-        header.read(fis);
+        header.read(buf);
         return header;
     }
 
@@ -87,9 +129,29 @@ public class ELFLoader
      */
     public static ELFProgramHeaderTable readPHT(RandomAccessFile fis,
             ELFHeader header) throws IOException
+    {
+        return readPHT(map(fis), header);
+    }
+
+
+    /**
+     * The <code>readPHT()</code> method reads the program header table from the
+     * specified buffer, which holds the contents of the file.
+     * 
+     * @param buf
+     *            the buffer from which to read the program header table
+     * @param header
+     *            the ELFHeader instance already loaded from this file
+     * @return a reference to a new object representing the program header table
+     *         for this ELF file
+     * @throws IOException
+     *             if the table extends past the end of the buffer
+     */
+    public static ELFProgramHeaderTable readPHT(ByteBuffer buf,
+            ELFHeader header) throws IOException
     {
         ELFProgramHeaderTable pht = new ELFProgramHeaderTable(header);
-        pht.read(fis);
+        pht.read(buf);
         return pht;
     }
 
@@ -109,16 +171,37 @@ public class ELFLoader
      */
     public static ELFSectionHeaderTable readSHT(RandomAccessFile fis,
             ELFHeader header) throws IOException
+    {
+        return readSHT(map(fis), header);
+    }
+
+
+    /**
+     * The <code>readSHT()</code> method loads the section header table and the
+     * section names from the specified buffer, which holds the contents of the
+     * file.
+     * 
+     * @param buf
+     *            the buffer from which to load the section header table
+     * @param header
+     *            the ELF header corresponding to this file
+     * @return a reference to a new object that represents the section header
+     *         table
+     * @throws IOException
+     *             if the table extends past the end of the buffer
+     */
+    public static ELFSectionHeaderTable readSHT(ByteBuffer buf,
+            ELFHeader header) throws IOException
     {
         ELFSectionHeaderTable sht = new ELFSectionHeaderTable(header);
-        sht.read(fis);
+        sht.read(buf);
 
         // read the ELF string table that contains the section names
         if (header.e_shstrndx < sht.entries.length)
         {
             ELFSectionHeaderTable.Entry32 e = sht.entries[header.e_shstrndx];
             ELFStringTable srttab = new ELFStringTable(header, e);
-            srttab.read(fis);
+            srttab.read(buf);
             sht.setStringTable(srttab);
         }
         return sht;
@@ -142,6 +225,29 @@ public class ELFLoader
      */
     public static List<ELFSymbolTable> readSymbolTables(RandomAccessFile fis,
             ELFHeader header, ELFSectionHeaderTable sht) throws IOException
+    {
+        return readSymbolTables(map(fis), header, sht);
+    }
+
+
+    /**
+     * The <code>readSymbolTables()</code> method reads a list of symbol tables
+     * and their string tables from the specified buffer, which holds the
+     * contents of the file.
+     * 
+     * @param buf
+     *            the buffer from which to load the symbol tables
+     * @param header
+     *            the ELF header for this file
+     * @param sht
+     *            the section header table for this file, which is used to
+     *            locate string tables
+     * @return a list of symbol tables that are contained in this ELF file
+     * @throws IOException
+     *             if a table extends past the end of the buffer
+     */
+    public static List<ELFSymbolTable> readSymbolTables(ByteBuffer buf,
+            ELFHeader header, ELFSectionHeaderTable sht) throws IOException
     {
         List<ELFSymbolTable> symbolTables = new LinkedList<ELFSymbolTable>();
         for (int cntr = 0; cntr < sht.entries.length; cntr++)
@@ -150,13 +256,13 @@ public class ELFLoader
             if (e1.isSymbolTable())
             {
                 ELFSymbolTable stab = new ELFSymbolTable(header, e1);
-                stab.read(fis);
+                stab.read(buf);
                 symbolTables.add(stab);
                 ELFSectionHeaderTable.Entry32 strent = sht.entries[e1.sh_link];
                 if (strent.isStringTable())
                 {
                     ELFStringTable str = new ELFStringTable(header, strent);
-                    str.read(fis);
+                    str.read(buf);
                     stab.setStringTable(str);
                 }
             }
@@ -38,6 +38,7 @@ import edu.ucla.cs.compilers.avrora.cck.util.Util;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * The <code>ELFProgramHeaderTable</code> class represents a program header
@@ -122,12 +123,27 @@ public class ELFProgramHeaderTable
      *             if there is a problem reading the header table from the input
      */
     public void read(RandomAccessFile fis) throws IOException
+    {
+        read(ELFLoader.map(fis));
+    }
+
+
+    /**
+     * The <code>read()</code> method reads the program header table from the
+     * specified buffer, which holds the contents of the file.
+     * 
+     * @param buf
+     *            the buffer from which to read the program header table
+     * @throws IOException
+     *             if the table extends past the end of the buffer
+     */
+    public void read(ByteBuffer buf) throws IOException
     {
         if (entries.length == 0)
             return;
-        // seek to the beginning of the table
-        fis.seek(header.e_phoff);
-        ELFDataInputStream is = new ELFDataInputStream(header, fis);
+        // start at the beginning of the table
+        ELFDataInputStream is = new ELFDataInputStream(header, buf,
+                header.e_phoff);
         // read each entry
         for (int cntr = 0; cntr < entries.length; cntr++)
         {
@@ -141,9 +157,8 @@ public class ELFProgramHeaderTable
             e.p_flags = is.read_Elf32_Word();
             e.p_align = is.read_Elf32_Word();
             entries[cntr] = e;
-            // read the rest of the entry (padding)
-            for (int pad = 32; pad < header.e_phentsize; pad++)
-                fis.read();
+            // skip the rest of the entry (padding)
+            is.skip(header.e_phentsize - 32);
         }
     }
 
@@ -35,6 +35,7 @@ package edu.ucla.cs.compilers.avrora.cck.elf;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * The <code>ELFSectionHeaderTable</code> class represents a cleaned-up view of
@@ -183,12 +184,27 @@ public class ELFSectionHeaderTable
      *             if there is a problem reading the data from the file
      */
     public void read(RandomAccessFile fis) throws IOException
+    {
+        read(ELFLoader.map(fis));
+    }
+
+
+    /**
+     * The <code>read()</code> method reads the section header table from the
+     * specified buffer, which holds the contents of the file.
+     * 
+     * @param buf
+     *            the buffer that contains the section header table
+     * @throws IOException
+     *             if the table extends past the end of the buffer
+     */
+    public void read(ByteBuffer buf) throws IOException
     {
         if (entries.length == 0)
             return;
-        // seek to the beginning of the section header table
-        fis.seek(header.e_shoff);
-        ELFDataInputStream is = new ELFDataInputStream(header, fis);
+        // start at the beginning of the section header table
+        ELFDataInputStream is = new ELFDataInputStream(header, buf,
+                header.e_shoff);
         // load each of the section header entries
         for (int cntr = 0; cntr < entries.length; cntr++)
         {
@@ -205,8 +221,7 @@ public class ELFSectionHeaderTable
             e.sh_entsize = is.read_Elf32_Word();
 
             entries[cntr] = e;
-            for (int pad = 40; pad < header.e_shentsize; pad++)
-                fis.read();
+            is.skip(header.e_shentsize - 40);
         }
     }
 
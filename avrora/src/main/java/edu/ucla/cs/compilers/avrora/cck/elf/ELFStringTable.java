@@ -33,8 +33,10 @@
  */
 package edu.ucla.cs.compilers.avrora.cck.elf;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 /**
@@ -85,14 +87,31 @@ public class ELFStringTable
      *             if there is a problem reading the file
      */
     public void read(RandomAccessFile f) throws IOException
+    {
+        read(ELFLoader.map(f));
+    }
+
+
+    /**
+     * The <code>read()</code> method copies this string table from the
+     * specified buffer, which holds the contents of the file.
+     * 
+     * @param buf
+     *            the buffer to copy the data from
+     * @throws IOException
+     *             if the section extends past the end of the buffer
+     */
+    public void read(ByteBuffer buf) throws IOException
     {
         if (data.length == 0)
             return;
-        f.seek(entry.sh_offset);
-        for (int read = 0; read < data.length;)
-        {
-            read += f.read(data, read, data.length - read);
-        }
+        if (entry.sh_offset < 0
+                || entry.sh_offset > buf.limit() - data.length)
+            throw new EOFException("ELF section out of range: "
+                    + entry.sh_offset);
+        ByteBuffer b = buf.duplicate();
+        b.position(entry.sh_offset);
+        b.get(data);
     }
 
 
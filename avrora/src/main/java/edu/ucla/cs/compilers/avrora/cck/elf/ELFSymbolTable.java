@@ -35,6 +35,7 @@ package edu.ucla.cs.compilers.avrora.cck.elf;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * The <code>ELFSymbolTable</code> class represents a symbol table within an ELF
@@ -165,10 +166,24 @@ public class ELFSymbolTable
      */
     public void read(RandomAccessFile f) throws IOException
     {
-        // seek to the beginning of the section
-        f.seek(entry.sh_offset);
-        // create the elf data input stream
-        ELFDataInputStream is = new ELFDataInputStream(header, f);
+        read(ELFLoader.map(f));
+    }
+
+
+    /**
+     * The <code>read()</code> method reads this symbol table from the specified
+     * buffer, which holds the contents of the file.
+     * 
+     * @param buf
+     *            the buffer from which to read the symbol table
+     * @throws IOException
+     *             if the table extends past the end of the buffer
+     */
+    public void read(ByteBuffer buf) throws IOException
+    {
+        // create the elf data input stream at the beginning of the section
+        ELFDataInputStream is = new ELFDataInputStream(header, buf,
+                entry.sh_offset);
         // read each of the entries
         for (int cntr = 0; cntr < entries.length; cntr++)
         {
@@ -180,8 +195,7 @@ public class ELFSymbolTable
             e.st_other = is.read_Elf32_uchar();
             e.st_shndx = is.read_Elf32_Half();
             entries[cntr] = e;
-            for (int pad = 16; pad < entry.sh_entsize; pad++)
-                f.read();
+            is.skip(entry.sh_entsize - 16);
         }
     }
 
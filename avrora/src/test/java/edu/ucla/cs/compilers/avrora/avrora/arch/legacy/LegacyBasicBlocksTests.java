@@ -0,0 +1,82 @@
+package edu.ucla.cs.compilers.avrora.avrora.arch.legacy;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the decoding and invalidation of basic blocks for the legacy
+ * interpreter.
+ */
+public class LegacyBasicBlocksTests extends TestCase
+{
+
+    private static final LegacyRegister R16 = LegacyRegister.R16;
+    private static final LegacyRegister R24 = LegacyRegister.R24;
+
+    private LegacyInstr[] code;
+    private LegacyBasicBlocks blocks;
+
+
+    @Override
+    protected void setUp()
+    {
+        code = new LegacyInstr[128];
+        code[0] = new LegacyInstr.LDI(0, R16, 1);
+        code[2] = new LegacyInstr.ADIW(2, R24, 1);
+        code[4] = new LegacyInstr.NOP(4);
+        code[6] = new LegacyInstr.BREQ(6, -4);
+        code[8] = new LegacyInstr.OUT(8, 0x10, R16);
+        code[10] = new LegacyInstr.NOP(10);
+        code[12] = new LegacyInstr.NOP(12);
+        code[14] = new LegacyInstr.RJMP(14, -8);
+        blocks = new LegacyBasicBlocks(code.length);
+    }
+
+
+    private void assertBlock(int pc, int length, int cycles)
+    {
+        int block = blocks.lookup(code, pc);
+        assertEquals(length, LegacyBasicBlocks.length(block));
+        if (length > 1)
+            assertEquals(cycles, LegacyBasicBlocks.cycles(block));
+    }
+
+
+    public void testDecode()
+    {
+        // a taken branch costs one cycle more than its minimum
+        assertBlock(0, 4, 6);
+        assertBlock(2, 3, 5);
+        assertBlock(6, 1, 0);
+        // instructions with side effects start no block
+        assertBlock(8, 1, 0);
+        assertBlock(10, 3, 4);
+        assertBlock(16, 1, 0);
+    }
+
+
+    public void testMaximumLength()
+    {
+        for (int pc = 16; pc < code.length; pc += 2)
+            code[pc] = new LegacyInstr.NOP(pc);
+        assertBlock(16, LegacyBasicBlocks.MAX_LENGTH,
+                LegacyBasicBlocks.MAX_LENGTH);
+    }
+
+
+    public void testInvalidate()
+    {
+        assertBlock(0, 4, 6);
+        assertBlock(10, 3, 4);
+
+        // replacing an instruction splits the blocks that contain it
+        code[4] = new LegacyInstr.OUT(4, 0x10, R16);
+        blocks.invalidate(4);
+        assertBlock(0, 2, 3);
+        assertBlock(2, 1, 0);
+        assertBlock(10, 3, 4);
+
+        code[4] = new LegacyInstr.NOP(4);
+        blocks.invalidate(4);
+        assertBlock(0, 4, 6);
+    }
+}
@@ -0,0 +1,187 @@
+package edu.ucla.cs.compilers.avrora.avrora.arch.legacy;
+
+import java.util.Random;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import junit.framework.TestCase;
+
+/**
+ * Compares blocks compiled by the <code>LegacyBlockCompiler</code> against
+ * the legacy interpreter on random instruction sequences and register states.
+ */
+public class LegacyBlockCompilerTests extends TestCase
+{
+
+    private static final int SIZE = 256;
+
+    private final Random random = new Random(2006);
+
+
+    private LegacyRegister gpr()
+    {
+        return LegacyRegister.getRegisterByNumber(random.nextInt(32));
+    }
+
+
+    private LegacyRegister hgpr()
+    {
+        return LegacyRegister.getRegisterByNumber(16 + random.nextInt(16));
+    }
+
+
+    private LegacyRegister mgpr()
+    {
+        return LegacyRegister.getRegisterByNumber(16 + random.nextInt(8));
+    }
+
+
+    private LegacyRegister egpr()
+    {
+        return LegacyRegister.getRegisterByNumber(2 * random.nextInt(16));
+    }
+
+
+    private LegacyRegister rdl()
+    {
+        return LegacyRegister.getRegisterByNumber(24 + 2 * random.nextInt(4));
+    }
+
+
+    private LegacyInstr straight(int pc)
+    {
+        int k = random.nextInt(256);
+        int b = random.nextInt(8);
+        switch (random.nextInt(58))
+        {
+            case 0: return new LegacyInstr.ADC(pc, gpr(), gpr());
+            case 1: return new LegacyInstr.ADD(pc, gpr(), gpr());
+            case 2: return new LegacyInstr.ADIW(pc, rdl(), k & 63);
+            case 3: return new LegacyInstr.AND(pc, gpr(), gpr());
+            case 4: return new LegacyInstr.ANDI(pc, hgpr(), k);
+            case 5: return new LegacyInstr.ASR(pc, gpr());
+            case 6: return new LegacyInstr.BLD(pc, gpr(), b);
+            case 7: return new LegacyInstr.BST(pc, gpr(), b);
+            case 8: return new LegacyInstr.CBR(pc, hgpr(), k);
+            case 9: return new LegacyInstr.CLC(pc);
+            case 10: return new LegacyInstr.CLH(pc);
+            case 11: return new LegacyInstr.CLN(pc);
+            case 12: return new LegacyInstr.CLR(pc, gpr());
+            case 13: return new LegacyInstr.CLS(pc);
+            case 14: return new LegacyInstr.CLT(pc);
+            case 15: return new LegacyInstr.CLV(pc);
+            case 16: return new LegacyInstr.CLZ(pc);
+            case 17: return new LegacyInstr.COM(pc, gpr());
+            case 18: return new LegacyInstr.CP(pc, gpr(), gpr());
+            case 19: return new LegacyInstr.CPC(pc, gpr(), gpr());
+            case 20: return new LegacyInstr.CPI(pc, hgpr(), k);
+            case 21: return new LegacyInstr.DEC(pc, gpr());
+            case 22: return new LegacyInstr.EOR(pc, gpr(), gpr());
+            case 23: return new LegacyInstr.FMUL(pc, mgpr(), mgpr());
+            case 24: return new LegacyInstr.FMULS(pc, mgpr(), mgpr());
+            case 25: return new LegacyInstr.FMULSU(pc, mgpr(), mgpr());
+            case 26: return new LegacyInstr.INC(pc, gpr());
+            case 27: return new LegacyInstr.LDI(pc, hgpr(), k);
+            case 28: return new LegacyInstr.LSL(pc, gpr());
+            case 29: return new LegacyInstr.LSR(pc, gpr());
+            case 30: return new LegacyInstr.MOV(pc, gpr(), gpr());
+            case 31: return new LegacyInstr.MOVW(pc, egpr(), egpr());
+            case 32: return new LegacyInstr.MUL(pc, gpr(), gpr());
+            case 33: return new LegacyInstr.MULS(pc, hgpr(), hgpr());
+            case 34: return new LegacyInstr.MULSU(pc, mgpr(), mgpr());
+            case 35: return new LegacyInstr.NEG(pc, gpr());
+            case 36: return new LegacyInstr.NOP(pc);
+            case 37: return new LegacyInstr.OR(pc, gpr(), gpr());
+            case 38: return new LegacyInstr.ORI(pc, hgpr(), k);
+            case 39: return new LegacyInstr.ROL(pc, gpr());
+            case 40: return new LegacyInstr.ROR(pc, gpr());
+            case 41: return new LegacyInstr.SBC(pc, gpr(), gpr());
+            case 42: return new LegacyInstr.SBCI(pc, hgpr(), k);
+            case 43: return new LegacyInstr.SBIW(pc, rdl(), k & 63);
+            case 44: return new LegacyInstr.SBR(pc, hgpr(), k);
+            case 45: return new LegacyInstr.SEC(pc);
+            case 46: return new LegacyInstr.SEH(pc);
+            case 47: return new LegacyInstr.SEN(pc);
+            case 48: return new LegacyInstr.SER(pc, hgpr());
+            case 49: return new LegacyInstr.SES(pc);
+            case 50: return new LegacyInstr.SET(pc);
+            case 51: return new LegacyInstr.SEV(pc);
+            case 52: return new LegacyInstr.SEZ(pc);
+            case 53: return new LegacyInstr.SUB(pc, gpr(), gpr());
+            case 54: return new LegacyInstr.SUBI(pc, hgpr(), k);
+            case 55: return new LegacyInstr.SWAP(pc, gpr());
+            case 56: return new LegacyInstr.TST(pc, gpr());
+            default: return new LegacyInstr.CPC(pc, gpr(), gpr());
+        }
+    }
+
+
+    private LegacyInstr terminator(int pc)
+    {
+        // keep the branch targets inside the program
+        int target = pc + 1 + random.nextInt(40) - pc / 4;
+        switch (random.nextInt(8))
+        {
+            case 0: return new LegacyInstr.BRBC(pc, random.nextInt(8), target);
+            case 1: return new LegacyInstr.BRBS(pc, random.nextInt(8), target);
+            case 2: return new LegacyInstr.BREQ(pc, target);
+            case 3: return new LegacyInstr.BRLT(pc, target);
+            case 4: return new LegacyInstr.BRHS(pc, target);
+            case 5: return new LegacyInstr.BRIE(pc, target);
+            case 6: return new LegacyInstr.RJMP(pc, target);
+            default: return new LegacyInstr.JMP(pc, random.nextInt(SIZE / 2));
+        }
+    }
+
+
+    public void testRandomBlocks()
+    {
+        for (int trial = 0; trial < 300; trial++)
+            checkBlock();
+    }
+
+
+    private void checkBlock()
+    {
+        LegacyInstr[] code = new LegacyInstr[SIZE];
+        Program p = new Program(LegacyArchitecture.INSTANCE, 0, SIZE);
+        int length = 1 + random.nextInt(LegacyBasicBlocks.MAX_LENGTH - 1);
+        int pc = 0;
+        for (int i = 0; i < length; i++)
+        {
+            boolean last = i == length - 1 && random.nextBoolean();
+            LegacyInstr instr = last ? terminator(pc) : straight(pc);
+            code[pc] = instr;
+            p.writeInstr(instr, pc);
+            pc += instr.getSize();
+        }
+
+        Simulator simulator = Defaults.newSimulator(0, p);
+        LegacyInterpreter interp = (LegacyInterpreter) simulator.getInterpreter();
+        byte[] regs = new byte[32];
+        boolean[] flags = new boolean[8];
+        random.nextBytes(regs);
+        for (int r = 0; r < regs.length; r++)
+            interp.writeRegisterByte(r, regs[r]);
+        for (int f = 0; f < flags.length; f++)
+        {
+            flags[f] = random.nextBoolean();
+            interp.setFlag(f, flags[f]);
+        }
+
+        int cycles = 0;
+        for (int i = 0; i < length; i++)
+            cycles += interp.step();
+
+        LegacyTranslator translator = new LegacyTranslator(SIZE);
+        long result = translator.compile(code, 0, length).run(regs, flags);
+
+        assertEquals(interp.getState().getPC(), (int) result);
+        assertEquals(cycles, (int) (result >>> 32));
+        for (int r = 0; r < regs.length; r++)
+            assertEquals("r" + r, interp.getRegisterByte(r), regs[r]);
+        for (int f = 0; f < flags.length; f++)
+            assertEquals("flag " + f, interp.getFlag(f), flags[f]);
+    }
+}
@@ -0,0 +1,53 @@
+package edu.ucla.cs.compilers.avrora.avrora.arch.msp430;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cycle counts of MSP430 instructions for the different addressing
+ * modes against the instruction timing tables of the user's guide.
+ */
+public class MSP430TimingTests extends TestCase
+{
+
+    private static int cycles(int... words)
+    {
+        short[] code = new short[words.length];
+        for (int i = 0; i < words.length; i++)
+            code[i] = (short) words[i];
+        MSP430Instr i = new MSP430Disassembler().decode(0x4000, 0, code);
+        assertNotNull(i);
+        return MSP430Timing.getCycles(i);
+    }
+
+
+    public void testDoubleOperand()
+    {
+        assertEquals(1, cycles(0x4504)); // mov r5, r4
+        assertEquals(1, cycles(0x5314)); // add #1, r4
+        assertEquals(2, cycles(0x4034, 0x1234)); // mov #0x1234, r4
+        assertEquals(2, cycles(0x4524)); // mov @r5, r4
+        assertEquals(2, cycles(0x4535)); // mov @r5+, r5
+        assertEquals(3, cycles(0x4130)); // ret
+        assertEquals(3, cycles(0x4514, 0x0002)); // mov 2(r5), r4
+        assertEquals(4, cycles(0x4584, 0x0002)); // mov r5, 2(r4)
+        assertEquals(5, cycles(0xC0B1, 0x0010, 0x0000)); // bic #16, 0(sp)
+        assertEquals(6, cycles(0x4594, 0x0002, 0x0004)); // mov 2(r5), 4(r4)
+    }
+
+
+    public void testSingleOperand()
+    {
+        assertEquals(1, cycles(0x1104)); // rra r4
+        assertEquals(3, cycles(0x1204)); // push r4
+        assertEquals(4, cycles(0x1284)); // call r4
+        assertEquals(5, cycles(0x12B0, 0x4000)); // call #0x4000
+    }
+
+
+    public void testOther()
+    {
+        assertEquals(2, cycles(0x3FFF)); // jmp $
+        assertEquals(2, cycles(0x2000)); // jne $+2
+        assertEquals(5, cycles(0x1300)); // reti
+    }
+}
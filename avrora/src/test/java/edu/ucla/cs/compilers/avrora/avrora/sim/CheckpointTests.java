@@ -0,0 +1,291 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
+import edu.ucla.cs.compilers.avrora.cck.util.Options;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+import junit.framework.TestCase;
+
+/**
+ * Tests the framing of checkpoint parts, the clock offset used on restore, and
+ * that a simulation restored from a checkpoint continues exactly like one that
+ * was not interrupted, including the packets in the air of a sensor network.
+ */
+public class CheckpointTests extends TestCase
+{
+
+    static class Part implements Checkpointable
+    {
+        int value;
+
+
+        Part(int v)
+        {
+            value = v;
+        }
+
+
+        @Override
+        public void saveState(DataOutput out) throws IOException
+        {
+            out.writeInt(value);
+        }
+
+
+        @Override
+        public void restoreState(DataInput in) throws IOException
+        {
+            value = in.readInt();
+        }
+    }
+
+
+    private static byte[] save(Map<String, ?> parts) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Checkpoint.saveParts(out, parts);
+        out.writeInt(0xcafe);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+
+    public void testRestoreParts() throws IOException
+    {
+        Map<String, Object> saved = new HashMap<String, Object>();
+        saved.put("a", new Part(1));
+        saved.put("b", new Part(2));
+        saved.put("c", new Part(3));
+        saved.put("leds", new Checkpointable.Stateless() {
+        });
+        byte[] data = save(saved);
+
+        // "b" no longer exists and "d" was not saved
+        Part a = new Part(0);
+        Part c = new Part(0);
+        Part d = new Part(4);
+        Map<String, Object> restored = new HashMap<String, Object>();
+        restored.put("a", a);
+        restored.put("c", c);
+        restored.put("d", d);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Checkpoint.restoreParts(in, restored);
+
+        assertEquals(1, a.value);
+        assertEquals(3, c.value);
+        assertEquals(4, d.value);
+        assertEquals(0xcafe, in.readInt());
+    }
+
+
+    public void testUnsupportedPart() throws IOException
+    {
+        Map<String, Object> saved = new HashMap<String, Object>();
+        saved.put("a", new Part(1));
+        saved.put("radio", "not checkpointable");
+        try
+        {
+            save(saved);
+            fail("a part without checkpoint support was saved");
+        } catch (Util.Error e)
+        {
+            // expected
+        }
+    }
+
+
+    public void testDelays()
+    {
+        Simulator.Event e = new Simulator.Event() {
+            @Override
+            public void fire()
+            {
+            }
+        };
+        Simulator.Event other = new Simulator.Event() {
+            @Override
+            public void fire()
+            {
+            }
+        };
+        MainClock clock = new MainClock("main", 1000);
+        clock.insertEvent(e, 30);
+        clock.insertEvent(other, 20);
+        clock.insertEvent(e, 10);
+        clock.insertEvent(e, 30);
+        clock.advance(5);
+        assertTrue(Arrays.equals(new long[] { 5, 25, 25 }, clock.getDelays(e)));
+        assertTrue(Arrays.equals(new long[] { 15 }, clock.getDelays(other)));
+
+        MainClock restored = new MainClock("main", 1000);
+        restored.insertEvent(e, 100);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            DataOutputStream out = new DataOutputStream(bytes);
+            Checkpoint.saveEvent(out, clock, e);
+            out.flush();
+            Checkpoint.restoreEvent(new DataInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray())), restored, e);
+        } catch (IOException x)
+        {
+            fail(x.toString());
+        }
+        assertTrue(Arrays.equals(clock.getDelays(e), restored.getDelays(e)));
+    }
+
+
+    public void testClockOffset()
+    {
+        final long[] fired = new long[1];
+        final MainClock clock = new MainClock("main", 1000);
+        clock.insertEvent(new Simulator.Event() {
+            @Override
+            public void fire()
+            {
+                fired[0] = clock.getCount();
+            }
+        }, 50);
+        clock.advance(10);
+        clock.setCount(1000000);
+        assertEquals(1000000, clock.getCount());
+        clock.advance(40);
+        assertEquals(1000040, fired[0]);
+    }
+
+
+    private static final String BASE = "edu/ucla/cs/compilers/avrora/test/tinyos/";
+
+
+    private static File temp(String suffix) throws IOException
+    {
+        File f = File.createTempFile("checkpoint", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+
+    private static File load(String name) throws IOException
+    {
+        File f = temp(".elf");
+        InputStream in = CheckpointTests.class.getClassLoader()
+                .getResourceAsStream(BASE + name);
+        assertNotNull(name, in);
+        OutputStream out = new FileOutputStream(f);
+        byte[] buf = new byte[65536];
+        for (int len; (len = in.read(buf)) > 0;)
+            out.write(buf, 0, len);
+        out.close();
+        in.close();
+        return f;
+    }
+
+
+    private static byte[] read(File f) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        byte[] data = new byte[(int) f.length()];
+        in.readFully(data);
+        in.close();
+        return data;
+    }
+
+
+    private static void simulate(String type, String platform,
+            String[] programs, String seconds, File checkpoint, File restore)
+            throws Exception
+    {
+        Options o = new Options();
+        o.setOption("platform", platform);
+        o.setOption("seconds", seconds);
+        o.setOption("random-seed", "7");
+        o.setOption("checkpoint", checkpoint.getPath());
+        if (restore != null)
+            o.setOption("restore", restore.getPath());
+        Simulation sim = Defaults.getSimulation(type);
+        sim.process(o, programs);
+        sim.start();
+        sim.join();
+    }
+
+
+    private static void check(String type, String platform, String whole,
+            String half, String... names) throws Exception
+    {
+        String[] programs = new String[names.length];
+        for (int cntr = 0; cntr < names.length; cntr++)
+            programs[cntr] = load(names[cntr]).getPath();
+        File all = temp(".ckpt");
+        simulate(type, platform, programs, whole, all, null);
+        File first = temp(".ckpt");
+        simulate(type, platform, programs, half, first, null);
+        File second = temp(".ckpt");
+        simulate(type, platform, programs, half, second, first);
+        assertFalse(Arrays.equals(read(first), read(second)));
+        assertTrue(names[0], Arrays.equals(read(all), read(second)));
+    }
+
+
+    private static void check(String platform, String name) throws Exception
+    {
+        // the times are whole numbers of cycles of the 7.3728 MHz clock
+        check("single", platform, "0.5", "0.25", name);
+    }
+
+
+    public void testCntToLedsAndRfm() throws Exception
+    {
+        check("mica2", "CntToLedsAndRfm.elf");
+    }
+
+
+    public void testSenseLightToLog() throws Exception
+    {
+        check("mica2", "SenseLightToLog.elf");
+    }
+
+
+    public void testTestUart() throws Exception
+    {
+        check("mica2", "TestUart.elf");
+    }
+
+
+    public void testRadioSenseToLeds() throws Exception
+    {
+        check("micaz", "RadioSenseToLeds_micaz.elf");
+    }
+
+
+    public void testCntToRfmNetwork() throws Exception
+    {
+        // the checkpoint is taken while the first packet is in the air
+        check("sensor-network", "mica2", "0.7", "0.35", "CntToRfm.elf",
+                "RfmToLeds.elf");
+    }
+
+
+    public void testRadioSenseToLedsNetwork() throws Exception
+    {
+        // the checkpoint is taken while the second packet is in the air
+        check("sensor-network", "micaz", "2.68", "1.34",
+                "RadioSenseToLeds_micaz.elf", "RadioSenseToLeds_micaz.elf");
+    }
+}
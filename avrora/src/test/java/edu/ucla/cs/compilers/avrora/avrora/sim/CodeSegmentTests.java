@@ -0,0 +1,53 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim;
+
+import edu.ucla.cs.compilers.avrora.avrora.arch.avr.AVRArchitecture;
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import edu.ucla.cs.compilers.avrora.avrora.sim.platform.MicaZ;
+import edu.ucla.cs.compilers.avrora.avrora.sim.types.SingleSimulation;
+import junit.framework.TestCase;
+
+/**
+ * Tests that nodes running the same program share the pages of their code
+ * segments and that a write copies only the page written.
+ */
+public class CodeSegmentTests extends TestCase
+{
+
+    private static CodeSegment newFlash(Program p, int id)
+    {
+        MicaZ platform = (MicaZ) new MicaZ.Factory().newPlatform(id,
+                new SingleSimulation(), p);
+        AtmelInterpreter interpreter = (AtmelInterpreter) platform
+                .getMicrocontroller().getSimulator().getInterpreter();
+        return interpreter.flash;
+    }
+
+
+    public void testWriteCopiesOnePage()
+    {
+        Program p = new Program(new AVRArchitecture(), 0,
+                8 * CodeSegment.DATA_PAGE_SIZE);
+        CodeSegment a = newFlash(p, 0);
+        CodeSegment b = newFlash(p, 1);
+
+        int address = 3 * CodeSegment.DATA_PAGE_SIZE + 5;
+        a.set(address, (byte) 42);
+        assertEquals(42, a.get(address));
+        assertEquals(CodeSegment.DEFAULT_VALUE, b.get(address));
+        assertEquals(8, a.data_pages.length);
+
+        for (int cntr = 0; cntr < a.data_pages.length; cntr++)
+        {
+            if (cntr == 3)
+                assertNotSame(a.data_pages[cntr], b.data_pages[cntr]);
+            else
+                assertSame(a.data_pages[cntr], b.data_pages[cntr]);
+        }
+
+        // a second write to the same page does not copy it again
+        byte[] page = a.data_pages[3];
+        a.set(address + 1, (byte) 43);
+        assertSame(page, a.data_pages[3]);
+        assertEquals(42, a.get(address));
+    }
+}
@@ -0,0 +1,53 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.avrora.util.TestUtil;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the cluster synchronizer partitions nodes into the clusters of
+ * nodes that are connected directly or through other nodes.
+ */
+public class ClusterSynchronizerTests extends TestCase
+{
+
+    private static Simulator[] newSimulators(int count)
+    {
+        Simulator[] s = new Simulator[count];
+        for (int i = 0; i < count; i++)
+            s[i] = TestUtil.createATMega128().getSimulator();
+        return s;
+    }
+
+
+    public void testConnect()
+    {
+        Simulator[] s = newSimulators(5);
+        ClusterSynchronizer c = new ClusterSynchronizer(10, 1);
+        c.connect(s[0], s[1]);
+        c.connect(s[3], s[2]);
+        c.connect(s[4], s[4]);
+        assertTrue(c.isConnected(s[0], s[1]));
+        assertTrue(c.isConnected(s[2], s[3]));
+        assertFalse(c.isConnected(s[0], s[2]));
+        assertFalse(c.isConnected(s[3], s[4]));
+
+        // joining two clusters connects all of their nodes
+        c.connect(s[1], s[3]);
+        assertTrue(c.isConnected(s[0], s[2]));
+        assertTrue(c.isConnected(s[3], s[0]));
+        assertFalse(c.isConnected(s[0], s[4]));
+        c.connect(s[2], s[0]);
+        assertFalse(c.isConnected(s[1], s[4]));
+        assertTrue(c.isConnected(s[4], s[4]));
+    }
+
+
+    public void testLookahead()
+    {
+        ClusterSynchronizer c = new ClusterSynchronizer(Long.MAX_VALUE, 1);
+        c.constrainLookahead(10);
+        c.constrainLookahead(20);
+        assertEquals(10, c.getLookahead());
+    }
+}
@@ -0,0 +1,172 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import junit.framework.TestCase;
+
+/**
+ * Tests the cancellable event handles of both event queue implementations.
+ */
+public class EventHandleTests extends TestCase
+{
+
+    static class HandleEvent implements Simulator.Event
+    {
+        final int id;
+        final EventQueue queue;
+        final List<String> log;
+        final Random random;
+        EventHandle handle;
+        EventHandle[] others;
+
+
+        HandleEvent(int id, EventQueue queue, List<String> log, Random random)
+        {
+            this.id = id;
+            this.queue = queue;
+            this.log = log;
+            this.random = random;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            log.add(id + "@" + queue.getCount() + " " + handle.isScheduled());
+            if (random == null)
+                return;
+            // occasionally reschedule this handle or cancel another one,
+            // which may be due in the same cycle
+            int r = random.nextInt(8);
+            if (r == 0)
+                queue.insertEvent(handle, random.nextInt(3));
+            else if (r == 1)
+                queue.insertEvent(handle, random.nextInt(5000));
+            else if (r == 2)
+                queue.removeEvent(others[random.nextInt(others.length)]);
+        }
+    }
+
+
+    private static EventHandle newHandle(int id, EventQueue q,
+            List<String> log, Random r)
+    {
+        HandleEvent e = new HandleEvent(id, q, log, r);
+        e.handle = new EventHandle(e);
+        return e.handle;
+    }
+
+
+    private List<String> run(EventQueue q, long seed)
+    {
+        List<String> log = new ArrayList<String>();
+        Random ops = new Random(seed);
+        Random fires = new Random(seed + 1);
+        EventHandle[] handles = new EventHandle[40];
+        for (int i = 0; i < handles.length; i++)
+            handles[i] = newHandle(i, q, log, fires);
+        for (EventHandle h : handles)
+            ((HandleEvent) h.getEvent()).others = handles;
+
+        for (int step = 0; step < 20000; step++)
+        {
+            int op = ops.nextInt(10);
+            EventHandle h = handles[ops.nextInt(handles.length)];
+            if (op < 4)
+            {
+                long delay = ops.nextBoolean() ? ops.nextInt(16)
+                        : (long) ops.nextInt(1 << ops.nextInt(24));
+                q.insertEvent(h, delay);
+            } else if (op < 5)
+            {
+                q.removeEvent(h);
+            } else if (op < 6)
+            {
+                q.removeEvent(h.getEvent());
+            } else if (op < 9)
+            {
+                q.advance(ops.nextInt(ops.nextBoolean() ? 4 : 300));
+            } else
+            {
+                q.skipAhead();
+            }
+            log.add("t=" + q.getCount() + " first=" + q.getFirstEventTime());
+        }
+        return log;
+    }
+
+
+    public void testSameOrderInBothQueues()
+    {
+        for (long seed = 1; seed <= 5; seed++)
+        {
+            List<String> expected = run(new DeltaQueue(), seed);
+            List<String> actual = run(new TimingWheelQueue(), seed);
+            assertEquals(expected, actual);
+        }
+    }
+
+
+    public void testDeltaQueue()
+    {
+        checkHandles(new DeltaQueue());
+    }
+
+
+    public void testTimingWheelQueue()
+    {
+        checkHandles(new TimingWheelQueue());
+    }
+
+
+    private void checkHandles(final EventQueue q)
+    {
+        List<String> log = new ArrayList<String>();
+        EventHandle a = newHandle(1, q, log, null);
+        EventHandle b = newHandle(2, q, log, null);
+
+        // reinserting a scheduled handle moves it
+        q.insertEvent(a, 10);
+        q.insertEvent(a, 20);
+        assertTrue(a.isScheduled());
+        assertEquals(20, q.getFirstEventTime());
+
+        // removing the handle leaves the queue empty
+        q.removeEvent(a);
+        assertFalse(a.isScheduled());
+        assertEquals(-1, q.getFirstEventTime());
+        q.removeEvent(a);
+
+        // the handle is released before its event fires
+        q.insertEvent(a, 5);
+        q.insertEvent(b, 7);
+        q.advance(10);
+        assertEquals("1@5 false", log.get(0));
+        assertEquals("2@7 false", log.get(1));
+        assertFalse(b.isScheduled());
+
+        // removing the event also releases its handle
+        q.insertEvent(b, 3);
+        q.removeEvent(b.getEvent());
+        assertFalse(b.isScheduled());
+        assertEquals(-1, q.getFirstEventTime());
+
+        // a handle removed by an event of the same cycle does not fire
+        final EventHandle c = b;
+        q.insertEvent(c, 4);
+        q.insertEvent(new EventHandle(new Simulator.Event() {
+            @Override
+            public void fire()
+            {
+                // inserted last, so it fires first
+                q.removeEvent(c);
+            }
+        }), 4);
+        q.advance(4);
+        assertEquals(2, log.size());
+        assertEquals(-1, q.getFirstEventTime());
+    }
+}
@@ -0,0 +1,116 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
+import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
+import edu.ucla.cs.compilers.avrora.cck.util.Options;
+import junit.framework.TestCase;
+
+/**
+ * Tests that a sensor network run by the parallel synchronizer sends and
+ * receives exactly the same packets as when it is run by the ripple
+ * synchronizer, regardless of the number of worker threads.
+ */
+public class ParallelSynchronizerTests extends TestCase
+{
+
+    private static final String BASE = "edu/ucla/cs/compilers/avrora/test/tinyos/";
+
+
+    private static String load(String name) throws IOException
+    {
+        File f = File.createTempFile("parallel", ".elf");
+        f.deleteOnExit();
+        InputStream in = ParallelSynchronizerTests.class.getClassLoader()
+                .getResourceAsStream(BASE + name);
+        assertNotNull(name, in);
+        OutputStream out = new FileOutputStream(f);
+        byte[] buf = new byte[65536];
+        for (int len; (len = in.read(buf)) > 0;)
+            out.write(buf, 0, len);
+        out.close();
+        in.close();
+        return f.getPath();
+    }
+
+
+    private static List<String> simulate(String synchronizer, String threads)
+            throws Exception
+    {
+        Options o = new Options();
+        o.setOption("platform", "mica2");
+        o.setOption("seconds", "2");
+        o.setOption("random-seed", "7");
+        o.setOption("nodecount", "2,2");
+        o.setOption("monitors", "packet");
+        o.setOption("synchronizer", synchronizer);
+        o.setOption("threads", threads);
+        Simulation sim = Defaults.getSimulation("sensor-network");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean colors = Terminal.useColors;
+        Terminal.useColors = false;
+        Terminal.setOutput(new PrintStream(bytes, true));
+        try
+        {
+            sim.process(o, new String[] { load("CntToRfm.elf"),
+                    load("RfmToLeds.elf") });
+            sim.start();
+            sim.join();
+        }
+        finally
+        {
+            Terminal.setOutput(System.out);
+            Terminal.useColors = colors;
+        }
+        // the nodes print on their own threads, so only the set of lines is
+        // reproducible
+        List<String> lines = new ArrayList<String>();
+        for (String line : bytes.toString().split("\n"))
+        {
+            if (line.trim().matches("\\d+\\s+\\d+\\s.*"))
+                lines.add(line);
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+
+    private static int received(List<String> lines)
+    {
+        int count = 0;
+        for (String line : lines)
+        {
+            if (line.contains("<===="))
+                count++;
+        }
+        return count;
+    }
+
+
+    public void testRipple() throws Exception
+    {
+        List<String> ripple = simulate("ripple", "0");
+        assertTrue(received(ripple) > 0);
+        assertEquals(ripple, simulate("parallel", "4"));
+    }
+
+
+    public void testThreads() throws Exception
+    {
+        List<String> single = simulate("parallel", "1");
+        assertTrue(received(single) > 0);
+        assertEquals(single, simulate("parallel", "2"));
+        assertEquals(single, simulate("parallel", "4"));
+    }
+}
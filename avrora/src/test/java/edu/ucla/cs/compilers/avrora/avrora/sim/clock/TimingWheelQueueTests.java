@@ -0,0 +1,111 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the timing wheel fires events at the same times and in the same
+ * order as the delta queue.
+ */
+public class TimingWheelQueueTests extends TestCase
+{
+
+    static class LogEvent implements Simulator.Event
+    {
+        final int id;
+        final EventQueue queue;
+        final List<String> log;
+        final Random random;
+
+
+        LogEvent(int id, EventQueue queue, List<String> log, Random random)
+        {
+            this.id = id;
+            this.queue = queue;
+            this.log = log;
+            this.random = random;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            log.add(id + "@" + queue.getCount());
+            // occasionally reschedule from within the event, including for
+            // the current cycle
+            int r = random.nextInt(8);
+            if (r == 0)
+                queue.insertEvent(this, 0);
+            else if (r == 1)
+                queue.insertEvent(this, random.nextInt(5000));
+        }
+    }
+
+
+    private List<String> run(EventQueue q, long seed)
+    {
+        List<String> log = new ArrayList<String>();
+        Random ops = new Random(seed);
+        Random fires = new Random(seed + 1);
+        LogEvent[] events = new LogEvent[40];
+        for (int i = 0; i < events.length; i++)
+            events[i] = new LogEvent(i, q, log, fires);
+
+        for (int step = 0; step < 20000; step++)
+        {
+            int op = ops.nextInt(10);
+            LogEvent e = events[ops.nextInt(events.length)];
+            if (op < 4)
+            {
+                long delay = ops.nextBoolean() ? ops.nextInt(16)
+                        : (long) ops.nextInt(1 << ops.nextInt(24));
+                q.insertEvent(e, delay);
+            } else if (op < 5)
+            {
+                q.removeEvent(e);
+            } else if (op < 9)
+            {
+                q.advance(ops.nextInt(ops.nextBoolean() ? 4 : 300));
+            } else
+            {
+                q.skipAhead();
+            }
+            log.add("t=" + q.getCount() + " first=" + q.getFirstEventTime());
+        }
+        return log;
+    }
+
+
+    public void testSameOrderAsDeltaQueue()
+    {
+        for (long seed = 1; seed <= 5; seed++)
+        {
+            List<String> expected = run(new DeltaQueue(), seed);
+            List<String> actual = run(new TimingWheelQueue(), seed);
+            assertEquals(expected, actual);
+        }
+    }
+
+
+    public void testSameCycleOrder()
+    {
+        final List<String> log = new ArrayList<String>();
+        TimingWheelQueue q = new TimingWheelQueue();
+        Random r = new Random(0);
+        // inserted far in the future, cascaded down through several levels
+        q.insertEvent(new LogEvent(1, q, log, r), 100000);
+        q.advance(50000);
+        q.insertEvent(new LogEvent(2, q, log, r), 50000);
+        q.advance(49990);
+        q.insertEvent(new LogEvent(3, q, log, r), 10);
+        q.advance(10);
+        assertEquals(3, log.size());
+        assertEquals("3@100000", log.get(0));
+        assertEquals("2@100000", log.get(1));
+        assertEquals("1@100000", log.get(2));
+    }
+}
@@ -0,0 +1,113 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
+import edu.ucla.cs.compilers.avrora.cck.text.Terminal;
+import edu.ucla.cs.compilers.avrora.cck.util.Options;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the output of a sensor network printed through the pipeline
+ * contains the same lines as when each node prints directly, in the order of
+ * simulated time.
+ */
+public class OutputPipelineTests extends TestCase
+{
+
+    private static final String BASE = "edu/ucla/cs/compilers/avrora/test/tinyos/";
+
+
+    private static File load(String name) throws IOException
+    {
+        File f = File.createTempFile("output", ".elf");
+        f.deleteOnExit();
+        InputStream in = OutputPipelineTests.class.getClassLoader()
+                .getResourceAsStream(BASE + name);
+        assertNotNull(name, in);
+        OutputStream out = new FileOutputStream(f);
+        byte[] buf = new byte[65536];
+        for (int len; (len = in.read(buf)) > 0;)
+            out.write(buf, 0, len);
+        out.close();
+        in.close();
+        return f;
+    }
+
+
+    private static List<String> simulate(boolean async, String... programs)
+            throws Exception
+    {
+        Options o = new Options();
+        o.setOption("seconds", "0.5");
+        o.setOption("random-seed", "7");
+        o.setOption("monitors", "leds,packet");
+        o.setOption("async-output", Boolean.toString(async));
+        Simulation sim = Defaults.getSimulation("sensor-network");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        boolean colors = Terminal.useColors;
+        Terminal.useColors = false;
+        Terminal.setOutput(out);
+        try
+        {
+            sim.process(o, programs);
+            sim.start();
+            sim.join();
+        }
+        finally
+        {
+            Terminal.setOutput(System.out);
+            Terminal.useColors = colors;
+        }
+        List<String> lines = new ArrayList<String>();
+        for (String line : bytes.toString().split("\n"))
+        {
+            if (line.trim().matches("\\d+\\s+\\d+\\s.*"))
+                lines.add(line);
+        }
+        return lines;
+    }
+
+
+    private static long field(String line, int num)
+    {
+        return Long.parseLong(line.trim().split("\\s+")[num]);
+    }
+
+
+    public void testOrder() throws Exception
+    {
+        String send = load("CntToRfm.elf").getPath();
+        String receive = load("RfmToLeds.elf").getPath();
+        List<String> direct = simulate(false, send, receive);
+        List<String> queued = simulate(true, send, receive);
+        assertFalse(direct.isEmpty());
+
+        // the pipeline orders the lines by time and then by node; the lines of
+        // a single node keep the order in which they were printed
+        Collections.sort(direct, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b)
+            {
+                long ta = field(a, 1), tb = field(b, 1);
+                if (ta != tb)
+                    return ta < tb ? -1 : 1;
+                long na = field(a, 0), nb = field(b, 0);
+                return na < nb ? -1 : na == nb ? 0 : 1;
+            }
+        });
+        assertEquals(direct, queued);
+    }
+}
@@ -0,0 +1,111 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that binary traces are read back as they were written, across blocks
+ * and nodes.
+ */
+public class TraceFileTests extends TestCase
+{
+
+    static class Recorder implements TraceFile.Visitor
+    {
+        final List<String> records = new ArrayList<String>();
+
+
+        @Override
+        public void node(int node, long hz, String program)
+        {
+            records.add("node " + node + " " + hz + " " + program);
+        }
+
+
+        @Override
+        public void instr(int node, long time, int pc)
+        {
+            records.add("instr " + node + " " + time + " " + pc);
+        }
+
+
+        @Override
+        public void register(int node, int reg, byte value)
+        {
+            records.add("reg " + node + " " + reg + " " + value);
+        }
+
+
+        @Override
+        public void memory(int node, int address, byte value)
+        {
+            records.add("mem " + node + " " + address + " " + value);
+        }
+
+
+        @Override
+        public void mark(int node, long time, String text)
+        {
+            records.add("mark " + node + " " + time + " " + text);
+        }
+    }
+
+
+    public void testRoundTrip() throws IOException
+    {
+        File f = File.createTempFile("trace", ".bin");
+        f.deleteOnExit();
+        TraceFile.Writer w = new TraceFile.Writer(f.getPath());
+        TraceFile.NodeBuffer a = w.newBuffer(0, 7372800, "a.elf");
+        TraceFile.NodeBuffer b = w.newBuffer(5, 8000000, "b.elf");
+
+        List<String> expectA = new ArrayList<String>();
+        List<String> expectB = new ArrayList<String>();
+        expectA.add("node 0 7372800 a.elf");
+        expectB.add("node 5 8000000 b.elf");
+        a.mark(0, "begin");
+        expectA.add("mark 0 0 begin");
+        long time = 0;
+        int pc = 0x100;
+        // enough instructions to span several blocks
+        for (int cntr = 0; cntr < 100000; cntr++)
+        {
+            time += 1 + cntr % 3;
+            pc = cntr % 50 == 0 ? 0x1f00 - pc : pc + 2;
+            a.instr(time, pc);
+            expectA.add("instr 0 " + time + " " + pc);
+            if (cntr % 7 == 0)
+            {
+                a.register(cntr % 33, (byte) cntr);
+                expectA.add("reg 0 " + cntr % 33 + " " + (byte) cntr);
+            }
+            if (cntr % 11 == 0)
+            {
+                b.instr(time * 2, 0x20000 - cntr);
+                b.memory(0x100 + cntr % 4000, (byte) -cntr);
+                expectB.add("instr 5 " + time * 2 + " " + (0x20000 - cntr));
+                expectB.add("mem 5 " + (0x100 + cntr % 4000) + " " + (byte) -cntr);
+            }
+        }
+        a.close();
+        b.close();
+
+        Recorder r = new Recorder();
+        TraceFile.read(f.getPath(), r);
+        List<String> gotA = new ArrayList<String>();
+        List<String> gotB = new ArrayList<String>();
+        for (String s : r.records)
+        {
+            if (s.split(" ")[1].equals("0"))
+                gotA.add(s);
+            else
+                gotB.add(s);
+        }
+        assertEquals(expectA, gotA);
+        assertEquals(expectB, gotB);
+    }
+}
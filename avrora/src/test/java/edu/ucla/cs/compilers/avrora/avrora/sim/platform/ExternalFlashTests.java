@@ -0,0 +1,182 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import edu.ucla.cs.compilers.avrora.avrora.util.TestUtil;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the dataflash keeps its pages in an image file across instances
+ * and writes pages copy-on-write when it starts from a shared base image.
+ */
+public class ExternalFlashTests extends TestCase
+{
+
+    private static final int PAGE = 264;
+    private static final int SIZE = 2048 * PAGE;
+
+    /**
+     * Drives the serial interface of a dataflash like the microcontroller.
+     */
+    private static class Driver
+    {
+        final ExternalFlash.PA3Output cs;
+        final ExternalFlash.PD3Output si;
+        final ExternalFlash.PD5Output sck;
+        final ExternalFlash.PD2Input so;
+
+
+        Driver(ExternalFlash f)
+        {
+            cs = f.new PA3Output();
+            si = f.new PD3Output();
+            sck = f.new PD5Output();
+            so = f.new PD2Input();
+            cs.write(true);
+            sck.write(false);
+        }
+
+
+        void send(int b)
+        {
+            for (int i = 7; i >= 0; i--)
+            {
+                si.write((b >> i & 1) != 0);
+                sck.write(true);
+                sck.write(false);
+            }
+        }
+
+
+        int receive()
+        {
+            int b = 0;
+            // the dataflash shifts out each bit on the falling edge
+            for (int i = 0; i < 8; i++)
+            {
+                b = b << 1 | (so.read() ? 1 : 0);
+                sck.write(true);
+                sck.write(false);
+            }
+            return b;
+        }
+
+
+        void command(int opcode, int page, byte[] data)
+        {
+            cs.write(false);
+            send(opcode);
+            send(page >> 7);
+            send(page << 1 & 0xff);
+            send(0);
+            for (byte b : data)
+                send(b & 0xff);
+            cs.write(true);
+        }
+
+
+        byte[] readPage(int page)
+        {
+            // transfer the page to buffer 2 and read the buffer
+            command(0x55, page, new byte[0]);
+            cs.write(false);
+            send(0xD6);
+            send(0);
+            send(0);
+            send(0);
+            send(0);
+            byte[] data = new byte[PAGE];
+            for (int i = 0; i < PAGE; i++)
+                data[i] = (byte) receive();
+            cs.write(true);
+            return data;
+        }
+    }
+
+
+    private static ExternalFlash newFlash()
+    {
+        return (ExternalFlash) TestUtil.createMicaZ().getDevice("flash");
+    }
+
+
+    private static byte[] pattern(int seed)
+    {
+        byte[] data = new byte[PAGE];
+        for (int i = 0; i < PAGE; i++)
+            data[i] = (byte) (seed + i * 7);
+        return data;
+    }
+
+
+    private static byte[] read(File f, int page) throws IOException
+    {
+        byte[] data = new byte[PAGE];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        raf.seek((long) page * PAGE);
+        raf.readFully(data);
+        raf.close();
+        return data;
+    }
+
+
+    private static File tempFile() throws IOException
+    {
+        File f = File.createTempFile("dataflash", ".flash");
+        f.deleteOnExit();
+        return f;
+    }
+
+
+    public void testErased()
+    {
+        byte[] erased = new byte[PAGE];
+        Arrays.fill(erased, (byte) 0xff);
+        assertTrue(Arrays.equals(erased, new Driver(newFlash()).readPage(5)));
+    }
+
+
+    public void testImagePersists() throws IOException
+    {
+        File image = tempFile();
+        image.delete();
+        ExternalFlash flash = newFlash();
+        flash.mapImage(image, null);
+        assertEquals(SIZE, image.length());
+        new Driver(flash).command(0x82, 3, pattern(1));
+        assertTrue(Arrays.equals(pattern(1), read(image, 3)));
+
+        ExternalFlash later = newFlash();
+        later.mapImage(image, null);
+        Driver d = new Driver(later);
+        assertTrue(Arrays.equals(pattern(1), d.readPage(3)));
+        assertEquals(0xff, d.readPage(4)[0] & 0xff);
+    }
+
+
+    public void testCopyOnWrite() throws IOException
+    {
+        File base = tempFile();
+        RandomAccessFile raf = new RandomAccessFile(base, "rw");
+        raf.setLength(SIZE);
+        raf.seek(7 * PAGE);
+        raf.write(pattern(2));
+        raf.close();
+
+        ExternalFlash a = newFlash();
+        a.mapImage(null, base);
+        ExternalFlash b = newFlash();
+        b.mapImage(null, base);
+        Driver da = new Driver(a);
+        Driver db = new Driver(b);
+        assertTrue(Arrays.equals(pattern(2), da.readPage(7)));
+
+        da.command(0x82, 7, pattern(3));
+        assertTrue(Arrays.equals(pattern(3), da.readPage(7)));
+        assertTrue(Arrays.equals(pattern(2), db.readPage(7)));
+        assertTrue(Arrays.equals(pattern(2), read(base, 7)));
+    }
+}
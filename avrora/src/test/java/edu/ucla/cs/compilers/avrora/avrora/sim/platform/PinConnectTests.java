@@ -0,0 +1,151 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.platform;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.FiniteStateMachine;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.Clock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.ClusterSynchronizer;
+import edu.ucla.cs.compilers.avrora.avrora.sim.types.WiredSimulation;
+import edu.ucla.cs.compilers.avrora.cck.util.Options;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the wires between nodes deliver the same sequence of levels with
+ * the lockstep synchronizer and with the cluster synchronizer, which delivers
+ * each change exactly one propagation delay after it happens.
+ */
+public class PinConnectTests extends TestCase
+{
+
+    // toggles the north Tx pin and echoes the north Rx pin on the east Tx
+    // pin; both branches of the echo take the same number of cycles
+    private static final String PROGRAM = "start:\n" + "    ldi r17, 0x10\n"
+            + "    out 0x3e, r17\n" + "    ldi r17, 0xff\n"
+            + "    out 0x3d, r17\n" + "    sbi 0x14, 0\n" + "    sbi 0x14, 1\n"
+            + "loop:\n" + "    sbi 0x15, 0\n" + "    rcall delay\n"
+            + "    cbi 0x15, 0\n" + "    rcall delay\n" + "    rjmp loop\n"
+            + "delay:\n" + "    ldi r16, 100\n" + "wait:\n"
+            + "    sbic 0x10, 1\n" + "    sbi 0x15, 1\n"
+            + "    sbis 0x10, 1\n" + "    cbi 0x15, 1\n" + "    dec r16\n"
+            + "    brne wait\n" + "    ret\n";
+
+    /**
+     * Records the time and new level of each transition of a wire.
+     */
+    private static class Recorder implements FiniteStateMachine.Probe
+    {
+        final Clock clock;
+        final List<long[]> transitions = new ArrayList<long[]>();
+
+
+        Recorder(PinWire wire)
+        {
+            clock = wire.sim.getClock();
+            wire.insertProbe(this);
+        }
+
+
+        @Override
+        public void fireBeforeTransition(int beforeState, int afterState)
+        {
+        }
+
+
+        @Override
+        public void fireAfterTransition(int beforeState, int afterState)
+        {
+            if (beforeState != afterState)
+                transitions.add(new long[] { clock.getCount(), afterState });
+        }
+    }
+
+    /**
+     * Records the north wire from the first node to the second node.
+     */
+    private static class RecordingSimulation extends WiredSimulation
+    {
+        Recorder tx;
+        Recorder rx;
+        long delay;
+
+
+        @Override
+        protected void instantiateNodes()
+        {
+            super.instantiateNodes();
+            List<PinConnect.PinNode> nodes = PinConnect.pinConnect.getPinNodes();
+            PinWire out = nodes.get(0).TxPins[PinConnect.NORTH];
+            tx = new Recorder(out);
+            rx = new Recorder(nodes.get(1).RxPins[PinConnect.NORTH]);
+            delay = out.propDelay;
+        }
+    }
+
+
+    private static RecordingSimulation simulate(String synchronizer)
+            throws Exception
+    {
+        File f = File.createTempFile("wired", ".asm");
+        f.deleteOnExit();
+        FileWriter w = new FileWriter(f);
+        w.write(PROGRAM);
+        w.close();
+
+        Options o = new Options();
+        o.setOption("synchronizer", synchronizer);
+        o.setOption("nodecount", "3");
+        o.setOption("seconds", "0.002");
+        RecordingSimulation sim = new RecordingSimulation();
+        sim.process(o, new String[] { f.getPath() });
+        sim.start();
+        sim.join();
+        return sim;
+    }
+
+
+    // checks that each change of the output is received after the delay
+    private static void checkDelivery(RecordingSimulation sim, long delay)
+    {
+        List<long[]> sent = sim.tx.transitions;
+        List<long[]> received = sim.rx.transitions;
+        assertTrue(sent.size() > 10);
+        // the last change may still be on the wire when the simulation ends
+        assertTrue(received.size() >= sent.size() - 1);
+        assertTrue(received.size() <= sent.size());
+        for (int i = 0; i < received.size(); i++)
+        {
+            assertEquals(sent.get(i)[1], received.get(i)[1]);
+            assertEquals(sent.get(i)[0] + delay, received.get(i)[0]);
+        }
+    }
+
+
+    public void testStepAndCluster() throws Exception
+    {
+        RecordingSimulation cluster = simulate("cluster");
+        checkDelivery(cluster, cluster.delay);
+        // the first two nodes use up all sides, so the third one is alone
+        assertEquals(2, ((ClusterSynchronizer) cluster.getSynchronizer())
+                .getClusterCount());
+
+        // the lockstep synchronizer propagates the level after the
+        // instruction that changed it has completed
+        RecordingSimulation step = simulate("step");
+        long d = step.rx.transitions.get(0)[0] - step.tx.transitions.get(0)[0];
+        assertTrue(d > 0 && d < cluster.delay);
+        checkDelivery(step, d);
+
+        // the program does not depend on the timing of its inputs
+        List<long[]> a = step.tx.transitions;
+        List<long[]> b = cluster.tx.transitions;
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++)
+        {
+            assertEquals(a.get(i)[0], b.get(i)[0]);
+            assertEquals(a.get(i)[1], b.get(i)[1]);
+        }
+    }
+}
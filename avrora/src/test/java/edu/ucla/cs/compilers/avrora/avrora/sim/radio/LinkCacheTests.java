@@ -0,0 +1,84 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Topology.Position;
+import junit.framework.TestCase;
+
+/**
+ * Tests the per-link value cache used by the radio models.
+ */
+public class LinkCacheTests extends TestCase
+{
+
+    private static void put(LinkCache cache, int t, int r, double value)
+    {
+        cache.put(t, r, cache.stamp(t, r), new double[] { value });
+    }
+
+
+    public void testGrowKeepsValues()
+    {
+        LinkCache cache = new LinkCache();
+        Position[] pos = new Position[40];
+        for (int i = 0; i < pos.length; i++)
+        {
+            pos[i] = new Position(i, 0, 0);
+            assertEquals(i, cache.add(pos[i]));
+            // store a value for every link known so far
+            for (int j = 0; j <= i; j++)
+            {
+                put(cache, i, j, i * 100 + j);
+                put(cache, j, i, j * 100 + i);
+            }
+        }
+        for (int i = 0; i < pos.length; i++)
+            for (int j = 0; j <= i; j++)
+            {
+                assertEquals(i * 100.0 + j, cache.get(i, j)[0]);
+                assertEquals(j * 100.0 + i, cache.get(j, i)[0]);
+            }
+    }
+
+
+    public void testMovedInvalidatesLinks()
+    {
+        LinkCache cache = new LinkCache();
+        Position a = new Position(0, 0, 0);
+        Position b = new Position(1, 0, 0);
+        Position c = new Position(2, 0, 0);
+        int ia = cache.add(a);
+        int ib = cache.add(b);
+        int ic = cache.add(c);
+        assertNull(cache.get(ia, ib));
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 3; j++)
+                put(cache, i, j, 1);
+
+        cache.moved(b);
+        assertNull(cache.get(ia, ib));
+        assertNull(cache.get(ib, ic));
+        assertNull(cache.get(ib, ib));
+        assertEquals(1.0, cache.get(ia, ic)[0]);
+        assertEquals(1.0, cache.get(ic, ia)[0]);
+    }
+
+
+    public void testStaleValuesRejected()
+    {
+        LinkCache cache = new LinkCache();
+        Position a = new Position(0, 0, 0);
+        Position b = new Position(1, 0, 0);
+        int ia = cache.add(a);
+        int ib = cache.add(b);
+
+        // a receiver reads the epochs, then the node moves before the values
+        // computed from the old position are stored
+        long stamp = cache.stamp(ia, ib);
+        b.x = 5;
+        cache.moved(b);
+        cache.put(ia, ib, stamp, new double[] { 1 });
+        assertNull(cache.get(ia, ib));
+
+        put(cache, ia, ib, 25);
+        assertEquals(25.0, cache.get(ia, ib)[0]);
+    }
+}
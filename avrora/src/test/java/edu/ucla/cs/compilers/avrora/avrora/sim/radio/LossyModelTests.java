@@ -0,0 +1,82 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the correlated shadowing of the lossy model does not depend on
+ * the order in which the receivers of different nodes reach each epoch.
+ */
+public class LossyModelTests extends TestCase
+{
+
+    private static final int STEPS = 200;
+    private static final double[][] LINKS = { { 1.5, 2.0 }, { 4.0, 0.5 },
+            { 0.0, 3.0 } };
+
+
+    private static LossyModel newModel()
+    {
+        Simulation sim = Defaults.getSimulation("sensor-network");
+        sim.RANDOMSEED.set("7");
+        return new LossyModel(null, sim);
+    }
+
+
+    private static void shadow(LossyModel m, double[][] out, int link,
+            boolean reverse)
+    {
+        for (int i = 0; i < STEPS; i++)
+        {
+            int step = reverse ? STEPS - 1 - i : i;
+            out[link][step] = m.Shadowing(LINKS[link][0], LINKS[link][1],
+                    step * 250);
+        }
+    }
+
+
+    public void testSchedules() throws Exception
+    {
+        // one thread visits all links in the order of time
+        LossyModel serial = newModel();
+        double[][] expect = new double[LINKS.length][STEPS];
+        for (int i = 0; i < STEPS; i++)
+            for (int link = 0; link < LINKS.length; link++)
+                expect[link][i] = serial.Shadowing(LINKS[link][0],
+                        LINKS[link][1], i * 250);
+
+        // each link is visited by its own thread, some of them backwards
+        final LossyModel parallel = newModel();
+        final double[][] result = new double[LINKS.length][STEPS];
+        Thread[] threads = new Thread[LINKS.length];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int link = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run()
+                {
+                    shadow(parallel, result, link, link % 2 == 0);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        for (int link = 0; link < LINKS.length; link++)
+            for (int i = 0; i < STEPS; i++)
+                assertEquals(expect[link][i], result[link][i]);
+    }
+
+
+    public void testEpochs()
+    {
+        LossyModel m = newModel();
+        // the shadowing only changes once per second
+        assertEquals(m.Shadowing(1, 1, 0), m.Shadowing(1, 1, 999));
+        assertEquals(m.Shadowing(1, 1, 1000), m.Shadowing(1, 1, 1999));
+        assertFalse(m.Shadowing(1, 1, 999) == m.Shadowing(1, 1, 1000));
+    }
+}
@@ -0,0 +1,60 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that noise traces are parsed from text, survive the binary format and
+ * repeat past their end.
+ */
+public class NoiseTraceTests extends TestCase
+{
+
+    private File write(String text) throws IOException
+    {
+        File f = File.createTempFile("noise", ".txt");
+        f.deleteOnExit();
+        FileWriter w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+
+    public void testParse() throws IOException
+    {
+        File f = write("# noise trace\n-98\n-97 ignored\n\n-91\r\n +12\n");
+        NoiseTrace t = NoiseTrace.load(f.getPath());
+        assertEquals(3, t.size());
+        assertEquals(-98, t.getNoise(0));
+        assertEquals(-91, t.getNoise(1));
+        assertEquals(12, t.getNoise(2));
+        assertEquals(-98, t.getNoise(3));
+        assertEquals(-91, t.getNoise(7));
+    }
+
+
+    public void testBinary() throws IOException
+    {
+        short[] s = new short[1000];
+        for (int i = 0; i < s.length; i++)
+            s[i] = (short) (-100 + i % 17);
+        File f = File.createTempFile("noise", ".bin");
+        f.deleteOnExit();
+        new NoiseTrace(s).save(f.getPath());
+        NoiseTrace t = NoiseTrace.load(f.getPath());
+        assertEquals(s.length, t.size());
+        for (int i = 0; i < 3 * s.length; i++)
+            assertEquals(s[i % s.length], t.getNoise(i));
+    }
+
+
+    public void testDefault()
+    {
+        assertEquals(-95, NoiseTrace.DEFAULT.getNoise(0));
+        assertEquals(-95, NoiseTrace.DEFAULT.getNoise(123456));
+    }
+}
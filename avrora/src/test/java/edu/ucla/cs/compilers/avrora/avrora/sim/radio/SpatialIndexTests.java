@@ -0,0 +1,169 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
+import edu.ucla.cs.compilers.avrora.avrora.sim.radio.Topology.Position;
+import junit.framework.TestCase;
+
+/**
+ * Tests the spatial index that limits the transmitters considered by each
+ * receiver of a medium.
+ */
+public class SpatialIndexTests extends TestCase
+{
+
+    private static final double RANGE = 15.0;
+
+    private final MainClock clock = new MainClock("main", 7372800);
+    private RadiusModel model;
+    private Medium medium;
+    private SpatialIndex index;
+
+
+    @Override
+    protected void setUp()
+    {
+        model = new RadiusModel(1.0, RANGE);
+        medium = new Medium(null, model, 19200, 4, 8, 128 * 8);
+        index = medium.index;
+    }
+
+
+    private Medium.Transmitter newTransmitter(Position p)
+    {
+        Medium.Transmitter t = new Medium.Transmitter(medium, clock) {
+            @Override
+            public byte nextByte()
+            {
+                return 0;
+            }
+        };
+        if (p != null)
+            model.positions.put(t, p);
+        index.add(t);
+        return t;
+    }
+
+
+    private Medium.Receiver newReceiver(Position p)
+    {
+        Medium.Receiver r = new Medium.Receiver(medium, clock) {
+            @Override
+            public byte nextByte(boolean lock, byte b)
+            {
+                return b;
+            }
+
+
+            @Override
+            public void setRSSI(double rssi)
+            {
+            }
+
+
+            @Override
+            public void setBER(double BER)
+            {
+            }
+        };
+        if (p != null)
+            model.positions.put(r, p);
+        return r;
+    }
+
+
+    private Set<Medium.Transmitter> neighbors(Medium.Receiver r)
+    {
+        return new HashSet<Medium.Transmitter>(
+                Arrays.asList(index.getNeighbors(r)));
+    }
+
+
+    private Set<Medium.Transmitter> set(Medium.Transmitter... t)
+    {
+        return new HashSet<Medium.Transmitter>(Arrays.asList(t));
+    }
+
+
+    public void testRange()
+    {
+        Medium.Transmitter a = newTransmitter(new Position(0, 0, 0));
+        Medium.Transmitter b = newTransmitter(new Position(14, 0, 0));
+        Medium.Transmitter c = newTransmitter(new Position(30, 0, 0));
+        Medium.Receiver r = newReceiver(new Position(1, 1, 0));
+        assertEquals(set(a, b), neighbors(r));
+
+        // a transmitter added later becomes visible
+        Medium.Transmitter d = newTransmitter(new Position(-5, -5, -5));
+        assertEquals(set(a, b, d), neighbors(r));
+        assertFalse(neighbors(r).contains(c));
+    }
+
+
+    public void testUnplaced()
+    {
+        Medium.Transmitter a = newTransmitter(new Position(0, 0, 0));
+        Medium.Transmitter b = newTransmitter(new Position(100, 0, 0));
+        Medium.Transmitter u = newTransmitter(null);
+        // transmitters without a position reach every receiver
+        assertEquals(set(a, u), neighbors(newReceiver(new Position(0, 0, 0))));
+        // receivers without a position hear every transmitter
+        assertEquals(set(a, b, u), neighbors(newReceiver(null)));
+    }
+
+
+    public void testMoved()
+    {
+        Position pa = new Position(0, 0, 0);
+        Medium.Transmitter a = newTransmitter(pa);
+        Position pr = new Position(40, 0, 0);
+        Medium.Receiver r = newReceiver(pr);
+        assertEquals(set(), neighbors(r));
+
+        pa.x = 30;
+        medium.moved(pa);
+        assertEquals(set(a), neighbors(r));
+
+        pr.y = 20;
+        medium.moved(pr);
+        assertEquals(set(), neighbors(r));
+    }
+
+
+    public void testRandomMovement()
+    {
+        Random random = new Random(7);
+        Position[] pos = new Position[60];
+        Medium.Transmitter[] tx = new Medium.Transmitter[pos.length];
+        Medium.Receiver[] rx = new Medium.Receiver[pos.length];
+        for (int i = 0; i < pos.length; i++)
+        {
+            pos[i] = new Position(random.nextDouble() * 100,
+                    random.nextDouble() * 100, random.nextDouble() * 10);
+            tx[i] = newTransmitter(pos[i]);
+            rx[i] = newReceiver(pos[i]);
+        }
+        for (int step = 0; step < 500; step++)
+        {
+            Position p = pos[random.nextInt(pos.length)];
+            p.x += random.nextDouble() * 20 - 10;
+            p.y += random.nextDouble() * 20 - 10;
+            medium.moved(p);
+            int i = random.nextInt(pos.length);
+            Set<Medium.Transmitter> expected = new HashSet<Medium.Transmitter>();
+            for (int j = 0; j < pos.length; j++)
+            {
+                double dx = pos[i].x - pos[j].x;
+                double dy = pos[i].y - pos[j].y;
+                double dz = pos[i].z - pos[j].z;
+                if (dx * dx + dy * dy + dz * dz <= RANGE * RANGE)
+                    expected.add(tx[j]);
+            }
+            assertEquals(expected, neighbors(rx[i]));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.radio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.MainClock;
+import junit.framework.TestCase;
+
+/**
+ * Tests the lock-free log of transmissions kept by a medium.
+ */
+public class TransmissionLogTests extends TestCase
+{
+
+    private final MainClock clock = new MainClock("main", 7372800);
+    private Medium medium;
+    private Medium.Transmitter transmitter;
+
+
+    @Override
+    protected void setUp()
+    {
+        medium = new Medium(null, new Medium.BasicArbitrator(), 19200, 4, 8,
+                128 * 8);
+        transmitter = new Medium.Transmitter(medium, clock) {
+            @Override
+            public byte nextByte()
+            {
+                return 0;
+            }
+        };
+    }
+
+
+    private List<Medium.Transmission> contents(TransmissionLog log)
+    {
+        List<Medium.Transmission> list = new ArrayList<Medium.Transmission>();
+        for (TransmissionLog.Entry e = log.first(); e != null; e = e.next)
+            list.add(e.transmission);
+        return list;
+    }
+
+
+    public void testRetirePrefix()
+    {
+        TransmissionLog log = new TransmissionLog();
+        assertNull(log.first());
+        Medium.Transmission[] tx = new Medium.Transmission[4];
+        for (int i = 0; i < tx.length; i++)
+        {
+            tx[i] = medium.new Transmission(transmitter, 1.0, 2.4);
+            log.append(tx[i]);
+        }
+        tx[0].lastBit = 10;
+        tx[1].lastBit = 30;
+        tx[2].lastBit = 5;
+        tx[3].lastBit = 40;
+
+        log.retire(20);
+        // only the front of the log is unlinked
+        assertEquals(3, contents(log).size());
+        assertSame(tx[1], log.first().transmission);
+
+        log.retire(35);
+        assertEquals(1, contents(log).size());
+        assertSame(tx[3], log.first().transmission);
+
+        log.retire(100);
+        assertNull(log.first());
+        log.append(tx[0]);
+        assertSame(tx[0], log.first().transmission);
+    }
+
+
+    public void testConcurrentAppend() throws InterruptedException
+    {
+        final TransmissionLog log = new TransmissionLog();
+        final int count = 1000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < count; j++)
+                        log.append(medium.new Transmission(transmitter, 1.0,
+                                2.4));
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(threads.length * count, contents(log).size());
+    }
+}
@@ -0,0 +1,101 @@
+package edu.ucla.cs.compilers.avrora.avrora.sim.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that random streams are reproducible, that streams of different nodes
+ * and uses do not overlap, and that the state of a stream can be saved.
+ */
+public class RandomStreamTests extends TestCase
+{
+
+    public void testReproducible()
+    {
+        RandomStream a = new RandomStream(RandomStream.seed(42, 3, "lossy"));
+        RandomStream b = new RandomStream(RandomStream.seed(42, 3, "lossy"));
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(a.nextLong(), b.nextLong());
+            assertEquals(a.nextGaussian(), b.nextGaussian());
+        }
+    }
+
+
+    public void testDistinctStreams()
+    {
+        long base = RandomStream.seed(42, 0, "lossy");
+        assertFalse(base == RandomStream.seed(42, 1, "lossy"));
+        assertFalse(base == RandomStream.seed(42, 0, "cc2420"));
+        assertFalse(base == RandomStream.seed(43, 0, "lossy"));
+        RandomStream a = new RandomStream(base);
+        RandomStream b = new RandomStream(RandomStream.seed(42, 1, "lossy"));
+        int same = 0;
+        for (int i = 0; i < 1000; i++)
+            if (a.nextInt() == b.nextInt())
+                same++;
+        assertTrue(same < 2);
+    }
+
+
+    public void testSetSeed()
+    {
+        RandomStream a = new RandomStream(1);
+        long first = a.nextLong();
+        a.nextLong();
+        a.setSeed(1);
+        assertEquals(first, a.nextLong());
+    }
+
+
+    public void testBounds()
+    {
+        RandomStream a = new RandomStream(7);
+        for (int i = 0; i < 1000; i++)
+        {
+            int v = a.nextInt(10);
+            assertTrue(v >= 0 && v < 10);
+            double d = a.nextDouble();
+            assertTrue(d >= 0 && d < 1);
+        }
+    }
+
+
+    public void testSameAsSplittableRandom()
+    {
+        RandomStream a = new RandomStream(42);
+        SplittableRandom b = new SplittableRandom(42);
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(b.nextInt(), a.nextInt());
+            assertEquals(b.nextInt(1000), a.nextInt(1000));
+            assertEquals(b.nextInt(64), a.nextInt(64));
+            assertEquals(b.nextLong(), a.nextLong());
+            assertEquals(b.nextDouble(), a.nextDouble());
+            assertEquals(b.nextBoolean(), a.nextBoolean());
+        }
+    }
+
+
+    public void testSaveState() throws IOException
+    {
+        RandomStream a = new RandomStream(5);
+        a.nextLong();
+        a.nextGaussian();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.saveState(new DataOutputStream(bytes));
+        RandomStream b = new RandomStream(6);
+        b.restoreState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(a.nextGaussian(), b.nextGaussian());
+            assertEquals(a.nextInt(), b.nextInt());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.ucla.cs.compilers.avrora.avrora.stack;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import junit.framework.TestCase;
+
+/**
+ * Tests that exploring the abstract state space with several threads yields
+ * the same state space and maximum stack depth as the sequential analysis,
+ * and that the depth is the one expected for the program.
+ */
+public class AnalyzerTests extends TestCase
+{
+
+    private static final String BASE = "edu/ucla/cs/compilers/avrora/test/";
+
+
+    private static File copy(String name, String suffix) throws Exception
+    {
+        File f = File.createTempFile("analyzer", suffix);
+        f.deleteOnExit();
+        InputStream in = AnalyzerTests.class.getClassLoader()
+                .getResourceAsStream(BASE + name);
+        assertNotNull(name, in);
+        OutputStream out = new FileOutputStream(f);
+        byte[] buf = new byte[65536];
+        for (int len; (len = in.read(buf)) > 0;)
+            out.write(buf, 0, len);
+        out.close();
+        in.close();
+        return f;
+    }
+
+
+    private static Program load(String name) throws Exception
+    {
+        if (name.endsWith(".asm"))
+            return read("atmel", copy(name, ".asm"));
+        return read("elf", copy(name, ".elf"));
+    }
+
+
+    private static Program read(String format, File f) throws Exception
+    {
+        return Defaults.getProgramReader(format)
+                .read(new String[] { f.getPath() });
+    }
+
+
+    private static Analyzer analyze(Program p, int threads)
+    {
+        Analyzer.THREADS = threads;
+        Analyzer a = new Analyzer(p);
+        a.run();
+        return a;
+    }
+
+
+    private static void check(String name, int depth) throws Exception
+    {
+        check(load(name), depth);
+    }
+
+
+    private static void check(Program p, int depth)
+    {
+        Analyzer seq = analyze(p, 1);
+        Analyzer par = analyze(p, 4);
+        Analyzer.THREADS = 1;
+        assertEquals(depth, seq.getMaximumStackDepth());
+        assertEquals(depth, par.getMaximumStackDepth());
+        assertEquals(seq.graph.getExploredCount(),
+                par.graph.getExploredCount());
+        assertEquals(seq.graph.getEdgeCount(), par.graph.getEdgeCount());
+        assertEquals(0, par.graph.getFrontierCount());
+    }
+
+
+    public void testCall() throws Exception
+    {
+        check("stack/call01.asm", 4);
+    }
+
+
+    public void testLoop() throws Exception
+    {
+        check("stack/loop01.asm", 112);
+    }
+
+
+    public void testInterrupt() throws Exception
+    {
+        check("stack/int01.asm", 2);
+    }
+
+
+    public void testUnbounded() throws Exception
+    {
+        // the loop pushes a byte in every iteration
+        check("stack/infinite01.asm", -1);
+    }
+
+
+    public void testSurge() throws Exception
+    {
+        check("tinyos/Surge.elf", 8);
+    }
+
+
+    public void testLongPath() throws Exception
+    {
+        // the longest path is long enough to overflow a recursive search
+        File f = File.createTempFile("analyzer", ".asm");
+        f.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(f));
+        out.println("    call test");
+        out.println("    break");
+        out.println("test:");
+        for (int i = 0; i < 50000; i++)
+            out.println("    inc r16");
+        out.println("    ret");
+        out.close();
+        check(read("atmel", f), 2);
+    }
+}
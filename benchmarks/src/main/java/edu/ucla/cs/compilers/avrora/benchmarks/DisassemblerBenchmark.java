@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyDisassembler;
+import edu.ucla.cs.compilers.avrora.avrora.arch.legacy.LegacyInstr;
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+
+/**
+ * The <code>DisassemblerBenchmark</code> measures the decoding of the code of
+ * a TinyOS program, one instruction after another.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisassemblerBenchmark
+{
+
+    @Param({ "tinyos/CntToRfm.elf", "tinyos/TestTinySec.elf" })
+    public String program;
+
+    private byte[] code;
+    private LegacyDisassembler disassembler;
+
+
+    @Setup
+    public void setup() throws Exception
+    {
+        Program p = Workloads.load("elf", program);
+        code = new byte[p.program_end - p.program_start + 4];
+        for (int i = p.program_start; i < p.program_end; i++)
+            code[i - p.program_start] = p.readProgramByte(i);
+        disassembler = new LegacyDisassembler();
+    }
+
+
+    @Benchmark
+    public int decode()
+    {
+        int count = 0;
+        for (int i = 0; i < code.length - 4;)
+        {
+            LegacyInstr instr = disassembler.disassembleLegacy(code, 0, i);
+            if (instr == null)
+            {
+                i += 2;
+                continue;
+            }
+            i += instr.getSize();
+            count++;
+        }
+        return count;
+    }
+}
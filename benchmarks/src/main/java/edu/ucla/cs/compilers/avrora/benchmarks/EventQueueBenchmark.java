@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulator;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.DeltaQueue;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.EventQueue;
+import edu.ucla.cs.compilers.avrora.avrora.sim.clock.TimingWheelQueue;
+
+/**
+ * The <code>EventQueueBenchmark</code> measures the event queues with a mix of
+ * events like that of a simulated node: periodic timers that reschedule
+ * themselves when they fire, and timeouts that are scheduled at random delays
+ * and are mostly cancelled or rescheduled before they fire. The clock advances
+ * in small steps, as it does between instructions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventQueueBenchmark
+{
+
+    private static final int TIMEOUTS = 256;
+    private static final int STEPS = 1024;
+
+    @Param({ "delta", "wheel" })
+    public String queue;
+
+    @Param({ "4", "32" })
+    public int timers;
+
+    private EventQueue events;
+    private Timeout[] timeouts;
+    private long[] delays;
+    private int next;
+
+
+    /**
+     * The <code>Periodic</code> event reschedules itself with a fixed period,
+     * like the timer and the radio byte clock of a node.
+     */
+    class Periodic implements Simulator.Event
+    {
+        final long period;
+
+
+        Periodic(long p)
+        {
+            period = p;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            events.insertEvent(this, period);
+        }
+    }
+
+    /**
+     * The <code>Timeout</code> event is scheduled once and usually cancelled
+     * before it fires.
+     */
+    static class Timeout implements Simulator.Event
+    {
+        int fired;
+
+
+        @Override
+        public void fire()
+        {
+            fired++;
+        }
+    }
+
+
+    @Setup
+    public void setup()
+    {
+        events = "wheel".equals(queue) ? new TimingWheelQueue()
+                : new DeltaQueue();
+        Random r = new Random(1);
+        long[] periods = { 8, 64, 384, 1024, 7373, 65536 };
+        for (int i = 0; i < timers; i++)
+        {
+            long p = periods[i % periods.length] + r.nextInt(16);
+            events.insertEvent(new Periodic(p), 1 + r.nextInt((int) p));
+        }
+        timeouts = new Timeout[TIMEOUTS];
+        delays = new long[TIMEOUTS];
+        for (int i = 0; i < TIMEOUTS; i++)
+        {
+            timeouts[i] = new Timeout();
+            delays[i] = 50 + r.nextInt(20000);
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long mix()
+    {
+        for (int i = 0; i < STEPS; i++)
+        {
+            int n = next++ & (TIMEOUTS - 1);
+            Timeout t = timeouts[n];
+            if ((n & 3) != 0)
+            {
+                // cancel or reschedule an earlier timeout
+                events.removeEvent(t);
+                events.insertEvent(t, delays[n]);
+            } else
+            {
+                // schedule a timeout that fires soon
+                events.insertEvent(t, 1 + (n & 63));
+            }
+            events.advance(1 + (n & 7));
+        }
+        return events.getCount();
+    }
+}
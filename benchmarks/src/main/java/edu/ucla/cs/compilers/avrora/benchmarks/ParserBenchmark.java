@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+
+/**
+ * The <code>ParserBenchmark</code> measures the program readers: the ELF
+ * loader, the parser for preprocessed objdump output and the parser for Atmel
+ * assembly. The assembly program is generated, since the test programs in that
+ * format are only a few lines long.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+
+    private static final int BLOCKS = 500;
+
+    @Param({ "elf", "odpp", "atmel" })
+    public String input;
+
+    private String fname;
+
+
+    @Setup
+    public void setup() throws IOException
+    {
+        if ("elf".equals(input))
+            fname = Workloads.file("tinyos/TestTinySec.elf");
+        else if ("odpp".equals(input))
+            fname = Workloads.file("disassembler/rcall.instr.tst");
+        else
+            fname = generateAssembly();
+    }
+
+
+    private static String generateAssembly() throws IOException
+    {
+        File f = File.createTempFile("avrora-bench", ".asm");
+        f.deleteOnExit();
+        FileWriter w = new FileWriter(f);
+        try
+        {
+            w.write("start:\n    ldi r21, 255\n    out spl, r21\n");
+            for (int i = 0; i < BLOCKS; i++)
+            {
+                w.write("block" + i + ":\n");
+                w.write("    ldi r16, " + (i & 0xff) + "\n");
+                w.write("    add r16, r17\n");
+                w.write("    brne block" + i + "\n");
+                w.write("    rcall sub" + i + "\n");
+                w.write("    rjmp next" + i + "\n");
+                w.write("sub" + i + ":\n");
+                w.write("    push r16\n    pop r16\n    ret\n");
+                w.write("next" + i + ":\n");
+            }
+            w.write("end:\n    break\n");
+        }
+        finally
+        {
+            w.close();
+        }
+        return f.getPath();
+    }
+
+
+    @Benchmark
+    public Program parse() throws Exception
+    {
+        return Workloads.read(input, fname);
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2004-2005, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of the University of California, Los Angeles nor the
+ * names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucla.cs.compilers.avrora.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.ucla.cs.compilers.avrora.avrora.Defaults;
+import edu.ucla.cs.compilers.avrora.avrora.core.Program;
+import edu.ucla.cs.compilers.avrora.avrora.core.ProgramReader;
+import edu.ucla.cs.compilers.avrora.avrora.sim.Simulation;
+import edu.ucla.cs.compilers.avrora.cck.util.Options;
+import edu.ucla.cs.compilers.avrora.cck.util.Util;
+
+/**
+ * The <code>Workloads</code> class provides the programs and simulations that
+ * the benchmarks run. The programs are the test programs that ship with
+ * avrora; they are copied from the class path into temporary files, since the
+ * program readers and simulations load programs by file name.
+ */
+final class Workloads
+{
+
+    private static final String BASE = "edu/ucla/cs/compilers/avrora/test/";
+    private static final Map<String, String> files = new HashMap<String, String>();
+
+
+    private Workloads()
+    {
+    }
+
+
+    /**
+     * The <code>file()</code> method returns the name of a temporary file that
+     * holds the specified test program.
+     *
+     * @param name the path of the program relative to the test directory, e.g.
+     *            <code>tinyos/Surge.elf</code>
+     * @return the name of a file with the contents of the program
+     * @throws IOException if the program cannot be copied
+     */
+    static synchronized String file(String name) throws IOException
+    {
+        String fname = files.get(name);
+        if (fname == null)
+        {
+            InputStream in = Workloads.class.getClassLoader()
+                    .getResourceAsStream(BASE + name);
+            if (in == null)
+                Util.userError("Test program not found", name);
+            int dot = name.lastIndexOf('.');
+            File f = File.createTempFile("avrora-bench", name.substring(dot));
+            f.deleteOnExit();
+            OutputStream out = new FileOutputStream(f);
+            try
+            {
+                byte[] buf = new byte[65536];
+                for (int len; (len = in.read(buf)) > 0;)
+                    out.write(buf, 0, len);
+            }
+            finally
+            {
+                out.close();
+                in.close();
+            }
+            fname = f.getPath();
+            files.put(name, fname);
+        }
+        return fname;
+    }
+
+
+    /**
+     * The <code>load()</code> method loads a test program with the specified
+     * program reader.
+     *
+     * @param input the name of the input format, e.g. <code>elf</code>
+     * @param name the path of the program relative to the test directory
+     * @return the loaded program
+     * @throws Exception if the program cannot be loaded
+     */
+    static Program load(String input, String name) throws Exception
+    {
+        return read(input, file(name));
+    }
+
+
+    /**
+     * The <code>read()</code> method reads a program from a file with the
+     * specified program reader.
+     *
+     * @param input the name of the input format, e.g. <code>elf</code>
+     * @param fname the name of the file
+     * @return the loaded program
+     * @throws Exception if the program cannot be loaded
+     */
+    static Program read(String input, String fname) throws Exception
+    {
+        ProgramReader reader = Defaults.getProgramReader(input);
+        return reader.read(new String[] { fname });
+    }
+
+
+    /**
+     * The <code>simulate()</code> method runs a simulation to completion. The
+     * options must include a termination condition such as
+     * <code>seconds</code>.
+     *
+     * @param type the type of the simulation, e.g. <code>single</code>
+     * @param options the names and values of the options of the simulation
+     * @param programs the paths of the programs relative to the test directory
+     * @return the simulation after it has finished
+     * @throws Exception if the simulation cannot be created
+     */
+    static Simulation simulate(String type, String[] options,
+            String... programs) throws Exception
+    {
+        Options o = new Options();
+        for (int i = 0; i < options.length; i += 2)
+            o.setOption(options[i], options[i + 1]);
+        String[] args = new String[programs.length];
+        for (int i = 0; i < programs.length; i++)
+            args[i] = file(programs[i]);
+        Simulation sim = Defaults.getSimulation(type);
+        sim.process(o, args);
+        sim.start();
+        sim.join();
+        return sim;
+    }
+}